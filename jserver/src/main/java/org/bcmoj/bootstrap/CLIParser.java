@@ -18,6 +18,44 @@ public class CLIParser {
         options.addOption(Option.builder().longOpt("comp").hasArg().argName("FILE").desc("Path to the C++ compiler executable to use for code compilation (default: g++)").build());
         options.addOption(Option.builder().longOpt("std").hasArg().argName("STD").desc("C++ standard to use for compilation (e.g., c++11, c++17; default: c++11)").build());
         options.addOption(Option.builder().longOpt("netty-threads").hasArg().argName("THREADS").desc("Number of Netty I/O worker threads to use for networking (e.g., 4). If omitted, Netty's default is used.").build());
+        options.addOption(Option.builder().longOpt("transport").hasArg().argName("TYPE").desc("Network transport: nio, epoll (Linux native, edge-triggered) or auto; falls back to nio if epoll is unavailable (default: nio)").build());
+        options.addOption(Option.builder().longOpt("acceptors").hasArg().argName("COUNT").desc("Number of listening sockets bound to the port with SO_REUSEPORT, each with its own accept thread; requires the epoll transport (default: 1)").build());
+        options.addOption(Option.builder().longOpt("unix-socket").hasArg().argName("PATH").desc("Also listen on a Unix domain socket at this path, for front ends on the same host").build());
+        options.addOption(Option.builder().longOpt("unix-socket-perms").hasArg().argName("PERMS").desc("Permissions of the Unix domain socket file (default: rw-rw----)").build());
+        options.addOption(Option.builder().longOpt("no-tcp").desc("Do not listen on host:port; only serve the Unix domain socket").build());
+        options.addOption(Option.builder().longOpt("judge-threads").hasArg().argName("THREADS").desc("Maximum number of submissions judged concurrently across all connections (default: number of CPU cores)").build());
+        options.addOption(Option.builder().longOpt("judge-queue-size").hasArg().argName("SIZE").desc("Maximum number of submissions waiting for a judge thread before new ones are rejected (default: 64)").build());
+        options.addOption(Option.builder().longOpt("admission-max-wait-ms").hasArg().argName("MS").desc("Reject new submissions with a busy response when their estimated queueing delay exceeds this many milliseconds (default: 0 = only when the judge queue is full)").build());
+        options.addOption(Option.builder().longOpt("default-priority").hasArg().argName("CLASS").desc("Priority class of submissions that do not request one: contest, practice or rejudge (default: practice)").build());
+        options.addOption(Option.builder().longOpt("max-priority").hasArg().argName("CLASS").desc("Highest priority class TCP clients may claim; higher requests are lowered to it. Unix domain socket clients may claim any class (default: contest)").build());
+        options.addOption(Option.builder().longOpt("priority-aging-ms").hasArg().argName("MS").desc("Waiting time after which a queued submission ranks like a new one of the next higher priority class; 0 = first come, first served (default: 30000)").build());
+        options.addOption(Option.builder().longOpt("run-slots").hasArg().argName("SLOTS").desc("Number of checkpoints run concurrently across all submissions (default: 0 = one per physical CPU core)").build());
+        options.addOption(Option.builder().longOpt("run-cpus").hasArg().argName("LIST").desc("CPUs checkpoint programs are started on, e.g. 2-7; keep disjoint from --compile-cpus to reserve them for timed runs (default: any CPU)").build());
+        options.addOption(Option.builder().longOpt("isolate-runs").desc("Give every run slot a dedicated CPU of --run-cpus (default: all physical cores but the first), keep the server and compilers off those CPUs and disable address space randomization of checkpoint programs, for steadier timings").build());
+        options.addOption(Option.builder().longOpt("wall-time-factor").hasArg().argName("N").desc("Where the CPU time of checkpoint programs is measured, the time limit applies to CPU time and a program is stopped after N times the limit of wall-clock time (default: 3)").build());
+        options.addOption(Option.builder().longOpt("compile-concurrency").hasArg().argName("N").desc("Number of compilations run concurrently across all submissions (default: 0 = one per compile CPU, or the judge thread count)").build());
+        options.addOption(Option.builder().longOpt("compile-cpus").hasArg().argName("LIST").desc("CPUs compilers are started on, e.g. 0-1 (default: any CPU)").build());
+        options.addOption(Option.builder().longOpt("compile-timeout-ms").hasArg().argName("MS").desc("Time a compilation may take before it is killed and reported as compile resource exceeded (default: 10000)").build());
+        options.addOption(Option.builder().longOpt("compile-memory-bytes").hasArg().argName("BYTES").desc("Memory cap of the compiler and its child processes, without swap, enforced by a cgroup; 0 = unlimited (default: 1073741824)").build());
+        options.addOption(Option.builder().longOpt("compile-cpu-percent").hasArg().argName("PERCENT").desc("CPU cap of each compilation in percent of one core, enforced by a cgroup; 0 = unlimited (default: 0)").build());
+        options.addOption(Option.builder().longOpt("compile-max-pids").hasArg().argName("N").desc("Maximum number of processes and threads of each compilation, enforced by a cgroup; 0 = unlimited (default: 64)").build());
+        options.addOption(Option.builder().longOpt("compile-output-bytes").hasArg().argName("BYTES").desc("Compiler diagnostics logged per compilation; the rest is discarded; 0 = unlimited (default: 65536)").build());
+        options.addOption(Option.builder().longOpt("in-memory-source-limit").hasArg().argName("BYTES").desc("Largest submission in bytes kept in memory until compilation; larger uploads are streamed to disk (default: 65536)").build());
+        options.addOption(Option.builder().longOpt("workspace-dir").hasArg().argName("DIR").desc("Directory where in-memory sources are written for the compiler, ideally on tmpfs (default: /dev/shm if writable, else the system temp directory)").build());
+        options.addOption(Option.builder().longOpt("checkpoint-cache-bytes").hasArg().argName("BYTES").desc("Memory budget of the cache that lets clients send checkpoint data by SHA-256 digest; 0 disables it (default: 268435456)").build());
+        options.addOption(Option.builder().longOpt("problem-dir").hasArg().argName("DIR").desc("Directory of the versioned problem packages that requests can refer to by problem id (default: problems)").build());
+        options.addOption(Option.builder().longOpt("legacy-extended-digests").desc("Also accept crc32c and +config declared hashes from legacy clients; every legacy upload is then hashed with all of them, since the hash arrives after the data (default: SHA-256 of the source only)").build());
+        options.addOption(Option.builder().longOpt("config-spill-threshold").hasArg().argName("BYTES").desc("JSON configs larger than this are parsed while they arrive and their checkpoint data is written to the workspace; 0 disables it (default: 1048576)").build());
+        options.addOption(Option.builder().longOpt("verdict-cache-entries").hasArg().argName("N").desc("Number of judge results kept for identical resubmissions of the same source and config; 0 disables it (default: 0)").build());
+        options.addOption(Option.builder().longOpt("verdict-cache-ttl-ms").hasArg().argName("MS").desc("Time after which a cached judge result is no longer used (default: 600000)").build());
+        options.addOption(Option.builder().longOpt("binary-cache-dir").hasArg().argName("DIR").desc("Keep compiled executables in this directory, keyed by source, compiler version and flags, so resubmissions and rejudges skip compilation (default: disabled)").build());
+        options.addOption(Option.builder().longOpt("binary-cache-bytes").hasArg().argName("BYTES").desc("Disk budget of the executable cache; the least recently used executables are deleted beyond it (default: 1073741824)").build());
+        options.addOption(Option.builder().longOpt("pch-dir").hasArg().argName("DIR").desc("Build precompiled bits/stdc++.h headers for the compiler settings in this directory and compile submissions that include it against them (default: disabled)").build());
+        options.addOption(Option.builder().longOpt("ticket-dir").hasArg().argName("DIR").desc("Accept asynchronous submissions (\"async\": true) and keep their journal in this directory, so accepted submissions survive a restart (default: disabled)").build());
+        options.addOption(Option.builder().longOpt("ticket-callback-url").hasArg().argName("URL").desc("Local HTTP endpoint that receives the result of every asynchronous submission as a JSON POST (default: none, results are fetched by ticket)").build());
+        options.addOption(Option.builder().longOpt("ticket-max-pending").hasArg().argName("N").desc("Maximum number of asynchronous submissions waiting to be judged (default: 10000)").build());
+        options.addOption(Option.builder().longOpt("ticket-result-ttl-ms").hasArg().argName("MS").desc("Time the result of an asynchronous submission can be fetched after it finished (default: 3600000)").build());
+        options.addOption(Option.builder().longOpt("import-problem").hasArg().argName("PATH").desc("Import a problem package (zip or directory with an index.json) into the problem directory and exit").build());
         options.addOption(Option.builder().longOpt("disable-security-args").desc("Disable additional compiler security arguments").build());
         options.addOption(Option.builder().longOpt("disable-mem-limit").desc("Disable memory limit for the judging process").build());
         options.addOption(Option.builder().longOpt("use-old-format").desc("Use the old judging request/response format (1.0.12-beta and below).").build());
@@ -48,6 +86,43 @@ public class CLIParser {
         if (cmd.hasOption("disable-mem-limit")) props.setProperty("disable_mem_limit", "true");
         if (cmd.hasOption("use-old-format")) props.setProperty("use_old_format", "true");
         if (cmd.hasOption("netty-threads")) props.setProperty("netty_threads", cmd.getOptionValue("netty-threads"));
+        if (cmd.hasOption("transport")) props.setProperty("transport", cmd.getOptionValue("transport"));
+        if (cmd.hasOption("acceptors")) props.setProperty("acceptors", cmd.getOptionValue("acceptors"));
+        if (cmd.hasOption("unix-socket")) props.setProperty("unix_socket", cmd.getOptionValue("unix-socket"));
+        if (cmd.hasOption("unix-socket-perms")) props.setProperty("unix_socket_perms", cmd.getOptionValue("unix-socket-perms"));
+        if (cmd.hasOption("no-tcp")) props.setProperty("no_tcp", "true");
+        if (cmd.hasOption("judge-threads")) props.setProperty("judge_threads", cmd.getOptionValue("judge-threads"));
+        if (cmd.hasOption("run-slots")) props.setProperty("run_slots", cmd.getOptionValue("run-slots"));
+        if (cmd.hasOption("run-cpus")) props.setProperty("run_cpus", cmd.getOptionValue("run-cpus"));
+        if (cmd.hasOption("isolate-runs")) props.setProperty("isolate_runs", "true");
+        if (cmd.hasOption("wall-time-factor")) props.setProperty("wall_time_factor", cmd.getOptionValue("wall-time-factor"));
+        if (cmd.hasOption("compile-concurrency")) props.setProperty("compile_concurrency", cmd.getOptionValue("compile-concurrency"));
+        if (cmd.hasOption("compile-cpus")) props.setProperty("compile_cpus", cmd.getOptionValue("compile-cpus"));
+        if (cmd.hasOption("compile-timeout-ms")) props.setProperty("compile_timeout_ms", cmd.getOptionValue("compile-timeout-ms"));
+        if (cmd.hasOption("compile-memory-bytes")) props.setProperty("compile_memory_bytes", cmd.getOptionValue("compile-memory-bytes"));
+        if (cmd.hasOption("compile-cpu-percent")) props.setProperty("compile_cpu_percent", cmd.getOptionValue("compile-cpu-percent"));
+        if (cmd.hasOption("compile-max-pids")) props.setProperty("compile_max_pids", cmd.getOptionValue("compile-max-pids"));
+        if (cmd.hasOption("compile-output-bytes")) props.setProperty("compile_output_bytes", cmd.getOptionValue("compile-output-bytes"));
+        if (cmd.hasOption("in-memory-source-limit")) props.setProperty("in_memory_source_limit", cmd.getOptionValue("in-memory-source-limit"));
+        if (cmd.hasOption("workspace-dir")) props.setProperty("workspace_dir", cmd.getOptionValue("workspace-dir"));
+        if (cmd.hasOption("admission-max-wait-ms")) props.setProperty("admission_max_wait_ms", cmd.getOptionValue("admission-max-wait-ms"));
+        if (cmd.hasOption("default-priority")) props.setProperty("default_priority", cmd.getOptionValue("default-priority"));
+        if (cmd.hasOption("max-priority")) props.setProperty("max_priority", cmd.getOptionValue("max-priority"));
+        if (cmd.hasOption("priority-aging-ms")) props.setProperty("priority_aging_ms", cmd.getOptionValue("priority-aging-ms"));
+        if (cmd.hasOption("checkpoint-cache-bytes")) props.setProperty("checkpoint_cache_bytes", cmd.getOptionValue("checkpoint-cache-bytes"));
+        if (cmd.hasOption("problem-dir")) props.setProperty("problem_dir", cmd.getOptionValue("problem-dir"));
+        if (cmd.hasOption("verdict-cache-entries")) props.setProperty("verdict_cache_entries", cmd.getOptionValue("verdict-cache-entries"));
+        if (cmd.hasOption("verdict-cache-ttl-ms")) props.setProperty("verdict_cache_ttl_ms", cmd.getOptionValue("verdict-cache-ttl-ms"));
+        if (cmd.hasOption("binary-cache-dir")) props.setProperty("binary_cache_dir", cmd.getOptionValue("binary-cache-dir"));
+        if (cmd.hasOption("binary-cache-bytes")) props.setProperty("binary_cache_bytes", cmd.getOptionValue("binary-cache-bytes"));
+        if (cmd.hasOption("pch-dir")) props.setProperty("pch_dir", cmd.getOptionValue("pch-dir"));
+        if (cmd.hasOption("ticket-dir")) props.setProperty("ticket_dir", cmd.getOptionValue("ticket-dir"));
+        if (cmd.hasOption("ticket-callback-url")) props.setProperty("ticket_callback_url", cmd.getOptionValue("ticket-callback-url"));
+        if (cmd.hasOption("ticket-max-pending")) props.setProperty("ticket_max_pending", cmd.getOptionValue("ticket-max-pending"));
+        if (cmd.hasOption("ticket-result-ttl-ms")) props.setProperty("ticket_result_ttl_ms", cmd.getOptionValue("ticket-result-ttl-ms"));
+        if (cmd.hasOption("config-spill-threshold")) props.setProperty("config_spill_threshold", cmd.getOptionValue("config-spill-threshold"));
+        if (cmd.hasOption("legacy-extended-digests")) props.setProperty("legacy_extended_digests", "true");
+        if (cmd.hasOption("judge-queue-size")) props.setProperty("judge_queue_size", cmd.getOptionValue("judge-queue-size"));
 
         return props;
     }
@@ -5,10 +5,14 @@ import org.apache.commons.cli.CommandLine;
 import org.apache.logging.log4j.Level;
 import org.apache.logging.log4j.core.config.Configurator;
 import org.bcmoj.config.ServerConfig;
+import org.bcmoj.problem.ProblemPackage;
+import org.bcmoj.problem.ProblemRepository;
+import org.bcmoj.scheduler.JudgeTaskScheduler;
 import org.bcmoj.utils.ComplierCheckUtil;
 import org.bcmoj.utils.KeywordFileUtil;
 import org.bcmoj.utils.PropertiesExportUtil;
 
+import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
 import java.util.ArrayList;
@@ -42,32 +46,63 @@ public class Initialize {
             }
         }
 
+        String problemDir = props.getProperty("problem_dir", "problems");
+        if (cmd.hasOption("import-problem")) {
+            importProblem(problemDir, cmd.getOptionValue("import-problem"));
+            return;
+        }
+
         String host = props.getProperty("host");
         String portStr = props.getProperty("port");
         String kwFile = props.getProperty("kwfile");
         String compilerPath = props.getProperty("CompilerPath", "g++");
         String cppStandard = props.getProperty("CppStandard", "c++11");
-        String nettyThreadsStr = props.getProperty("netty-threads");
         boolean disableSecArgs = cmd.hasOption("disable-security-args");
         boolean disableMemLimit = cmd.hasOption("disable-mem-limit");
         boolean useOldFormat = cmd.hasOption("use-old-format");
-        int nettyThreads = 1;
-        if (nettyThreadsStr != null) {
-            try {
-                nettyThreads = Integer.parseInt(nettyThreadsStr);
-                if (nettyThreads < 1) {
-                    log.warn("Invalid netty-threads '{}', must be >=1. Using default 1.", nettyThreadsStr);
-                    nettyThreads = 1;
-                }
-            } catch (NumberFormatException e) {
-                log.warn("Invalid netty-threads '{}', using default 1.", nettyThreadsStr);
-            }
-        }
+        int nettyThreads = parseIntProperty(props, "netty_threads", 0, 0);
+        String transport = props.getProperty("transport", "nio");
+        int acceptors = parseIntProperty(props, "acceptors", 1, 1);
+        String unixSocket = props.getProperty("unix_socket");
+        String unixSocketPerms = props.getProperty("unix_socket_perms", "rw-rw----");
+        boolean noTcp = Boolean.parseBoolean(props.getProperty("no_tcp"));
+        int judgeThreads = parseIntProperty(props, "judge_threads", Runtime.getRuntime().availableProcessors(), 1);
+        int judgeQueueSize = parseIntProperty(props, "judge_queue_size", 64, 1);
+        int admissionMaxWaitMs = parseIntProperty(props, "admission_max_wait_ms", 0, 0);
+        String defaultPriority = props.getProperty("default_priority", "practice");
+        String maxPriority = props.getProperty("max_priority", "contest");
+        int priorityAgingMs = parseIntProperty(props, "priority_aging_ms", (int) JudgeTaskScheduler.DEFAULT_AGING_MS, 0);
+        int runSlots = parseIntProperty(props, "run_slots", 0, 0);
+        String runCpus = props.getProperty("run_cpus");
+        boolean isolateRuns = Boolean.parseBoolean(props.getProperty("isolate_runs"));
+        int wallTimeFactor = parseIntProperty(props, "wall_time_factor", 3, 1);
+        int compileConcurrency = parseIntProperty(props, "compile_concurrency", 0, 0);
+        String compileCpus = props.getProperty("compile_cpus");
+        int compileTimeoutMs = parseIntProperty(props, "compile_timeout_ms", 10_000, 1);
+        int compileMemoryBytes = parseIntProperty(props, "compile_memory_bytes", 1024 * 1024 * 1024, 0);
+        int compileCpuPercent = parseIntProperty(props, "compile_cpu_percent", 0, 0);
+        int compileMaxPids = parseIntProperty(props, "compile_max_pids", 64, 0);
+        int compileOutputBytes = parseIntProperty(props, "compile_output_bytes", 64 * 1024, 0);
+        int inMemorySourceLimit = parseIntProperty(props, "in_memory_source_limit", 64 * 1024, 0);
+        String workspaceDir = props.getProperty("workspace_dir", ServerConfig.defaultWorkspaceDir());
+        int checkpointCacheBytes = parseIntProperty(props, "checkpoint_cache_bytes", 256 * 1024 * 1024, 0);
+        int configSpillThreshold = parseIntProperty(props, "config_spill_threshold", 1024 * 1024, 0);
+        boolean legacyExtendedDigests = Boolean.parseBoolean(props.getProperty("legacy_extended_digests"));
+        int verdictCacheEntries = parseIntProperty(props, "verdict_cache_entries", 0, 0);
+        int verdictCacheTtlMs = parseIntProperty(props, "verdict_cache_ttl_ms", 10 * 60 * 1000, 1);
+        String binaryCacheDir = props.getProperty("binary_cache_dir");
+        int binaryCacheBytes = parseIntProperty(props, "binary_cache_bytes", 1024 * 1024 * 1024, 1);
+        String pchDir = props.getProperty("pch_dir");
+        String ticketDir = props.getProperty("ticket_dir");
+        String ticketCallbackUrl = props.getProperty("ticket_callback_url");
+        int ticketMaxPending = parseIntProperty(props, "ticket_max_pending", 10_000, 1);
+        int ticketResultTtlMs = parseIntProperty(props, "ticket_result_ttl_ms", 60 * 60 * 1000, 1);
 
-        if ((host == null || portStr == null || kwFile == null) && configFilePath == null) {
+        if (((!noTcp && (host == null || portStr == null)) || (noTcp && unixSocket == null) || kwFile == null) && configFilePath == null) {
             List<String> missing = new ArrayList<>();
-            if (host == null) missing.add("host");
-            if (portStr == null) missing.add("port");
+            if (!noTcp && host == null) missing.add("host");
+            if (!noTcp && portStr == null) missing.add("port");
+            if (noTcp && unixSocket == null) missing.add("unix-socket");
             if (kwFile == null) missing.add("kwfile");
 
             log.error("Missing required parameters: {}", String.join(", ", missing));
@@ -83,13 +118,48 @@ public class Initialize {
             log.debug("Compiler path: {}", compilerPath.equals("g++") ? compilerPath + " (default value)" : compilerPath);
             log.debug("C++ standard: {}", cppStandard.equals("c++11") ? cppStandard + " (default value)" : cppStandard);
             log.debug("Config file: {}", configFilePath != null ? configFilePath : "none");
-            log.debug("Netty threads: {}{}", nettyThreads, nettyThreads == 1 ? " (default value)" : "");
+            log.debug("Netty threads: {}", nettyThreads == 0 ? "Netty default (default value)" : nettyThreads);
+            log.debug("Transport: {}", transport);
+            log.debug("Acceptors: {}", acceptors);
+            log.debug("Unix socket: {}", unixSocket != null ? unixSocket + " (" + unixSocketPerms + ")" : "none");
+            log.debug("TCP listener: {}", noTcp ? "disabled" : "enabled");
+            log.debug("Judge threads: {}", judgeThreads);
+            log.debug("Judge queue size: {}", judgeQueueSize);
+            log.debug("Admission max wait: {}", admissionMaxWaitMs == 0 ? "none (default value)" : admissionMaxWaitMs + " ms");
+            log.debug("Default priority: {}", defaultPriority);
+            log.debug("Max priority of TCP clients: {}", maxPriority);
+            log.debug("Priority aging: {} ms", priorityAgingMs);
+            log.debug("Run slots: {}", runSlots == 0 ? "auto (one per physical core)" : runSlots);
+            log.debug("Run CPUs: {}", runCpus == null ? "any (default value)" : runCpus);
+            log.debug("Run isolation: {}", isolateRuns ? "enabled" : "disabled");
+            log.debug("Wall time factor: {}", wallTimeFactor);
+            log.debug("Compile concurrency: {}", compileConcurrency == 0 ? "auto (default value)" : compileConcurrency);
+            log.debug("Compile CPUs: {}", compileCpus == null ? "any (default value)" : compileCpus);
+            log.debug("Compile timeout: {} ms", compileTimeoutMs);
+            log.debug("Compile caps: memory={}, cpu={}, pids={}, output={}", compileMemoryBytes == 0 ? "unlimited" : compileMemoryBytes + " bytes", compileCpuPercent == 0 ? "unlimited" : compileCpuPercent + "%", compileMaxPids == 0 ? "unlimited" : compileMaxPids, compileOutputBytes == 0 ? "unlimited" : compileOutputBytes + " bytes");
+            log.debug("In-memory source limit: {} bytes", inMemorySourceLimit);
+            log.debug("Workspace dir: {}", workspaceDir);
+            log.debug("Checkpoint cache: {}", checkpointCacheBytes == 0 ? "disabled" : checkpointCacheBytes + " bytes");
+            log.debug("Problem dir: {}", problemDir);
+            log.debug("Config spill threshold: {}", configSpillThreshold == 0 ? "disabled" : configSpillThreshold + " bytes");
+            log.debug("Legacy extended digests: {}", legacyExtendedDigests ? "enabled" : "disabled");
+            log.debug("Verdict cache: {}", verdictCacheEntries == 0 ? "disabled (default value)" : verdictCacheEntries + " entries, " + verdictCacheTtlMs + " ms TTL");
+            log.debug("Binary cache: {}", binaryCacheDir == null ? "disabled (default value)" : binaryCacheDir + " (" + binaryCacheBytes + " bytes)");
+            log.debug("Precompiled headers: {}", pchDir == null ? "disabled (default value)" : pchDir);
+            log.debug("Async tickets: {}", ticketDir == null ? "disabled (default value)" : ticketDir + " (max " + ticketMaxPending + " pending, results kept " + ticketResultTtlMs + " ms)");
+            log.debug("Ticket callback: {}", ticketCallbackUrl != null ? ticketCallbackUrl : "none");
             log.debug("--------------------------------");
         }
 
-        int port;
+        if (noTcp && unixSocket == null) {
+            log.error("--no-tcp requires --unix-socket");
+            System.exit(1);
+        }
+        int port = 0;
         try {
-            port = Integer.parseInt(Objects.requireNonNull(portStr));
+            if (portStr != null || !noTcp) {
+                port = Integer.parseInt(Objects.requireNonNull(portStr));
+            }
         } catch (NumberFormatException e) {
             log.error("Invalid port number: {}", portStr);
             System.exit(1);
@@ -105,7 +175,7 @@ public class Initialize {
             }
             return;
         }
-        ServerConfig config = ServerConfig.builder().host(host).port(port).keywordFilePath(kwFile).compilerPath(compilerPath).cppStandard(cppStandard).nettyThreads(nettyThreads).disableSecurityArgs(disableSecArgs).disableMemLimit(disableMemLimit).useOldFormat(useOldFormat).build();
+        ServerConfig config = ServerConfig.builder().host(host).port(port).keywordFilePath(kwFile).compilerPath(compilerPath).cppStandard(cppStandard).nettyThreads(nettyThreads).transport(transport).acceptors(acceptors).unixSocketPath(unixSocket).unixSocketPermissions(unixSocketPerms).disableTcp(noTcp).judgeThreads(judgeThreads).judgeQueueSize(judgeQueueSize).admissionMaxWaitMs(admissionMaxWaitMs).defaultPriority(defaultPriority).maxPriority(maxPriority).priorityAgingMs(priorityAgingMs).runSlots(runSlots).runCpus(runCpus).isolateRuns(isolateRuns).wallTimeFactor(wallTimeFactor).compileConcurrency(compileConcurrency).compileCpus(compileCpus).compileTimeoutMs(compileTimeoutMs).compileMemoryBytes(compileMemoryBytes).compileCpuPercent(compileCpuPercent).compileMaxPids(compileMaxPids).compileOutputBytes(compileOutputBytes).inMemorySourceLimit(inMemorySourceLimit).workspaceDir(workspaceDir).checkpointCacheBytes(checkpointCacheBytes).problemDir(problemDir).configSpillThreshold(configSpillThreshold).legacyExtendedDigests(legacyExtendedDigests).verdictCacheEntries(verdictCacheEntries).verdictCacheTtlMs(verdictCacheTtlMs).binaryCacheDir(binaryCacheDir).binaryCacheBytes(binaryCacheBytes).pchDir(pchDir).ticketDir(ticketDir).ticketCallbackUrl(ticketCallbackUrl).ticketMaxPending(ticketMaxPending).ticketResultTtlMs(ticketResultTtlMs).disableSecurityArgs(disableSecArgs).disableMemLimit(disableMemLimit).useOldFormat(useOldFormat).build();
         ServerLauncher.launch(config);
     }
 
@@ -118,6 +188,42 @@ public class Initialize {
         }
     }
 
+    /**
+     * Reads an integer property, falling back to the default when it is missing,
+     * malformed or below the allowed minimum.
+     */
+    private static int parseIntProperty(Properties props, String key, int defaultValue, int min) {
+        String value = props.getProperty(key);
+        if (value == null) {
+            return defaultValue;
+        }
+        try {
+            int parsed = Integer.parseInt(value.trim());
+            if (parsed < min) {
+                log.warn("Invalid {} '{}', must be >={}. Using default {}.", key, value, min, defaultValue);
+                return defaultValue;
+            }
+            return parsed;
+        } catch (NumberFormatException e) {
+            log.warn("Invalid {} '{}', using default {}.", key, value, defaultValue);
+            return defaultValue;
+        }
+    }
+
+    /**
+     * Imports a problem package into the problem repository and exits.
+     */
+    private static void importProblem(String problemDir, String packagePath) {
+        try {
+            ProblemPackage imported = new ProblemRepository(new File(problemDir)).importPackage(new File(packagePath));
+            log.info("Problem {} version {} is now available in {}", imported.getProblemId(), imported.getVersion(), problemDir);
+            System.exit(0);
+        } catch (IOException e) {
+            log.error("Failed to import problem package '{}': {}", packagePath, e.getMessage());
+            System.exit(1);
+        }
+    }
+
     private static void initKeywordFile(String kwFile) {
         try {
             if (KeywordFileUtil.createDefaultIfNotExists(kwFile)) {
@@ -139,12 +245,12 @@ public class Initialize {
                 if (major < 4 || (major == 4 && minor < 9)) {
                     log.warn("Detected g++ version {} is older than 4.9.0. \nCompiler security flags will be automatically disabled.", gppVersion);
                     boolean newDisableFlag = true;
-                    return ServerConfig.builder().host(config.getHost()).port(config.getPort()).keywordFilePath(config.getKeywordFilePath()).compilerPath(config.getCompilerPath()).cppStandard(config.getCppStandard()).nettyThreads(config.getNettyThreads()).disableSecurityArgs(newDisableFlag).disableMemLimit(config.isDisableMemLimit()).useOldFormat(config.isUseOldFormat()).build();
+                    return config.toBuilder().disableSecurityArgs(newDisableFlag).build();
                 }
             } else {
                 log.warn("Failed to detect g++ version, disabling security flags as precaution.");
                 boolean newDisableFlag = true;
-                return ServerConfig.builder().host(config.getHost()).port(config.getPort()).keywordFilePath(config.getKeywordFilePath()).compilerPath(config.getCompilerPath()).cppStandard(config.getCppStandard()).nettyThreads(config.getNettyThreads()).disableSecurityArgs(newDisableFlag).disableMemLimit(config.isDisableMemLimit()).useOldFormat(config.isUseOldFormat()).build();
+                return config.toBuilder().disableSecurityArgs(newDisableFlag).build();
             }
         }
         return config;
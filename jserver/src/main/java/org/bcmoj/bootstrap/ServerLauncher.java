@@ -24,11 +24,8 @@ public class ServerLauncher {
 
             log.info("Initializing server...");
             SocketServer server = new SocketServer(finalConfig);
-            server.start(finalConfig.getNettyThreads());
-
             Runtime.getRuntime().addShutdownHook(new Thread(server::stop, "Server-Shutdown-Hook"));
-
-            log.info("Server launched and running with config: {}", finalConfig);
+            server.start(finalConfig.getNettyThreads());
 
         } catch (Exception e) {
             log.error("Failed to initialize or launch server with config: {} - {}", config, e.getMessage());
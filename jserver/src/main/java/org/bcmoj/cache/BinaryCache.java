@@ -0,0 +1,255 @@
+package org.bcmoj.cache;
+
+import lombok.extern.slf4j.Slf4j;
+import org.apache.commons.codec.binary.Hex;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * Persistent, size-bounded cache of compiled executables, so rejudging a submission does not
+ * compile it again.
+ *
+ * <p>An executable is stored under {@link #key(String, String, String, boolean, boolean)}: the
+ * SHA-256 of the source, the compiler's identity (its path and reported version, see
+ * {@link ToolchainFingerprint#compilerIdentity(String)}) and every flag that changes the binary
+ * ({@code -std}, {@code -O2}, the security arguments and the operating system they depend on).
+ * Entries live in {@code <dir>/<first two key characters>/<key>} and are found again after a
+ * restart.</p>
+ *
+ * <p>A judge never runs the cached file itself. {@link #fetch(String, File)} hard-links it into the
+ * judge's own directory (copying if the file system cannot link), so evicting an entry while
+ * programs built from it are still running is harmless, and any number of judges can read the
+ * same entry concurrently. {@link #store(String, File)} links a fresh executable to a temporary
+ * name in the cache and renames it into place atomically; readers never see a partial file.</p>
+ *
+ * <p>The least recently used entries are deleted once the cache exceeds its byte budget. Use is
+ * recorded in each file's modification time, which restores the order after a restart. A budget
+ * of 0 disables the cache.</p>
+ *
+ * <p>Compile errors are not cached, and a cache hit does not skip the security check of the
+ * submission.</p>
+ *
+ * @author SleepingCui
+ */
+@Slf4j
+public class BinaryCache {
+    private static final String TMP_SUFFIX = ".tmp";
+
+    private final File dir;
+    private final long maxBytes;
+    private final LinkedHashMap<String, Long> entries = new LinkedHashMap<>(64, 0.75f, true); // key -> size, LRU order
+    private long totalBytes;
+    private long hits;
+    private long misses;
+
+    /**
+     * Opens the cache directory and indexes the executables already in it.
+     *
+     * @param dir      the cache directory; created if missing
+     * @param maxBytes the byte budget, 0 to disable the cache
+     * @throws IOException if the directory cannot be created
+     */
+    public BinaryCache(File dir, long maxBytes) throws IOException {
+        this.dir = dir;
+        this.maxBytes = Math.max(0, maxBytes);
+        if (!isEnabled()) {
+            return;
+        }
+        Files.createDirectories(dir.toPath());
+        List<File> files = new ArrayList<>();
+        File[] shards = dir.listFiles(File::isDirectory);
+        for (File shard : shards != null ? shards : new File[0]) {
+            File[] children = shard.listFiles(File::isFile);
+            for (File child : children != null ? children : new File[0]) {
+                if (child.getName().endsWith(TMP_SUFFIX)) {
+                    Files.deleteIfExists(child.toPath()); // left by a crash during store()
+                } else {
+                    files.add(child);
+                }
+            }
+        }
+        files.sort(Comparator.comparingLong(File::lastModified));
+        synchronized (this) {
+            for (File file : files) {
+                entries.put(file.getName(), file.length());
+                totalBytes += file.length();
+            }
+            evict();
+        }
+        log.info("Binary cache {} opened with {} executable(s), {} of {} bytes", dir, entries.size(), totalBytes, maxBytes);
+    }
+
+    /**
+     * @return {@code true} if executables are cached at all
+     */
+    public boolean isEnabled() {
+        return maxBytes > 0;
+    }
+
+    /**
+     * Builds the cache key of an executable.
+     *
+     * @param sourceSha256        SHA-256 of the source as a hexadecimal string
+     * @param compilerPath        the compiler executable
+     * @param cppStandard         the C++ standard passed to the compiler
+     * @param enableO2            whether the source is compiled with {@code -O2}
+     * @param disableSecurityArgs whether the compiler's security arguments are disabled
+     * @return the key, a lowercase hexadecimal string
+     */
+    public static String key(String sourceSha256, String compilerPath, String cppStandard, boolean enableO2, boolean disableSecurityArgs) {
+        String flags = String.join("|", "-std=" + cppStandard, enableO2 ? "O2" : "O0", disableSecurityArgs ? "noargs" : "args", System.getProperty("os.name"));
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            digest.update(String.join("\n", sourceSha256.toLowerCase(), ToolchainFingerprint.compilerIdentity(compilerPath), flags).getBytes(StandardCharsets.UTF_8));
+            return Hex.encodeHexString(digest.digest());
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not available", e);
+        }
+    }
+
+    /**
+     * Places the cached executable for a key at {@code target}.
+     *
+     * @param key    the cache key
+     * @param target where the executable is needed; must not exist yet
+     * @return {@code true} on a hit, {@code false} if the executable has to be compiled
+     */
+    public boolean fetch(String key, File target) {
+        if (!isEnabled()) {
+            return false;
+        }
+        synchronized (this) {
+            if (entries.get(key) == null) {
+                misses++;
+                return false;
+            }
+        }
+        File entry = entryFile(key);
+        try {
+            link(entry, target);
+            entry.setLastModified(System.currentTimeMillis());
+            synchronized (this) {
+                hits++;
+            }
+            return true;
+        } catch (NoSuchFileException e) {
+            synchronized (this) { // evicted between the lookup and the link, or deleted from outside
+                Long size = entries.remove(key);
+                if (size != null) {
+                    totalBytes -= size;
+                }
+                misses++;
+            }
+            return false;
+        } catch (IOException e) {
+            log.warn("Failed to reuse cached executable {}: {}", key, e.getMessage());
+            synchronized (this) {
+                misses++;
+            }
+            return false;
+        }
+    }
+
+    /**
+     * Adds a freshly compiled executable. The file itself stays where it is.
+     *
+     * @param key        the cache key
+     * @param executable the executable, which the caller may delete afterwards
+     */
+    public void store(String key, File executable) {
+        if (!isEnabled() || executable.length() > maxBytes) {
+            return;
+        }
+        File entry = entryFile(key);
+        File tmp = new File(entry.getParentFile(), key + "." + UUID.randomUUID() + TMP_SUFFIX);
+        try {
+            Files.createDirectories(entry.getParentFile().toPath());
+            link(executable, tmp);
+            Files.move(tmp.toPath(), entry.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            entry.setLastModified(System.currentTimeMillis());
+        } catch (IOException e) {
+            log.warn("Failed to cache executable {}: {}", key, e.getMessage());
+            tmp.delete();
+            return;
+        }
+        synchronized (this) {
+            Long previous = entries.put(key, entry.length());
+            totalBytes += entry.length() - (previous != null ? previous : 0);
+            evict();
+        }
+        log.debug("Cached executable {} ({} bytes)", key, entry.length());
+    }
+
+    /**
+     * @return number of cached executables
+     */
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    /**
+     * @return total size of the cached executables in bytes
+     */
+    public synchronized long getTotalBytes() {
+        return totalBytes;
+    }
+
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    public synchronized long getMisses() {
+        return misses;
+    }
+
+    /**
+     * Deletes least recently used entries until the cache fits its budget. Must be called with
+     * the lock held.
+     */
+    private void evict() {
+        Iterator<Map.Entry<String, Long>> eldest = entries.entrySet().iterator();
+        while (totalBytes > maxBytes && eldest.hasNext()) {
+            Map.Entry<String, Long> entry = eldest.next();
+            eldest.remove();
+            totalBytes -= entry.getValue();
+            try {
+                Files.deleteIfExists(entryFile(entry.getKey()).toPath());
+                log.debug("Evicted cached executable {}", entry.getKey());
+            } catch (IOException e) {
+                log.warn("Failed to evict cached executable {}: {}", entry.getKey(), e.getMessage());
+            }
+        }
+    }
+
+    private File entryFile(String key) {
+        return new File(new File(dir, key.substring(0, 2)), key);
+    }
+
+    /**
+     * Hard-links {@code source} to {@code target}, copying it if the file system cannot link.
+     */
+    private static void link(File source, File target) throws IOException {
+        try {
+            Files.createLink(target.toPath(), source.toPath());
+        } catch (FileAlreadyExistsException | NoSuchFileException e) {
+            throw e;
+        } catch (IOException | UnsupportedOperationException e) {
+            Files.copy(source.toPath(), target.toPath(), StandardCopyOption.COPY_ATTRIBUTES);
+        }
+    }
+}
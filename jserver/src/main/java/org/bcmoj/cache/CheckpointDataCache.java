@@ -0,0 +1,186 @@
+package org.bcmoj.cache;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.commons.codec.binary.Hex;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Server-wide, content-addressed cache of checkpoint inputs and expected outputs.
+ *
+ * <p>Every checkpoint string a client sends inline is remembered under the SHA-256 of its
+ * UTF-8 bytes. Later submissions may send that digest instead of the data, as {@code in_ref}
+ * / {@code out_ref} inside a checkpoint (new format) or as {@code N_in_ref} / {@code N_out_ref}
+ * keys (old format). {@link #resolve(JsonNode, boolean)} replaces the references with the
+ * cached data before the configuration is validated, so the rest of the judging pipeline only
+ * ever sees inline checkpoints.</p>
+ *
+ * <p>The cache is bounded by the total UTF-8 size of its entries and evicts the least recently
+ * used ones first. A budget of 0 disables it: nothing is stored and every reference misses.</p>
+ *
+ * @author SleepingCui
+ */
+@Slf4j
+public class CheckpointDataCache {
+    private static final String REF_SUFFIX = "_ref";
+
+    private final long maxBytes;
+    private final LinkedHashMap<String, String> entries = new LinkedHashMap<>(64, 0.75f, true);
+    private final Map<String, Long> entrySizes = new HashMap<>();
+    private long currentBytes;
+    private long hits;
+    private long misses;
+
+    /**
+     * @param maxBytes total UTF-8 size of the cached strings, 0 to disable the cache
+     */
+    public CheckpointDataCache(long maxBytes) {
+        this.maxBytes = Math.max(0, maxBytes);
+    }
+
+    /**
+     * Remembers a checkpoint string.
+     *
+     * @param data the checkpoint input or expected output
+     * @return the SHA-256 digest of the data as a lowercase hexadecimal string
+     */
+    public String put(String data) {
+        byte[] bytes = data.getBytes(StandardCharsets.UTF_8);
+        String digest = sha256(bytes);
+        if (bytes.length > maxBytes) {
+            return digest;
+        }
+        synchronized (this) {
+            if (entries.get(digest) == null) {
+                entries.put(digest, data);
+                entrySizes.put(digest, (long) bytes.length);
+                currentBytes += bytes.length;
+                evict();
+            }
+        }
+        return digest;
+    }
+
+    /**
+     * Looks up a checkpoint string by digest.
+     *
+     * @param digest SHA-256 hex digest, case-insensitive
+     * @return the cached data, or {@code null} on a miss
+     */
+    public synchronized String get(String digest) {
+        String data = entries.get(digest.toLowerCase());
+        if (data != null) {
+            hits++;
+        } else {
+            misses++;
+        }
+        return data;
+    }
+
+    /**
+     * Replaces checkpoint references with cached data and remembers all inline data, in place.
+     *
+     * @param checkpoints  the {@code checkpoints} object of a judge configuration
+     * @param useOldFormat whether the configuration uses the old {@code N_in}/{@code N_out} keys
+     * @return digests that could not be resolved, in order of appearance; empty if the
+     *         configuration is complete
+     */
+    public List<String> resolve(JsonNode checkpoints, boolean useOldFormat) {
+        Set<String> missing = new LinkedHashSet<>();
+        if (checkpoints instanceof ObjectNode object) {
+            if (useOldFormat) {
+                resolveFields(object, missing);
+            } else {
+                for (JsonNode checkpoint : object) {
+                    if (checkpoint instanceof ObjectNode fields) {
+                        resolveFields(fields, missing);
+                    }
+                }
+            }
+        }
+        if (!missing.isEmpty()) {
+            log.info("{} checkpoint reference(s) not cached", missing.size());
+        }
+        return new ArrayList<>(missing);
+    }
+
+    /**
+     * Resolves every {@code *_ref} field of an object into the field without the suffix,
+     * unless that field is already present, and caches every other textual field.
+     */
+    private void resolveFields(ObjectNode fields, Set<String> missing) {
+        List<String> refNames = new ArrayList<>();
+        for (Iterator<Map.Entry<String, JsonNode>> it = fields.fields(); it.hasNext(); ) {
+            Map.Entry<String, JsonNode> field = it.next();
+            if (field.getKey().endsWith(REF_SUFFIX)) {
+                refNames.add(field.getKey());
+            } else if (maxBytes > 0 && field.getValue().isTextual()) {
+                put(field.getValue().asText());
+            }
+        }
+        for (String refName : refNames) {
+            JsonNode ref = fields.remove(refName);
+            String target = refName.substring(0, refName.length() - REF_SUFFIX.length());
+            if (fields.has(target) || !ref.isTextual()) {
+                continue;
+            }
+            String data = get(ref.asText());
+            if (data != null) {
+                fields.put(target, data);
+            } else {
+                missing.add(ref.asText().toLowerCase());
+            }
+        }
+    }
+
+    /**
+     * @return number of cached strings
+     */
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    /**
+     * @return total UTF-8 size of the cached strings
+     */
+    public synchronized long getCurrentBytes() {
+        return currentBytes;
+    }
+
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    public synchronized long getMisses() {
+        return misses;
+    }
+
+    private void evict() {
+        Iterator<String> eldest = entries.keySet().iterator();
+        while (currentBytes > maxBytes && eldest.hasNext()) {
+            String digest = eldest.next();
+            eldest.remove();
+            currentBytes -= entrySizes.remove(digest);
+        }
+    }
+
+    private static String sha256(byte[] data) {
+        try {
+            return Hex.encodeHexString(MessageDigest.getInstance("SHA-256").digest(data));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not available", e);
+        }
+    }
+}
@@ -0,0 +1,68 @@
+package org.bcmoj.cache;
+
+import lombok.Getter;
+import org.bcmoj.utils.ComplierCheckUtil;
+
+import java.io.File;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Identifies the toolchain settings a verdict was produced with.
+ *
+ * <p>Two judgements of the same source and configuration can only be expected to agree if the
+ * program was built, checked and timed the same way: same compiler (identified by its version, see
+ * {@link #compilerIdentity(String)}), language standard and optimisation, the same security
+ * checks (including the keyword file, identified by its modification time), and the same run
+ * policy: memory limiting, which also decides whether the time limit applies to CPU time or to
+ * the wall clock, and the wall-time factor. The fingerprint is part of every
+ * {@link VerdictCache} key, so changing any of these settings never serves an old verdict.</p>
+ *
+ * @author SleepingCui
+ */
+@Getter
+public class ToolchainFingerprint {
+    private static final Map<String, String> compilerIdentities = new ConcurrentHashMap<>();
+
+    private final String value;
+
+    private ToolchainFingerprint(String value) {
+        this.value = value;
+    }
+
+    /**
+     * @param compilerPath        the compiler executable
+     * @param cppStandard         the C++ standard passed to the compiler
+     * @param enableO2            whether the submission is compiled with {@code -O2}
+     * @param securityCheck       whether the keyword security check runs
+     * @param disableSecurityArgs whether the compiler's security arguments are disabled
+     * @param disableMemLimit     whether memory limiting, and with it CPU time accounting, is disabled
+     * @param wallTimeFactor      the wall-clock limit of a run as a multiple of its time limit
+     * @param keywordFile         the keyword file of the security check
+     * @return the fingerprint
+     */
+    public static ToolchainFingerprint of(String compilerPath, String cppStandard, boolean enableO2, boolean securityCheck, boolean disableSecurityArgs, boolean disableMemLimit, int wallTimeFactor, File keywordFile) {
+        String keywords = securityCheck ? keywordFile.getPath() + "@" + keywordFile.lastModified() : "nosec";
+        return new ToolchainFingerprint(String.join("|", compilerIdentity(compilerPath), cppStandard, enableO2 ? "O2" : "O0", keywords, disableSecurityArgs ? "noargs" : "args", disableMemLimit ? "nomem" : "mem", "wall" + wallTimeFactor));
+    }
+
+    /**
+     * Identifies a compiler by its path and the version it reports, for caches whose entries
+     * must not outlive a compiler upgrade. Each path is probed once per process.
+     *
+     * @param compilerPath the compiler executable, {@code g++} if null or empty
+     * @return the identity, e.g. {@code g++@12.2.0}
+     */
+    public static String compilerIdentity(String compilerPath) {
+        String path = compilerPath != null && !compilerPath.isEmpty() ? compilerPath : "g++";
+        return compilerIdentities.computeIfAbsent(path, p -> {
+            String version = ComplierCheckUtil.getGppVersion(p);
+            return p + "@" + (version != null ? version : "unknown");
+        });
+    }
+
+    @Override
+    public String toString() {
+        return value;
+    }
+}
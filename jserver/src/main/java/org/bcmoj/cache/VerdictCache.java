@@ -0,0 +1,231 @@
+package org.bcmoj.cache;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.commons.codec.binary.Hex;
+import org.bcmoj.config.ProblemConfig;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Server-wide cache of complete judge results, for byte-identical resubmissions and rejudges.
+ *
+ * <p>A result is stored under {@link #key(String, String, ToolchainFingerprint)}: the SHA-256 of
+ * the source, a digest of the normalized configuration ({@link #configDigest(ProblemConfig, int)})
+ * and the {@link ToolchainFingerprint}. A later request with the same key is answered with the
+ * stored result JSON at once, without compiling or running anything; the answer carries
+ * {@code "cached": true} so clients can tell. Requests may set {@code no_cache} (old format:
+ * {@code noCache}) to be judged again, e.g. for timing-sensitive rejudges; their fresh result
+ * replaces the stored one.</p>
+ *
+ * <p>Streamed requests bypass the cache as well, since their progress frames need a real run.</p>
+ *
+ * <p>Results containing a system error are never stored. Entries expire after a fixed time to
+ * live, and the least recently used ones are evicted beyond the entry limit. A limit of 0
+ * disables the cache.</p>
+ *
+ * @author SleepingCui
+ */
+@Slf4j
+public class VerdictCache {
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+    private static final int SYSTEM_ERROR = 5;
+
+    private final int maxEntries;
+    private final long ttlNanos;
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(64, 0.75f, true);
+    private long hits;
+    private long misses;
+
+    private static class Entry {
+        final String result;
+        final long expiresAt; // System.nanoTime()
+
+        Entry(String result, long expiresAt) {
+            this.result = result;
+            this.expiresAt = expiresAt;
+        }
+    }
+
+    /**
+     * @param maxEntries maximum number of cached results, 0 to disable the cache
+     * @param ttlMs      time after which a cached result is judged again
+     */
+    public VerdictCache(int maxEntries, long ttlMs) {
+        this.maxEntries = Math.max(0, maxEntries);
+        this.ttlNanos = Math.max(0, ttlMs) * 1_000_000L;
+    }
+
+    /**
+     * @return {@code true} if results are cached at all
+     */
+    public boolean isEnabled() {
+        return maxEntries > 0 && ttlNanos > 0;
+    }
+
+    /**
+     * @param sourceSha256 SHA-256 of the source as a hexadecimal string
+     * @param configDigest digest of the normalized configuration
+     * @param toolchain    the toolchain the submission is judged with
+     * @return the cache key
+     */
+    public static String key(String sourceSha256, String configDigest, ToolchainFingerprint toolchain) {
+        return sourceSha256.toLowerCase() + ":" + configDigest + ":" + toolchain;
+    }
+
+    /**
+     * Digests everything in a configuration that can change the verdict: limits, compare mode,
+     * security check, optimisation, the stored problem and its version, and the checkpoint data.
+     * Scheduling and presentation settings ({@code priority}, {@code stream}, {@code no_cache})
+     * and the wire format are left out.
+     *
+     * @param config         the judge configuration
+     * @param problemVersion the resolved version of a stored problem, ignored for inline checkpoints
+     * @return the digest as a lowercase hexadecimal string
+     * @throws IOException if spilled checkpoint data cannot be read
+     */
+    public static String configDigest(ProblemConfig config, int problemVersion) throws IOException {
+        MessageDigest digest = sha256();
+        update(digest, config.getTimeLimit() + "|" + config.getMemLimit() + "|" + config.getCompareMode() + "|" + config.isSecurityCheck() + "|" + config.isEnableO2());
+        if (config.isStoredProblem()) {
+            update(digest, "problem|" + config.getProblemId() + "|" + problemVersion);
+        }
+        for (ProblemConfig.Checkpoint checkpoint : config.getCheckpoints()) {
+            if (checkpoint.isSpilled()) {
+                update(digest, checkpoint.getInputFile());
+                update(digest, checkpoint.getExpectedOutputFile());
+            } else {
+                update(digest, checkpoint.getInput());
+                update(digest, checkpoint.getExpectedOutput());
+            }
+        }
+        return Hex.encodeHexString(digest.digest());
+    }
+
+    /**
+     * Looks up a stored result.
+     *
+     * @param key the cache key
+     * @return the result JSON marked with {@code "cached": true}, or {@code null} on a miss
+     */
+    public String get(String key) {
+        String result;
+        synchronized (this) {
+            Entry entry = entries.get(key);
+            if (entry != null && entry.expiresAt - System.nanoTime() <= 0) {
+                entries.remove(key);
+                entry = null;
+            }
+            if (entry == null) {
+                misses++;
+                return null;
+            }
+            hits++;
+            result = entry.result;
+        }
+        return markCached(result);
+    }
+
+    /**
+     * Stores a result unless it contains a system error.
+     *
+     * @param key    the cache key
+     * @param result the result JSON as sent to the client
+     */
+    public void put(String key, String result) {
+        if (!isEnabled() || !isCacheable(result)) {
+            return;
+        }
+        synchronized (this) {
+            entries.put(key, new Entry(result, System.nanoTime() + ttlNanos));
+            Iterator<String> eldest = entries.keySet().iterator();
+            while (entries.size() > maxEntries && eldest.hasNext()) {
+                eldest.next();
+                eldest.remove();
+            }
+        }
+    }
+
+    /**
+     * @return number of cached results, including expired ones not yet looked up
+     */
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    public synchronized long getMisses() {
+        return misses;
+    }
+
+    /**
+     * @return {@code false} if any checkpoint of the result is a system error
+     */
+    private static boolean isCacheable(String result) {
+        try {
+            JsonNode root = MAPPER.readTree(result);
+            JsonNode checkpoints = root.has("checkpoints") ? root.get("checkpoints") : root;
+            for (Iterator<Map.Entry<String, JsonNode>> it = checkpoints.fields(); it.hasNext(); ) {
+                Map.Entry<String, JsonNode> field = it.next();
+                JsonNode res = field.getValue().isObject() ? field.getValue().get("res") : field.getKey().endsWith("_res") ? field.getValue() : null;
+                if (res != null && res.asInt() == SYSTEM_ERROR) {
+                    return false;
+                }
+            }
+            return true;
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    private static String markCached(String result) {
+        try {
+            ObjectNode root = (ObjectNode) MAPPER.readTree(result);
+            root.put("cached", true);
+            return MAPPER.writeValueAsString(root);
+        } catch (IOException | ClassCastException e) {
+            log.warn("Failed to mark cached result: {}", e.getMessage());
+            return result;
+        }
+    }
+
+    private static void update(MessageDigest digest, String value) {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        digest.update(ByteBuffer.allocate(8).putLong(bytes.length).flip());
+        digest.update(bytes);
+    }
+
+    private static void update(MessageDigest digest, File file) throws IOException {
+        digest.update(ByteBuffer.allocate(8).putLong(file.length()).flip());
+        try (InputStream in = Files.newInputStream(file.toPath())) {
+            byte[] buffer = new byte[64 * 1024];
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                digest.update(buffer, 0, read);
+            }
+        }
+    }
+
+    private static MessageDigest sha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not available", e);
+        }
+    }
+}
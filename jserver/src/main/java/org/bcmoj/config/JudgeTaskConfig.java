@@ -1,5 +1,14 @@
 package org.bcmoj.config;
 import lombok.Getter;
+import org.bcmoj.cache.BinaryCache;
+import org.bcmoj.judgeserver.CancellationHandle;
+import org.bcmoj.judgeserver.JudgeProgressListener;
+import org.bcmoj.judgeserver.SubmissionSource;
+import org.bcmoj.judger.CompileLimits;
+import org.bcmoj.judger.PrecompiledHeaders;
+import org.bcmoj.problem.ProblemRepository;
+import org.bcmoj.scheduler.CheckpointScheduler;
+import org.bcmoj.scheduler.CompileScheduler;
 
 import java.io.File;
 
@@ -7,30 +16,66 @@ import java.io.File;
 public class JudgeTaskConfig {
     private final String compilerPath;
     private final String cppStandard;
-    private final File sourceFile; // The uploaded .cpp file
+    private final SubmissionSource source; // The uploaded source code
+    private final File workspaceDir; // Where in-memory sources are written for the compiler
     private final File keywordFile; // The rules file
     private final boolean disableSecurityArgs;
     private final boolean disableMemLimit;
     private final boolean useOldFormat;
+    private final CheckpointScheduler checkpointScheduler; // Shared run slots for checkpoint runs
+    private final int wallTimeFactor; // Wall-clock limit of a run, as a multiple of its CPU time limit
+    private final CompileScheduler compileScheduler; // Optional, shared compile slots
+    private final long compileTimeoutMs;
+    private final CompileLimits compileLimits; // Memory, CPU, pids and output caps of the compiler
+    private final JudgeProgressListener progressListener; // Optional, notified when the request asks for streaming
+    private final ProblemRepository problemRepository; // Optional, resolves requests that name a stored problem
+    private final ProblemConfig problemConfig; // The validated request configuration
+    private final CancellationHandle cancellation; // Optional, cancelled when the client disconnects
+    private final BinaryCache binaryCache; // Optional, reuses executables compiled earlier
+    private final PrecompiledHeaders precompiledHeaders; // Optional, speeds up compiling bits/stdc++.h
 
     private JudgeTaskConfig(Builder builder) {
         this.compilerPath = builder.compilerPath;
         this.cppStandard = builder.cppStandard;
-        this.sourceFile = builder.sourceFile;
+        this.source = builder.source;
+        this.workspaceDir = builder.workspaceDir;
         this.keywordFile = builder.keywordFile;
         this.disableSecurityArgs = builder.disableSecurityArgs;
         this.disableMemLimit = builder.disableMemLimit;
         this.useOldFormat = builder.useOldFormat;
+        this.checkpointScheduler = builder.checkpointScheduler;
+        this.compileScheduler = builder.compileScheduler;
+        this.wallTimeFactor = builder.wallTimeFactor;
+        this.compileTimeoutMs = builder.compileTimeoutMs;
+        this.compileLimits = builder.compileLimits;
+        this.progressListener = builder.progressListener;
+        this.problemRepository = builder.problemRepository;
+        this.problemConfig = builder.problemConfig;
+        this.cancellation = builder.cancellation;
+        this.binaryCache = builder.binaryCache;
+        this.precompiledHeaders = builder.precompiledHeaders;
     }
 
     public static class Builder {
         private String compilerPath = "g++"; // Default
         private String cppStandard = "c++11"; // Default
-        private File sourceFile;
+        private SubmissionSource source;
+        private File workspaceDir = new File(System.getProperty("java.io.tmpdir"));
         private File keywordFile;
         private boolean disableSecurityArgs = false;
         private boolean disableMemLimit = false;
         private boolean useOldFormat = false;
+        private CheckpointScheduler checkpointScheduler;
+        private CompileScheduler compileScheduler;
+        private int wallTimeFactor = 3; // Default
+        private long compileTimeoutMs = 10_000; // Default
+        private CompileLimits compileLimits = CompileLimits.UNLIMITED;
+        private JudgeProgressListener progressListener;
+        private ProblemRepository problemRepository;
+        private ProblemConfig problemConfig;
+        private CancellationHandle cancellation;
+        private BinaryCache binaryCache;
+        private PrecompiledHeaders precompiledHeaders;
 
         public Builder compilerPath(String compilerPath) {
             this.compilerPath = compilerPath;
@@ -42,8 +87,13 @@ public class JudgeTaskConfig {
             return this;
         }
 
-        public Builder sourceFile(File sourceFile) {
-            this.sourceFile = sourceFile;
+        public Builder source(SubmissionSource source) {
+            this.source = source;
+            return this;
+        }
+
+        public Builder workspaceDir(File workspaceDir) {
+            this.workspaceDir = workspaceDir;
             return this;
         }
 
@@ -67,9 +117,67 @@ public class JudgeTaskConfig {
             return this;
         }
 
+        public Builder checkpointScheduler(CheckpointScheduler checkpointScheduler) {
+            this.checkpointScheduler = checkpointScheduler;
+            return this;
+        }
+
+        public Builder compileScheduler(CompileScheduler compileScheduler) {
+            this.compileScheduler = compileScheduler;
+            return this;
+        }
+
+        public Builder wallTimeFactor(int wallTimeFactor) {
+            this.wallTimeFactor = wallTimeFactor;
+            return this;
+        }
+
+        public Builder compileTimeoutMs(long compileTimeoutMs) {
+            this.compileTimeoutMs = compileTimeoutMs;
+            return this;
+        }
+
+        public Builder compileLimits(CompileLimits compileLimits) {
+            this.compileLimits = compileLimits;
+            return this;
+        }
+
+        public Builder progressListener(JudgeProgressListener progressListener) {
+            this.progressListener = progressListener;
+            return this;
+        }
+
+        public Builder problemRepository(ProblemRepository problemRepository) {
+            this.problemRepository = problemRepository;
+            return this;
+        }
+
+        public Builder problemConfig(ProblemConfig problemConfig) {
+            this.problemConfig = problemConfig;
+            return this;
+        }
+
+        public Builder cancellation(CancellationHandle cancellation) {
+            this.cancellation = cancellation;
+            return this;
+        }
+
+        public Builder binaryCache(BinaryCache binaryCache) {
+            this.binaryCache = binaryCache;
+            return this;
+        }
+
+        public Builder precompiledHeaders(PrecompiledHeaders precompiledHeaders) {
+            this.precompiledHeaders = precompiledHeaders;
+            return this;
+        }
+
         public JudgeTaskConfig build() {
-            if (sourceFile == null || keywordFile == null) {
-                throw new IllegalStateException("Source file and Keyword file are required.");
+            if (source == null || keywordFile == null) {
+                throw new IllegalStateException("Source and Keyword file are required.");
+            }
+            if (checkpointScheduler == null) {
+                throw new IllegalStateException("Checkpoint scheduler is required.");
             }
             return new JudgeTaskConfig(this);
         }
@@ -0,0 +1,194 @@
+package org.bcmoj.config;
+
+import lombok.Getter;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Judging parameters of one submission, read once from its JSON configuration.
+ *
+ * <p>Both wire formats (old {@code timeLimit}/{@code 1_in} and new {@code time_limit}/{@code "1": {"in"}})
+ * end up in this model, so nothing after validation has to look at the JSON again. Checkpoints are
+ * kept in order, numbered from 1. A configuration that names a stored problem has no checkpoints
+ * of its own; they come from the problem package.</p>
+ *
+ * <p>Instances are immutable and built with {@link #builder()}.</p>
+ */
+@Getter
+public class ProblemConfig {
+    private final int timeLimit;
+    private final int memLimit;
+    private final boolean securityCheck;
+    private final boolean enableO2;
+    private final int compareMode;
+    private final boolean stream;
+    private final String priority; // null = server default
+    private final boolean noCache; // judge again even if a verdict is cached
+    private final String problemId; // null = inline checkpoints
+    private final Integer problemVersion; // null = latest
+    private final List<Checkpoint> checkpoints;
+    private final boolean useOldFormat;
+
+    private ProblemConfig(Builder builder) {
+        this.timeLimit = builder.timeLimit;
+        this.memLimit = builder.memLimit;
+        this.securityCheck = builder.securityCheck;
+        this.enableO2 = builder.enableO2;
+        this.compareMode = builder.compareMode;
+        this.stream = builder.stream;
+        this.priority = builder.priority;
+        this.noCache = builder.noCache;
+        this.problemId = builder.problemId;
+        this.problemVersion = builder.problemVersion;
+        this.checkpoints = List.copyOf(builder.checkpoints);
+        this.useOldFormat = builder.useOldFormat;
+    }
+
+    /**
+     * @return number of inline checkpoints (0 for a stored problem)
+     */
+    public int getCheckpointCount() {
+        return checkpoints.size();
+    }
+
+    /**
+     * @param checkpoint checkpoint number, starting at 1
+     * @return the inline checkpoint
+     */
+    public Checkpoint getCheckpoint(int checkpoint) {
+        return checkpoints.get(checkpoint - 1);
+    }
+
+    /**
+     * @return {@code true} if the checkpoints come from the problem repository
+     */
+    public boolean isStoredProblem() {
+        return problemId != null;
+    }
+
+    /**
+     * Input and expected output of one inline checkpoint, either still escaped as sent by the client
+     * or, for a streamed configuration, already unescaped in spill files.
+     */
+    @Getter
+    public static class Checkpoint {
+        private final String input;
+        private final String expectedOutput;
+        private final File inputFile;
+        private final File expectedOutputFile;
+
+        public Checkpoint(String input, String expectedOutput) {
+            this.input = input;
+            this.expectedOutput = expectedOutput;
+            this.inputFile = null;
+            this.expectedOutputFile = null;
+        }
+
+        public Checkpoint(File inputFile, File expectedOutputFile) {
+            this.input = null;
+            this.expectedOutput = null;
+            this.inputFile = inputFile;
+            this.expectedOutputFile = expectedOutputFile;
+        }
+
+        /**
+         * @return {@code true} if the data is in {@link #getInputFile()}/{@link #getExpectedOutputFile()}
+         */
+        public boolean isSpilled() {
+            return inputFile != null;
+        }
+    }
+
+    public static class Builder {
+        private int timeLimit;
+        private int memLimit;
+        private boolean securityCheck;
+        private boolean enableO2;
+        private int compareMode = 1; // STRICT
+        private boolean stream;
+        private String priority;
+        private boolean noCache;
+        private String problemId;
+        private Integer problemVersion;
+        private final List<Checkpoint> checkpoints = new ArrayList<>();
+        private boolean useOldFormat;
+
+        public Builder timeLimit(int timeLimit) {
+            this.timeLimit = timeLimit;
+            return this;
+        }
+
+        public Builder memLimit(int memLimit) {
+            this.memLimit = memLimit;
+            return this;
+        }
+
+        public Builder securityCheck(boolean securityCheck) {
+            this.securityCheck = securityCheck;
+            return this;
+        }
+
+        public Builder enableO2(boolean enableO2) {
+            this.enableO2 = enableO2;
+            return this;
+        }
+
+        public Builder compareMode(int compareMode) {
+            this.compareMode = compareMode;
+            return this;
+        }
+
+        public Builder stream(boolean stream) {
+            this.stream = stream;
+            return this;
+        }
+
+        public Builder priority(String priority) {
+            this.priority = priority;
+            return this;
+        }
+
+        public Builder noCache(boolean noCache) {
+            this.noCache = noCache;
+            return this;
+        }
+
+        public Builder problemId(String problemId) {
+            this.problemId = problemId;
+            return this;
+        }
+
+        public Builder problemVersion(Integer problemVersion) {
+            this.problemVersion = problemVersion;
+            return this;
+        }
+
+        public Builder addCheckpoint(String input, String expectedOutput) {
+            this.checkpoints.add(new Checkpoint(input, expectedOutput));
+            return this;
+        }
+
+        public Builder addCheckpoint(File inputFile, File expectedOutputFile) {
+            this.checkpoints.add(new Checkpoint(inputFile, expectedOutputFile));
+            return this;
+        }
+
+        public Builder useOldFormat(boolean useOldFormat) {
+            this.useOldFormat = useOldFormat;
+            return this;
+        }
+
+        public ProblemConfig build() {
+            if (problemId == null && checkpoints.isEmpty()) {
+                throw new IllegalStateException("Checkpoints or a problem id are required.");
+            }
+            return new ProblemConfig(this);
+        }
+    }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+}
@@ -2,6 +2,13 @@ package org.bcmoj.config;
 
 import lombok.Getter;
 import lombok.extern.slf4j.Slf4j;
+import org.bcmoj.judger.CompileLimits;
+import org.bcmoj.scheduler.JudgePriority;
+import org.bcmoj.scheduler.JudgeTaskScheduler;
+import org.bcmoj.utils.CpuTopologyUtil;
+
+import java.io.File;
+import java.nio.file.attribute.PosixFilePermissions;
 
 /**
  * Configuration object for the BCMOJ Judge Server.
@@ -17,6 +24,43 @@ public class ServerConfig {
     private final String compilerPath;
     private final String cppStandard;
     private final int nettyThreads;
+    private final String transport;
+    private final int acceptors;
+    private final String unixSocketPath;
+    private final String unixSocketPermissions;
+    private final boolean disableTcp;
+    private final int judgeThreads;
+    private final int judgeQueueSize;
+    private final long admissionMaxWaitMs;
+    private final String defaultPriority;
+    private final String maxPriority;
+    private final long priorityAgingMs;
+    private final int runSlots;
+    private final String runCpus;
+    private final boolean isolateRuns;
+    private final int wallTimeFactor;
+    private final int compileConcurrency;
+    private final String compileCpus;
+    private final long compileTimeoutMs;
+    private final long compileMemoryBytes;
+    private final int compileCpuPercent;
+    private final int compileMaxPids;
+    private final int compileOutputBytes;
+    private final int inMemorySourceLimit;
+    private final String workspaceDir;
+    private final long checkpointCacheBytes;
+    private final String problemDir;
+    private final int configSpillThreshold;
+    private final boolean legacyExtendedDigests;
+    private final int verdictCacheEntries;
+    private final long verdictCacheTtlMs;
+    private final String binaryCacheDir;
+    private final long binaryCacheBytes;
+    private final String pchDir;
+    private final String ticketDir;
+    private final String ticketCallbackUrl;
+    private final int ticketMaxPending;
+    private final long ticketResultTtlMs;
     private final boolean disableSecurityArgs;
     private final boolean disableMemLimit;
     private final boolean useOldFormat;
@@ -28,6 +72,43 @@ public class ServerConfig {
         this.compilerPath = builder.compilerPath;
         this.cppStandard = builder.cppStandard;
         this.nettyThreads = builder.nettyThreads;
+        this.transport = builder.transport;
+        this.acceptors = builder.acceptors;
+        this.unixSocketPath = builder.unixSocketPath;
+        this.unixSocketPermissions = builder.unixSocketPermissions;
+        this.disableTcp = builder.disableTcp;
+        this.judgeThreads = builder.judgeThreads;
+        this.judgeQueueSize = builder.judgeQueueSize;
+        this.admissionMaxWaitMs = builder.admissionMaxWaitMs;
+        this.defaultPriority = builder.defaultPriority;
+        this.maxPriority = builder.maxPriority;
+        this.priorityAgingMs = builder.priorityAgingMs;
+        this.runSlots = builder.runSlots;
+        this.runCpus = builder.runCpus;
+        this.isolateRuns = builder.isolateRuns;
+        this.wallTimeFactor = builder.wallTimeFactor;
+        this.compileConcurrency = builder.compileConcurrency;
+        this.compileCpus = builder.compileCpus;
+        this.compileTimeoutMs = builder.compileTimeoutMs;
+        this.compileMemoryBytes = builder.compileMemoryBytes;
+        this.compileCpuPercent = builder.compileCpuPercent;
+        this.compileMaxPids = builder.compileMaxPids;
+        this.compileOutputBytes = builder.compileOutputBytes;
+        this.inMemorySourceLimit = builder.inMemorySourceLimit;
+        this.workspaceDir = builder.workspaceDir;
+        this.checkpointCacheBytes = builder.checkpointCacheBytes;
+        this.problemDir = builder.problemDir;
+        this.configSpillThreshold = builder.configSpillThreshold;
+        this.legacyExtendedDigests = builder.legacyExtendedDigests;
+        this.verdictCacheEntries = builder.verdictCacheEntries;
+        this.verdictCacheTtlMs = builder.verdictCacheTtlMs;
+        this.binaryCacheDir = builder.binaryCacheDir;
+        this.binaryCacheBytes = builder.binaryCacheBytes;
+        this.pchDir = builder.pchDir;
+        this.ticketDir = builder.ticketDir;
+        this.ticketCallbackUrl = builder.ticketCallbackUrl;
+        this.ticketMaxPending = builder.ticketMaxPending;
+        this.ticketResultTtlMs = builder.ticketResultTtlMs;
         this.disableSecurityArgs = builder.disableSecurityArgs;
         this.disableMemLimit = builder.disableMemLimit;
         this.useOldFormat = builder.useOldFormat;
@@ -42,7 +123,44 @@ public class ServerConfig {
         private String keywordFilePath;
         private String compilerPath = "g++";
         private String cppStandard = "c++11";
-        private int nettyThreads = 1;
+        private int nettyThreads = 0; // 0 = Netty's default worker count
+        private String transport = "nio"; // nio, epoll or auto
+        private int acceptors = 1; // Listening sockets bound with SO_REUSEPORT (epoll only)
+        private String unixSocketPath; // null = no Unix domain socket listener
+        private String unixSocketPermissions = "rw-rw----";
+        private boolean disableTcp = false; // Only listen on the Unix domain socket
+        private int judgeThreads = Runtime.getRuntime().availableProcessors();
+        private int judgeQueueSize = 64;
+        private long admissionMaxWaitMs = 0; // 0 = only reject when the judge queue is full
+        private String defaultPriority = "practice"; // Class of submissions whose config has no priority
+        private String maxPriority = "contest"; // Highest class TCP clients may claim, higher requests are lowered to it
+        private long priorityAgingMs = JudgeTaskScheduler.DEFAULT_AGING_MS;
+        private int runSlots = 0; // 0 = one slot per physical core
+        private String runCpus; // null = checkpoint programs may run on any CPU
+        private boolean isolateRuns = false; // one dedicated CPU per run slot, JVM and compilers kept off them
+        private int wallTimeFactor = 3; // wall-clock limit = factor x CPU time limit, where CPU time is measured
+        private int compileConcurrency = 0; // 0 = one per compile CPU, or judgeThreads without a compile CPU set
+        private String compileCpus; // null = compilers may run on any CPU
+        private long compileTimeoutMs = 10_000;
+        private long compileMemoryBytes = 1024L * 1024 * 1024; // 0 = unlimited
+        private int compileCpuPercent = 0; // 100 = one core, 0 = unlimited
+        private int compileMaxPids = 64; // 0 = unlimited
+        private int compileOutputBytes = 64 * 1024; // Compiler diagnostics logged per compilation, 0 = unlimited
+        private int inMemorySourceLimit = 64 * 1024; // Sources up to this size never touch the disk before compiling
+        private String workspaceDir = defaultWorkspaceDir();
+        private long checkpointCacheBytes = 256L * 1024 * 1024; // 0 = checkpoint references always miss
+        private String problemDir = "problems"; // Root of the versioned problem packages
+        private int configSpillThreshold = 1024 * 1024; // Larger JSON configs are streamed to spill files; 0 = never
+        private boolean legacyExtendedDigests = false; // legacy uploads: also CRC32C and +config digests, not just SHA-256 of the source
+        private int verdictCacheEntries = 0; // 0 = identical resubmissions are always judged again
+        private long verdictCacheTtlMs = 10 * 60 * 1000;
+        private String binaryCacheDir; // null = every submission is compiled
+        private long binaryCacheBytes = 1024L * 1024 * 1024;
+        private String pchDir; // null = bits/stdc++.h is parsed by every compilation
+        private String ticketDir; // null = asynchronous submissions are not accepted
+        private String ticketCallbackUrl; // null = results are only fetched by ticket
+        private int ticketMaxPending = 10_000;
+        private long ticketResultTtlMs = 60 * 60 * 1000;
         private boolean disableSecurityArgs = false;
         private boolean disableMemLimit = false;
         private boolean useOldFormat = false;
@@ -73,14 +191,281 @@ public class ServerConfig {
         }
 
         public Builder nettyThreads(int nettyThreads) {
-            if (nettyThreads < 1) {
-                nettyThreads = 1;
-                log.warn("Invalid netty-threads, must be >=1. Using default 1.");
+            if (nettyThreads < 0) {
+                nettyThreads = 0;
+                log.warn("Invalid netty-threads, must be >=0. Using Netty's default.");
             }
             this.nettyThreads = nettyThreads;
             return this;
         }
 
+        public Builder transport(String transport) {
+            this.transport = transport;
+            return this;
+        }
+
+        public Builder acceptors(int acceptors) {
+            if (acceptors < 1) {
+                acceptors = 1;
+                log.warn("Invalid acceptors, must be >=1. Using default 1.");
+            }
+            this.acceptors = acceptors;
+            return this;
+        }
+
+        public Builder judgeThreads(int judgeThreads) {
+            if (judgeThreads < 1) {
+                judgeThreads = Runtime.getRuntime().availableProcessors();
+                log.warn("Invalid judge-threads, must be >=1. Using default {}.", judgeThreads);
+            }
+            this.judgeThreads = judgeThreads;
+            return this;
+        }
+
+        public Builder judgeQueueSize(int judgeQueueSize) {
+            if (judgeQueueSize < 1) {
+                judgeQueueSize = 64;
+                log.warn("Invalid judge-queue-size, must be >=1. Using default 64.");
+            }
+            this.judgeQueueSize = judgeQueueSize;
+            return this;
+        }
+
+        public Builder admissionMaxWaitMs(long admissionMaxWaitMs) {
+            if (admissionMaxWaitMs < 0) {
+                admissionMaxWaitMs = 0;
+                log.warn("Invalid admission-max-wait-ms, must be >=0. Using default 0.");
+            }
+            this.admissionMaxWaitMs = admissionMaxWaitMs;
+            return this;
+        }
+
+        public Builder defaultPriority(String defaultPriority) {
+            this.defaultPriority = JudgePriority.fromName(defaultPriority, JudgePriority.PRACTICE).configName();
+            return this;
+        }
+
+        public Builder maxPriority(String maxPriority) {
+            this.maxPriority = JudgePriority.fromName(maxPriority, JudgePriority.CONTEST).configName();
+            return this;
+        }
+
+        public Builder priorityAgingMs(long priorityAgingMs) {
+            if (priorityAgingMs < 0) {
+                priorityAgingMs = JudgeTaskScheduler.DEFAULT_AGING_MS;
+                log.warn("Invalid priority-aging-ms, must be >=0. Using default {}.", JudgeTaskScheduler.DEFAULT_AGING_MS);
+            }
+            this.priorityAgingMs = priorityAgingMs;
+            return this;
+        }
+
+        public Builder runSlots(int runSlots) {
+            if (runSlots < 0) {
+                runSlots = 0;
+                log.warn("Invalid run-slots, must be >=0. Using one slot per physical core.");
+            }
+            this.runSlots = runSlots;
+            return this;
+        }
+
+        public Builder runCpus(String runCpus) {
+            this.runCpus = cpuList(runCpus, "run-cpus");
+            return this;
+        }
+
+        public Builder isolateRuns(boolean isolateRuns) {
+            this.isolateRuns = isolateRuns;
+            return this;
+        }
+
+        public Builder wallTimeFactor(int wallTimeFactor) {
+            if (wallTimeFactor < 1) {
+                wallTimeFactor = 3;
+                log.warn("Invalid wall-time-factor, must be >=1. Using default 3.");
+            }
+            this.wallTimeFactor = wallTimeFactor;
+            return this;
+        }
+
+        public Builder compileConcurrency(int compileConcurrency) {
+            if (compileConcurrency < 0) {
+                compileConcurrency = 0;
+                log.warn("Invalid compile-concurrency, must be >=0. Using automatic sizing.");
+            }
+            this.compileConcurrency = compileConcurrency;
+            return this;
+        }
+
+        public Builder compileCpus(String compileCpus) {
+            this.compileCpus = cpuList(compileCpus, "compile-cpus");
+            return this;
+        }
+
+        public Builder compileTimeoutMs(long compileTimeoutMs) {
+            if (compileTimeoutMs <= 0) {
+                compileTimeoutMs = 10_000;
+                log.warn("Invalid compile-timeout-ms, must be >0. Using default 10000.");
+            }
+            this.compileTimeoutMs = compileTimeoutMs;
+            return this;
+        }
+
+        public Builder compileMemoryBytes(long compileMemoryBytes) {
+            if (compileMemoryBytes < 0) {
+                compileMemoryBytes = 1024L * 1024 * 1024;
+                log.warn("Invalid compile-memory-bytes, must be >=0. Using default 1073741824.");
+            }
+            this.compileMemoryBytes = compileMemoryBytes;
+            return this;
+        }
+
+        public Builder compileCpuPercent(int compileCpuPercent) {
+            if (compileCpuPercent < 0) {
+                compileCpuPercent = 0;
+                log.warn("Invalid compile-cpu-percent, must be >=0. Not capping compiler CPU.");
+            }
+            this.compileCpuPercent = compileCpuPercent;
+            return this;
+        }
+
+        public Builder compileMaxPids(int compileMaxPids) {
+            if (compileMaxPids < 0) {
+                compileMaxPids = 64;
+                log.warn("Invalid compile-max-pids, must be >=0. Using default 64.");
+            }
+            this.compileMaxPids = compileMaxPids;
+            return this;
+        }
+
+        public Builder compileOutputBytes(int compileOutputBytes) {
+            if (compileOutputBytes < 0) {
+                compileOutputBytes = 64 * 1024;
+                log.warn("Invalid compile-output-bytes, must be >=0. Using default 65536.");
+            }
+            this.compileOutputBytes = compileOutputBytes;
+            return this;
+        }
+
+        private static String cpuList(String list, String option) {
+            if (list == null || list.isBlank()) {
+                return null;
+            }
+            try {
+                CpuTopologyUtil.parseCpuList(list);
+                return list.trim();
+            } catch (IllegalArgumentException e) {
+                log.warn("Invalid {} '{}', must be a CPU list such as 0-3,6. Not restricting CPUs.", option, list);
+                return null;
+            }
+        }
+
+        public Builder inMemorySourceLimit(int inMemorySourceLimit) {
+            if (inMemorySourceLimit < 0) {
+                inMemorySourceLimit = 64 * 1024;
+                log.warn("Invalid in-memory-source-limit, must be >=0. Using default 65536.");
+            }
+            this.inMemorySourceLimit = inMemorySourceLimit;
+            return this;
+        }
+
+        public Builder workspaceDir(String workspaceDir) {
+            this.workspaceDir = workspaceDir;
+            return this;
+        }
+
+        public Builder checkpointCacheBytes(long checkpointCacheBytes) {
+            if (checkpointCacheBytes < 0) {
+                checkpointCacheBytes = 256L * 1024 * 1024;
+                log.warn("Invalid checkpoint-cache-bytes, must be >=0. Using default 268435456.");
+            }
+            this.checkpointCacheBytes = checkpointCacheBytes;
+            return this;
+        }
+
+        public Builder problemDir(String problemDir) {
+            this.problemDir = problemDir;
+            return this;
+        }
+
+        public Builder verdictCacheEntries(int verdictCacheEntries) {
+            if (verdictCacheEntries < 0) {
+                verdictCacheEntries = 0;
+                log.warn("Invalid verdict-cache-entries, must be >=0. Using default 0.");
+            }
+            this.verdictCacheEntries = verdictCacheEntries;
+            return this;
+        }
+
+        public Builder verdictCacheTtlMs(long verdictCacheTtlMs) {
+            if (verdictCacheTtlMs <= 0) {
+                verdictCacheTtlMs = 10 * 60 * 1000;
+                log.warn("Invalid verdict-cache-ttl-ms, must be >0. Using default 600000.");
+            }
+            this.verdictCacheTtlMs = verdictCacheTtlMs;
+            return this;
+        }
+
+        public Builder binaryCacheDir(String binaryCacheDir) {
+            this.binaryCacheDir = binaryCacheDir == null || binaryCacheDir.isBlank() ? null : binaryCacheDir;
+            return this;
+        }
+
+        public Builder binaryCacheBytes(long binaryCacheBytes) {
+            if (binaryCacheBytes <= 0) {
+                binaryCacheBytes = 1024L * 1024 * 1024;
+                log.warn("Invalid binary-cache-bytes, must be >0. Using default 1073741824.");
+            }
+            this.binaryCacheBytes = binaryCacheBytes;
+            return this;
+        }
+
+        public Builder pchDir(String pchDir) {
+            this.pchDir = pchDir == null || pchDir.isBlank() ? null : pchDir;
+            return this;
+        }
+
+        public Builder ticketDir(String ticketDir) {
+            this.ticketDir = ticketDir == null || ticketDir.isBlank() ? null : ticketDir;
+            return this;
+        }
+
+        public Builder ticketCallbackUrl(String ticketCallbackUrl) {
+            this.ticketCallbackUrl = ticketCallbackUrl == null || ticketCallbackUrl.isBlank() ? null : ticketCallbackUrl;
+            return this;
+        }
+
+        public Builder ticketMaxPending(int ticketMaxPending) {
+            if (ticketMaxPending <= 0) {
+                ticketMaxPending = 10_000;
+                log.warn("Invalid ticket-max-pending, must be >0. Using default 10000.");
+            }
+            this.ticketMaxPending = ticketMaxPending;
+            return this;
+        }
+
+        public Builder ticketResultTtlMs(long ticketResultTtlMs) {
+            if (ticketResultTtlMs <= 0) {
+                ticketResultTtlMs = 60 * 60 * 1000;
+                log.warn("Invalid ticket-result-ttl-ms, must be >0. Using default 3600000.");
+            }
+            this.ticketResultTtlMs = ticketResultTtlMs;
+            return this;
+        }
+
+        public Builder configSpillThreshold(int configSpillThreshold) {
+            if (configSpillThreshold < 0) {
+                configSpillThreshold = 1024 * 1024;
+                log.warn("Invalid config-spill-threshold, must be >=0. Using default 1048576.");
+            }
+            this.configSpillThreshold = configSpillThreshold;
+            return this;
+        }
+
+        public Builder legacyExtendedDigests(boolean legacyExtendedDigests) {
+            this.legacyExtendedDigests = legacyExtendedDigests;
+            return this;
+        }
+
         public Builder disableSecurityArgs(boolean disableSecurityArgs) {
             this.disableSecurityArgs = disableSecurityArgs;
             return this;
@@ -96,8 +481,33 @@ public class ServerConfig {
             return this;
         }
 
+        public Builder unixSocketPath(String unixSocketPath) {
+            this.unixSocketPath = unixSocketPath == null || unixSocketPath.isBlank() ? null : unixSocketPath;
+            return this;
+        }
+
+        public Builder unixSocketPermissions(String unixSocketPermissions) {
+            try {
+                PosixFilePermissions.fromString(unixSocketPermissions);
+            } catch (IllegalArgumentException | NullPointerException e) {
+                unixSocketPermissions = "rw-rw----";
+                log.warn("Invalid unix-socket-perms, expected a form like rw-rw----. Using default rw-rw----.");
+            }
+            this.unixSocketPermissions = unixSocketPermissions;
+            return this;
+        }
+
+        public Builder disableTcp(boolean disableTcp) {
+            this.disableTcp = disableTcp;
+            return this;
+        }
+
         public ServerConfig build() {
-            if (this.host == null || this.port <= 0 || this.keywordFilePath == null) {
+            if (this.disableTcp) {
+                if (this.unixSocketPath == null || this.keywordFilePath == null) {
+                    throw new IllegalStateException("UnixSocketPath and KeywordFilePath are required when TCP is disabled.");
+                }
+            } else if (this.host == null || this.port <= 0 || this.keywordFilePath == null) {
                 throw new IllegalStateException("Host, Port, and KeywordFilePath are required.");
             }
             return new ServerConfig(this);
@@ -107,4 +517,32 @@ public class ServerConfig {
     public static Builder builder() {
         return new Builder();
     }
+
+    /**
+     * Returns the default directory for materialized sources: {@code /dev/shm} when it is a
+     * writable tmpfs mount, otherwise the JVM's temporary directory.
+     *
+     * @return the default workspace directory path
+     */
+    public static String defaultWorkspaceDir() {
+        File shm = new File("/dev/shm");
+        return shm.isDirectory() && shm.canWrite() ? shm.getPath() : System.getProperty("java.io.tmpdir");
+    }
+
+    /**
+     * @return the resource caps of every compiler invocation
+     */
+    public CompileLimits getCompileLimits() {
+        return CompileLimits.builder().memoryBytes(compileMemoryBytes).cpuPercent(compileCpuPercent).maxPids(compileMaxPids).maxOutputBytes(compileOutputBytes).build();
+    }
+
+    /**
+     * Creates a builder pre-populated with the values of this configuration,
+     * so a copy with a few adjusted settings can be built.
+     *
+     * @return a new builder holding this configuration's values
+     */
+    public Builder toBuilder() {
+        return new Builder().host(host).port(port).keywordFilePath(keywordFilePath).compilerPath(compilerPath).cppStandard(cppStandard).nettyThreads(nettyThreads).transport(transport).acceptors(acceptors).unixSocketPath(unixSocketPath).unixSocketPermissions(unixSocketPermissions).disableTcp(disableTcp).judgeThreads(judgeThreads).judgeQueueSize(judgeQueueSize).admissionMaxWaitMs(admissionMaxWaitMs).defaultPriority(defaultPriority).maxPriority(maxPriority).priorityAgingMs(priorityAgingMs).runSlots(runSlots).runCpus(runCpus).isolateRuns(isolateRuns).wallTimeFactor(wallTimeFactor).compileConcurrency(compileConcurrency).compileCpus(compileCpus).compileTimeoutMs(compileTimeoutMs).compileMemoryBytes(compileMemoryBytes).compileCpuPercent(compileCpuPercent).compileMaxPids(compileMaxPids).compileOutputBytes(compileOutputBytes).inMemorySourceLimit(inMemorySourceLimit).workspaceDir(workspaceDir).checkpointCacheBytes(checkpointCacheBytes).problemDir(problemDir).configSpillThreshold(configSpillThreshold).legacyExtendedDigests(legacyExtendedDigests).verdictCacheEntries(verdictCacheEntries).verdictCacheTtlMs(verdictCacheTtlMs).binaryCacheDir(binaryCacheDir).binaryCacheBytes(binaryCacheBytes).pchDir(pchDir).ticketDir(ticketDir).ticketCallbackUrl(ticketCallbackUrl).ticketMaxPending(ticketMaxPending).ticketResultTtlMs(ticketResultTtlMs).disableSecurityArgs(disableSecurityArgs).disableMemLimit(disableMemLimit).useOldFormat(useOldFormat);
+    }
 }
@@ -0,0 +1,62 @@
+package org.bcmoj.config;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+import org.bcmoj.utils.FileUtil;
+
+import java.io.File;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A judge configuration that was parsed while it was being received, with its checkpoint data
+ * written to files instead of being kept in memory.
+ *
+ * <p>{@link #getRoot()} is the configuration without the data: every spilled {@code in}/{@code out}
+ * value (old format: {@code N_in}/{@code N_out}) is an empty string, so the tree still passes
+ * schema validation. The data itself, already unescaped, is in the files of
+ * {@link #getSpilledValues()}, keyed by {@link #key(String, String, boolean)}.</p>
+ *
+ * <p>The configuration owns its spill directory; {@link #cleanup()} deletes it.</p>
+ *
+ * @author SleepingCui
+ */
+@Slf4j
+@Getter
+public class SpilledConfig {
+    /** The configuration without checkpoint data, or {@code null} if it was not valid JSON. */
+    private final JsonNode root;
+    private final Map<String, File> spilledValues;
+    /** Digests of referenced checkpoint data that was not in the checkpoint cache. */
+    private final List<String> missingRefs;
+    private final File spillDir;
+    private final long receivedBytes;
+
+    public SpilledConfig(JsonNode root, Map<String, File> spilledValues, List<String> missingRefs, File spillDir, long receivedBytes) {
+        this.root = root;
+        this.spilledValues = Map.copyOf(spilledValues);
+        this.missingRefs = List.copyOf(missingRefs);
+        this.spillDir = spillDir;
+        this.receivedBytes = receivedBytes;
+    }
+
+    /**
+     * Builds the key of a spilled checkpoint value.
+     *
+     * @param checkpoint   the checkpoint id ({@code "1"}) in the new format, ignored in the old format
+     * @param field        {@code "in"}/{@code "out"} in the new format, {@code "1_in"}/{@code "1_out"} in the old format
+     * @param useOldFormat whether the configuration uses the old format
+     * @return the key
+     */
+    public static String key(String checkpoint, String field, boolean useOldFormat) {
+        return useOldFormat ? field : checkpoint + "/" + field;
+    }
+
+    /**
+     * Deletes the spill directory and everything in it.
+     */
+    public void cleanup() {
+        FileUtil.deleteRecursively(spillDir);
+    }
+}
@@ -0,0 +1,13 @@
+package org.bcmoj.exceptions;
+
+import lombok.Getter;
+
+@Getter
+public class CompileResourceExceededException extends Exception {
+    private final String resource;
+
+    public CompileResourceExceededException(String resource, String limit) {
+        super("Compiler exceeded its " + resource + " limit (" + limit + ")");
+        this.resource = resource;
+    }
+}
@@ -5,9 +5,15 @@ import lombok.Getter;
 @Getter
 public class TimeoutException extends Exception {
     private final double elapsedTime;
+    private final double cpuTime;
 
     public TimeoutException(double elapsedTime) {
+        this(elapsedTime, elapsedTime);
+    }
+
+    public TimeoutException(double elapsedTime, double cpuTime) {
         super("TIMEOUT: " + elapsedTime);
         this.elapsedTime = elapsedTime;
+        this.cpuTime = cpuTime;
     }
 }
@@ -0,0 +1,81 @@
+package org.bcmoj.judger;
+
+import lombok.Getter;
+
+/**
+ * Resource caps for one compiler invocation. The memory, CPU and process caps are enforced by a
+ * {@link CompilerCgroup}; the output cap bounds how much of the compiler's diagnostics is logged.
+ * A value of 0 leaves the resource unlimited.
+ *
+ * <p>A compilation stopped by one of these caps or by the compile timeout is reported as compile
+ * resource exceeded (-6) rather than as a compile error.</p>
+ *
+ * @author SleepingCui
+ */
+@Getter
+public class CompileLimits {
+    /** No caps at all, the behaviour of the overloads without limits. */
+    public static final CompileLimits UNLIMITED = builder().memoryBytes(0).cpuPercent(0).maxPids(0).maxOutputBytes(0).build();
+
+    private final long memoryBytes; // Memory of the compiler and everything it starts, swap excluded
+    private final int cpuPercent; // 100 = one full core
+    private final int maxPids; // Processes and threads at the same time
+    private final int maxOutputBytes; // Diagnostics beyond this are discarded
+
+    private CompileLimits(Builder builder) {
+        this.memoryBytes = builder.memoryBytes;
+        this.cpuPercent = builder.cpuPercent;
+        this.maxPids = builder.maxPids;
+        this.maxOutputBytes = builder.maxOutputBytes;
+    }
+
+    /**
+     * @return {@code true} if any cap needs a cgroup
+     */
+    public boolean needsCgroup() {
+        return memoryBytes > 0 || cpuPercent > 0 || maxPids > 0;
+    }
+
+    @Override
+    public String toString() {
+        return "memory=" + (memoryBytes > 0 ? memoryBytes + " bytes" : "unlimited")
+                + ", cpu=" + (cpuPercent > 0 ? cpuPercent + "%" : "unlimited")
+                + ", pids=" + (maxPids > 0 ? maxPids : "unlimited")
+                + ", output=" + (maxOutputBytes > 0 ? maxOutputBytes + " bytes" : "unlimited");
+    }
+
+    public static class Builder {
+        private long memoryBytes = 1024L * 1024 * 1024;
+        private int cpuPercent = 0;
+        private int maxPids = 64;
+        private int maxOutputBytes = 64 * 1024;
+
+        public Builder memoryBytes(long memoryBytes) {
+            this.memoryBytes = Math.max(0, memoryBytes);
+            return this;
+        }
+
+        public Builder cpuPercent(int cpuPercent) {
+            this.cpuPercent = Math.max(0, cpuPercent);
+            return this;
+        }
+
+        public Builder maxPids(int maxPids) {
+            this.maxPids = Math.max(0, maxPids);
+            return this;
+        }
+
+        public Builder maxOutputBytes(int maxOutputBytes) {
+            this.maxOutputBytes = Math.max(0, maxOutputBytes);
+            return this;
+        }
+
+        public CompileLimits build() {
+            return new CompileLimits(this);
+        }
+    }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+}
@@ -1,12 +1,16 @@
 package org.bcmoj.judger;
 
 import lombok.extern.slf4j.Slf4j;
+import org.bcmoj.exceptions.CompileResourceExceededException;
+import org.bcmoj.utils.CpuAffinityUtil;
 
 import java.io.BufferedReader;
 import java.io.File;
+import java.io.IOException;
 import java.io.InputStreamReader;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Set;
 import java.util.concurrent.*;
 
 /**
@@ -20,11 +24,29 @@ import java.util.concurrent.*;
  *
  * <p>Handles cross-platform executable file naming for Windows.</p>
  *
+ * <p>Programs can be compiled against a precompiled {@value #PRECOMPILED_HEADER} built by
+ * {@link #compileHeader}; see {@link PrecompiledHeaders}.</p>
+ *
+ * <p>The compiler can be restricted to a set of CPUs, so that it does not compete with timed
+ * checkpoint runs; see {@link CpuAffinityUtil}.</p>
+ *
+ * <p>A compiler that times out, or whose thread is interrupted because the submission was
+ * cancelled, is killed together with the processes it started (cc1plus, as, ld).</p>
+ *
+ * <p>The compiler can be confined by {@link CompileLimits}: memory, CPU and process caps are
+ * enforced by a {@link CompilerCgroup}, and diagnostics beyond the output cap are discarded
+ * rather than logged. Running out of time or hitting a cgroup cap is reported as a
+ * {@link CompileResourceExceededException} instead of an exit code, so it can be told apart from
+ * a compile error.</p>
+ *
  * @author SleepingCui
  */
 @Slf4j
 public class Compiler {
 
+    /** Header that submissions include and that is precompiled by {@link #compileHeader}. */
+    public static final String PRECOMPILED_HEADER = "bits/stdc++.h";
+
     /**
      * Compiles a C++ program into an executable file.
      *
@@ -37,59 +59,191 @@ public class Compiler {
      * @param compilerPath        Path to the compiler executable; defaults to "g++" if null or empty
      * @param cppStandard         C++ standard version to use (e.g., "c++17", "c++20")
      * @return Exit code of the compilation process (0 indicates success)
-     * @throws Exception If an error occurs during compilation or the process times out
+     * @throws CompileResourceExceededException If the compiler does not finish within the timeout
+     * @throws Exception If an error occurs during compilation
      */
     public static int compileProgram(File programPath, File executableFile, boolean enableO2, boolean disableSecurityArgs, long timeoutMs, String compilerPath, String cppStandard) throws Exception {
-        String compiler = (compilerPath != null && !compilerPath.isEmpty()) ? compilerPath : "g++";
+        return compileProgram(programPath, executableFile, enableO2, disableSecurityArgs, timeoutMs, compilerPath, cppStandard, null, null, CompileLimits.UNLIMITED);
+    }
+
+    /**
+     * Compiles a C++ program into an executable file, optionally searching a directory of
+     * precompiled headers first, on a restricted set of CPUs and within resource caps.
+     *
+     * @param programPath         Path to the C++ source file to be compiled
+     * @param executableFile      Path where the compiled executable will be generated
+     * @param enableO2            Whether to enable the -O2 optimization flag
+     * @param disableSecurityArgs Whether to disable compiler security flags
+     * @param timeoutMs           Maximum time in milliseconds to wait for the compilation process
+     * @param compilerPath        Path to the compiler executable; defaults to "g++" if null or empty
+     * @param cppStandard         C++ standard version to use (e.g., "c++17", "c++20")
+     * @param pchIncludeDir       Directory holding {@code bits/stdc++.h.gch} built with the same flags, or {@code null}
+     * @param cpus                CPUs the compiler may run on, or {@code null} for any CPU
+     * @param limits              Resource caps of the compiler
+     * @return Exit code of the compilation process (0 indicates success)
+     * @throws CompileResourceExceededException If the compiler ran out of time or hit one of the caps
+     * @throws Exception If an error occurs during compilation
+     */
+    public static int compileProgram(File programPath, File executableFile, boolean enableO2, boolean disableSecurityArgs, long timeoutMs, String compilerPath, String cppStandard, File pchIncludeDir, Set<Integer> cpus, CompileLimits limits) throws Exception {
         List<String> command = new ArrayList<>();
-        command.add(compiler);
+        command.add(compiler(compilerPath));
         command.add("-o");
         command.add(executableFile.getAbsolutePath());
+        if (pchIncludeDir != null) {
+            command.add("-I" + pchIncludeDir.getAbsolutePath());
+            command.add("-Winvalid-pch"); // say why a precompiled header was not used
+        }
         command.add(programPath.getAbsolutePath());
-        command.add("-std=" + cppStandard);
-        if (enableO2) command.add("-O2");
+        command.addAll(compileFlags(enableO2, disableSecurityArgs, cppStandard));
+        if (!disableSecurityArgs) {
+            command.addAll(linkFlags());
+        }
+        return run(CpuAffinityUtil.pin(command, cpus), programPath.getParentFile(), timeoutMs, limits);
+    }
+
+    /**
+     * Precompiles {@value #PRECOMPILED_HEADER} with the flags {@link #compileProgram} uses for
+     * the same settings. The compiler only uses the result for programs built with matching
+     * flags and falls back to the real header otherwise.
+     *
+     * @param header              A header file that includes {@value #PRECOMPILED_HEADER}
+     * @param output              The {@code .gch} file to write
+     * @param enableO2            Whether programs are compiled with -O2
+     * @param disableSecurityArgs Whether programs are compiled without the security flags
+     * @param timeoutMs           Maximum time in milliseconds to wait for the compiler
+     * @param compilerPath        Path to the compiler executable; defaults to "g++" if null or empty
+     * @param cppStandard         C++ standard version to use
+     * @param cpus                CPUs the compiler may run on, or {@code null} for any CPU
+     * @param limits              Resource caps of the compiler
+     * @return Exit code of the compiler (0 indicates success)
+     * @throws CompileResourceExceededException If the compiler ran out of time or hit one of the caps
+     * @throws Exception If an error occurs during compilation
+     */
+    public static int compileHeader(File header, File output, boolean enableO2, boolean disableSecurityArgs, long timeoutMs, String compilerPath, String cppStandard, Set<Integer> cpus, CompileLimits limits) throws Exception {
+        List<String> command = new ArrayList<>();
+        command.add(compiler(compilerPath));
+        command.add("-x");
+        command.add("c++-header");
+        command.add(header.getAbsolutePath());
+        command.add("-o");
+        command.add(output.getAbsolutePath());
+        command.addAll(compileFlags(enableO2, disableSecurityArgs, cppStandard));
+        return run(CpuAffinityUtil.pin(command, cpus), header.getParentFile(), timeoutMs, limits);
+    }
+
+    private static String compiler(String compilerPath) {
+        return (compilerPath != null && !compilerPath.isEmpty()) ? compilerPath : "g++";
+    }
 
+    /**
+     * Flags that affect code generation and preprocessing, shared by programs and precompiled headers.
+     */
+    private static List<String> compileFlags(boolean enableO2, boolean disableSecurityArgs, String cppStandard) {
+        List<String> flags = new ArrayList<>();
+        flags.add("-std=" + cppStandard);
+        if (enableO2) flags.add("-O2");
         if (!disableSecurityArgs) {
-            command.add("-D_FORTIFY_SOURCE=2");
-            command.add("-fstack-protector-strong");
-            command.add("-fno-asm");
-            command.add("-fno-builtin");
-            command.add("-Wall");
-            if (System.getProperty("os.name").toLowerCase().contains("linux")) {
-                command.add("-Wl,-z,now,-z,relro");
-            } else if (System.getProperty("os.name").toLowerCase().contains("windows")) {
-                command.add("-Wl,--dynamicbase"); // ASLR
-                command.add("-Wl,--nxcompat"); // DEP
-                command.add("-static-libgcc");
-                command.add("-static-libstdc++");
-            } else if (System.getProperty("os.name").toLowerCase().contains("mac")) {
-                command.add("-Wl,-bind_at_load");
-            } else {
-                log.warn("Unknown OS: {} — using only base security flags", System.getProperty("os.name").toLowerCase());
-            }
+            flags.add("-D_FORTIFY_SOURCE=2");
+            flags.add("-fstack-protector-strong");
+            flags.add("-fno-asm");
+            flags.add("-fno-builtin");
+            flags.add("-Wall");
+        }
+        return flags;
+    }
+
+    /**
+     * Hardening flags for the linker, depending on the operating system.
+     */
+    private static List<String> linkFlags() {
+        List<String> flags = new ArrayList<>();
+        String os = System.getProperty("os.name").toLowerCase();
+        if (os.contains("linux")) {
+            flags.add("-Wl,-z,now,-z,relro");
+        } else if (os.contains("windows")) {
+            flags.add("-Wl,--dynamicbase"); // ASLR
+            flags.add("-Wl,--nxcompat"); // DEP
+            flags.add("-static-libgcc");
+            flags.add("-static-libstdc++");
+        } else if (os.contains("mac")) {
+            flags.add("-Wl,-bind_at_load");
+        } else {
+            log.warn("Unknown OS: {} — using only base security flags", os);
         }
+        return flags;
+    }
 
-        ProcessBuilder builder = new ProcessBuilder(command);
+    private static int run(List<String> command, File workDir, long timeoutMs, CompileLimits limits) throws Exception {
+        CompilerCgroup cgroup = CompilerCgroup.create(limits);
+        ProcessBuilder builder = new ProcessBuilder(cgroup != null ? cgroup.wrap(command) : command);
         builder.redirectErrorStream(true);
-        builder.directory(programPath.getParentFile());
+        builder.directory(workDir);
         long startTime = System.currentTimeMillis();
-        Process process = builder.start();
+        Process process;
+        try {
+            process = builder.start();
+        } catch (Exception e) {
+            if (cgroup != null) {
+                cgroup.close();
+            }
+            throw e;
+        }
         log.debug("Compilation started: PID={}, WorkDir={}", process.pid(), builder.directory() != null ? builder.directory().getAbsolutePath() : System.getProperty("user.dir"));
         log.debug("Compilation command: {}", String.join(" ", command));
         ExecutorService executor = Executors.newSingleThreadExecutor();
         try {
             Future<Integer> compileTask = executor.submit(() -> {
-                try (BufferedReader reader = new BufferedReader(new InputStreamReader(process.getInputStream()))) {
-                    reader.lines().forEach(line -> log.info("[Compiler] {}", line));
-                }
+                logOutput(process, limits.getMaxOutputBytes());
                 int exitCode = process.waitFor();
                 long duration = System.currentTimeMillis() - startTime;
                 log.info("Compilation finished: exitCode={}, duration={} ms", exitCode, duration);
                 return exitCode;
             });
-            return compileTask.get(timeoutMs, TimeUnit.MILLISECONDS);
+            int exitCode;
+            try {
+                exitCode = compileTask.get(timeoutMs, TimeUnit.MILLISECONDS);
+            } catch (TimeoutException e) {
+                log.warn("Compiler PID {} did not finish within {} ms", process.pid(), timeoutMs);
+                throw new CompileResourceExceededException("time", timeoutMs + " ms");
+            }
+            String exceeded = exitCode != 0 && cgroup != null ? cgroup.exceededLimit() : null;
+            if (exceeded != null) {
+                log.warn("Compiler PID {} exceeded its {} limit", process.pid(), exceeded);
+                throw new CompileResourceExceededException(exceeded, cgroup.describeLimit(exceeded));
+            }
+            return exitCode;
         } finally {
+            if (process.isAlive()) {
+                log.info("Killing compiler PID {}", process.pid());
+                Runner.destroyProcessTree(process);
+            }
+            if (cgroup != null) {
+                cgroup.close();
+            }
             executor.shutdownNow();
         }
     }
+
+    /**
+     * Logs the compiler's output up to {@code maxBytes} characters (0 = everything) and discards
+     * the rest, reading until the end so the compiler never blocks on a full pipe.
+     */
+    private static void logOutput(Process process, int maxBytes) throws IOException {
+        long logged = 0;
+        long discarded = 0;
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(process.getInputStream()))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (discarded > 0 || (maxBytes > 0 && logged + line.length() + 1 > maxBytes)) {
+                    discarded += line.length() + 1;
+                    continue;
+                }
+                logged += line.length() + 1;
+                log.info("[Compiler] {}", line);
+            }
+        }
+        if (discarded > 0) {
+            log.info("[Compiler] ... {} more characters of output discarded", discarded);
+        }
+    }
 }
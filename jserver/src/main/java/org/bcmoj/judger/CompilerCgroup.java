@@ -0,0 +1,260 @@
+package org.bcmoj.judger;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * A cgroup that holds one compiler invocation and everything it starts (cc1plus, as, ld), with
+ * the memory, CPU and process caps of a {@link CompileLimits}.
+ *
+ * <p>The compiler joins the cgroup before it is executed: {@link #wrap(List)} starts it through
+ * {@code /bin/sh}, which writes its own PID into the cgroup and then replaces itself with the
+ * compiler, so no child process can be forked outside the cgroup. Memory is capped without swap,
+ * so a runaway compilation is stopped instead of pushing the node into swap.</p>
+ *
+ * <p>Both the unified cgroup v2 hierarchy and the per-controller v1 hierarchies are supported.
+ * If the cgroup cannot be created (no permission, controller missing) the compiler runs without
+ * the caps and a warning is logged once.</p>
+ *
+ * @author SleepingCui
+ */
+@Slf4j
+class CompilerCgroup {
+    private static final String CGROUP_ROOT = "/sys/fs/cgroup";
+    private static final long CPU_PERIOD_US = 100_000;
+    private static final AtomicBoolean unavailableLogged = new AtomicBoolean();
+
+    private final boolean v2;
+    private final CompileLimits limits;
+    private final List<File> dirs = new ArrayList<>(); // one directory per v1 controller, a single one on v2
+    private File memoryDir;
+    private File pidsDir;
+
+    private CompilerCgroup(boolean v2, CompileLimits limits) {
+        this.v2 = v2;
+        this.limits = limits;
+    }
+
+    /**
+     * Creates a cgroup with the given caps.
+     *
+     * @param limits the caps
+     * @return the cgroup, or {@code null} if no cap needs one or cgroups cannot be used
+     */
+    static CompilerCgroup create(CompileLimits limits) {
+        if (!limits.needsCgroup() || !System.getProperty("os.name").toLowerCase().contains("linux")) {
+            return null;
+        }
+        String name = "bcmoj_compile_" + UUID.randomUUID().toString().replace("-", "");
+        boolean v2 = new File(CGROUP_ROOT, "cgroup.controllers").isFile();
+        CompilerCgroup cgroup = new CompilerCgroup(v2, limits);
+        try {
+            if (v2) {
+                cgroup.setUpV2(name);
+            } else {
+                cgroup.setUpV1(name);
+            }
+            return cgroup;
+        } catch (IOException e) {
+            cgroup.close();
+            if (unavailableLogged.compareAndSet(false, true)) {
+                log.warn("Cannot create a cgroup for the compiler, compiling without memory/CPU/pids caps: {}", e.getMessage());
+            }
+            return null;
+        }
+    }
+
+    private void setUpV2(String name) throws IOException {
+        File dir = mkdir(new File(CGROUP_ROOT, name));
+        if (limits.getMemoryBytes() > 0) {
+            write(new File(dir, "memory.max"), String.valueOf(limits.getMemoryBytes()));
+            writeIfPresent(new File(dir, "memory.swap.max"), "0");
+            memoryDir = dir;
+        }
+        if (limits.getMaxPids() > 0) {
+            write(new File(dir, "pids.max"), String.valueOf(limits.getMaxPids()));
+            pidsDir = dir;
+        }
+        if (limits.getCpuPercent() > 0) {
+            write(new File(dir, "cpu.max"), cpuQuotaUs() + " " + CPU_PERIOD_US);
+        }
+    }
+
+    private void setUpV1(String name) throws IOException {
+        if (limits.getMemoryBytes() > 0) {
+            File dir = mkdir(new File(CGROUP_ROOT + "/memory", name));
+            write(new File(dir, "memory.limit_in_bytes"), String.valueOf(limits.getMemoryBytes()));
+            writeIfPresent(new File(dir, "memory.memsw.limit_in_bytes"), String.valueOf(limits.getMemoryBytes())); // memory + swap, i.e. no swap
+            memoryDir = dir;
+        }
+        if (limits.getMaxPids() > 0) {
+            File dir = mkdir(new File(CGROUP_ROOT + "/pids", name));
+            write(new File(dir, "pids.max"), String.valueOf(limits.getMaxPids()));
+            pidsDir = dir;
+        }
+        if (limits.getCpuPercent() > 0) {
+            File dir = mkdir(new File(CGROUP_ROOT + "/cpu", name));
+            write(new File(dir, "cpu.cfs_period_us"), String.valueOf(CPU_PERIOD_US));
+            write(new File(dir, "cpu.cfs_quota_us"), String.valueOf(cpuQuotaUs()));
+        }
+    }
+
+    /**
+     * Prefixes a command so that the process joins this cgroup before it executes the command.
+     *
+     * @param command the command and its arguments
+     * @return the command to start
+     */
+    List<String> wrap(List<String> command) {
+        StringBuilder script = new StringBuilder();
+        for (File dir : dirs) {
+            script.append("echo $$ > '").append(new File(dir, "cgroup.procs").getAbsolutePath()).append("' && ");
+        }
+        script.append("exec \"$@\"");
+        List<String> wrapped = new ArrayList<>(command.size() + 4);
+        wrapped.add("/bin/sh");
+        wrapped.add("-c");
+        wrapped.add(script.toString());
+        wrapped.add("sh");
+        wrapped.addAll(command);
+        return wrapped;
+    }
+
+    /**
+     * Tells which cap stopped the compiler, if any. Meaningful once the compiler has exited.
+     *
+     * @return a description such as {@code "memory"}, or {@code null} if no cap was hit
+     */
+    String exceededLimit() {
+        if (memoryDir != null) {
+            boolean hit = v2 ? readCounter(new File(memoryDir, "memory.events"), "oom_kill") > 0 || readCounter(new File(memoryDir, "memory.events"), "max") > 0
+                    : readCounter(new File(memoryDir, "memory.oom_control"), "oom_kill") > 0 || readValue(new File(memoryDir, "memory.failcnt")) > 0 || readValue(new File(memoryDir, "memory.memsw.failcnt")) > 0;
+            if (hit) {
+                return "memory";
+            }
+        }
+        if (pidsDir != null && readCounter(new File(pidsDir, "pids.events"), "max") > 0) {
+            return "pids";
+        }
+        return null;
+    }
+
+    /**
+     * Describes the cap of a resource reported by {@link #exceededLimit()}.
+     */
+    String describeLimit(String resource) {
+        return switch (resource) {
+            case "memory" -> limits.getMemoryBytes() + " bytes";
+            case "pids" -> limits.getMaxPids() + " processes";
+            default -> limits.toString();
+        };
+    }
+
+    /**
+     * Kills every process still in the cgroup.
+     */
+    void killAll() {
+        for (File dir : dirs) {
+            File killFile = new File(dir, "cgroup.kill");
+            if (v2 && killFile.exists()) {
+                try {
+                    write(killFile, "1");
+                    continue;
+                } catch (IOException e) {
+                    log.debug("Could not write {}: {}", killFile, e.getMessage());
+                }
+            }
+            for (long pid : pids(dir)) {
+                ProcessHandle.of(pid).ifPresent(ProcessHandle::destroyForcibly);
+            }
+        }
+    }
+
+    /**
+     * Kills whatever is left in the cgroup and removes it.
+     */
+    void close() {
+        killAll();
+        for (File dir : dirs) {
+            for (int attempt = 0; dir.exists() && !dir.delete() && attempt < 20; attempt++) {
+                try {
+                    Thread.sleep(10); // killed processes leave the cgroup asynchronously
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    break;
+                }
+            }
+            if (dir.exists()) {
+                log.warn("Failed to delete compiler cgroup '{}'", dir);
+            }
+        }
+    }
+
+    private long cpuQuotaUs() {
+        return Math.max(1000, CPU_PERIOD_US * limits.getCpuPercent() / 100);
+    }
+
+    private File mkdir(File dir) throws IOException {
+        if (!dir.mkdir()) {
+            throw new IOException("Failed to create cgroup directory " + dir);
+        }
+        dirs.add(dir);
+        return dir;
+    }
+
+    private static void write(File file, String value) throws IOException {
+        Files.writeString(file.toPath(), value);
+    }
+
+    private static void writeIfPresent(File file, String value) throws IOException {
+        if (file.exists()) {
+            write(file, value);
+        }
+    }
+
+    private static long readValue(File file) {
+        try {
+            return Long.parseLong(Files.readString(file.toPath()).trim());
+        } catch (IOException | NumberFormatException e) {
+            return 0;
+        }
+    }
+
+    /**
+     * Reads one {@code key value} line of a flat-keyed cgroup file such as {@code memory.events}.
+     */
+    private static long readCounter(File file, String key) {
+        try {
+            for (String line : Files.readAllLines(file.toPath())) {
+                String[] parts = line.trim().split("\\s+");
+                if (parts.length == 2 && parts[0].equals(key)) {
+                    return Long.parseLong(parts[1]);
+                }
+            }
+        } catch (IOException | NumberFormatException e) {
+            log.debug("Could not read {} from {}: {}", key, file, e.getMessage());
+        }
+        return 0;
+    }
+
+    private static List<Long> pids(File dir) {
+        List<Long> pids = new ArrayList<>();
+        try {
+            for (String line : Files.readAllLines(new File(dir, "cgroup.procs").toPath())) {
+                if (!line.isBlank()) {
+                    pids.add(Long.parseLong(line.trim()));
+                }
+            }
+        } catch (IOException | NumberFormatException e) {
+            log.debug("Could not read processes of cgroup '{}': {}", dir, e.getMessage());
+        }
+        return pids;
+    }
+}
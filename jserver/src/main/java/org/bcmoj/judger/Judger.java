@@ -7,7 +7,10 @@ import org.bcmoj.utils.OutputCompareUtil;
 import org.bcmoj.utils.StringUtil;
 
 import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
+import java.util.Set;
 
 /**
  * Judger provides methods to evaluate a compiled C++ executable against test cases.
@@ -20,9 +23,10 @@ import java.nio.file.Files;
  *
  * Status codes:
  * <ul>
+ *     <li>-6: Compile Resource Exceeded</li>
  *     <li>-4: Compile Error</li>
  *     <li>-3: Wrong Answer</li>
- *     <li>2: Real Time Limit Exceeded</li>
+ *     <li>2: Real Time Limit Exceeded (CPU time, or the wall-clock limit for programs that block)</li>
  *     <li>3: Memory Limit Exceeded</li>
  *     <li>4: Runtime Error</li>
  *     <li>5: System Error</li>
@@ -35,6 +39,7 @@ import java.nio.file.Files;
 @Slf4j
 public class Judger {
 
+    public static final int COMPILE_RESOURCE_EXCEEDED = -6;
     public static final int COMPILE_ERROR = -4;
     public static final int WRONG_ANSWER = -3;
     public static final int REAL_TIME_LIMIT_EXCEEDED = 2;
@@ -43,16 +48,26 @@ public class Judger {
     public static final int SYSTEM_ERROR = 5;
     public static final int ACCEPTED = 1;
 
+    /**
+     * Verdict of one test case. {@code time} is the wall-clock time and {@code cpuTime} the CPU
+     * time (user + system) of the run, both in milliseconds.
+     */
     public static class JudgeResult {
         public final int statusCode;
         public final double time;
+        public final double cpuTime;
         public final long maxMemoryUsedKB;
 
         public JudgeResult(int statusCode, double time, long maxMemoryUsedKB) {
+            this(statusCode, time, time, maxMemoryUsedKB);
+        }
+
+        public JudgeResult(int statusCode, double time, double cpuTime, long maxMemoryUsedKB) {
             this.statusCode = statusCode;
             this.time = time;
+            this.cpuTime = cpuTime;
             this.maxMemoryUsedKB = maxMemoryUsedKB;
-            log.debug("Judge process finished. Status code: {}, Elapsed time: {} ms, Max memory used: {} KB", statusCode, time, maxMemoryUsedKB);
+            log.debug("Judge process finished. Status code: {}, Elapsed time: {} ms, CPU time: {} ms, Max memory used: {} KB", statusCode, time, cpuTime, maxMemoryUsedKB);
         }
     }
 
@@ -71,25 +86,97 @@ public class Judger {
      * @throws MemoryLimitExceededException If the process exceeds the memory limit.
      */
     public static JudgeResult judge(File originalExe, String inputContent, String expectedOutputContent, int time, long memoryLimitKB, OutputCompareUtil.CompareMode compareMode, boolean DisableMemLimit) throws MemoryLimitExceededException { // Added MemoryLimitExceededException to throws clause
+        return judge(originalExe, inputContent, expectedOutputContent, time, time, memoryLimitKB, compareMode, DisableMemLimit, null, false);
+    }
+
+    /**
+     * Judges a compiled C++ executable against a single test case, running it on a restricted
+     * set of CPUs.
+     *
+     * @param originalExe The compiled executable file
+     * @param inputContent The input string for the test case
+     * @param expectedOutputContent The expected output string
+     * @param time CPU time limit in milliseconds
+     * @param wallTime Wall-clock limit in milliseconds, see {@link Runner}
+     * @param memoryLimitKB Memory limit in kilobytes
+     * @param compareMode Output comparison mode
+     * @param disableMemLimit Flag to disable memory limiting and monitoring entirely.
+     * @param cpus The CPUs the program may run on, or {@code null} for any CPU
+     * @param disableAslr Run the program without address space layout randomization
+     * @return {@link JudgeResult} containing status code, execution time, and max memory used
+     */
+    public static JudgeResult judge(File originalExe, String inputContent, String expectedOutputContent, int time, int wallTime, long memoryLimitKB, OutputCompareUtil.CompareMode compareMode, boolean disableMemLimit, Set<Integer> cpus, boolean disableAslr) {
+        return judge(originalExe, exe -> Runner.runProgram(exe, StringUtil.unescapeString(inputContent), time, wallTime, memoryLimitKB, disableMemLimit, cpus, disableAslr), () -> StringUtil.unescapeString(expectedOutputContent), compareMode);
+    }
+
+    /**
+     * Judges a compiled C++ executable against a test case stored in files, as in a problem
+     * package. The input file becomes the program's standard input as it is; neither file is
+     * unescaped.
+     *
+     * @param originalExe The compiled executable file
+     * @param inputFile The input file for the test case
+     * @param expectedOutputFile The expected output file
+     * @param time Time limit in milliseconds
+     * @param memoryLimitKB Memory limit in kilobytes
+     * @param compareMode Output comparison mode
+     * @param disableMemLimit Flag to disable memory limiting and monitoring entirely.
+     * @return {@link JudgeResult} containing status code, execution time, and max memory used
+     */
+    public static JudgeResult judge(File originalExe, File inputFile, File expectedOutputFile, int time, long memoryLimitKB, OutputCompareUtil.CompareMode compareMode, boolean disableMemLimit) {
+        return judge(originalExe, inputFile, expectedOutputFile, time, time, memoryLimitKB, compareMode, disableMemLimit, null, false);
+    }
+
+    /**
+     * Judges a compiled C++ executable against a test case stored in files, running it on a
+     * restricted set of CPUs.
+     *
+     * @param originalExe The compiled executable file
+     * @param inputFile The input file for the test case
+     * @param expectedOutputFile The expected output file
+     * @param time CPU time limit in milliseconds
+     * @param wallTime Wall-clock limit in milliseconds, see {@link Runner}
+     * @param memoryLimitKB Memory limit in kilobytes
+     * @param compareMode Output comparison mode
+     * @param disableMemLimit Flag to disable memory limiting and monitoring entirely.
+     * @param cpus The CPUs the program may run on, or {@code null} for any CPU
+     * @param disableAslr Run the program without address space layout randomization
+     * @return {@link JudgeResult} containing status code, execution time, and max memory used
+     */
+    public static JudgeResult judge(File originalExe, File inputFile, File expectedOutputFile, int time, int wallTime, long memoryLimitKB, OutputCompareUtil.CompareMode compareMode, boolean disableMemLimit, Set<Integer> cpus, boolean disableAslr) {
+        return judge(originalExe, exe -> Runner.runProgram(exe, inputFile, time, wallTime, memoryLimitKB, disableMemLimit, cpus, disableAslr), () -> new String(Files.readAllBytes(expectedOutputFile.toPath()), StandardCharsets.UTF_8), compareMode);
+    }
+
+    /** Runs the program copy for one test case. */
+    private interface RunStep {
+        Runner.RunResult run(File exe) throws Exception;
+    }
+
+    /** Supplies the expected output once the program has finished. */
+    private interface ExpectedOutput {
+        String read() throws IOException;
+    }
+
+    private static JudgeResult judge(File originalExe, RunStep runStep, ExpectedOutput expectedOutput, OutputCompareUtil.CompareMode compareMode) {
         File tempExe = null;
         try {
             tempExe = Files.createTempFile("exe_copy_", System.getProperty("os.name").toLowerCase().contains("win") ? ".exe" : "").toFile();
             Files.copy(originalExe.toPath(), tempExe.toPath(), java.nio.file.StandardCopyOption.REPLACE_EXISTING);
-            Runner.RunResult runResult = Runner.runProgram(tempExe, StringUtil.unescapeString(inputContent), time, memoryLimitKB, DisableMemLimit);
+            Runner.RunResult runResult = runStep.run(tempExe);
             if (runResult.exitCode != 0) {
                 log.warn("Runtime error, exit code {}", runResult.exitCode);
-                return new JudgeResult(RUNTIME_ERROR, runResult.elapsedTime, runResult.maxMemoryUsedKB);
+                return new JudgeResult(RUNTIME_ERROR, runResult.elapsedTime, runResult.cpuTime, runResult.maxMemoryUsedKB);
             }
 
-            boolean outputMatches = OutputCompareUtil.compare(runResult.output, StringUtil.unescapeString(expectedOutputContent), compareMode);
-            return outputMatches ? new JudgeResult(ACCEPTED, runResult.elapsedTime, runResult.maxMemoryUsedKB) : new JudgeResult(WRONG_ANSWER, runResult.elapsedTime, runResult.maxMemoryUsedKB); // Pass maxMemoryUsedKB
+            boolean outputMatches = OutputCompareUtil.compare(runResult.output, expectedOutput.read(), compareMode);
+            return new JudgeResult(outputMatches ? ACCEPTED : WRONG_ANSWER, runResult.elapsedTime, runResult.cpuTime, runResult.maxMemoryUsedKB);
 
         }  catch (MemoryLimitExceededException e) {
             log.info("Execution exceeded memory limit after {} ms, max memory used: {} KB", e.getElapsedTime(), e.getMaxMemoryUsedKB());
             return new JudgeResult(MEMORY_LIMIT_EXCEEDED, e.getElapsedTime(), e.getMaxMemoryUsedKB());
         } catch (TimeoutException e) {
-            log.info("Execution timed out after {} ms", e.getElapsedTime());
-            return new JudgeResult(REAL_TIME_LIMIT_EXCEEDED, e.getElapsedTime(), 0L);
+            log.info("Execution timed out after {} ms ({} ms CPU time)", e.getElapsedTime(), e.getCpuTime());
+            return new JudgeResult(REAL_TIME_LIMIT_EXCEEDED, e.getElapsedTime(), e.getCpuTime(), 0L);
         } catch (Exception e) {
             log.error("System error: {}", e.getMessage(), e);
             return new JudgeResult(SYSTEM_ERROR, 0.0, 0L);
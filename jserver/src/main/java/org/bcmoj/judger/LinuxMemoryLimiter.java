@@ -4,6 +4,8 @@ import lombok.extern.slf4j.Slf4j;
 import org.bcmoj.exceptions.TimeoutException;
 
 import java.io.*;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicLong;
@@ -13,12 +15,29 @@ import java.util.regex.Pattern;
  * Manages Linux cgroups for memory limiting and monitors memory usage of a given process.
  *
  * <p>This class handles the creation and configuration of a cgroup (v1 or v2)
- * to enforce a memory limit on a specified process. It also starts a dedicated
- * thread to monitor the process's memory usage (VmRSS) by reading /proc/<pid>/status.</p>
+ * to enforce a memory limit on a specified process.</p>
  *
- * <p>The monitoring thread periodically checks the process's memory and records
- * the peak value observed. The monitoring stops when the process finishes or
- * when explicitly signaled via the {@code processFinished} flag.</p>
+ * <p>The cgroup is created before the program is started, and the program joins it before it is
+ * executed: {@link #wrap(List)} starts it through {@code /bin/sh}, which writes its own PID into
+ * the cgroup and then replaces itself with the program, like {@link CompilerCgroup#wrap(List)}.
+ * Every page the program touches, even while its input is still being written, is therefore
+ * charged to the cgroup and counted against the limit.</p>
+ *
+ * <p>Since the program is in the cgroup from its first instruction, the kernel does the
+ * accounting: the peak usage of the whole cgroup (the program and anything it started) is read
+ * once from {@code memory.peak} (v2) or {@code memory.max_usage_in_bytes} (v1) when the process
+ * has exited, and an out-of-memory kill is read from the {@code oom_kill} counter of
+ * {@code memory.events} (v2) or {@code memory.oom_control} (v1). Nothing is polled while the
+ * program runs.</p>
+ *
+ * <p>Only on v2 kernels without {@code memory.peak} does a dedicated thread monitor the
+ * process's memory usage (VmRSS) by reading /proc/<pid>/status every 50 ms and record the peak
+ * value observed. The monitoring stops when the process finishes or when explicitly signaled
+ * via the {@code processFinished} flag.</p>
+ *
+ * <p>The CPU time (user + system) of the program is accounted by the kernel as well: from
+ * {@code cpu.stat} of the cgroup on v2, and from a companion cgroup in the v1 {@code cpuacct}
+ * hierarchy on v1. See {@link #getCpuTimeMs()}.</p>
  *
  * <p>Resource cleanup (stopping the monitor thread, removing the process from
  * the cgroup, and deleting the cgroup directory) is performed by the
@@ -30,7 +49,10 @@ import java.util.regex.Pattern;
 public class LinuxMemoryLimiter {
 
     private static final String CGROUP_V1_MEMORY_PATH = "/sys/fs/cgroup/memory";
+    private static final String CGROUP_V1_CPUACCT_PATH = "/sys/fs/cgroup/cpuacct";
     private static final String CGROUP_V2_UNIFIED_PATH = "/sys/fs/cgroup";
+    private static final long MIN_CPU_CHECK_INTERVAL_MS = 10;
+    private static final int EXIT_CODE_SIGKILL = 137;
     private static final Pattern PID_PATTERN = Pattern.compile("\\d+");
 
     private final long memoryLimitKB;
@@ -38,45 +60,45 @@ public class LinuxMemoryLimiter {
     private final String cgroupName;
     private final String cgroupPath;
     private final String cgroupTasksPath;
-    private final Process process;
-    private final long pid;
+    private Process process;
+    private long pid = -1;
 
     private Thread memoryMonitorThread;
+    private final String peakPath;
+    private boolean nativePeak; // the peak file is read at exit instead of polling VmRSS
+    private boolean inCgroup;
+    private String cpuacctPath; // v1 only; null if the cpuacct cgroup could not be set up
+    private boolean cpuAccounted;
+    private double cpuTimeMs = -1;
     private final AtomicBoolean processFinished = new AtomicBoolean(false);
     private final AtomicLong maxMemoryKB = new AtomicLong(0);
 
     /**
-     * Constructs a LinuxMemoryLimiter for the given process.
+     * Constructs a LinuxMemoryLimiter for a program that is yet to be started.
      *
      * <p>Detects the cgroup version (v1 or v2) used by the system.</p>
      *
-     * @param process The process to monitor and limit.
      * @param memoryLimitKB The memory limit to enforce, in kilobytes.
      */
-    public LinuxMemoryLimiter(Process process, long memoryLimitKB) {
-        this.process = process;
-        this.pid = process.pid();
+    public LinuxMemoryLimiter(long memoryLimitKB) {
         this.memoryLimitKB = memoryLimitKB;
         this.isV2 = isCgroupV2Available();
-        log.debug("Detected cgroup version: {} for PID {}.", isV2 ? "v2" : "v1", pid);
+        log.debug("Detected cgroup version: {}.", isV2 ? "v2" : "v1");
 
         this.cgroupName = "judger_" + System.currentTimeMillis() + "_" + Thread.currentThread().getId();
         this.cgroupPath = (isV2 ? CGROUP_V2_UNIFIED_PATH : CGROUP_V1_MEMORY_PATH) + "/" + cgroupName;
         this.cgroupTasksPath = isV2 ? cgroupPath + "/cgroup.procs" : cgroupPath + "/tasks";
+        this.peakPath = isV2 ? cgroupPath + "/memory.peak" : cgroupPath + "/memory.max_usage_in_bytes";
     }
 
     /**
-     * Sets up the cgroup and starts memory monitoring.
+     * Creates the cgroup and sets the memory limit. Must be called before the program is started
+     * with the command returned by {@link #wrap(List)}.
      *
-     * <p>This method creates the cgroup directory, sets the memory limit,
-     * attempts to add the process to the cgroup, and starts the memory monitoring thread.</p>
-     * <p>If the process has already finished before adding it to the cgroup, it logs a warning
-     * and skips the cgroup setup and monitoring.</p>
+     * <p>On v1 a companion cgroup in the {@code cpuacct} hierarchy is created as well, if the
+     * hierarchy is mounted; without it the CPU time is not accounted.</p>
      *
-     * @throws IOException If an error occurs during cgroup setup (e.g., creating directory,
-     *                     writing limit file) and the process is still alive.
-     *                     If the process dies during the PID assignment step, it logs a warning
-     *                     and returns without throwing an exception.
+     * @throws IOException If the cgroup directory or the limit file cannot be written.
      */
     public void setup() throws IOException {
         log.debug("Attempting to set up cgroup '{}' for memory limit {} KB using cgroup v{}.", cgroupName, memoryLimitKB, isV2 ? 2 : 1);
@@ -96,26 +118,118 @@ public class LinuxMemoryLimiter {
             limitWriter.write(limitValue);
         }
         log.debug("Set memory limit to {} in cgroup '{}'.", limitValue, cgroupName);
-        if (!process.isAlive()) {
-            log.warn("Process PID {} has already finished before adding it to cgroup '{}'", pid, cgroupName);
-            log.warn("Skipping cgroup assignment and memory monitoring");
-            return;
+        nativePeak = new File(peakPath).exists();
+        cpuAccounted = isV2 ? new File(cgroupPath, "cpu.stat").exists() : createCpuacctCgroup();
+    }
+
+    /**
+     * Creates a cgroup in the v1 {@code cpuacct} hierarchy, which is separate from the memory
+     * hierarchy on v1.
+     *
+     * @return {@code true} if the cgroup was created
+     */
+    private boolean createCpuacctCgroup() {
+        File dir = new File(CGROUP_V1_CPUACCT_PATH, cgroupName);
+        if (!new File(CGROUP_V1_CPUACCT_PATH).isDirectory() || !dir.mkdir()) {
+            log.debug("No cpuacct cgroup '{}', CPU time falls back to wall time.", cgroupName);
+            return false;
         }
+        cpuacctPath = dir.getPath();
+        return true;
+    }
 
-        try (FileWriter tasksWriter = new FileWriter(cgroupTasksPath)) {
-            tasksWriter.write(String.valueOf(pid));
-        } catch (IOException e) {
-            if (!process.isAlive()) {
-                log.warn("Process PID {} has already finished before adding it to cgroup '{}'", pid, cgroupName);
-                log.warn("Skipping cgroup assignment and memory monitoring");
-                return;
-            } else {
-                log.error("Failed to add process PID {} to cgroup '{}' tasks file '{}'. Process is still alive. Error: {}", pid, cgroupName, cgroupTasksPath, e.getMessage());
-                throw e;
+    /**
+     * Prefixes a command so that the process joins the cgroup (and on v1 the {@code cpuacct}
+     * cgroup) before it executes the command. If it cannot join, the command is not executed.
+     *
+     * @param command the command and its arguments
+     * @return the command to start
+     */
+    public List<String> wrap(List<String> command) {
+        StringBuilder script = new StringBuilder("echo $$ > '").append(cgroupTasksPath).append("' && ");
+        if (cpuacctPath != null) {
+            script.append("echo $$ > '").append(new File(cpuacctPath, "cgroup.procs").getPath()).append("' && ");
+        }
+        script.append("exec \"$@\"");
+        List<String> wrapped = new ArrayList<>(command.size() + 4);
+        wrapped.add("/bin/sh");
+        wrapped.add("-c");
+        wrapped.add(script.toString());
+        wrapped.add("sh");
+        wrapped.addAll(command);
+        return wrapped;
+    }
+
+    /**
+     * Starts monitoring a process started with the command returned by {@link #wrap(List)}.
+     *
+     * @param process The process to monitor and limit.
+     */
+    public void attach(Process process) {
+        this.process = process;
+        this.pid = process.pid();
+        inCgroup = true;
+        log.debug("PID {} runs in cgroup '{}'.", pid, cgroupName);
+        if (!nativePeak) {
+            startMemoryMonitoring();
+        }
+    }
+
+    /**
+     * Tells whether the process actually joined the cgroup, i.e. whether the kernel accounted
+     * anything to it. Meaningful once the process has exited and before
+     * {@link #cleanupAndGetMaxMemory()} removes the cgroup. If it did not join, the program was
+     * never executed.
+     *
+     * @return {@code true} if the cgroup was used
+     */
+    public boolean hasJoined() {
+        if (isV2) {
+            return readKeyedValue(new File(cgroupPath, "cpu.stat"), "usage_usec") > 0;
+        }
+        return readValue(new File(peakPath)) > 0;
+    }
+
+    /**
+     * Reads the CPU time the kernel has accounted to the cgroup.
+     *
+     * @return user + system time in milliseconds, or -1 if it is not available
+     */
+    private double readCgroupCpuTimeMs() {
+        if (isV2) {
+            long userUs = readKeyedValue(new File(cgroupPath, "cpu.stat"), "user_usec");
+            long systemUs = readKeyedValue(new File(cgroupPath, "cpu.stat"), "system_usec");
+            return userUs < 0 || systemUs < 0 ? -1 : (userUs + systemUs) / 1000.0;
+        }
+        long usageNs = readValue(new File(cpuacctPath, "cpuacct.usage"));
+        return usageNs < 0 ? -1 : usageNs / 1_000_000.0;
+    }
+
+    /**
+     * Returns the CPU time (user + system) used by the process and everything it started, as
+     * read by {@link #cleanupAndGetMaxMemory()} or, after a timeout, by {@link #waitForProcess(long)}.
+     *
+     * @return CPU time in milliseconds, or -1 if the kernel could not account it
+     *         (the process was never in the cgroup, or no CPU accounting is available)
+     */
+    public double getCpuTimeMs() {
+        return cpuTimeMs;
+    }
+
+    /**
+     * @return {@code true} if the kernel accounts the CPU time of the process, known after {@link #setup()}
+     */
+    public boolean isCpuAccounted() {
+        return cpuAccounted;
+    }
+
+    private void recordCpuTime() {
+        if (cpuAccounted && cpuTimeMs < 0) {
+            double accounted = readCgroupCpuTimeMs();
+            if (accounted >= 0) {
+                cpuTimeMs = accounted;
             }
         }
-        log.debug("Added PID {} to cgroup '{}'.", pid, cgroupName);
-        startMemoryMonitoring();
     }
 
     /**
@@ -184,12 +298,72 @@ public class LinuxMemoryLimiter {
     }
 
 
+    /**
+     * Tells whether the kernel killed the process, or one it started, for exceeding the memory
+     * limit. Must be called before {@link #cleanupAndGetMaxMemory()} removes the cgroup.
+     *
+     * <p>The {@code oom_kill} counter of the cgroup is used ({@code memory.events} on v2,
+     * {@code memory.oom_control} on v1). Only where the kernel has no such counter, or the process
+     * never joined the cgroup, is a SIGKILL exit status taken as an OOM kill.</p>
+     *
+     * @return {@code true} if the process was OOM-killed
+     */
+    public boolean isOomKilled() {
+        if (inCgroup) {
+            long oomKills = readKeyedValue(new File(cgroupPath, isV2 ? "memory.events" : "memory.oom_control"), "oom_kill");
+            if (oomKills >= 0) {
+                return oomKills > 0;
+            }
+        }
+        return getExitCode() == EXIT_CODE_SIGKILL;
+    }
+
+    /**
+     * Waits for the process under a CPU time limit and a wall-clock limit. The CPU time is not
+     * polled: it is only read when the limit could first have been reached, i.e. after waiting
+     * for the CPU time still left, since a single-threaded program cannot use more CPU time
+     * than wall-clock time. Must only be used if {@link #isCpuAccounted()}.
+     *
+     * @param cpuLimitMs  the CPU time limit in milliseconds
+     * @param wallLimitMs the wall-clock limit in milliseconds
+     * @throws TimeoutException if either limit is exceeded; the process is killed
+     */
+    public void waitForProcess(long cpuLimitMs, long wallLimitMs) throws InterruptedException, TimeoutException {
+        long start = System.nanoTime();
+        long deadline = start + TimeUnit.MILLISECONDS.toNanos(wallLimitMs);
+        while (true) {
+            double accounted = readCgroupCpuTimeMs();
+            double used = Math.max(0, accounted);
+            if (used > cpuLimitMs) {
+                log.info("Process exceeded CPU time limit ({} ms), terminating PID {}.", cpuLimitMs, pid);
+                process.destroyForcibly();
+                process.waitFor(100, TimeUnit.MILLISECONDS);
+                recordCpuTime();
+                throw new TimeoutException((System.nanoTime() - start) / 1_000_000.0, cpuTimeMs >= 0 ? cpuTimeMs : used);
+            }
+            long wallLeftMs = TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime());
+            if (wallLeftMs <= 0) {
+                log.info("Process exceeded wall-clock limit ({} ms), terminating PID {}.", wallLimitMs, pid);
+                process.destroyForcibly();
+                process.waitFor(100, TimeUnit.MILLISECONDS);
+                recordCpuTime();
+                throw new TimeoutException(wallLimitMs, cpuTimeMs >= 0 ? cpuTimeMs : used);
+            }
+            long waitMs = Math.min(wallLeftMs, Math.max(MIN_CPU_CHECK_INTERVAL_MS, (long) Math.ceil(cpuLimitMs - used)));
+            if (process.waitFor(waitMs, TimeUnit.MILLISECONDS)) {
+                return;
+            }
+        }
+    }
+
     public void waitForProcess(long timeLimitMs) throws InterruptedException, TimeoutException {
         boolean finished = process.waitFor(timeLimitMs, TimeUnit.MILLISECONDS);
         if (!finished) {
             log.info("Process exceeded time limit ({} ms), terminating PID {}.", timeLimitMs, pid);
             process.destroyForcibly();
-            throw new TimeoutException((double) (timeLimitMs));
+            process.waitFor(100, TimeUnit.MILLISECONDS); // let the kill land, so the CPU time below is final
+            recordCpuTime();
+            throw new TimeoutException(timeLimitMs, cpuTimeMs >= 0 ? cpuTimeMs : timeLimitMs);
         }
     }
 
@@ -220,9 +394,20 @@ public class LinuxMemoryLimiter {
             memoryMonitorThread.join(1000); // Wait for monitor to finish
         }
 
-        long finalMaxMemory = maxMemoryKB.get();
-        log.debug("Final max memory retrieved from monitor after join: {} KB for PID {}.", finalMaxMemory, pid);
         File cgroupDir = new File(cgroupPath);
+        if (nativePeak && cgroupDir.exists()) {
+            try (BufferedReader peakReader = new BufferedReader(new FileReader(peakPath))) {
+                String peakBytes = peakReader.readLine();
+                if (peakBytes != null) {
+                    maxMemoryKB.set(Long.parseLong(peakBytes.trim()) / 1024);
+                }
+            } catch (IOException | NumberFormatException e) {
+                log.warn("Could not read {}: {}", peakPath, e.getMessage());
+            }
+        }
+        recordCpuTime();
+        long finalMaxMemory = maxMemoryKB.get();
+        log.debug("Final max memory retrieved {}: {} KB for PID {}.", nativePeak ? "from " + peakPath : "from monitor after join", finalMaxMemory, pid);
         if (cgroupDir.exists()) {
             String tasksPath = this.cgroupTasksPath;
             String rootTasksPath = isV2 ? CGROUP_V2_UNIFIED_PATH + "/cgroup.procs" : CGROUP_V1_MEMORY_PATH + "/tasks";
@@ -252,32 +437,115 @@ public class LinuxMemoryLimiter {
         } else {
             log.debug("Cgroup directory '{}' does not exist, skipping deletion.", cgroupPath);
         }
+        if (cpuacctPath != null) {
+            removeCpuacctCgroup();
+        }
         return finalMaxMemory;
     }
 
+    private void removeCpuacctCgroup() {
+        File dir = new File(cpuacctPath);
+        cpuacctPath = null;
+        try (BufferedReader procsReader = new BufferedReader(new FileReader(new File(dir, "cgroup.procs")))) {
+            String line;
+            while ((line = procsReader.readLine()) != null) {
+                line = line.trim();
+                if (PID_PATTERN.matcher(line).matches()) {
+                    try (FileWriter rootProcsWriter = new FileWriter(CGROUP_V1_CPUACCT_PATH + "/cgroup.procs")) {
+                        rootProcsWriter.write(line);
+                    } catch (IOException e) {
+                        log.debug("Could not move PID {} out of cpuacct cgroup '{}' during cleanup: {}", line, cgroupName, e.getMessage());
+                    }
+                }
+            }
+        } catch (IOException e) {
+            log.debug("Could not read procs of cpuacct cgroup '{}' during cleanup: {}", cgroupName, e.getMessage());
+        }
+        if (dir.exists() && !dir.delete()) {
+            log.warn("Failed to delete cgroup directory '{}'.", dir);
+        }
+    }
+
+    /**
+     * Kills every process in the cgroup, e.g. when the submission is cancelled. Uses
+     * {@code cgroup.kill} where the kernel provides it and signals the listed PIDs otherwise.
+     */
+    public void killAll() {
+        File killFile = new File(cgroupPath, "cgroup.kill");
+        if (isV2 && killFile.exists()) {
+            try (FileWriter killWriter = new FileWriter(killFile)) {
+                killWriter.write("1");
+                log.debug("Killed all processes in cgroup '{}'.", cgroupName);
+                return;
+            } catch (IOException e) {
+                log.debug("Could not write cgroup.kill of '{}': {}", cgroupName, e.getMessage());
+            }
+        }
+        try (BufferedReader tasksReader = new BufferedReader(new FileReader(cgroupTasksPath))) {
+            String line;
+            while ((line = tasksReader.readLine()) != null) {
+                line = line.trim();
+                if (PID_PATTERN.matcher(line).matches()) {
+                    ProcessHandle.of(Long.parseLong(line)).ifPresent(ProcessHandle::destroyForcibly);
+                }
+            }
+        } catch (IOException e) {
+            log.debug("Could not read tasks/procs file '{}' to kill cgroup '{}': {}", cgroupTasksPath, cgroupName, e.getMessage());
+        }
+    }
+
     public int getExitCode() {
         return process.exitValue();
     }
 
     /**
-     * Detects the cgroup version (v1 or v2) used by the system.
+     * Reads a cgroup file holding a single number, such as {@code cpuacct.usage}.
      *
-     * <p>It reads /proc/self/cgroup and looks for a line starting with '0::/',
-     * which indicates the unified cgroup v2 hierarchy.</p>
+     * @return the value, or -1 if the file cannot be read
+     */
+    private long readValue(File file) {
+        try (BufferedReader reader = new BufferedReader(new FileReader(file))) {
+            String line = reader.readLine();
+            return line == null ? -1 : Long.parseLong(line.trim());
+        } catch (IOException | NumberFormatException e) {
+            log.debug("Could not read '{}': {}", file, e.getMessage());
+            return -1;
+        }
+    }
+
+    /**
+     * Reads one {@code key value} line of a flat-keyed cgroup file such as {@code memory.events}.
      *
-     * @return {@code true} if cgroup v2 is detected, {@code false} otherwise (assuming v1).
+     * @return the value, or -1 if the file or the key does not exist
      */
-    private static boolean isCgroupV2Available() {
-        try (BufferedReader reader = new BufferedReader(new FileReader("/proc/self/cgroup"))) {
+    private long readKeyedValue(File file, String key) {
+        try (BufferedReader reader = new BufferedReader(new FileReader(file))) {
             String line;
             while ((line = reader.readLine()) != null) {
-                if (line.startsWith("0::/")) {
-                    log.debug("Detected cgroup v2 from /proc/self/cgroup.");
-                    return true;
+                String[] parts = line.trim().split("\\s+");
+                if (parts.length == 2 && parts[0].equals(key)) {
+                    return Long.parseLong(parts[1]);
                 }
             }
-        } catch (IOException e) {
-            log.warn("Could not read /proc/self/cgroup, assuming v1. Error: {}", e.getMessage());
+        } catch (IOException | NumberFormatException e) {
+            log.debug("Could not read {} from '{}': {}", key, file, e.getMessage());
+        }
+        return -1;
+    }
+
+    /**
+     * Detects the cgroup version (v1 or v2) used by the system.
+     *
+     * <p>The unified cgroup v2 hierarchy is in use if it is mounted at /sys/fs/cgroup, which then
+     * has a {@code cgroup.controllers} file. On hybrid systems /proc/self/cgroup also lists a
+     * v2 entry, but the memory controller is still attached to the v1 hierarchy.</p>
+     *
+     * @return {@code true} if cgroup v2 is detected, {@code false} otherwise (assuming v1).
+     */
+    private static boolean isCgroupV2Available() {
+        if (new File(CGROUP_V2_UNIFIED_PATH, "cgroup.controllers").isFile()) {
+            log.debug("Detected cgroup v2 at {}.", CGROUP_V2_UNIFIED_PATH);
+            return true;
         }
         log.debug("Assuming cgroup v1.");
         return false;
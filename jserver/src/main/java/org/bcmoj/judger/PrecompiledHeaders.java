@@ -0,0 +1,190 @@
+package org.bcmoj.judger;
+
+import lombok.extern.slf4j.Slf4j;
+import org.apache.commons.codec.binary.Hex;
+import org.bcmoj.cache.ToolchainFingerprint;
+import org.bcmoj.utils.FileUtil;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Collections;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.regex.Pattern;
+
+/**
+ * Builds and keeps precompiled {@value Compiler#PRECOMPILED_HEADER} headers, which take most of
+ * the compile time of a typical competitive-programming submission.
+ *
+ * <p>One header is built per combination of compiler identity (path and version), C++ standard,
+ * {@code -O2} and security flags, into {@code <dir>/<key>/bits/stdc++.h.gch}. A program that
+ * includes the header is compiled with {@code -I<dir>/<key>}, so g++ loads the precompiled header
+ * instead of parsing the standard library again. g++ only accepts a precompiled header built with
+ * matching flags and otherwise falls back to the real header, so a mismatch costs time but never
+ * changes the result.</p>
+ *
+ * <p>Headers are built in the background by a single thread: {@link #prepare} builds those for the
+ * server's settings at startup, and any other combination is built the first time a submission
+ * needs it. Submissions compile without a precompiled header until it is ready. A changed
+ * compiler version or setting yields a new key, so the header is rebuilt, and {@link #prepare}
+ * deletes headers of earlier toolchains. A build that fails is not retried until the next start.
+ * Builds run on the compile pool's CPUs, if it has any, and under the compiler's resource caps.</p>
+ *
+ * @author SleepingCui
+ */
+@Slf4j
+public class PrecompiledHeaders {
+    private static final Pattern INCLUDE = Pattern.compile("^\\s*#\\s*include\\s*<bits/stdc\\+\\+\\.h>", Pattern.MULTILINE);
+    private static final long BUILD_TIMEOUT_MS = 5 * 60 * 1000;
+
+    private enum State { BUILDING, READY, FAILED }
+
+    private final File dir;
+    private final Set<Integer> cpus;
+    private final CompileLimits limits;
+    private final Map<String, State> states = new ConcurrentHashMap<>();
+    private final ExecutorService builder = Executors.newSingleThreadExecutor(r -> {
+        Thread thread = new Thread(r, "PchBuilder");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    /**
+     * @param dir directory for the precompiled headers; created if missing
+     * @throws IOException if the directory cannot be created
+     */
+    public PrecompiledHeaders(File dir) throws IOException {
+        this(dir, null, CompileLimits.UNLIMITED);
+    }
+
+    /**
+     * @param dir    directory for the precompiled headers; created if missing
+     * @param cpus   CPUs the header builds may run on, or {@code null} for any CPU
+     * @param limits resource caps of the header builds
+     * @throws IOException if the directory cannot be created
+     */
+    public PrecompiledHeaders(File dir, Set<Integer> cpus, CompileLimits limits) throws IOException {
+        this.dir = dir;
+        this.cpus = cpus == null ? Collections.emptySet() : cpus;
+        this.limits = limits;
+        Files.createDirectories(dir.toPath());
+    }
+
+    /**
+     * Deletes the headers of other toolchains and starts building the server's headers, with
+     * and without {@code -O2}, unless they already exist.
+     *
+     * @param compilerPath        the server's compiler
+     * @param cppStandard         the server's C++ standard
+     * @param disableSecurityArgs whether the server compiles without the security flags
+     */
+    public void prepare(String compilerPath, String cppStandard, boolean disableSecurityArgs) {
+        Set<String> keep = Set.of(key(compilerPath, cppStandard, false, disableSecurityArgs), key(compilerPath, cppStandard, true, disableSecurityArgs));
+        File[] existing = dir.listFiles();
+        for (File file : existing != null ? existing : new File[0]) {
+            if (!keep.contains(file.getName())) {
+                log.info("Deleting precompiled header {} of an earlier toolchain", file.getName());
+                FileUtil.deleteRecursively(file);
+            }
+        }
+        request(compilerPath, cppStandard, false, disableSecurityArgs);
+        request(compilerPath, cppStandard, true, disableSecurityArgs);
+    }
+
+    /**
+     * Returns the include directory to compile a source with, if it includes the precompiled
+     * header and that header is ready. Otherwise starts building the header if needed.
+     *
+     * @param source              the source file about to be compiled
+     * @param compilerPath        the compiler
+     * @param cppStandard         the C++ standard
+     * @param enableO2            whether the source is compiled with {@code -O2}
+     * @param disableSecurityArgs whether the source is compiled without the security flags
+     * @return the directory to pass to {@link Compiler#compileProgram}, or {@code null}
+     */
+    public File includeDirFor(File source, String compilerPath, String cppStandard, boolean enableO2, boolean disableSecurityArgs) {
+        try {
+            if (!INCLUDE.matcher(new String(Files.readAllBytes(source.toPath()), StandardCharsets.ISO_8859_1)).find()) {
+                return null;
+            }
+        } catch (IOException e) {
+            log.warn("Failed to scan {} for includes: {}", source, e.getMessage());
+            return null;
+        }
+        String key = key(compilerPath, cppStandard, enableO2, disableSecurityArgs);
+        if (states.get(key) == State.READY) {
+            return new File(dir, key);
+        }
+        request(compilerPath, cppStandard, enableO2, disableSecurityArgs);
+        return null;
+    }
+
+    /**
+     * Stops building. Headers being built are discarded.
+     */
+    public void close() {
+        builder.shutdownNow();
+    }
+
+    private void request(String compilerPath, String cppStandard, boolean enableO2, boolean disableSecurityArgs) {
+        String key = key(compilerPath, cppStandard, enableO2, disableSecurityArgs);
+        if (new File(dir, key + "/" + Compiler.PRECOMPILED_HEADER + ".gch").isFile()) {
+            states.putIfAbsent(key, State.READY);
+            return;
+        }
+        if (states.putIfAbsent(key, State.BUILDING) == null) {
+            builder.execute(() -> build(key, compilerPath, cppStandard, enableO2, disableSecurityArgs));
+        }
+    }
+
+    private void build(String key, String compilerPath, String cppStandard, boolean enableO2, boolean disableSecurityArgs) {
+        File tmp = new File(dir, key + "." + UUID.randomUUID() + ".tmp");
+        try {
+            File output = new File(tmp, Compiler.PRECOMPILED_HEADER + ".gch");
+            Files.createDirectories(output.getParentFile().toPath());
+            File header = new File(tmp, "pch.h");
+            Files.writeString(header.toPath(), "#include <" + Compiler.PRECOMPILED_HEADER + ">\n");
+            log.info("Building precompiled header {} (-std={}, O2={}, disableSecurityArgs={})", key, cppStandard, enableO2, disableSecurityArgs);
+            int exitCode = Compiler.compileHeader(header, output, enableO2, disableSecurityArgs, BUILD_TIMEOUT_MS, compilerPath, cppStandard, cpus, limits);
+            if (exitCode != 0) {
+                log.warn("Building precompiled header {} failed with exit code {}; compiling without it", key, exitCode);
+                states.put(key, State.FAILED);
+                return;
+            }
+            Files.delete(header.toPath());
+            Files.move(tmp.toPath(), new File(dir, key).toPath(), StandardCopyOption.ATOMIC_MOVE);
+            states.put(key, State.READY);
+            log.info("Precompiled header {} is ready ({} bytes)", key, new File(dir, key + "/" + Compiler.PRECOMPILED_HEADER + ".gch").length());
+        } catch (InterruptedException e) {
+            states.remove(key);
+            Thread.currentThread().interrupt();
+        } catch (Exception e) {
+            log.warn("Building precompiled header {} failed: {}", key, e.getMessage());
+            states.put(key, State.FAILED);
+        } finally {
+            FileUtil.deleteRecursively(tmp);
+        }
+    }
+
+    /**
+     * @return the directory name of the header for a toolchain and flags
+     */
+    static String key(String compilerPath, String cppStandard, boolean enableO2, boolean disableSecurityArgs) {
+        String toolchain = String.join("|", ToolchainFingerprint.compilerIdentity(compilerPath), "-std=" + cppStandard, enableO2 ? "O2" : "O0", disableSecurityArgs ? "noargs" : "args");
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-256").digest(toolchain.getBytes(StandardCharsets.UTF_8));
+            return Hex.encodeHexString(digest).substring(0, 32);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not available", e);
+        }
+    }
+}
@@ -3,13 +3,18 @@ package org.bcmoj.judger;
 import lombok.extern.slf4j.Slf4j;
 import org.bcmoj.exceptions.MemoryLimitExceededException;
 import org.bcmoj.exceptions.TimeoutException;
+import org.bcmoj.utils.AslrUtil;
+import org.bcmoj.utils.CpuAffinityUtil;
 
 import java.io.*;
+import java.util.List;
+import java.util.Set;
 
 /**
  * Runner utility for executing compiled programs.
  *
- * <p>This class runs an executable with specified input,
+ * <p>This class runs an executable with specified input, given either as a string or as a file
+ * the child reads directly,
  * enforces a time limit, captures stdout, and returns results.</p>
  *
  * <p>Provides custom TimeoutException and MemoryLimitExceededException.</p>
@@ -18,6 +23,19 @@ import java.io.*;
  * based on the {@code disableMemLimit} flag.</p>
  * <p>On Windows and other OS, only time limit is enforced.</p>
  *
+ * <p>Where the program runs in the limiter's cgroup, the time limit applies to the CPU time
+ * (user + system) the kernel accounted to it, and a separate, more generous wall-clock limit
+ * stops programs that sleep or block. The verdict then no longer depends on host load, spawn
+ * latency or stalls while the input is written. Elsewhere the time limit applies to the wall
+ * clock, and the reported CPU time is the elapsed time.</p>
+ *
+ * <p>If the running thread is interrupted (the submission was cancelled), the program and
+ * everything it started are killed, including the processes left in its cgroup.</p>
+ *
+ * <p>A program can be restricted to a set of CPUs, e.g. the cores reserved for checkpoint runs;
+ * see {@link CpuAffinityUtil}. For steadier timings address space layout randomization can be
+ * turned off for it, see {@link AslrUtil}.</p>
+ *
  * <p>Logging includes execution start, end, and any permission issues.</p>
  *
  * @author SleepingCui
@@ -28,12 +46,18 @@ public class Runner {
     public static class RunResult {
         public final String output;
         public final double elapsedTime;
+        public final double cpuTime;
         public final int exitCode;
         public final long maxMemoryUsedKB;
 
         public RunResult(String output, double elapsedTime, int exitCode, long maxMemoryUsedKB) {
+            this(output, elapsedTime, elapsedTime, exitCode, maxMemoryUsedKB);
+        }
+
+        public RunResult(String output, double elapsedTime, double cpuTime, int exitCode, long maxMemoryUsedKB) {
             this.output = output;
             this.elapsedTime = elapsedTime;
+            this.cpuTime = cpuTime;
             this.exitCode = exitCode;
             this.maxMemoryUsedKB = maxMemoryUsedKB;
         }
@@ -54,6 +78,74 @@ public class Runner {
      * @throws MemoryLimitExceededException If the process exceeds the memory limit (only possible if {@code disableMemLimit} is false and on Linux).
      */
     public static RunResult runProgram(File executableFile, String inputContent, int timeLimitMs, long memoryLimitKB, boolean disableMemLimit) throws IOException, InterruptedException, TimeoutException, MemoryLimitExceededException {
+        return run(executableFile, inputContent, null, timeLimitMs, timeLimitMs, memoryLimitKB, disableMemLimit, null, false);
+    }
+
+    /**
+     * Runs a compiled executable with input on a restricted set of CPUs.
+     *
+     * @param executableFile  The compiled executable file to run.
+     * @param inputContent    The input string to provide to the executable.
+     * @param timeLimitMs     The time limit in milliseconds.
+     * @param memoryLimitKB   The memory limit in kilobytes.
+     * @param disableMemLimit Flag to disable memory limiting and monitoring entirely.
+     * @param wallTimeLimitMs The wall-clock limit in milliseconds, at least {@code timeLimitMs}.
+     *                        Only used where CPU time is measured; elsewhere {@code timeLimitMs} is the wall-clock limit.
+     * @param cpus            The CPUs the program may run on, or {@code null} for any CPU.
+     * @param disableAslr     Run the program without address space layout randomization.
+     * @return A RunResult containing output, elapsed time, exit code, and max memory used (0 if disabled).
+     * @throws IOException        If an I/O error occurs.
+     * @throws InterruptedException If the thread is interrupted.
+     * @throws TimeoutException   If the process exceeds the CPU time or the wall-clock limit.
+     * @throws MemoryLimitExceededException If the process exceeds the memory limit.
+     */
+    public static RunResult runProgram(File executableFile, String inputContent, int timeLimitMs, int wallTimeLimitMs, long memoryLimitKB, boolean disableMemLimit, Set<Integer> cpus, boolean disableAslr) throws IOException, InterruptedException, TimeoutException, MemoryLimitExceededException {
+        return run(executableFile, inputContent, null, timeLimitMs, wallTimeLimitMs, memoryLimitKB, disableMemLimit, cpus, disableAslr);
+    }
+
+    /**
+     * Runs a compiled executable with its standard input redirected from a file. The child
+     * reads the file directly, so the input never passes through the JVM.
+     *
+     * @param executableFile The compiled executable file to run.
+     * @param inputFile      The file to use as the executable's standard input.
+     * @param timeLimitMs    The time limit in milliseconds.
+     * @param memoryLimitKB  The memory limit in kilobytes.
+     * @param disableMemLimit Flag to disable memory limiting and monitoring entirely.
+     * @return A RunResult containing output, elapsed time, exit code, and max memory used (0 if disabled).
+     * @throws IOException        If an I/O error occurs.
+     * @throws InterruptedException If the thread is interrupted.
+     * @throws TimeoutException   If the process exceeds the time limit.
+     * @throws MemoryLimitExceededException If the process exceeds the memory limit.
+     */
+    public static RunResult runProgram(File executableFile, File inputFile, int timeLimitMs, long memoryLimitKB, boolean disableMemLimit) throws IOException, InterruptedException, TimeoutException, MemoryLimitExceededException {
+        return run(executableFile, null, inputFile, timeLimitMs, timeLimitMs, memoryLimitKB, disableMemLimit, null, false);
+    }
+
+    /**
+     * Runs a compiled executable with its standard input redirected from a file, on a
+     * restricted set of CPUs.
+     *
+     * @param executableFile  The compiled executable file to run.
+     * @param inputFile       The file to use as the executable's standard input.
+     * @param timeLimitMs     The time limit in milliseconds.
+     * @param memoryLimitKB   The memory limit in kilobytes.
+     * @param disableMemLimit Flag to disable memory limiting and monitoring entirely.
+     * @param wallTimeLimitMs The wall-clock limit in milliseconds, at least {@code timeLimitMs}.
+     *                        Only used where CPU time is measured; elsewhere {@code timeLimitMs} is the wall-clock limit.
+     * @param cpus            The CPUs the program may run on, or {@code null} for any CPU.
+     * @param disableAslr     Run the program without address space layout randomization.
+     * @return A RunResult containing output, elapsed time, exit code, and max memory used (0 if disabled).
+     * @throws IOException        If an I/O error occurs.
+     * @throws InterruptedException If the thread is interrupted.
+     * @throws TimeoutException   If the process exceeds the CPU time or the wall-clock limit.
+     * @throws MemoryLimitExceededException If the process exceeds the memory limit.
+     */
+    public static RunResult runProgram(File executableFile, File inputFile, int timeLimitMs, int wallTimeLimitMs, long memoryLimitKB, boolean disableMemLimit, Set<Integer> cpus, boolean disableAslr) throws IOException, InterruptedException, TimeoutException, MemoryLimitExceededException {
+        return run(executableFile, null, inputFile, timeLimitMs, wallTimeLimitMs, memoryLimitKB, disableMemLimit, cpus, disableAslr);
+    }
+
+    private static RunResult run(File executableFile, String inputContent, File inputFile, int timeLimitMs, int wallTimeLimitMs, long memoryLimitKB, boolean disableMemLimit, Set<Integer> cpus, boolean disableAslr) throws IOException, InterruptedException, TimeoutException, MemoryLimitExceededException {
         String osName = System.getProperty("os.name").toLowerCase();
         boolean isLinux = osName.contains("linux");
 
@@ -63,45 +155,88 @@ public class Runner {
             }
         }
 
-        ProcessBuilder builder = new ProcessBuilder(executableFile.getAbsolutePath());
+        List<String> command = List.of(executableFile.getAbsolutePath());
+        command = CpuAffinityUtil.pin(disableAslr ? AslrUtil.disable(command) : command, cpus);
+        LinuxMemoryLimiter limiter = null;
+        if (isLinux && !disableMemLimit) {
+            // Set up before the start: the program joins the cgroup before it is executed, so all of its memory is charged there.
+            limiter = new LinuxMemoryLimiter(memoryLimitKB);
+            try {
+                limiter.setup();
+            } catch (IOException e) {
+                limiter.cleanupAndGetMaxMemory();
+                throw e;
+            }
+            command = limiter.wrap(command);
+        }
+        ProcessBuilder builder = new ProcessBuilder(command);
         builder.redirectErrorStream(true);
-        Process process = builder.start();
+        if (inputFile != null) {
+            builder.redirectInput(inputFile);
+        }
+        Process process;
+        try {
+            process = builder.start();
+        } catch (IOException e) {
+            if (limiter != null) {
+                limiter.cleanupAndGetMaxMemory();
+            }
+            throw e;
+        }
+        if (limiter != null) {
+            limiter.attach(process);
+        }
 
         long startTime = System.nanoTime();
-        try (BufferedWriter writer = new BufferedWriter(new OutputStreamWriter(process.getOutputStream()))) {
-            writer.write(inputContent);
-            writer.flush();
+        if (inputFile == null) {
+            try (BufferedWriter writer = new BufferedWriter(new OutputStreamWriter(process.getOutputStream()))) {
+                writer.write(inputContent);
+                writer.flush();
+            } catch (IOException e) {
+                // A program that exits without consuming its input closes the pipe early; that is not a system error.
+                log.debug("Could not write full input to PID {}: {}", process.pid(), e.getMessage());
+            }
         }
 
-        LinuxMemoryLimiter limiter = null;
         String output;
         double elapsedTime;
         int exitCode;
         long finalMaxMemoryKB = 0;
+        double cpuTime = -1; // -1 = not measured
 
         try {
+            // With the CPU time accounted, the time limit applies to it and the wall clock only stops programs that block or sleep.
+            boolean cpuAccounted = limiter != null && limiter.isCpuAccounted();
             long elapsedSoFar = (System.nanoTime() - startTime) / 1_000_000;
-            long remainingTime = timeLimitMs - elapsedSoFar;
+            long remainingTime = (cpuAccounted ? wallTimeLimitMs : timeLimitMs) - elapsedSoFar;
             if (remainingTime <= 0) {
+                if (limiter != null) {
+                    limiter.killAll();
+                }
                 process.destroyForcibly();
-                elapsedTime = (System.nanoTime() - startTime) / 1_000_000.0;
-                throw new TimeoutException(timeLimitMs);
+                throw new TimeoutException(cpuAccounted ? wallTimeLimitMs : timeLimitMs);
             }
 
-            if (isLinux && !disableMemLimit) {
-                limiter = new LinuxMemoryLimiter(process, memoryLimitKB);
-                limiter.setup();
-                limiter.waitForProcess(remainingTime);
+            if (limiter != null) {
+                if (cpuAccounted) {
+                    limiter.waitForProcess(timeLimitMs, remainingTime);
+                } else {
+                    limiter.waitForProcess(remainingTime);
+                }
                 exitCode = limiter.getExitCode();
 
-                if (exitCode == 137) { // SIGKILL, often from OOM killer
+                if (limiter.isOomKilled()) {
                     log.info("Process (PID {}) was terminated by the OOM killer (exit code {})", process.pid(), exitCode);
                     elapsedTime = (System.nanoTime() - startTime) / 1_000_000.0;
                     finalMaxMemoryKB = limiter.cleanupAndGetMaxMemory();
                     throw new MemoryLimitExceededException(elapsedTime, finalMaxMemoryKB);
                 }
+                if (!limiter.hasJoined()) {
+                    throw new IOException("PID " + process.pid() + " could not join its cgroup, the program was not run: " + readAll(process.getInputStream()));
+                }
                 finalMaxMemoryKB = limiter.cleanupAndGetMaxMemory();
-                log.info("Process (PID {}) finished. Max memory used: {} KB", process.pid(), finalMaxMemoryKB);
+                cpuTime = limiter.getCpuTimeMs();
+                log.info("Process (PID {}) finished. Max memory used: {} KB, CPU time: {}", process.pid(), finalMaxMemoryKB, cpuTime >= 0 ? cpuTime + " ms" : "not measured");
             } else {
                 if (isLinux) {
                     log.warn("Memory limiting and monitoring are disabled");
@@ -119,9 +254,20 @@ public class Runner {
 
             output = readAll(process.getInputStream());
             elapsedTime = (System.nanoTime() - startTime) / 1_000_000.0;
+            if (cpuTime > timeLimitMs) {
+                log.info("Process (PID {}) used {} ms of CPU time, limit is {} ms", process.pid(), cpuTime, timeLimitMs);
+                throw new TimeoutException(elapsedTime, cpuTime);
+            }
 
-            return new RunResult(output, elapsedTime, exitCode, finalMaxMemoryKB);
+            return new RunResult(output, elapsedTime, cpuTime >= 0 ? cpuTime : elapsedTime, exitCode, finalMaxMemoryKB);
 
+        } catch (InterruptedException e) {
+            log.info("Run of PID {} cancelled, killing it", process.pid());
+            if (limiter != null) {
+                limiter.killAll();
+            }
+            destroyProcessTree(process);
+            throw e;
         } finally {
             if (limiter != null) {
                 try {
@@ -134,6 +280,17 @@ public class Runner {
         }
     }
 
+    /**
+     * Forcibly kills a process and all of its descendants. The descendants are collected first,
+     * since they are reparented once their parent is gone.
+     *
+     * @param process the process to kill
+     */
+    static void destroyProcessTree(Process process) {
+        process.descendants().forEach(ProcessHandle::destroyForcibly);
+        process.destroyForcibly();
+    }
+
     private static String readAll(InputStream in) throws IOException {
         StringBuilder sb = new StringBuilder();
         try (BufferedReader reader = new BufferedReader(new InputStreamReader(in))) {
@@ -0,0 +1,70 @@
+package org.bcmoj.judgeserver;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Cancellation handle of one submission, tied to the lifetime of the connection it arrived on.
+ *
+ * <p>Whoever starts a piece of work for the submission (the queued judge task, the checkpoint
+ * batch) registers an action with {@link #onCancel(Runnable)}. When the client disconnects,
+ * {@link #cancel()} runs all of them once, so queued work leaves the scheduler queue and releases
+ * its files at once, and running compiler and program processes are killed and pending
+ * checkpoints dropped instead of finishing for nobody.</p>
+ *
+ * @author SleepingCui
+ */
+@Slf4j
+public class CancellationHandle {
+    private final List<Runnable> actions = new ArrayList<>();
+    private volatile boolean cancelled;
+
+    /**
+     * @return {@code true} once {@link #cancel()} was called
+     */
+    public boolean isCancelled() {
+        return cancelled;
+    }
+
+    /**
+     * Registers an action to run on cancellation. If the handle is already cancelled the
+     * action runs immediately in the calling thread.
+     *
+     * @param action the action, e.g. cancelling a future
+     */
+    public void onCancel(Runnable action) {
+        synchronized (this) {
+            if (!cancelled) {
+                actions.add(action);
+                return;
+            }
+        }
+        run(action);
+    }
+
+    /**
+     * Cancels the submission and runs every registered action. Later calls do nothing.
+     */
+    public void cancel() {
+        List<Runnable> toRun;
+        synchronized (this) {
+            if (cancelled) {
+                return;
+            }
+            cancelled = true;
+            toRun = new ArrayList<>(actions);
+            actions.clear();
+        }
+        toRun.forEach(CancellationHandle::run);
+    }
+
+    private static void run(Runnable action) {
+        try {
+            action.run();
+        } catch (RuntimeException e) {
+            log.warn("Cancellation action failed: {}", e.getMessage(), e);
+        }
+    }
+}
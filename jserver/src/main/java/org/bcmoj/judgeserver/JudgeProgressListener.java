@@ -0,0 +1,31 @@
+package org.bcmoj.judgeserver;
+
+import org.bcmoj.judger.Judger;
+
+/**
+ * Receives progress notifications from {@link JudgeServer#serve} for submissions that asked for
+ * a streamed response ({@code "stream": true} in the judge configuration).
+ * The aggregated result JSON is still returned when judging ends.
+ *
+ * <p>Checkpoint notifications arrive on the checkpoint runner threads in completion order, so
+ * implementations must be thread-safe and should not block.</p>
+ *
+ * @author SleepingCui
+ */
+public interface JudgeProgressListener {
+
+    /**
+     * Called once the configuration has been read, before the security check and compilation.
+     *
+     * @param checkpointCount number of checkpoints that will be judged
+     */
+    void onCompiling(int checkpointCount);
+
+    /**
+     * Called as soon as one checkpoint has been judged.
+     *
+     * @param checkpoint the 1-based checkpoint number
+     * @param result     the checkpoint's verdict
+     */
+    void onCheckpointFinished(int checkpoint, Judger.JudgeResult result);
+}
@@ -1,20 +1,26 @@
 package org.bcmoj.judgeserver;
 
-import com.fasterxml.jackson.databind.JsonNode;
 import lombok.extern.slf4j.Slf4j;
+import org.bcmoj.cache.BinaryCache;
 import org.bcmoj.config.JudgeTaskConfig;
+import org.bcmoj.config.ProblemConfig;
+import org.bcmoj.exceptions.CompileResourceExceededException;
 import org.bcmoj.judger.Compiler;
 import org.bcmoj.judger.Judger;
+import org.bcmoj.problem.ProblemPackage;
+import org.bcmoj.scheduler.CheckpointScheduler;
+import org.bcmoj.scheduler.CompileScheduler;
 import org.bcmoj.security.RegexSecurityCheck;
 import org.bcmoj.security.SecurityChecker;
 import org.bcmoj.utils.JudgeResultUtil;
 import org.bcmoj.utils.OutputCompareUtil;
 import org.bcmoj.utils.FileUtil;
 import org.bcmoj.utils.JsonReadUtil;
-import org.bcmoj.utils.JsonValidateUtil;
 
 import java.io.File;
+import java.io.IOException;
 import java.nio.file.Files;
+import java.security.NoSuchAlgorithmException;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.concurrent.*;
@@ -25,6 +31,7 @@ import java.util.concurrent.*;
  *
  * <p>Status codes returned by {@link Judger} and used in results:</p>
  * <ul>
+ *     <li>-6: Compile Resource Exceeded (the compiler ran out of time, memory or processes)</li>
  *     <li>-5: Security Check Failed</li>
  *     <li>-4: Compile Error</li>
  *     <li>-3: Wrong Answer</li>
@@ -43,14 +50,17 @@ import java.util.concurrent.*;
  *     <li>4: FLOAT_TOLERANT</li>
  * </ul>
  *
- * <p>This implementation compiles the source code only once and runs multiple threads for
- * each checkpoint, which reduces compilation overhead and resource usage.</p>
+ * <p>This implementation compiles the source code only once, through the task's
+ * {@link CompileScheduler} if it has one, and feeds every checkpoint into the process-wide
+ * {@link CheckpointScheduler} instead of starting a thread per checkpoint. The task may add a
+ * {@link BinaryCache}, {@link org.bcmoj.judger.PrecompiledHeaders},
+ * {@link org.bcmoj.problem.ProblemRepository}, {@link JudgeProgressListener} and
+ * {@link CancellationHandle}; see those classes for their effect on judging.</p>
  *
  * @author SleepingCui
  */
 @Slf4j
 public class JudgeServer {
-
     /**
      * Serves judging requests for a C++ program.
      * This version accepts a JudgeTaskConfig object containing all necessary parameters.
@@ -60,21 +70,50 @@ public class JudgeServer {
      * @return JSON string representing aggregated judge results
      */
     public static String serve(JudgeTaskConfig taskConfig, String jsonConfig) { // New signature
+        try {
+            return serve(taskConfig, JsonReadUtil.parseConfig(jsonConfig, taskConfig.isUseOldFormat()));
+        } catch (Exception e) {
+            log.error("Failed to parse judge config: {}", e.getMessage(), e);
+            return JudgeResultUtil.buildResult(null, false, true, 1, taskConfig.isUseOldFormat());
+        }
+    }
+
+    /**
+     * Serves a judging request whose configuration was already validated and read into
+     * {@link JudgeTaskConfig#getProblemConfig()}.
+     *
+     * @param taskConfig The configuration object containing compiler, file paths, flags and the problem configuration
+     * @return JSON string representing aggregated judge results
+     */
+    public static String serve(JudgeTaskConfig taskConfig) {
+        if (taskConfig.getProblemConfig() == null) {
+            log.error("Judge task has no problem configuration");
+            return JudgeResultUtil.buildResult(null, false, true, 1, taskConfig.isUseOldFormat());
+        }
+        return serve(taskConfig, taskConfig.getProblemConfig());
+    }
+
+    private static String serve(JudgeTaskConfig taskConfig, ProblemConfig problemConfig) {
         File tempDir = null;
         File exeFile = null;
-        ExecutorService executor = null;
+        CheckpointScheduler.Batch<Judger.JudgeResult> batch = null;
         try {
-            JsonReadUtil.ConfigResult configResult = JsonReadUtil.parseConfig(jsonConfig, taskConfig.isUseOldFormat());
+            ProblemPackage problem = problemConfig.isStoredProblem() ? findProblem(taskConfig, problemConfig) : null;
+            int checkpointsCount = problem != null ? problem.getCheckpointCount() : problemConfig.getCheckpointCount();
+            JudgeProgressListener listener = problemConfig.isStream() ? taskConfig.getProgressListener() : null;
+            if (listener != null) {
+                listener.onCompiling(checkpointsCount);
+            }
 
             boolean securityCheckFailed;
-            if (configResult.securityCheck) {
+            if (problemConfig.isSecurityCheck()) {
                 SecurityChecker checker = new RegexSecurityCheck();
-                int securityCheckResult = checker.check(taskConfig.getSourceFile(), taskConfig.getKeywordFile());
+                SubmissionSource source = taskConfig.getSource();
+                int securityCheckResult = source.isInMemory() ? checker.check(source.getContent(), taskConfig.getKeywordFile()) : checker.check(source.materialize(taskConfig.getWorkspaceDir()), taskConfig.getKeywordFile());
                 securityCheckFailed = (securityCheckResult == -5);
                 if (securityCheckFailed) {
-                    log.warn("Security check failed for file: {}", taskConfig.getSourceFile().getName());
-                    int count = configResult.useOldFormat ? new JsonValidateUtil().countIns(configResult.checkpoints, true) : new JsonValidateUtil().countIns(configResult.checkpoints, false);
-                    return JudgeResultUtil.buildResult(null, true, false, count, taskConfig.isUseOldFormat());
+                    log.warn("Security check failed for file: {}", taskConfig.getSource().getFilename());
+                    return JudgeResultUtil.buildResult(null, true, false, Math.max(checkpointsCount, 1), taskConfig.isUseOldFormat());
                 }
             } else {
                 log.info("Code Security Check is not enabled");
@@ -85,81 +124,168 @@ public class JudgeServer {
             if (System.getProperty("os.name").toLowerCase().contains("win")) exeName += ".exe";
             exeFile = new File(tempDir, exeName);
 
-            log.info("Compiling file: {} with enableO2={} , disableSecurityArgs={}", taskConfig.getSourceFile().getAbsolutePath(), configResult.enableO2, taskConfig.isDisableSecurityArgs());
-            int compileCode = Compiler.compileProgram(taskConfig.getSourceFile(), exeFile, configResult.enableO2, taskConfig.isDisableSecurityArgs(), 10_000, taskConfig.getCompilerPath(), taskConfig.getCppStandard());
-            if (compileCode != 0) {
-                List<Judger.JudgeResult> compileFailResults = new ArrayList<>();
-                for (int i = 0; i < configResult.checkpointsCount; i++) {
-                    compileFailResults.add(new Judger.JudgeResult(-4, 0.0, 0L));
+            checkCancelled(taskConfig);
+            String binaryKey = binaryCacheKey(taskConfig, problemConfig);
+            if (binaryKey != null && taskConfig.getBinaryCache().fetch(binaryKey, exeFile)) {
+                log.info("Reusing cached executable of {}, skipping compilation", taskConfig.getSource().getFilename());
+            } else {
+                File sourceFile = taskConfig.getSource().materialize(taskConfig.getWorkspaceDir());
+                log.info("Compiling file: {} with enableO2={} , disableSecurityArgs={}", sourceFile.getAbsolutePath(), problemConfig.isEnableO2(), taskConfig.isDisableSecurityArgs());
+                CompileScheduler compileScheduler = taskConfig.getCompileScheduler();
+                File pchIncludeDir = taskConfig.getPrecompiledHeaders() != null ? taskConfig.getPrecompiledHeaders().includeDirFor(sourceFile, taskConfig.getCompilerPath(), taskConfig.getCppStandard(), problemConfig.isEnableO2(), taskConfig.isDisableSecurityArgs()) : null;
+                File finalExeFile = exeFile;
+                Callable<Integer> compilation = () -> Compiler.compileProgram(sourceFile, finalExeFile, problemConfig.isEnableO2(), taskConfig.isDisableSecurityArgs(), taskConfig.getCompileTimeoutMs(), taskConfig.getCompilerPath(), taskConfig.getCppStandard(), pchIncludeDir, compileScheduler != null ? compileScheduler.getCpus() : null, taskConfig.getCompileLimits());
+                int compileCode;
+                try {
+                    compileCode = compileScheduler != null ? compileScheduler.execute(compilation) : compilation.call();
+                } catch (CompileResourceExceededException e) {
+                    log.warn("Compilation of {} stopped: {}", taskConfig.getSource().getFilename(), e.getMessage());
+                    return compileFailure(Judger.COMPILE_RESOURCE_EXCEEDED, checkpointsCount, taskConfig);
+                }
+                if (compileCode != 0) {
+                    return compileFailure(Judger.COMPILE_ERROR, checkpointsCount, taskConfig);
+                }
+                if (binaryKey != null) {
+                    taskConfig.getBinaryCache().store(binaryKey, exeFile);
                 }
-                return JudgeResultUtil.buildResult(compileFailResults, false, false, configResult.checkpointsCount, taskConfig.isUseOldFormat());
             }
 
-            OutputCompareUtil.CompareMode mode = switch (configResult.compareMode) {
+            OutputCompareUtil.CompareMode mode = switch (problemConfig.getCompareMode()) {
                 case 2 -> OutputCompareUtil.CompareMode.IGNORE_SPACES;
                 case 3 -> OutputCompareUtil.CompareMode.CASE_INSENSITIVE;
                 case 4 -> OutputCompareUtil.CompareMode.FLOAT_TOLERANT;
                 default -> OutputCompareUtil.CompareMode.STRICT;
             };
 
-            executor = Executors.newFixedThreadPool(configResult.checkpointsCount);
+            CheckpointScheduler checkpointScheduler = taskConfig.getCheckpointScheduler();
+            boolean disableAslr = checkpointScheduler.isIsolated(); // part of the isolation mode, for steadier timings
+            int wallTimeLimit = (int) Math.min(Integer.MAX_VALUE, (long) problemConfig.getTimeLimit() * taskConfig.getWallTimeFactor());
+            batch = checkpointScheduler.newBatch(taskConfig.getSource().getFilename());
+            if (taskConfig.getCancellation() != null) {
+                taskConfig.getCancellation().onCancel(batch::cancel);
+            }
             List<Future<Judger.JudgeResult>> futures = new ArrayList<>();
 
-            if (configResult.checkpointsCount > 0) {
-                for (int i = 0; i < configResult.checkpointsCount; i++) {
-                    final String input;
-                    final String output;
-
-                    if (configResult.useOldFormat) {
-                        input = configResult.checkpoints.get((i + 1) + "_in").asText();
-                        output = configResult.checkpoints.get((i + 1) + "_out").asText();
-                    } else {
-                        String key = String.valueOf(i + 1);
-                        JsonNode checkpoint = configResult.checkpoints.get(key);
-                        input = checkpoint.get("in").asText();
-                        output = checkpoint.get("out").asText();
-                    }
+            if (problem != null) {
+                for (int i = 0; i < checkpointsCount; i++) {
+                    File input = problem.getInput(i + 1);
+                    File output = problem.getExpectedOutput(i + 1);
+                    File finalExeFile = exeFile;
+                    int checkpoint = i + 1;
+                    futures.add(batch.submit(() -> {
+                        Judger.JudgeResult result = Judger.judge(finalExeFile, input, output, problemConfig.getTimeLimit(), wallTimeLimit, problemConfig.getMemLimit(), mode, taskConfig.isDisableMemLimit(), checkpointScheduler.currentCpus(), disableAslr);
+                        if (listener != null) {
+                            listener.onCheckpointFinished(checkpoint, result);
+                        }
+                        return result;
+                    }));
+                }
+            } else if (checkpointsCount > 0) {
+                for (int i = 0; i < checkpointsCount; i++) {
+                    ProblemConfig.Checkpoint data = problemConfig.getCheckpoint(i + 1);
                     File finalExeFile = exeFile;
-                    Future<Judger.JudgeResult> future = executor.submit(() ->
-                            Judger.judge(finalExeFile, input, output, configResult.timeLimit, configResult.memLimit, mode, taskConfig.isDisableMemLimit())
-                    );
+                    int checkpoint = i + 1;
+                    Future<Judger.JudgeResult> future = batch.submit(() -> {
+                        Judger.JudgeResult result = data.isSpilled()
+                                ? Judger.judge(finalExeFile, data.getInputFile(), data.getExpectedOutputFile(), problemConfig.getTimeLimit(), wallTimeLimit, problemConfig.getMemLimit(), mode, taskConfig.isDisableMemLimit(), checkpointScheduler.currentCpus(), disableAslr)
+                                : Judger.judge(finalExeFile, data.getInput(), data.getExpectedOutput(), problemConfig.getTimeLimit(), wallTimeLimit, problemConfig.getMemLimit(), mode, taskConfig.isDisableMemLimit(), checkpointScheduler.currentCpus(), disableAslr);
+                        if (listener != null) {
+                            listener.onCheckpointFinished(checkpoint, result);
+                        }
+                        return result;
+                    });
                     futures.add(future);
                 }
             }
-            executor.shutdown();
 
             List<Judger.JudgeResult> results = new ArrayList<>();
-            for (Future<Judger.JudgeResult> future : futures) {
+            for (int i = 0; i < futures.size(); i++) {
                 try {
-                    results.add(future.get());
-                } catch (InterruptedException | ExecutionException e) {
+                    results.add(futures.get(i).get());
+                } catch (InterruptedException e) {
+                    batch.cancel();
+                    throw e;
+                } catch (ExecutionException | CancellationException e) {
+                    checkCancelled(taskConfig);
                     log.error("Checkpoint execution error: {}", e.getMessage(), e);
-                    results.add(new Judger.JudgeResult(5, 0.0, 0L));
+                    Judger.JudgeResult systemError = new Judger.JudgeResult(5, 0.0, 0L);
+                    results.add(systemError);
+                    if (listener != null) {
+                        listener.onCheckpointFinished(i + 1, systemError);
+                    }
                 }
             }
             log.info("========== Results ==========");
             for (int i = 0; i < results.size(); i++) {
                 Judger.JudgeResult result = results.get(i);
-                log.info("Checkpoint {} result: {} ({}), Time: {}ms, Memory: {}KB", i + 1, result.statusCode, StatusDescription(result.statusCode), result.time, result.maxMemoryUsedKB);
+                log.info("Checkpoint {} result: {} ({}), Time: {}ms, CPU: {}ms, Memory: {}KB", i + 1, result.statusCode, StatusDescription(result.statusCode), result.time, result.cpuTime, result.maxMemoryUsedKB);
             }
             FileUtil.deleteRecursively(exeFile);
             FileUtil.deleteRecursively(tempDir);
 
-            return JudgeResultUtil.buildResult(results, false, false, configResult.checkpointsCount, taskConfig.isUseOldFormat()); // Use format from config
+            return JudgeResultUtil.buildResult(results, false, false, checkpointsCount, taskConfig.isUseOldFormat()); // Use format from config
 
+        } catch (InterruptedException e) {
+            log.info("Judging of {} cancelled", taskConfig.getSource().getFilename());
+            Thread.currentThread().interrupt();
+            return JudgeResultUtil.buildResult(null, false, true, 1, taskConfig.isUseOldFormat());
         } catch (Exception e) {
             log.error("Failed to execute judge tasks: {}", e.getMessage(), e);
             return JudgeResultUtil.buildResult(null, false, true, 1, taskConfig.isUseOldFormat()); // Use format from config
         }
         finally {
-            if (executor != null && !executor.isShutdown()) { executor.shutdownNow();}
+            if (batch != null) { batch.close(); }
             if (exeFile != null) { FileUtil.deleteRecursively(exeFile); }
             if (tempDir != null) { FileUtil.deleteRecursively(tempDir); }
         }
     }
 
+    /**
+     * Builds the result of a submission that could not be compiled: every checkpoint gets the
+     * same status.
+     */
+    private static String compileFailure(int statusCode, int checkpointsCount, JudgeTaskConfig taskConfig) {
+        List<Judger.JudgeResult> compileFailResults = new ArrayList<>();
+        for (int i = 0; i < checkpointsCount; i++) {
+            compileFailResults.add(new Judger.JudgeResult(statusCode, 0.0, 0L));
+        }
+        return JudgeResultUtil.buildResult(compileFailResults, false, false, checkpointsCount, taskConfig.isUseOldFormat());
+    }
+
+    /**
+     * Builds the {@link BinaryCache} key of the task's executable.
+     *
+     * @return the key, or {@code null} if the cache is disabled or the source cannot be hashed
+     */
+    private static String binaryCacheKey(JudgeTaskConfig taskConfig, ProblemConfig problemConfig) {
+        if (taskConfig.getBinaryCache() == null || !taskConfig.getBinaryCache().isEnabled()) {
+            return null;
+        }
+        try {
+            return BinaryCache.key(taskConfig.getSource().sha256(), taskConfig.getCompilerPath(), taskConfig.getCppStandard(), problemConfig.isEnableO2(), taskConfig.isDisableSecurityArgs());
+        } catch (IOException | NoSuchAlgorithmException e) {
+            log.warn("Binary cache key unavailable: {}", e.getMessage());
+            return null;
+        }
+    }
+
+    private static void checkCancelled(JudgeTaskConfig taskConfig) throws InterruptedException {
+        if (taskConfig.getCancellation() != null && taskConfig.getCancellation().isCancelled()) {
+            throw new InterruptedException("Submission cancelled");
+        }
+    }
+
+    private static ProblemPackage findProblem(JudgeTaskConfig taskConfig, ProblemConfig problemConfig) throws Exception {
+        if (taskConfig.getProblemRepository() == null) {
+            throw new IllegalStateException("Request names problem " + problemConfig.getProblemId() + " but no problem repository is configured");
+        }
+        return taskConfig.getProblemRepository().find(problemConfig.getProblemId(), problemConfig.getProblemVersion())
+                .orElseThrow(() -> new IllegalArgumentException("Unknown problem " + problemConfig.getProblemId() + (problemConfig.getProblemVersion() != null ? " version " + problemConfig.getProblemVersion() : "")));
+    }
+
     private static String StatusDescription(int statusCode) {
         return switch (statusCode) {
+            case -6 -> "Compile Resource Exceeded";
             case -5 -> "Security Check Failed";
             case -4 -> "Compile Error";
             case -3 -> "Wrong Answer";
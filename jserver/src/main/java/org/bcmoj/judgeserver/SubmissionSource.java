@@ -0,0 +1,143 @@
+package org.bcmoj.judgeserver;
+
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+import org.bcmoj.utils.FileHashUtil;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.security.NoSuchAlgorithmException;
+import java.util.UUID;
+
+/**
+ * The source code of one submission.
+ *
+ * <p>Small submissions are kept in memory from receipt through hashing and the security
+ * check, and are written to disk only once, by {@link #materialize(File)}, when the compiler
+ * needs a path. Uploads above the server's in-memory limit are streamed to a temporary file
+ * by the network layer and wrapped as they are.</p>
+ *
+ * <p>The source owns every file it refers to; {@link #cleanup()} deletes them.</p>
+ *
+ * @author SleepingCui
+ */
+@Slf4j
+public class SubmissionSource {
+    /** The filename sent by the client. */
+    @Getter
+    private final String filename;
+    private final byte[] content;
+    private File file;
+
+    private SubmissionSource(String filename, byte[] content, File file) {
+        this.filename = filename;
+        this.content = content;
+        this.file = file;
+    }
+
+    /**
+     * Wraps source code held in memory.
+     *
+     * @param filename the filename sent by the client
+     * @param content  the source code bytes; the array is not copied
+     * @return the source
+     */
+    public static SubmissionSource inMemory(String filename, byte[] content) {
+        return new SubmissionSource(filename, content, null);
+    }
+
+    /**
+     * Wraps source code that has already been written to a temporary file.
+     *
+     * @param filename the filename sent by the client
+     * @param file     the temporary file, which is deleted by {@link #cleanup()}
+     * @return the source
+     */
+    public static SubmissionSource ofFile(String filename, File file) {
+        return new SubmissionSource(filename, null, file);
+    }
+
+    /**
+     * @return {@code true} if the source code is held in memory
+     */
+    public boolean isInMemory() {
+        return content != null;
+    }
+
+    /**
+     * @return the size of the source code in bytes
+     */
+    public long size() {
+        return content != null ? content.length : file.length();
+    }
+
+    /**
+     * Returns the in-memory source code.
+     *
+     * @return the source code bytes, not a copy
+     * @throws IllegalStateException if the source is stored in a file
+     */
+    public byte[] getContent() {
+        if (content == null) {
+            throw new IllegalStateException("Source is stored in " + file);
+        }
+        return content;
+    }
+
+    /**
+     * Calculates the SHA-256 hash of the source code without touching the disk
+     * for in-memory sources.
+     *
+     * @return the SHA-256 hash as a lowercase hexadecimal string
+     * @throws IOException              if the source file cannot be read
+     * @throws NoSuchAlgorithmException if SHA-256 algorithm is not available
+     */
+    public String sha256() throws IOException, NoSuchAlgorithmException {
+        return content != null ? FileHashUtil.calculateSHA256(content) : FileHashUtil.calculateSHA256(file);
+    }
+
+    /**
+     * Returns a path to the source code for the compiler. In-memory sources are written once
+     * into {@code workspaceDir}, keeping the client's file extension so the compiler picks
+     * the right language; later calls return the same file.
+     *
+     * @param workspaceDir directory for materialized sources, ideally on tmpfs
+     * @return the source file
+     * @throws IOException if the file cannot be written
+     */
+    public synchronized File materialize(File workspaceDir) throws IOException {
+        if (file == null) {
+            File target = new File(workspaceDir, UUID.randomUUID() + getFileExtension(filename));
+            Files.write(target.toPath(), content);
+            file = target;
+            log.debug("Materialized {} ({} bytes) at {}", filename, content.length, target);
+        }
+        return file;
+    }
+
+    /**
+     * Deletes the file backing this source, if any.
+     */
+    public synchronized void cleanup() {
+        if (file != null && file.exists()) {
+            if (file.delete()) {
+                log.info("Deleted temporary file: {}", file.getName());
+            } else {
+                log.warn("Failed to delete temporary file: {}", file.getName());
+            }
+        }
+    }
+
+    /**
+     * Extracts the file extension from the given filename.
+     * Returns empty string if no extension found.
+     *
+     * @param filename the filename string
+     * @return the file extension including dot, or empty string
+     */
+    public static String getFileExtension(String filename) {
+        int dotIndex = filename.lastIndexOf(".");
+        return (dotIndex == -1) ? "" : filename.substring(dotIndex);
+    }
+}
@@ -0,0 +1,144 @@
+package org.bcmoj.netserver;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.ChannelHandlerContext;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.AsynchronousFileChannel;
+import java.nio.channels.CompletionHandler;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Writes received data to disk for a decoder without blocking the channel's event loop.
+ *
+ * <p>Each buffer is handed to an {@link AsynchronousFileChannel} and released once it has been
+ * written. While more than the high-water mark is waiting for the disk, {@code autoRead} is
+ * switched off so that a fast client cannot pile up buffers in memory; it is switched on again
+ * once every write has finished. Completions are handled on the event loop, so an instance
+ * needs no locking and is used from that thread only.</p>
+ *
+ * @author SleepingCui
+ */
+@Slf4j
+class AsyncUploadWriter {
+    private final ChannelHandlerContext ctx;
+    private final long highWaterMark;
+    private final List<Runnable> drainedActions = new ArrayList<>();
+    private long pendingBytes;
+    private boolean readPaused;
+
+    /**
+     * @param ctx           context of the decoder whose channel is paused
+     * @param highWaterMark pending bytes above which reading from the socket is paused
+     */
+    AsyncUploadWriter(ChannelHandlerContext ctx, long highWaterMark) {
+        this.ctx = ctx;
+        this.highWaterMark = highWaterMark;
+    }
+
+    /**
+     * Starts writing a buffer at the given position. The buffer is released when the write
+     * finishes or fails; a failure is reported through {@code exceptionCaught}.
+     *
+     * @param channel      the file to write to
+     * @param chunk        the data, owned by this writer from now on
+     * @param position     file position of the first byte
+     * @param closeChannel whether to close {@code channel} once this write is done
+     */
+    void write(AsynchronousFileChannel channel, ByteBuf chunk, long position, boolean closeChannel) {
+        int length = chunk.readableBytes();
+        pendingBytes += length;
+        if (!readPaused && pendingBytes > highWaterMark) {
+            readPaused = true;
+            ctx.channel().config().setAutoRead(false);
+            log.debug("Pausing reads, {} bytes waiting for the disk", pendingBytes);
+        }
+        ByteBuffer buffer = chunk.nioBuffer();
+        channel.write(buffer, position, buffer, new CompletionHandler<>() {
+            @Override
+            public void completed(Integer written, ByteBuffer remaining) {
+                if (remaining.hasRemaining()) {
+                    channel.write(remaining, position + length - remaining.remaining(), remaining, this);
+                    return;
+                }
+                done();
+                ctx.executor().execute(() -> written(length));
+            }
+
+            @Override
+            public void failed(Throwable cause, ByteBuffer remaining) {
+                done();
+                if (ctx.channel().isActive()) {
+                    ctx.executor().execute(() -> ctx.fireExceptionCaught(new IOException("Failed to write upload", cause)));
+                }
+            }
+
+            private void done() {
+                chunk.release();
+                if (closeChannel) {
+                    close(channel);
+                }
+            }
+        });
+    }
+
+    /**
+     * Runs an action on the event loop once no write is pending, right away if none is.
+     *
+     * @param action the action, e.g. handing a completed request on
+     */
+    void whenDrained(Runnable action) {
+        if (pendingBytes == 0) {
+            action.run();
+        } else {
+            drainedActions.add(action);
+        }
+    }
+
+    /**
+     * @return bytes handed to the disk that have not been written yet
+     */
+    long getPendingBytes() {
+        return pendingBytes;
+    }
+
+    /**
+     * @return {@code true} while this writer has switched {@code autoRead} off
+     */
+    boolean isReadPaused() {
+        return readPaused;
+    }
+
+    /**
+     * Forgets the actions waiting for the writes, e.g. when the client disconnected.
+     */
+    void discardActions() {
+        drainedActions.clear();
+    }
+
+    private void written(int length) {
+        pendingBytes -= length;
+        if (pendingBytes > 0) {
+            return;
+        }
+        if (readPaused) {
+            readPaused = false;
+            log.debug("Writes drained, resuming reads");
+            ctx.channel().config().setAutoRead(true);
+        }
+        List<Runnable> actions = new ArrayList<>(drainedActions);
+        drainedActions.clear();
+        actions.forEach(Runnable::run);
+    }
+
+    private static void close(AsynchronousFileChannel channel) {
+        try {
+            channel.close();
+        } catch (IOException e) {
+            log.debug("Failed to close file channel: {}", e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,36 @@
+package org.bcmoj.netserver;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.handler.codec.MessageToByteEncoder;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Encodes a {@link JudgeResponse} as a protocol v2 frame. See {@link ProtocolV2} for the layout.
+ *
+ * @author SleepingCui
+ */
+public class FrameEncoder extends MessageToByteEncoder<JudgeResponse> {
+
+    @Override
+    protected void encode(ChannelHandlerContext ctx, JudgeResponse msg, ByteBuf out) {
+        byte[] payload = msg.getPayload() == null ? new byte[0] : msg.getPayload().getBytes(StandardCharsets.UTF_8);
+        writeFrame(out, msg.getType(), msg.getRequestId(), payload);
+    }
+
+    /**
+     * Writes one frame header followed by the payload.
+     *
+     * @param out       the buffer to write to
+     * @param type      the frame type
+     * @param requestId the request ID
+     * @param payload   the payload bytes
+     */
+    static void writeFrame(ByteBuf out, FrameType type, long requestId, byte[] payload) {
+        out.writeInt(ProtocolV2.FRAME_HEADER_LENGTH + payload.length);
+        out.writeByte(type.getCode());
+        out.writeLong(requestId);
+        out.writeBytes(payload);
+    }
+}
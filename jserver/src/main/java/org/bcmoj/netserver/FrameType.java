@@ -0,0 +1,64 @@
+package org.bcmoj.netserver;
+
+/**
+ * Frame types of the multiplexed protocol v2. See {@link ProtocolV2} for the frame layout.
+ *
+ * @author SleepingCui
+ */
+public enum FrameType {
+    /** Handshake. Client sends its protocol version, server answers with the negotiated settings. */
+    HELLO(0x01),
+    /** Client submission: filename, source, JSON config and optional hash. */
+    SUBMIT(0x02),
+    /** Final judge result JSON for one request. */
+    RESULT(0x03),
+    /** Protocol or processing error for one request (request ID 0 for connection-level errors). */
+    ERROR(0x04),
+    /** Keep-alive probe, answered with {@link #PONG}. */
+    PING(0x05),
+    PONG(0x06),
+    /** Intermediate JSON for a streaming request: status updates and single checkpoint results. */
+    PROGRESS(0x07),
+    /** The server is overloaded and did not accept the request; carries a retry-after hint. */
+    BUSY(0x08),
+    /** The request referenced checkpoint data the server does not have; lists the missing digests. */
+    NEED(0x09),
+    /** Ticket lookup of an asynchronous submission: the UTF-8 ticket, answered by {@link #RESULT}. */
+    FETCH(0x0A),
+    /** Client submission like {@link #SUBMIT} whose JSON config follows in {@link #CONFIG_PART} frames. */
+    SUBMIT_STREAM(0x0B),
+    /** The next piece of a {@link #SUBMIT_STREAM} request's JSON config, in order. */
+    CONFIG_PART(0x0C);
+
+    private final byte code;
+
+    FrameType(int code) {
+        this.code = (byte) code;
+    }
+
+    /**
+     * @return {@code true} if a frame of this type is the last one sent for its request
+     */
+    public boolean isFinal() {
+        return this == RESULT || this == ERROR || this == BUSY || this == NEED;
+    }
+
+    public byte getCode() {
+        return code;
+    }
+
+    /**
+     * Looks up a frame type by its wire code.
+     *
+     * @param code the type byte read from the wire
+     * @return the frame type, or {@code null} if the code is unknown
+     */
+    public static FrameType fromCode(byte code) {
+        for (FrameType type : values()) {
+            if (type.code == code) {
+                return type;
+            }
+        }
+        return null;
+    }
+}
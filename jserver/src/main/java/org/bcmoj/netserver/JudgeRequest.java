@@ -0,0 +1,107 @@
+package org.bcmoj.netserver;
+
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+import org.bcmoj.config.SpilledConfig;
+import org.bcmoj.judgeserver.SubmissionSource;
+import org.bcmoj.utils.UploadDigest;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.UUID;
+
+/**
+ * A fully received judging request, produced by one of the protocol decoders
+ * and consumed by {@link RequestProcessor}.
+ *
+ * <p>The request owns the uploaded {@link SubmissionSource}; any file backing it is
+ * deleted by {@link #cleanup()} once judging has finished. A large configuration arrives
+ * already parsed as a {@link SpilledConfig} instead of as {@link #getJsonConfig()}; the
+ * request owns its spill files as well.</p>
+ *
+ * @author SleepingCui
+ */
+@Slf4j
+@Getter
+public class JudgeRequest {
+    /** Request ID used by the legacy single-shot protocol, which has no request IDs. */
+    public static final long LEGACY_REQUEST_ID = 0L;
+
+    private final long requestId;
+    private final SubmissionSource source;
+    private final String jsonConfig; // null if spilledConfig is set
+    private final SpilledConfig spilledConfig;
+    private final String declaredHash;
+    private final UploadDigest digest; // computed while receiving, null = check against the source
+    private final boolean singleShot;
+
+    /**
+     * @param requestId    the client-chosen request ID ({@link #LEGACY_REQUEST_ID} for the legacy protocol)
+     * @param source       the uploaded source code
+     * @param jsonConfig   the judge configuration JSON
+     * @param declaredHash the hash declared by the client, or {@code null} if none was sent
+     * @param digest       digests computed while the request was received, or {@code null}
+     * @param singleShot   {@code true} if the connection must be closed after the response is sent
+     */
+    public JudgeRequest(long requestId, SubmissionSource source, String jsonConfig, String declaredHash, UploadDigest digest, boolean singleShot) {
+        this(requestId, source, jsonConfig, null, declaredHash, digest, singleShot);
+    }
+
+    /**
+     * @param requestId     the client-chosen request ID ({@link #LEGACY_REQUEST_ID} for the legacy protocol)
+     * @param source        the uploaded source code
+     * @param spilledConfig the judge configuration, parsed while it was received
+     * @param declaredHash  the hash declared by the client, or {@code null} if none was sent
+     * @param digest        digests computed while the request was received, or {@code null}
+     * @param singleShot    {@code true} if the connection must be closed after the response is sent
+     */
+    public JudgeRequest(long requestId, SubmissionSource source, SpilledConfig spilledConfig, String declaredHash, UploadDigest digest, boolean singleShot) {
+        this(requestId, source, null, spilledConfig, declaredHash, digest, singleShot);
+    }
+
+    private JudgeRequest(long requestId, SubmissionSource source, String jsonConfig, SpilledConfig spilledConfig, String declaredHash, UploadDigest digest, boolean singleShot) {
+        this.requestId = requestId;
+        this.source = source;
+        this.jsonConfig = jsonConfig;
+        this.spilledConfig = spilledConfig;
+        this.declaredHash = declaredHash;
+        this.digest = digest;
+        this.singleShot = singleShot;
+    }
+
+    /**
+     * Deletes the temporary source file and the spilled checkpoint data, if any.
+     */
+    public void cleanup() {
+        source.cleanup();
+        if (spilledConfig != null) {
+            spilledConfig.cleanup();
+        }
+    }
+
+    /**
+     * Creates an empty temporary file for an uploaded source, keeping the client's file extension.
+     *
+     * @param filename the filename sent by the client
+     * @return the new temporary file
+     * @throws IOException if the file cannot be created
+     */
+    static File createSourceFile(String filename) throws IOException {
+        return File.createTempFile(UUID.randomUUID().toString(), SubmissionSource.getFileExtension(filename));
+    }
+
+    /**
+     * Deletes a temporary source file if it exists, logging the outcome.
+     *
+     * @param file the file to delete, may be {@code null}
+     */
+    static void deleteSourceFile(File file) {
+        if (file != null && file.exists()) {
+            if (file.delete()) {
+                log.info("Deleted temporary file: {}", file.getName());
+            } else {
+                log.warn("Failed to delete temporary file: {}", file.getName());
+            }
+        }
+    }
+}
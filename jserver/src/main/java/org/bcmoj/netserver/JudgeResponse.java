@@ -0,0 +1,27 @@
+package org.bcmoj.netserver;
+
+import lombok.Getter;
+
+/**
+ * A response to a {@link JudgeRequest}, written by {@link RequestProcessor} and
+ * serialized by the response encoder of the protocol the client speaks.
+ *
+ * @author SleepingCui
+ */
+@Getter
+public class JudgeResponse {
+    private final long requestId;
+    private final FrameType type;
+    private final String payload;
+
+    /**
+     * @param requestId the ID of the request being answered
+     * @param type      the frame type used by protocol v2; the legacy protocol only carries the payload
+     * @param payload   the JSON payload
+     */
+    public JudgeResponse(long requestId, FrameType type, String payload) {
+        this.requestId = requestId;
+        this.type = type;
+        this.payload = payload;
+    }
+}
@@ -0,0 +1,387 @@
+package org.bcmoj.netserver;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.handler.codec.ByteToMessageDecoder;
+import lombok.extern.slf4j.Slf4j;
+import org.bcmoj.config.SpilledConfig;
+import org.bcmoj.judgeserver.SubmissionSource;
+import org.bcmoj.utils.StreamingConfigParser;
+import org.bcmoj.utils.UploadDigest;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.AsynchronousFileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.EnumSet;
+import java.util.List;
+
+/**
+ * Decoder for the legacy single-shot protocol.
+ *
+ * <p>The communication protocol expects:
+ * <ol>
+ *   <li>Filename length (int, 4 bytes)</li>
+ *   <li>Filename (UTF-8 bytes)</li>
+ *   <li>File size (long, 8 bytes)</li>
+ *   <li>File content (binary data)</li>
+ *   <li>JSON config length (int, 4 bytes)</li>
+ *   <li>JSON config (UTF-8 bytes)</li>
+ *   <li>Hash length (int, 4 bytes)</li>
+ *   <li>Hash string (UTF-8 bytes, optional)</li>
+ * </ol>
+ *
+ * <p>Fields are decoded from the cumulated buffer by a state machine, each one exactly once
+ * and only when all of its bytes have arrived, so multi-byte UTF-8 in the JSON config is never
+ * split. Uploads up to the in-memory limit are read into a single array and never touch the
+ * disk here (see {@link SubmissionSource}). Larger uploads are not copied: every received chunk
+ * is handed to an {@link AsynchronousFileChannel} as a retained slice of the network buffer. While more than
+ * {@link #WRITE_HIGH_WATER_MARK} bytes are waiting for the disk, {@code autoRead} is switched
+ * off so that a fast client cannot pile up buffers in memory (see {@link AsyncUploadWriter}).</p>
+ *
+ * <p>A JSON config above the spill threshold is not accumulated either: its bytes are fed to a
+ * {@link StreamingConfigParser} as they arrive, whose checkpoint data goes to spill files
+ * through the same asynchronous writes and read pausing as the upload, and the request carries
+ * the resulting {@link SpilledConfig}.</p>
+ *
+ * <p>The source bytes also go through an {@link UploadDigest} as they are consumed, so the
+ * declared hash is checked without reading the upload again. Legacy clients declare a SHA-256
+ * of the source, and by default that is all that is computed. Since the hash only arrives after
+ * the data, accepting {@code crc32c} or {@code +config} hashes means computing every algorithm
+ * over the source and config of every upload; that is enabled with {@code legacyExtendedDigests}.</p>
+ *
+ * <p>Once all data is received and written, a single {@link JudgeRequest} is passed on to
+ * {@link RequestProcessor}; anything the client sends afterwards is discarded, and the
+ * connection is closed once the response has been written.</p>
+ *
+ * <p>The uploaded file is stored in a temporary file, which is deleted here, together with any
+ * spilled checkpoint data, if the client disconnects before the request is complete.</p>
+ *
+ * @author SleepingCui
+ */
+@Slf4j
+public class LegacyRequestDecoder extends ByteToMessageDecoder {
+
+    /**
+     * States of the reading process, forming a state machine
+     * for processing incoming data step-by-step.
+     */
+    private enum State {
+        READ_FILENAME_LENGTH,
+        READ_FILENAME,
+        READ_FILE_SIZE,
+        READ_FILE_CONTENT,
+        READ_JSON_LENGTH,
+        READ_JSON,
+        READ_HASH_LENGTH,
+        READ_HASH,
+        PROCESSING
+    }
+
+    private static final int MAX_FILENAME_LENGTH = 512;
+    private static final int MAX_FILENAME_CHARS = 128;
+    /** Pending upload and spill bytes above which reading from the socket is paused. */
+    static final int WRITE_HIGH_WATER_MARK = 256 * 1024;
+
+    private final int inMemorySourceLimit;
+    private final StreamingConfigParser.Factory configParsers;
+    private final boolean extendedDigests;
+    private State state = State.READ_FILENAME_LENGTH;
+
+    private int filenameLength;
+    private String filename;
+    private long fileSize;
+    private long bytesReadForFile;
+    private int jsonLength;
+    private int hashLength;
+    private File tempFile;
+    private String jsonConfig;
+    private StreamingConfigParser configParser;
+    private long jsonBytesRead;
+    private SpilledConfig spilledConfig;
+    private SubmissionSource source;
+    private UploadDigest digest;
+    private AsynchronousFileChannel fileChannel;
+    private AsyncUploadWriter writer;
+    private JudgeRequest completedRequest;
+
+    /**
+     * @param inMemorySourceLimit uploads up to this many bytes are kept in memory instead of
+     *                            being written to a temporary file
+     */
+    public LegacyRequestDecoder(int inMemorySourceLimit) {
+        this(inMemorySourceLimit, null, false);
+    }
+
+    /**
+     * @param inMemorySourceLimit uploads up to this many bytes are kept in memory instead of
+     *                            being written to a temporary file
+     * @param configParsers       decides which JSON configs are streamed, {@code null} to never stream
+     * @param extendedDigests     whether to compute every supported digest over source and config,
+     *                            rather than only SHA-256 over the source
+     */
+    public LegacyRequestDecoder(int inMemorySourceLimit, StreamingConfigParser.Factory configParsers, boolean extendedDigests) {
+        this.inMemorySourceLimit = inMemorySourceLimit;
+        this.configParsers = configParsers;
+        this.extendedDigests = extendedDigests;
+    }
+
+    /**
+     * Creates the writer for the upload and the spilled config.
+     *
+     * @param ctx the channel handler context
+     */
+    @Override
+    public void handlerAdded(ChannelHandlerContext ctx) {
+        writer = new AsyncUploadWriter(ctx, WRITE_HIGH_WATER_MARK);
+    }
+
+    /**
+     * Called when the channel becomes inactive (client disconnected).
+     * Deletes the partially received upload, if any.
+     *
+     * @param ctx the channel handler context
+     * @throws Exception if an error occurs
+     */
+    @Override
+    public void channelInactive(ChannelHandlerContext ctx) throws Exception {
+        cleanup();
+        super.channelInactive(ctx);
+    }
+
+    /**
+     * Skips the read request {@link ByteToMessageDecoder} issues when no message was produced
+     * and {@code autoRead} is off, because this decoder switched it off on purpose.
+     *
+     * @param ctx the channel handler context
+     * @throws Exception if an error occurs
+     */
+    @Override
+    public void channelReadComplete(ChannelHandlerContext ctx) throws Exception {
+        if (writer.isReadPaused()) {
+            discardSomeReadBytes();
+            ctx.fireChannelReadComplete();
+        } else {
+            super.channelReadComplete(ctx);
+        }
+    }
+
+    /**
+     * Decodes as many protocol fields as the cumulated buffer allows.
+     *
+     * @param ctx the channel handler context
+     * @param in  the cumulated bytes received so far
+     * @param out receives the {@link JudgeRequest} once the request is complete
+     * @throws Exception if an I/O or protocol error occurs
+     */
+    @Override
+    protected void decode(ChannelHandlerContext ctx, ByteBuf in, List<Object> out) throws Exception {
+        while (true) {
+            switch (state) {
+                case READ_FILENAME_LENGTH -> {
+                    if (in.readableBytes() < 4) return;
+                    filenameLength = in.readInt();
+                    if (filenameLength <= 0 || filenameLength > MAX_FILENAME_LENGTH) {
+                        throw new IOException("Invalid filename length: " + filenameLength);
+                    }
+                    state = State.READ_FILENAME;
+                }
+                case READ_FILENAME -> {
+                    if (in.readableBytes() < filenameLength) return;
+                    filename = in.readCharSequence(filenameLength, StandardCharsets.UTF_8).toString();
+                    if (filename.length() > MAX_FILENAME_CHARS) {
+                        throw new IOException("Filename too long: " + filename.length());
+                    }
+                    log.info("Received filename: {}", filename);
+                    state = State.READ_FILE_SIZE;
+                }
+                case READ_FILE_SIZE -> {
+                    if (in.readableBytes() < 8) return;
+                    fileSize = in.readLong();
+                    if (fileSize < 0) {
+                        throw new IOException("Invalid file size: " + fileSize);
+                    }
+                    bytesReadForFile = 0;
+                    digest = new UploadDigest(extendedDigests ? EnumSet.allOf(UploadDigest.Algorithm.class) : EnumSet.of(UploadDigest.Algorithm.SHA256));
+                    if (fileSize > inMemorySourceLimit) {
+                        tempFile = JudgeRequest.createSourceFile(filename);
+                        fileChannel = AsynchronousFileChannel.open(tempFile.toPath(), StandardOpenOption.WRITE);
+                    }
+                    state = State.READ_FILE_CONTENT;
+                    log.info("Expecting file content size: {}", fileSize);
+                }
+                case READ_FILE_CONTENT -> {
+                    if (fileChannel == null) {
+                        if (in.readableBytes() < fileSize) return;
+                        byte[] content = new byte[(int) fileSize];
+                        in.readBytes(content);
+                        digest.updateSource(content);
+                        digest.endSource();
+                        source = SubmissionSource.inMemory(filename, content);
+                        log.info("File received successfully, kept {} bytes in memory", fileSize);
+                        state = State.READ_JSON_LENGTH;
+                        continue;
+                    }
+                    if (bytesReadForFile == fileSize) {
+                        digest.endSource();
+                        source = SubmissionSource.ofFile(filename, tempFile);
+                        log.info("File received successfully, {} bytes", fileSize);
+                        state = State.READ_JSON_LENGTH;
+                        continue;
+                    }
+                    int toRead = (int) Math.min(in.readableBytes(), fileSize - bytesReadForFile);
+                    if (toRead == 0) return;
+                    ByteBuf chunk = in.readRetainedSlice(toRead);
+                    digest.updateSource(chunk.nioBuffer());
+                    writer.write(fileChannel, chunk, bytesReadForFile, false);
+                    bytesReadForFile += toRead;
+                }
+                case READ_JSON_LENGTH -> {
+                    if (in.readableBytes() < 4) return;
+                    jsonLength = in.readInt();
+                    if (jsonLength <= 0) {
+                        throw new IOException("Invalid JSON length: " + jsonLength);
+                    }
+                    state = State.READ_JSON;
+                }
+                case READ_JSON -> {
+                    if (configParser == null && configParsers != null && configParsers.shouldStream(jsonLength)) {
+                        configParser = configParsers.create(this::spill);
+                        jsonBytesRead = 0;
+                    }
+                    if (configParser != null) {
+                        int toRead = (int) Math.min(in.readableBytes(), jsonLength - jsonBytesRead);
+                        if (toRead > 0) {
+                            if (extendedDigests) {
+                                digest.updateConfig(in.nioBuffer(in.readerIndex(), toRead));
+                            }
+                            configParser.feed(in.nioBuffer(in.readerIndex(), toRead));
+                            in.skipBytes(toRead);
+                            jsonBytesRead += toRead;
+                        }
+                        if (jsonBytesRead < jsonLength) return;
+                        spilledConfig = configParser.finish();
+                        configParser = null;
+                        log.info("Received JSON config ({} bytes, streamed)", jsonLength);
+                        state = State.READ_HASH_LENGTH;
+                        continue;
+                    }
+                    if (in.readableBytes() < jsonLength) return;
+                    if (extendedDigests) {
+                        digest.updateConfig(in.nioBuffer(in.readerIndex(), jsonLength));
+                    }
+                    jsonConfig = in.readCharSequence(jsonLength, StandardCharsets.UTF_8).toString();
+                    log.info("Received JSON config ({} bytes):\n{}", jsonLength, jsonConfig);
+                    state = State.READ_HASH_LENGTH;
+                }
+                case READ_HASH_LENGTH -> {
+                    if (in.readableBytes() < 4) return;
+                    hashLength = in.readInt();
+                    if (hashLength < 0) {
+                        throw new IOException("Invalid hash length: " + hashLength);
+                    }
+                    if (hashLength == 0) {
+                        complete(ctx, null, out);
+                    } else {
+                        state = State.READ_HASH;
+                    }
+                }
+                case READ_HASH -> {
+                    if (in.readableBytes() < hashLength) return;
+                    String declaredHash = in.readCharSequence(hashLength, StandardCharsets.UTF_8).toString();
+                    log.debug("Declared hash: {}", declaredHash);
+                    complete(ctx, declaredHash, out);
+                }
+                case PROCESSING -> {
+                    in.skipBytes(in.readableBytes());
+                    return;
+                }
+            }
+        }
+    }
+
+    /**
+     * Starts writing one spilled checkpoint value; called by the config parser on the event loop.
+     */
+    private void spill(File file, ByteBuffer data) throws IOException {
+        AsynchronousFileChannel channel = AsynchronousFileChannel.open(file.toPath(), StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE);
+        writer.write(channel, Unpooled.wrappedBuffer(data), 0, true);
+    }
+
+    /**
+     * Marks the request as complete. It is handed over to the next handler right away if the
+     * upload is already on disk, or as soon as the last pending write has finished.
+     */
+    private void complete(ChannelHandlerContext ctx, String declaredHash, List<Object> out) throws IOException {
+        state = State.PROCESSING;
+        completedRequest = spilledConfig != null
+                ? new JudgeRequest(JudgeRequest.LEGACY_REQUEST_ID, source, spilledConfig, declaredHash, digest, true)
+                : new JudgeRequest(JudgeRequest.LEGACY_REQUEST_ID, source, jsonConfig, declaredHash, digest, true);
+        if (writer.getPendingBytes() == 0) {
+            closeFileChannel();
+            out.add(takeCompletedRequest());
+        } else {
+            log.debug("Request complete, waiting for {} bytes to reach the disk", writer.getPendingBytes());
+            writer.whenDrained(() -> fireCompleted(ctx));
+        }
+    }
+
+    private void fireCompleted(ChannelHandlerContext ctx) {
+        try {
+            closeFileChannel();
+        } catch (IOException e) {
+            ctx.fireExceptionCaught(e);
+            return;
+        }
+        ctx.fireChannelRead(takeCompletedRequest());
+    }
+
+    /**
+     * Returns the completed request; from now on the request owns the source, its file and the spilled config.
+     */
+    private JudgeRequest takeCompletedRequest() {
+        JudgeRequest request = completedRequest;
+        completedRequest = null;
+        source = null;
+        spilledConfig = null;
+        tempFile = null;
+        return request;
+    }
+
+    private void closeFileChannel() throws IOException {
+        if (fileChannel != null) {
+            fileChannel.close();
+            fileChannel = null;
+        }
+    }
+
+    /**
+     * Cleans up the partially received temporary file and spilled config, and closes the file
+     * channel. Writes still in progress fail and release their buffers.
+     */
+    private void cleanup() {
+        try {
+            closeFileChannel();
+        } catch (IOException e) {
+            log.warn("Failed to close file channel", e);
+        }
+        if (writer != null) {
+            writer.discardActions();
+        }
+        completedRequest = null;
+        source = null;
+        JudgeRequest.deleteSourceFile(tempFile);
+        tempFile = null;
+        if (configParser != null) {
+            configParser.abort();
+            configParser = null;
+        }
+        if (spilledConfig != null) {
+            spilledConfig.cleanup();
+            spilledConfig = null;
+        }
+    }
+}
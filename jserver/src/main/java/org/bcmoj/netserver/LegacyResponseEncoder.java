@@ -0,0 +1,23 @@
+package org.bcmoj.netserver;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.handler.codec.MessageToByteEncoder;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Encodes a {@link JudgeResponse} for the legacy protocol: the UTF-8 payload
+ * prefixed by its length in bytes (int, 4 bytes).
+ *
+ * @author SleepingCui
+ */
+public class LegacyResponseEncoder extends MessageToByteEncoder<JudgeResponse> {
+
+    @Override
+    protected void encode(ChannelHandlerContext ctx, JudgeResponse msg, ByteBuf out) {
+        byte[] bytes = msg.getPayload().getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.writeBytes(bytes);
+    }
+}
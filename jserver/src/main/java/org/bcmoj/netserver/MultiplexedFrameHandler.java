@@ -0,0 +1,461 @@
+package org.bcmoj.netserver;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufUtil;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.ChannelDuplexHandler;
+import io.netty.channel.ChannelFuture;
+import io.netty.channel.ChannelFutureListener;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelPromise;
+import lombok.extern.slf4j.Slf4j;
+import org.bcmoj.config.SpilledConfig;
+import org.bcmoj.judgeserver.SubmissionSource;
+import org.bcmoj.utils.StreamingConfigParser;
+import org.bcmoj.utils.UploadDigest;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.AsynchronousFileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+/**
+ * Protocol v2 handler that turns frames into {@link JudgeRequest}s and keeps track of the
+ * requests in flight on one connection.
+ *
+ * <p>Inbound, it receives complete frames (without the length prefix) from the frame decoder,
+ * performs the HELLO handshake, answers PING frames and forwards each SUBMIT frame to
+ * {@link RequestProcessor} as a {@link JudgeRequest}. Outbound, it observes the
+ * {@link JudgeResponse}s written for those requests, so a request ID can be reused once its
+ * response has been sent. The connection stays open for further submissions.</p>
+ *
+ * <p>A JSON config above the spill threshold is parsed straight from the frame by a
+ * {@link StreamingConfigParser} instead of being decoded into a string, so its checkpoint data
+ * is only held in the frame buffer until it has been handed to the spill files. A SUBMIT frame is
+ * still gathered whole, up to {@link ProtocolV2#MAX_FRAME_LENGTH}, before it is parsed; a
+ * SUBMIT_STREAM request instead sends its config in CONFIG_PART frames, each of which is fed to
+ * the parser as it arrives and released afterwards, so the config size is limited by the
+ * largest checkpoint value rather than by the frame length. The spill files,
+ * and sources above the in-memory limit, are written asynchronously with reads paused while too
+ * much is waiting for the disk (see {@link AsyncUploadWriter}), and such a request is passed on
+ * once its data is on disk.</p>
+ *
+ * <p>A declared hash is checked against an {@link UploadDigest} computed from the frame itself,
+ * with only the algorithm the client declared. A client may offer hash algorithms in its HELLO
+ * frame and learns from the reply which of them the server accepts.</p>
+ *
+ * <p>FETCH frames are forwarded as {@link TicketFetch}es and count as in flight like a
+ * submission until their result has been written.</p>
+ *
+ * @author SleepingCui
+ */
+@Slf4j
+public class MultiplexedFrameHandler extends ChannelDuplexHandler {
+
+    private static final int MAX_FILENAME_LENGTH = 512;
+
+    private final int inMemorySourceLimit;
+    private final StreamingConfigParser.Factory configParsers;
+    private final Set<Long> inFlight = new HashSet<>();
+    private final List<JudgeRequest> awaitingWrites = new ArrayList<>();
+    private final Map<Long, PartialSubmit> partialSubmits = new HashMap<>();
+    private AsyncUploadWriter writer;
+    private boolean handshakeDone;
+
+    /**
+     * @param inMemorySourceLimit sources up to this many bytes are kept in memory instead of
+     *                            being written to a temporary file
+     */
+    public MultiplexedFrameHandler(int inMemorySourceLimit) {
+        this(inMemorySourceLimit, null);
+    }
+
+    /**
+     * @param inMemorySourceLimit sources up to this many bytes are kept in memory instead of
+     *                            being written to a temporary file
+     * @param configParsers       decides which JSON configs are streamed, {@code null} to never stream
+     */
+    public MultiplexedFrameHandler(int inMemorySourceLimit, StreamingConfigParser.Factory configParsers) {
+        this.inMemorySourceLimit = inMemorySourceLimit;
+        this.configParsers = configParsers;
+    }
+
+    @Override
+    public void handlerAdded(ChannelHandlerContext ctx) {
+        writer = new AsyncUploadWriter(ctx, LegacyRequestDecoder.WRITE_HIGH_WATER_MARK);
+    }
+
+    /**
+     * Deletes the requests whose source or spilled config has not reached the disk yet, and
+     * those whose config was still arriving.
+     *
+     * @param ctx the channel handler context
+     * @throws Exception if an error occurs
+     */
+    @Override
+    public void channelInactive(ChannelHandlerContext ctx) throws Exception {
+        writer.discardActions();
+        awaitingWrites.forEach(JudgeRequest::cleanup);
+        awaitingWrites.clear();
+        partialSubmits.values().forEach(PartialSubmit::abort);
+        partialSubmits.clear();
+        super.channelInactive(ctx);
+    }
+
+    @Override
+    public void channelRead(ChannelHandlerContext ctx, Object msg) throws Exception {
+        ByteBuf frame = (ByteBuf) msg;
+        try {
+            if (frame.readableBytes() < ProtocolV2.FRAME_HEADER_LENGTH) {
+                throw new IOException("Frame too short: " + frame.readableBytes() + " bytes");
+            }
+            FrameType type = FrameType.fromCode(frame.readByte());
+            long requestId = frame.readLong();
+            if (type == null) {
+                sendError(ctx, requestId, "Unknown frame type");
+                return;
+            }
+            if (!handshakeDone && type != FrameType.HELLO) {
+                sendError(ctx, requestId, "Handshake required").addListener(ChannelFutureListener.CLOSE);
+                return;
+            }
+            switch (type) {
+                case HELLO -> handleHello(ctx, frame);
+                case PING -> ctx.writeAndFlush(new JudgeResponse(requestId, FrameType.PONG, ""));
+                case SUBMIT -> handleSubmit(ctx, requestId, frame);
+                case SUBMIT_STREAM -> handleSubmitStream(ctx, requestId, frame);
+                case CONFIG_PART -> handleConfigPart(ctx, requestId, frame);
+                case FETCH -> handleFetch(ctx, requestId, frame);
+                default -> sendError(ctx, requestId, "Unexpected frame type: " + type);
+            }
+        } finally {
+            frame.release();
+        }
+    }
+
+    @Override
+    public void write(ChannelHandlerContext ctx, Object msg, ChannelPromise promise) throws Exception {
+        if (msg instanceof JudgeResponse response && response.getType().isFinal()) {
+            inFlight.remove(response.getRequestId());
+        }
+        super.write(ctx, msg, promise);
+    }
+
+    private void handleHello(ChannelHandlerContext ctx, ByteBuf frame) throws IOException {
+        if (frame.readableBytes() < 2) {
+            throw new IOException("HELLO frame without protocol version");
+        }
+        short version = frame.readShort();
+        if (version != ProtocolV2.VERSION) {
+            sendError(ctx, 0L, "Unsupported protocol version: " + version).addListener(ChannelFutureListener.CLOSE);
+            return;
+        }
+        handshakeDone = true;
+        ByteBuf reply = ctx.alloc().buffer();
+        byte[] payload;
+        if (frame.readableBytes() >= 4) {
+            byte[] digests = negotiateDigests(frame).getBytes(StandardCharsets.UTF_8);
+            payload = new byte[2 + 4 + 4 + 4 + digests.length];
+            ByteBuffer.wrap(payload).putShort(ProtocolV2.VERSION).putInt(ProtocolV2.MAX_IN_FLIGHT).putInt(ProtocolV2.MAX_FRAME_LENGTH).putInt(digests.length).put(digests);
+        } else {
+            payload = new byte[2 + 4 + 4];
+            ByteBuffer.wrap(payload).putShort(ProtocolV2.VERSION).putInt(ProtocolV2.MAX_IN_FLIGHT).putInt(ProtocolV2.MAX_FRAME_LENGTH);
+        }
+        FrameEncoder.writeFrame(reply, FrameType.HELLO, 0L, payload);
+        ctx.writeAndFlush(reply);
+        log.info("Protocol v2 handshake completed");
+    }
+
+    /**
+     * Reads the hash algorithms offered in a HELLO frame.
+     *
+     * @return the offered algorithms the server supports, comma-separated in the client's order
+     */
+    private static String negotiateDigests(ByteBuf frame) throws IOException {
+        int length = frame.readInt();
+        if (length < 0 || length > frame.readableBytes()) {
+            throw new IOException("Invalid hash algorithm list length: " + length);
+        }
+        return Arrays.stream(frame.readCharSequence(length, StandardCharsets.UTF_8).toString().split(","))
+                .map(String::trim).map(UploadDigest.Algorithm::fromWireName).filter(Objects::nonNull).distinct()
+                .map(UploadDigest.Algorithm::wireName).collect(Collectors.joining(","));
+    }
+
+    private void handleSubmit(ChannelHandlerContext ctx, long requestId, ByteBuf frame) throws IOException, NoSuchAlgorithmException {
+        if (!admit(ctx, requestId)) {
+            return;
+        }
+        int filenameLength = frame.readInt();
+        if (filenameLength <= 0 || filenameLength > MAX_FILENAME_LENGTH || filenameLength > frame.readableBytes()) {
+            sendError(ctx, requestId, "Invalid filename length: " + filenameLength);
+            return;
+        }
+        String filename = frame.readCharSequence(filenameLength, StandardCharsets.UTF_8).toString();
+        int sourceLength = frame.readInt();
+        if (sourceLength < 0 || sourceLength > frame.readableBytes()) {
+            sendError(ctx, requestId, "Invalid source length: " + sourceLength);
+            return;
+        }
+        ByteBuf source = frame.readSlice(sourceLength);
+        int jsonLength = frame.readInt();
+        if (jsonLength <= 0 || jsonLength > frame.readableBytes()) {
+            sendError(ctx, requestId, "Invalid JSON length: " + jsonLength);
+            return;
+        }
+        ByteBuf json = frame.readSlice(jsonLength);
+        int hashLength = frame.readInt();
+        if (hashLength < 0 || hashLength > frame.readableBytes()) {
+            sendError(ctx, requestId, "Invalid hash length: " + hashLength);
+            return;
+        }
+        String declaredHash = hashLength == 0 ? null : frame.readCharSequence(hashLength, StandardCharsets.UTF_8).toString();
+        UploadDigest.Declared declared = declaredHash == null ? null : UploadDigest.Declared.parse(declaredHash);
+        if (declaredHash != null && declared == null) {
+            sendError(ctx, requestId, "Unsupported hash algorithm");
+            return;
+        }
+        UploadDigest digest = sourceDigest(declared, source);
+        if (declared != null && declared.isCoversConfig()) {
+            digest.updateConfig(json.nioBuffer());
+        }
+
+        boolean streamConfig = configParsers != null && configParsers.shouldStream(jsonLength);
+        String jsonConfig = streamConfig ? null : json.toString(StandardCharsets.UTF_8);
+        SpilledConfig spilledConfig = streamConfig ? streamConfig(json) : null;
+        SubmissionSource submission;
+        try {
+            submission = readSource(filename, source);
+        } catch (IOException e) {
+            if (spilledConfig != null) {
+                spilledConfig.cleanup();
+            }
+            throw e;
+        }
+        log.info("Received request {} ({}, {} bytes source{}, {} bytes config{})", requestId, filename, sourceLength, submission.isInMemory() ? " in memory" : "", jsonLength, streamConfig ? " streamed" : "");
+        inFlight.add(requestId);
+        forward(ctx, streamConfig
+                ? new JudgeRequest(requestId, submission, spilledConfig, declaredHash, digest, false)
+                : new JudgeRequest(requestId, submission, jsonConfig, declaredHash, digest, false));
+    }
+
+    /**
+     * Starts a SUBMIT_STREAM request. The source is taken as in a SUBMIT frame; the config is
+     * collected by {@link #handleConfigPart} and the request is passed on after its last piece.
+     */
+    private void handleSubmitStream(ChannelHandlerContext ctx, long requestId, ByteBuf frame) throws IOException, NoSuchAlgorithmException {
+        if (!admit(ctx, requestId)) {
+            return;
+        }
+        int filenameLength = frame.readInt();
+        if (filenameLength <= 0 || filenameLength > MAX_FILENAME_LENGTH || filenameLength > frame.readableBytes()) {
+            sendError(ctx, requestId, "Invalid filename length: " + filenameLength);
+            return;
+        }
+        String filename = frame.readCharSequence(filenameLength, StandardCharsets.UTF_8).toString();
+        int sourceLength = frame.readInt();
+        if (sourceLength < 0 || sourceLength > frame.readableBytes()) {
+            sendError(ctx, requestId, "Invalid source length: " + sourceLength);
+            return;
+        }
+        ByteBuf source = frame.readSlice(sourceLength);
+        long configLength = frame.readLong();
+        boolean streamConfig = configParsers != null && configParsers.shouldStream(configLength);
+        if (configLength <= 0 || !streamConfig && configLength > ProtocolV2.MAX_FRAME_LENGTH) {
+            sendError(ctx, requestId, "Invalid JSON length: " + configLength);
+            return;
+        }
+        int hashLength = frame.readInt();
+        if (hashLength < 0 || hashLength > frame.readableBytes()) {
+            sendError(ctx, requestId, "Invalid hash length: " + hashLength);
+            return;
+        }
+        String declaredHash = hashLength == 0 ? null : frame.readCharSequence(hashLength, StandardCharsets.UTF_8).toString();
+        UploadDigest.Declared declared = declaredHash == null ? null : UploadDigest.Declared.parse(declaredHash);
+        if (declaredHash != null && declared == null) {
+            sendError(ctx, requestId, "Unsupported hash algorithm");
+            return;
+        }
+
+        UploadDigest digest = sourceDigest(declared, source);
+        SubmissionSource submission = readSource(filename, source);
+        StreamingConfigParser parser;
+        try {
+            parser = streamConfig ? configParsers.create(this::spill) : null;
+        } catch (IOException e) {
+            submission.cleanup();
+            throw e;
+        }
+        log.info("Receiving request {} ({}, {} bytes source{}, {} bytes config{} in parts)", requestId, filename, sourceLength, submission.isInMemory() ? " in memory" : "", configLength, streamConfig ? " streamed" : "");
+        inFlight.add(requestId);
+        partialSubmits.put(requestId, new PartialSubmit(submission, declaredHash, digest, declared != null && declared.isCoversConfig(), configLength, parser));
+    }
+
+    private void handleConfigPart(ChannelHandlerContext ctx, long requestId, ByteBuf frame) throws IOException {
+        PartialSubmit submit = partialSubmits.get(requestId);
+        if (submit == null) {
+            sendError(ctx, requestId, "CONFIG_PART without SUBMIT_STREAM");
+            return;
+        }
+        int length = frame.readableBytes();
+        if (length > submit.configLength - submit.received) {
+            partialSubmits.remove(requestId);
+            submit.abort();
+            sendError(ctx, requestId, "JSON config longer than announced: " + submit.configLength);
+            return;
+        }
+        if (submit.hashCoversConfig) {
+            submit.digest.updateConfig(frame.nioBuffer());
+        }
+        if (submit.parser != null) {
+            for (ByteBuffer chunk : frame.nioBuffers()) {
+                submit.parser.feed(chunk);
+            }
+        } else {
+            frame.readBytes(submit.buffered, length);
+        }
+        submit.received += length;
+        if (submit.received < submit.configLength) {
+            return;
+        }
+
+        partialSubmits.remove(requestId);
+        log.info("Received request {} ({} bytes config)", requestId, submit.configLength);
+        forward(ctx, submit.parser != null
+                ? new JudgeRequest(requestId, submit.source, submit.parser.finish(), submit.declaredHash, submit.digest, false)
+                : new JudgeRequest(requestId, submit.source, submit.buffered.toString(StandardCharsets.UTF_8), submit.declaredHash, submit.digest, false));
+    }
+
+    private boolean admit(ChannelHandlerContext ctx, long requestId) {
+        if (inFlight.contains(requestId)) {
+            sendError(ctx, requestId, "Duplicate request ID");
+            return false;
+        }
+        if (inFlight.size() >= ProtocolV2.MAX_IN_FLIGHT) {
+            sendError(ctx, requestId, "Too many requests in flight");
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * @return a digest over the source with the declared algorithm, or {@code null} if no hash was declared
+     */
+    private static UploadDigest sourceDigest(UploadDigest.Declared declared, ByteBuf source) throws NoSuchAlgorithmException {
+        if (declared == null) {
+            return null;
+        }
+        UploadDigest digest = new UploadDigest(EnumSet.of(declared.getAlgorithm()));
+        digest.updateSource(source.nioBuffer());
+        digest.endSource();
+        return digest;
+    }
+
+    private SubmissionSource readSource(String filename, ByteBuf source) throws IOException {
+        return source.readableBytes() <= inMemorySourceLimit ? SubmissionSource.inMemory(filename, ByteBufUtil.getBytes(source)) : SubmissionSource.ofFile(filename, writeSourceFile(filename, source));
+    }
+
+    /**
+     * Passes a request on once everything written for it so far has reached the disk.
+     */
+    private void forward(ChannelHandlerContext ctx, JudgeRequest request) {
+        if (writer.getPendingBytes() == 0) {
+            ctx.fireChannelRead(request);
+            return;
+        }
+        awaitingWrites.add(request);
+        writer.whenDrained(() -> {
+            awaitingWrites.remove(request);
+            ctx.fireChannelRead(request);
+        });
+    }
+
+    private void handleFetch(ChannelHandlerContext ctx, long requestId, ByteBuf frame) {
+        if (inFlight.contains(requestId)) {
+            sendError(ctx, requestId, "Duplicate request ID");
+            return;
+        }
+        if (!frame.isReadable()) {
+            sendError(ctx, requestId, "FETCH frame without ticket");
+            return;
+        }
+        inFlight.add(requestId);
+        ctx.fireChannelRead(new TicketFetch(requestId, frame.toString(StandardCharsets.UTF_8).trim()));
+    }
+
+    private SpilledConfig streamConfig(ByteBuf json) throws IOException {
+        StreamingConfigParser parser = configParsers.create(this::spill);
+        for (ByteBuffer chunk : json.nioBuffers()) {
+            parser.feed(chunk);
+        }
+        return parser.finish();
+    }
+
+    private void spill(File file, ByteBuffer data) throws IOException {
+        AsynchronousFileChannel channel = AsynchronousFileChannel.open(file.toPath(), StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE);
+        writer.write(channel, Unpooled.wrappedBuffer(data), 0, true);
+    }
+
+    private File writeSourceFile(String filename, ByteBuf source) throws IOException {
+        File sourceFile = JudgeRequest.createSourceFile(filename);
+        AsynchronousFileChannel channel;
+        try {
+            channel = AsynchronousFileChannel.open(sourceFile.toPath(), StandardOpenOption.WRITE);
+        } catch (IOException e) {
+            JudgeRequest.deleteSourceFile(sourceFile);
+            throw e;
+        }
+        writer.write(channel, source.retain(), 0, true); // the frame is released after this read, the writer releases its reference
+        return sourceFile;
+    }
+
+    /**
+     * A SUBMIT_STREAM request whose config has not arrived completely.
+     */
+    private static class PartialSubmit {
+        final SubmissionSource source;
+        final String declaredHash;
+        final UploadDigest digest;
+        final boolean hashCoversConfig;
+        final long configLength;
+        /** Parses a config above the spill threshold, {@code null} if the config is buffered. */
+        final StreamingConfigParser parser;
+        final ByteArrayOutputStream buffered;
+        long received;
+
+        PartialSubmit(SubmissionSource source, String declaredHash, UploadDigest digest, boolean hashCoversConfig, long configLength, StreamingConfigParser parser) {
+            this.source = source;
+            this.declaredHash = declaredHash;
+            this.digest = digest;
+            this.hashCoversConfig = hashCoversConfig;
+            this.configLength = configLength;
+            this.parser = parser;
+            this.buffered = parser == null ? new ByteArrayOutputStream() : null;
+        }
+
+        void abort() {
+            source.cleanup();
+            if (parser != null) {
+                parser.abort();
+            }
+        }
+    }
+
+    private ChannelFuture sendError(ChannelHandlerContext ctx, long requestId, String message) {
+        log.warn("Request {} rejected: {}", requestId, message);
+        return ctx.writeAndFlush(new JudgeResponse(requestId, FrameType.ERROR, RequestProcessor.errorJson(message)));
+    }
+}
@@ -0,0 +1,108 @@
+package org.bcmoj.netserver;
+
+import io.netty.channel.IoHandlerFactory;
+import io.netty.channel.ServerChannel;
+import io.netty.channel.epoll.Epoll;
+import io.netty.channel.epoll.EpollIoHandler;
+import io.netty.channel.epoll.EpollServerDomainSocketChannel;
+import io.netty.channel.epoll.EpollServerSocketChannel;
+import io.netty.channel.nio.NioIoHandler;
+import io.netty.channel.socket.nio.NioServerDomainSocketChannel;
+import io.netty.channel.socket.nio.NioServerSocketChannel;
+import io.netty.channel.unix.DomainSocketAddress;
+import lombok.extern.slf4j.Slf4j;
+
+import java.net.SocketAddress;
+import java.net.UnixDomainSocketAddress;
+
+/**
+ * The Netty transports the server can run on.
+ *
+ * <p>{@link #EPOLL} uses Linux's native epoll in edge-triggered mode and supports
+ * {@code SO_REUSEPORT}, so several listening sockets can share a port and the kernel
+ * spreads incoming connections over their accept loops. {@link #NIO} works everywhere
+ * and is used whenever the native library cannot be loaded.</p>
+ *
+ * <p>Both transports can also listen on a Unix domain socket: epoll through Netty's native
+ * {@link DomainSocketAddress}, NIO through the JDK's {@link UnixDomainSocketAddress}.</p>
+ *
+ * @author SleepingCui
+ */
+@Slf4j
+public enum NettyTransport {
+    NIO,
+    EPOLL;
+
+    /**
+     * Picks the transport for a configured name.
+     *
+     * @param name {@code nio}, {@code epoll}, or {@code auto} (epoll where available)
+     * @return the transport to use; {@link #NIO} if epoll was requested but is not available
+     */
+    public static NettyTransport select(String name) {
+        String normalized = name == null ? "nio" : name.trim().toLowerCase();
+        switch (normalized) {
+            case "epoll" -> {
+                if (Epoll.isAvailable()) {
+                    return EPOLL;
+                }
+                log.warn("Native epoll transport is unavailable, falling back to NIO: {}", Epoll.unavailabilityCause().toString());
+                return NIO;
+            }
+            case "auto" -> {
+                return Epoll.isAvailable() ? EPOLL : NIO;
+            }
+            case "nio" -> {
+                return NIO;
+            }
+            default -> {
+                log.warn("Unknown transport '{}', using NIO", name);
+                return NIO;
+            }
+        }
+    }
+
+    /**
+     * @return a factory for the I/O handlers of this transport's event loops
+     */
+    public IoHandlerFactory newIoHandlerFactory() {
+        return this == EPOLL ? EpollIoHandler.newFactory() : NioIoHandler.newFactory();
+    }
+
+    /**
+     * @return the server socket channel class of this transport
+     */
+    public Class<? extends ServerChannel> serverChannelClass() {
+        return this == EPOLL ? EpollServerSocketChannel.class : NioServerSocketChannel.class;
+    }
+
+    /**
+     * @return the server channel class of this transport for Unix domain sockets
+     */
+    public Class<? extends ServerChannel> serverDomainChannelClass() {
+        return this == EPOLL ? EpollServerDomainSocketChannel.class : NioServerDomainSocketChannel.class;
+    }
+
+    /**
+     * @param path filesystem path of the socket
+     * @return the Unix domain socket address in the form this transport's channels expect
+     */
+    public SocketAddress domainSocketAddress(String path) {
+        return this == EPOLL ? new DomainSocketAddress(path) : UnixDomainSocketAddress.of(path);
+    }
+
+    /**
+     * @param address the local address of a channel
+     * @return {@code true} if it is a Unix domain socket address of either transport
+     */
+    public static boolean isDomainSocket(SocketAddress address) {
+        return address instanceof DomainSocketAddress || address instanceof UnixDomainSocketAddress;
+    }
+
+    /**
+     * @return {@code true} if several acceptors can bind the same port with {@code SO_REUSEPORT}
+     */
+    public boolean supportsReusePort() {
+        return this == EPOLL;
+    }
+}
@@ -0,0 +1,68 @@
+package org.bcmoj.netserver;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelPipeline;
+import io.netty.handler.codec.ByteToMessageDecoder;
+import io.netty.handler.codec.LengthFieldBasedFrameDecoder;
+import lombok.extern.slf4j.Slf4j;
+import org.bcmoj.utils.StreamingConfigParser;
+
+import java.util.List;
+
+/**
+ * First handler of every connection. Peeks at the first four bytes to tell protocol v2
+ * (which starts with {@link ProtocolV2#MAGIC}) from the legacy single-shot protocol, installs
+ * the matching decoder and encoder in front of {@link RequestProcessor}, and removes itself.
+ *
+ * <p>Bytes that were already received are handed to the newly installed decoder when this
+ * handler is removed, so no data is lost regardless of how the client's writes were split.</p>
+ *
+ * @author SleepingCui
+ */
+@Slf4j
+public class ProtocolDetector extends ByteToMessageDecoder {
+
+    private final int inMemorySourceLimit;
+    private final StreamingConfigParser.Factory configParsers;
+    private final boolean legacyExtendedDigests;
+
+    /**
+     * @param inMemorySourceLimit largest upload, in bytes, that the installed decoder keeps in memory
+     */
+    public ProtocolDetector(int inMemorySourceLimit) {
+        this(inMemorySourceLimit, null, false);
+    }
+
+    /**
+     * @param inMemorySourceLimit largest upload, in bytes, that the installed decoder keeps in memory
+     * @param configParsers       decides which JSON configs the installed decoder streams, {@code null} to never stream
+     * @param legacyExtendedDigests whether legacy uploads are hashed with every supported digest, not only SHA-256 of the source
+     */
+    public ProtocolDetector(int inMemorySourceLimit, StreamingConfigParser.Factory configParsers, boolean legacyExtendedDigests) {
+        this.inMemorySourceLimit = inMemorySourceLimit;
+        this.configParsers = configParsers;
+        this.legacyExtendedDigests = legacyExtendedDigests;
+    }
+
+    @Override
+    protected void decode(ChannelHandlerContext ctx, ByteBuf in, List<Object> out) {
+        if (in.readableBytes() < 4) {
+            return;
+        }
+        ChannelPipeline pipeline = ctx.pipeline();
+        String self = ctx.name();
+        if (in.getInt(in.readerIndex()) == ProtocolV2.MAGIC) {
+            in.skipBytes(4);
+            log.debug("Client speaks protocol v2");
+            pipeline.addAfter(self, "frameDecoder", new LengthFieldBasedFrameDecoder(ProtocolV2.MAX_FRAME_LENGTH, 0, 4, 0, 4));
+            pipeline.addAfter("frameDecoder", "frameEncoder", new FrameEncoder());
+            pipeline.addAfter("frameEncoder", "frameHandler", new MultiplexedFrameHandler(inMemorySourceLimit, configParsers));
+        } else {
+            log.debug("Client speaks the legacy protocol");
+            pipeline.addAfter(self, "legacyDecoder", new LegacyRequestDecoder(inMemorySourceLimit, configParsers, legacyExtendedDigests));
+            pipeline.addAfter("legacyDecoder", "legacyEncoder", new LegacyResponseEncoder());
+        }
+        pipeline.remove(this);
+    }
+}
@@ -0,0 +1,83 @@
+package org.bcmoj.netserver;
+
+/**
+ * Constants of the multiplexed judge protocol, version 2.
+ *
+ * <p>A v2 connection starts with the 4-byte magic {@code "BCJ2"}. The legacy protocol starts
+ * with a filename length of at most 512, so the magic can never be mistaken for a legacy
+ * request and both protocols are served on the same port.</p>
+ *
+ * <p>After the magic, both directions exchange frames:</p>
+ * <ol>
+ *   <li>Frame length (int, 4 bytes), counting everything after this field</li>
+ *   <li>Frame type (byte, see {@link FrameType})</li>
+ *   <li>Request ID (long, 8 bytes), chosen by the client and echoed in responses</li>
+ *   <li>Payload</li>
+ * </ol>
+ *
+ * <p>The first client frame must be {@link FrameType#HELLO} with a 2-byte protocol version,
+ * optionally followed by the hash algorithms the client would like to use (int length,
+ * comma-separated UTF-8 names such as {@code crc32c,sha256}).
+ * The server answers with a HELLO frame carrying the accepted version (short), the maximum
+ * number of in-flight requests (int) and the maximum frame length (int); if the client offered
+ * hash algorithms, the reply ends with those the server supports, in the same encoding. Afterwards the client
+ * may send any number of {@link FrameType#SUBMIT} frames without waiting; each is answered by
+ * exactly one {@link FrameType#RESULT}, {@link FrameType#ERROR}, {@link FrameType#BUSY} or
+ * {@link FrameType#NEED} frame with the same request ID, in completion order rather than submission order.</p>
+ *
+ * <p>SUBMIT payload: filename length (int), filename (UTF-8), source length (int), source bytes,
+ * JSON length (int), JSON config (UTF-8), hash length (int), hash string (UTF-8, optional). The hash is a SHA-256 hex string of the
+ * source, or {@code <algorithm>[+config]:<hex>} with one of the negotiated algorithms, where
+ * {@code +config} means the hash covers the source followed by the JSON config.
+ * RESULT, ERROR, BUSY and NEED payloads are UTF-8 JSON.</p>
+ *
+ * <p>A SUBMIT frame must fit in {@link #MAX_FRAME_LENGTH} (64 MiB) and is held in memory until it
+ * has been read completely. A larger config is sent with {@link FrameType#SUBMIT_STREAM}: filename
+ * length (int), filename, source length (int), source bytes, config length (long), hash length
+ * (int), hash string, followed by {@link FrameType#CONFIG_PART} frames with the same request ID
+ * whose payloads are consecutive pieces of the JSON config, until the announced length has been
+ * sent. The server parses each piece as it arrives, so when the config is above the spill
+ * threshold only the current frame and the checkpoint value being parsed are held in memory; a
+ * config that is not spilled must still fit in {@link #MAX_FRAME_LENGTH}. The request is answered like a SUBMIT once its
+ * last piece has arrived.</p>
+ *
+ * <p>A BUSY frame means the server turned the request away without judging it because too many
+ * submissions are waiting. Its payload is {@code {"status":"busy","retry_after_ms":..,
+ * "estimated_wait_ms":..,"queued":..,"running":..}}, followed by per-class queue statistics and
+ * the queueing and busy times of the compile and run pools; the client should resubmit after the
+ * hinted delay.</p>
+ *
+ * <p>Checkpoint data may be sent as the SHA-256 hex digest of its UTF-8 bytes ({@code in_ref} /
+ * {@code out_ref}) instead of inline. If the server has not cached a referenced blob it answers
+ * with a NEED frame, {@code {"status":"need","missing":["<digest>", ..]}}, and the client
+ * resubmits with those checkpoints inline.</p>
+ *
+ * <p>If the JSON config sets {@code "stream": true}, the RESULT frame is preceded by
+ * {@link FrameType#PROGRESS} frames with the same request ID: a {@code "compiling"} status, then
+ * one frame per checkpoint as it finishes. The RESULT frame then carries a summary instead of
+ * the full result.</p>
+ *
+ * <p>If the JSON config sets {@code "async": true} and the server keeps a ticket journal, the
+ * submission is answered at once by a RESULT frame {@code {"status":"accepted","ticket":".."}}
+ * and judged in the background, even if the client disconnects. A {@link FrameType#FETCH} frame
+ * whose payload is the UTF-8 ticket is answered by a RESULT frame
+ * {@code {"ticket":..,"status":..}}: {@code "pending"}, {@code "unknown"}, or {@code "done"},
+ * {@code "need"} or {@code "error"} with the judge result, NEED payload or error as
+ * {@code "result"}. The legacy protocol can submit asynchronously but not fetch.</p>
+ *
+ * @author SleepingCui
+ */
+public final class ProtocolV2 {
+    /** Connection preamble, ASCII "BCJ2". */
+    public static final int MAGIC = 0x42434A32;
+    public static final short VERSION = 2;
+    /** Largest accepted frame, in bytes after the length field. */
+    public static final int MAX_FRAME_LENGTH = 64 * 1024 * 1024;
+    /** Maximum number of requests a single connection may have in flight. */
+    public static final int MAX_IN_FLIGHT = 64;
+    /** Size of the type and request ID fields that precede every payload. */
+    public static final int FRAME_HEADER_LENGTH = 1 + 8;
+
+    private ProtocolV2() {
+    }
+}
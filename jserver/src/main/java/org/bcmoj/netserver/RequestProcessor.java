@@ -1,56 +1,42 @@
 package org.bcmoj.netserver;
 
-import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
-import io.netty.buffer.ByteBuf;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import io.netty.channel.ChannelFuture;
+import io.netty.channel.ChannelFutureListener;
 import io.netty.channel.ChannelHandlerContext;
 import io.netty.channel.ChannelInboundHandlerAdapter;
 import lombok.extern.slf4j.Slf4j;
 import org.bcmoj.config.ServerConfig;
-import org.bcmoj.config.JudgeTaskConfig;
-import org.bcmoj.judgeserver.JudgeServer;
-import org.bcmoj.utils.FileHashUtil;
-import org.bcmoj.utils.JsonValidateUtil;
-import org.bcmoj.utils.JudgeResultUtil;
+import org.bcmoj.config.SpilledConfig;
+import org.bcmoj.judgeserver.CancellationHandle;
+import org.bcmoj.scheduler.AdmissionController;
+import org.bcmoj.scheduler.CheckpointScheduler;
+import org.bcmoj.scheduler.CompileScheduler;
+import org.bcmoj.scheduler.JudgePriority;
+import org.bcmoj.scheduler.JudgeTaskScheduler;
+import org.bcmoj.utils.JsonReadUtil;
 import org.slf4j.MDC;
 
-import java.io.File;
-import java.io.FileOutputStream;
-import java.io.IOException;
-import java.nio.charset.StandardCharsets;
-import java.security.NoSuchAlgorithmException;
-import java.util.List;
+import java.net.SocketAddress;
 import java.util.Map;
-import java.util.UUID;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
-import java.util.concurrent.ThreadFactory;
-import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 /**
- * Netty channel handler that processes incoming client requests for
- * file-based judging tasks.
+ * Netty channel handler that processes judging requests.
  *
- * <p>The communication protocol expects:
- * <ol>
- *   <li>Filename length (int, 4 bytes)</li>
- *   <li>Filename (UTF-8 bytes)</li>
- *   <li>File size (long, 8 bytes)</li>
- *   <li>File content (binary data)</li>
- *   <li>JSON config length (int, 4 bytes)</li>
- *   <li>JSON config (UTF-8 bytes)</li>
- *   <li>Hash length (int, 4 bytes)</li>
- *   <li>Hash string (UTF-8 bytes, optional)</li>
- * </ol>
- *
- * <p>Data is read step-by-step using a state machine to handle partial
- * incoming buffers. Once all data is received, the handler validates
- * the hash, validates the JSON configuration, invokes the judge server,
- * and returns the result back to the client.
- * </p>
- *
- * <p>Temporary files are created to store uploaded files and deleted
- * after processing completes or upon disconnection.</p>
+ * <p>{@link ProtocolDetector} installs either the legacy decoder ({@link LegacyRequestDecoder})
+ * or the protocol v2 frame handlers ({@link MultiplexedFrameHandler}) in front of it, and both
+ * deliver fully received {@link JudgeRequest}s. Each request is checked by the
+ * {@link AdmissionController}, queued on the server-wide {@link JudgeTaskScheduler} and judged
+ * by the {@link SubmissionJudge}, and its {@link JudgeResponse} is written back; requests that
+ * set {@code "async": true} go to the {@link TicketService} instead. Legacy connections are
+ * closed after their single response; v2 connections stay open and may have many requests in
+ * flight. When the client disconnects, the {@link CancellationHandle}s of its unanswered
+ * requests are cancelled.</p>
  *
  * <p>Logging is done with client context information for traceability.</p>
  *
@@ -59,51 +45,32 @@ import java.util.concurrent.atomic.AtomicInteger;
 @Slf4j
 public class RequestProcessor extends ChannelInboundHandlerAdapter {
 
-    /**
-     * States of the reading process, forming a state machine
-     * for processing incoming data step-by-step.
-     */
-    private enum State {
-        READ_FILENAME_LENGTH,
-        READ_FILENAME,
-        READ_FILE_SIZE,
-        READ_FILE_CONTENT,
-        READ_JSON_LENGTH,
-        READ_JSON,
-        READ_HASH_LENGTH,
-        READ_HASH,
-        PROCESSING
-    }
-
     private static final ObjectMapper mapper = new ObjectMapper();
-    private static final int MAX_FILENAME_LENGTH = 512;
-    private static final int MAX_FILENAME_CHARS = 128;
 
-    private final JsonValidateUtil validator = new JsonValidateUtil();
     private final ServerConfig serverConfig; // 存储服务器配置对象
-
-    private State state = State.READ_FILENAME_LENGTH;
-
-    private int filenameLength;
-    private long fileSize;
-    private long bytesReadForFile;
-    private int jsonLength;
-    private int hashLength;
-    private File tempFile;
-    private String jsonConfig;
-    private FileOutputStream fos;
-    private String declaredHash;
-
-    private final StringBuilder jsonBuilder = new StringBuilder();
-    private final StringBuilder hashBuilder = new StringBuilder();
+    private final JudgeTaskScheduler judgeScheduler;
+    private final AdmissionController admissionController;
+    private final SubmissionJudge judge;
+    private final TicketService tickets;
+    private final Map<JudgeRequest, CancellationHandle> inFlight = new ConcurrentHashMap<>(); // accepted, not yet answered
+    private JudgePriority maxPriority; // highest class this connection may claim
 
     /**
      * Constructs a RequestProcessor with the given server configuration.
      *
-     * @param serverConfig The server configuration containing all necessary settings.
+     * @param serverConfig   The server configuration containing all necessary settings.
+     * @param judgeScheduler The server-wide scheduler that runs judging tasks.
+     * @param admissionController Decides whether new submissions are accepted under the current load.
+     * @param judge The server-wide judge that turns requests into results.
+     * @param tickets The server-wide service for asynchronous submissions, or {@code null} if disabled.
      */
-    public RequestProcessor(ServerConfig serverConfig) {
+    public RequestProcessor(ServerConfig serverConfig, JudgeTaskScheduler judgeScheduler, AdmissionController admissionController, SubmissionJudge judge, TicketService tickets) {
         this.serverConfig = serverConfig;
+        this.judgeScheduler = judgeScheduler;
+        this.admissionController = admissionController;
+        this.judge = judge;
+        this.tickets = tickets;
+        this.maxPriority = JudgePriority.fromName(serverConfig.getMaxPriority(), JudgePriority.CONTEST);
     }
 
     /**
@@ -114,30 +81,36 @@ public class RequestProcessor extends ChannelInboundHandlerAdapter {
      */
     @Override
     public void channelActive(ChannelHandlerContext ctx) {
-        String clientAddr = ctx.channel().remoteAddress().toString().replaceFirst("^/", "");
+        String clientAddr = describe(ctx.channel().remoteAddress());
         MDC.put("client", clientAddr);
         log.info("Client connected: {}", clientAddr);
+        if (NettyTransport.isDomainSocket(ctx.channel().localAddress())) {
+            maxPriority = JudgePriority.CONTEST; // access to the socket file is already restricted by its permissions
+        }
     }
 
     /**
      * Called when the channel becomes inactive (client disconnected).
-     * Cleans up temporary files and removes logging context.
+     * Cancels the requests still in flight and removes logging context.
      *
      * @param ctx the channel handler context
      * @throws Exception if an error occurs
      */
     @Override
     public void channelInactive(ChannelHandlerContext ctx) throws Exception {
-        cleanup();
-        String clientAddr = ctx.channel().remoteAddress().toString();
-        log.info("Client disconnected: {}", clientAddr);
+        log.info("Client disconnected: {}", describe(ctx.channel().remoteAddress()));
+        if (!inFlight.isEmpty()) {
+            log.info("Cancelling {} unanswered submission(s) of the disconnected client", inFlight.size());
+            inFlight.values().forEach(CancellationHandle::cancel);
+            inFlight.clear();
+        }
         MDC.remove("client");
         super.channelInactive(ctx);
     }
 
     /**
      * Handles exceptions thrown during processing.
-     * Logs error, cleans up resources, and closes channel.
+     * Logs error and closes channel.
      *
      * @param ctx   the channel handler context
      * @param cause the exception caught
@@ -145,247 +118,278 @@ public class RequestProcessor extends ChannelInboundHandlerAdapter {
     @Override
     public void exceptionCaught(ChannelHandlerContext ctx, Throwable cause) {
         log.error("Exception in client handler", cause);
-        cleanup();
         ctx.close();
     }
 
     /**
-     * Called when data is received from the client.
-     * Implements a state machine to read protocol fields step-by-step,
-     * handling partial data buffers correctly.
+     * Called when a decoder has received a complete judging request.
      *
      * @param ctx the channel handler context
-     * @param msg the incoming message buffer
-     * @throws Exception if an I/O or protocol error occurs
+     * @param msg the decoded {@link JudgeRequest} or {@link TicketFetch}
      */
     @Override
-    public void channelRead(ChannelHandlerContext ctx, Object msg) throws Exception {
-        ByteBuf in = (ByteBuf) msg;
+    public void channelRead(ChannelHandlerContext ctx, Object msg) {
+        if (msg instanceof JudgeRequest request) {
+            processJudge(ctx, request);
+        } else if (msg instanceof TicketFetch fetch) {
+            FrameType type = tickets != null ? FrameType.RESULT : FrameType.ERROR;
+            String payload = tickets != null ? tickets.fetch(fetch.getTicket()) : errorJson("Asynchronous judging is not enabled");
+            ctx.writeAndFlush(new JudgeResponse(fetch.getRequestId(), type, payload));
+        } else {
+            ctx.fireChannelRead(msg);
+        }
+    }
 
+    /**
+     * Submits a judging task to the server-wide judge scheduler, performing hash verification,
+     * JSON validation, invoking the judge server, and sending the result to the client.
+     * If the admission controller rejects the request or the scheduler's queue is full,
+     * a busy response is returned immediately.
+     *
+     * @param ctx     the channel handler context
+     * @param request the request to judge
+     */
+    private void processJudge(ChannelHandlerContext ctx, JudgeRequest request) {
+        SpilledConfig spilled = request.getSpilledConfig();
+        // Only the scheduling fields are read here; the full parse runs on the judge worker.
+        JsonReadUtil.SchedulingFields scheduling = spilled != null ? JsonReadUtil.readSchedulingFields(spilled.getRoot()) : JsonReadUtil.readSchedulingFields(request.getJsonConfig());
+        JudgePriority priority = parsePriority(scheduling.priority);
+        if (scheduling.async) {
+            processAsync(ctx, request, priority);
+            return;
+        }
+        AdmissionController.Decision decision = admissionController.check(priority);
+        if (!decision.isAdmitted()) {
+            sendBusy(ctx, request, decision);
+            return;
+        }
+        Map<String, String> contextMap = MDC.getCopyOfContextMap();
+        CancellationHandle cancellation = new CancellationHandle();
+        AtomicBoolean claimed = new AtomicBoolean(); // whoever claims the request cleans it up
+        inFlight.put(request, cancellation); // before submit, so a fast worker's remove cannot run first
         try {
-            while (in.isReadable()) {
-                switch (state) {
-                    case READ_FILENAME_LENGTH -> {
-                        if (in.readableBytes() < 4) return;
-                        filenameLength = in.readInt();
-                        if (filenameLength <= 0 || filenameLength > MAX_FILENAME_LENGTH) {
-                            throw new IOException("Invalid filename length: " + filenameLength);
-                        }
-                        state = State.READ_FILENAME;
-                    }
-                    case READ_FILENAME -> {
-                        if (in.readableBytes() < filenameLength) return;
-                        byte[] nameBytes = new byte[filenameLength];
-                        in.readBytes(nameBytes);
-                        String filename = new String(nameBytes, StandardCharsets.UTF_8);
-                        if (filename.length() > MAX_FILENAME_CHARS) {
-                            throw new IOException("Filename too long: " + filename.length());
-                        }
-                        log.info("Received filename: {}", filename);
-                        tempFile = File.createTempFile(UUID.randomUUID().toString(), getFileExtension(filename));
-                        fos = new FileOutputStream(tempFile);
-                        state = State.READ_FILE_SIZE;
-                    }
-                    case READ_FILE_SIZE -> {
-                        if (in.readableBytes() < 8) return;
-                        fileSize = in.readLong();
-                        if (fileSize < 0) {
-                            throw new IOException("Invalid file size: " + fileSize);
-                        }
-                        bytesReadForFile = 0;
-                        state = State.READ_FILE_CONTENT;
-                        log.info("Expecting file content size: {}", fileSize);
-                    }
-                    case READ_FILE_CONTENT -> {
-                        long toRead = Math.min(in.readableBytes(), fileSize - bytesReadForFile);
-                        byte[] fileBytes = new byte[(int) toRead];
-                        in.readBytes(fileBytes);
-                        fos.write(fileBytes);
-                        bytesReadForFile += toRead;
-                        if (bytesReadForFile == fileSize) {
-                            fos.close();
-                            log.info("File received successfully, saved {} bytes", fileSize);
-                            state = State.READ_JSON_LENGTH;
-                        }
-                    }
-                    case READ_JSON_LENGTH -> {
-                        if (in.readableBytes() < 4) return;
-                        jsonLength = in.readInt();
-                        if (jsonLength <= 0) {
-                            throw new IOException("Invalid JSON length: " + jsonLength);
-                        }
-                        jsonBuilder.setLength(0);
-                        state = State.READ_JSON;
-                    }
-                    case READ_JSON -> {
-                        int jsonBytesToRead = Math.min(in.readableBytes(), jsonLength - jsonBuilder.length());
-                        byte[] jsonBytes = new byte[jsonBytesToRead];
-                        in.readBytes(jsonBytes);
-                        jsonBuilder.append(new String(jsonBytes, StandardCharsets.UTF_8));
-                        if (jsonBuilder.length() == jsonLength) {
-                            jsonConfig = jsonBuilder.toString();
-                            log.info("Received JSON config ({} bytes):\n{}", jsonLength, jsonConfig);
-                            state = State.READ_HASH_LENGTH;
-                        }
-                    }
-                    case READ_HASH_LENGTH -> {
-                        if (in.readableBytes() < 4) return;
-                        hashLength = in.readInt();
-                        if (hashLength < 0) {
-                            throw new IOException("Invalid hash length: " + hashLength);
-                        }
-                        if (hashLength == 0) {
-                            declaredHash = null;
-                            state = State.PROCESSING;
-                            processJudge(ctx);
-                        } else {
-                            hashBuilder.setLength(0);
-                            state = State.READ_HASH;
-                        }
-                    }
-                    case READ_HASH -> {
-                        int hashBytesToRead = Math.min(in.readableBytes(), hashLength - hashBuilder.length());
-                        byte[] hashBytes = new byte[hashBytesToRead];
-                        in.readBytes(hashBytes);
-                        hashBuilder.append(new String(hashBytes, StandardCharsets.UTF_8));
-                        if (hashBuilder.length() == hashLength) {
-                            declaredHash = hashBuilder.toString();
-                            log.debug("Declared hash: {}", declaredHash);
-                            state = State.PROCESSING;
-                            processJudge(ctx);
-                        }
-                    }
-                    case PROCESSING -> {
-                        in.skipBytes(in.readableBytes());
-                        return;
-                    }
+            Future<?> task = judgeScheduler.submit(() -> {
+                if (claimed.compareAndSet(false, true)) {
+                    runJudge(ctx, request, contextMap, cancellation);
                 }
-            }
-        } finally {
-            in.release();
+            }, priority);
+            cancellation.onCancel(() -> {
+                task.cancel(true);
+                if (claimed.compareAndSet(false, true)) {
+                    log.info("Dropped queued submission {}", request.getRequestId());
+                    request.cleanup();
+                }
+            });
+            log.debug("Queued {} submission {} ({} of this class waiting)", priority.configName(), request.getRequestId(), judgeScheduler.getQueuedCount(priority));
+        } catch (RejectedExecutionException e) {
+            inFlight.remove(request);
+            sendBusy(ctx, request, admissionController.rejected(priority));
         }
     }
 
     /**
-     * Submits a judging task to the thread pool, performing hash verification,
-     * JSON validation, invoking the judge server, and sending the result to the client.
-     * Cleans up resources and closes the channel after processing.
+     * Hands an asynchronous request to the {@link TicketService} and answers with its ticket
+     * once the submission is on disk; the reply is written from the acceptor thread, so the
+     * event loop does not wait for the journal. The acceptor checks the hash first so that a
+     * corrupted upload is reported to the waiting client.
      *
+     * @param ctx      the channel handler context
+     * @param request  the request to accept
+     * @param priority the priority class of the submission
      */
-    ThreadFactory namedThreadFactory = new ThreadFactory() {
-        private final AtomicInteger count = new AtomicInteger(1);
-        @Override
-        public Thread newThread(Runnable r) {
-            Thread t = new Thread(r, "JudgeWorker-" + count.getAndIncrement());
-            t.setDaemon(false);
-            return t;
+    private void processAsync(ChannelHandlerContext ctx, JudgeRequest request, JudgePriority priority) {
+        if (tickets == null) {
+            sendFinal(ctx, request, FrameType.ERROR, errorJson("Asynchronous judging is not enabled"));
+            request.cleanup();
+            return;
         }
-    };
-    private final ExecutorService JudgeTaskExecutor = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors(), namedThreadFactory);
-
-    private void processJudge(ChannelHandlerContext ctx) {
         Map<String, String> contextMap = MDC.getCopyOfContextMap();
-        JudgeTaskExecutor.submit(() -> {
-            if (contextMap != null) {MDC.setContextMap(contextMap);}
-            try {
-                if (declaredHash != null) {
-                    try {
-                        String actualHash = FileHashUtil.calculateSHA256(tempFile);
-                        log.debug("Actual hash: {}", actualHash);
-                        if (!actualHash.equalsIgnoreCase(declaredHash)) {
-                            log.warn("File hash mismatch! D: {}, A: {}", declaredHash, actualHash);
-                            sendResponse(ctx, JudgeResultUtil.buildResult(List.of(), false, true, parseCheckpointCount(jsonConfig), serverConfig.isUseOldFormat()));
-                            return;
-                        }
-                    } catch (NoSuchAlgorithmException e) {
-                        log.warn("Hash calculation failed: {}", e.getMessage());
+        try {
+            tickets.acceptAsync(request, priority).whenComplete((ticket, error) -> {
+                Map<String, String> previous = MDC.getCopyOfContextMap(); // runs on the caller if already complete
+                if (contextMap != null) {MDC.setContextMap(contextMap);}
+                try {
+                    if (error == null && ticket == null) {
+                        log.warn("File hash mismatch! D: {}", request.getDeclaredHash());
+                        sendResponse(ctx, request, judge.hashMismatchResult(request));
+                    } else if (error == null) {
+                        sendResponse(ctx, request, mapper.createObjectNode().put("status", "accepted").put("ticket", ticket).toString());
+                    } else if (error instanceof RejectedExecutionException rejected) {
+                        sendAsyncBusy(ctx, request, priority, rejected);
+                    } else {
+                        log.error("Failed to accept asynchronous submission {}", request.getRequestId(), error);
+                        sendFinal(ctx, request, FrameType.ERROR, errorJson("Submission could not be stored"));
                     }
-                }
-                if (!validator.validate(jsonConfig, serverConfig.isUseOldFormat())) {
-                    String errorJson = validator.getLastErrorJson();
-                    if (errorJson != null) {
-                        sendResponse(ctx, errorJson);
+                } finally {
+                    request.cleanup();
+                    if (previous != null) {
+                        MDC.setContextMap(previous);
+                    } else {
+                        MDC.clear();
                     }
-                    return;
                 }
-                JudgeTaskConfig taskConfig = JudgeTaskConfig.builder().sourceFile(tempFile).keywordFile(new File(serverConfig.getKeywordFilePath())).compilerPath(serverConfig.getCompilerPath()).cppStandard(serverConfig.getCppStandard()).disableSecurityArgs(serverConfig.isDisableSecurityArgs()).disableMemLimit(serverConfig.isDisableMemLimit()).useOldFormat(serverConfig.isUseOldFormat()).build();
-                String response = JudgeServer.serve(taskConfig, jsonConfig);
-                log.info("JudgeServer response: {}", response);
-                sendResponse(ctx, response);
+            });
+        } catch (RejectedExecutionException e) {
+            sendAsyncBusy(ctx, request, priority, e);
+            request.cleanup();
+        }
+    }
 
-            } catch (Exception e) {
-                log.error("Judging failed", e);
-            } finally {
-                cleanup();
-                ctx.close();
-                MDC.clear();
-            }
-        });
+    private void sendAsyncBusy(ChannelHandlerContext ctx, JudgeRequest request, JudgePriority priority, RejectedExecutionException e) {
+        log.warn("Asynchronous submission {} rejected: {}", request.getRequestId(), e.getMessage());
+        sendFinal(ctx, request, FrameType.BUSY, busyJson(admissionController.rejected(priority), judgeScheduler, judge.getCompileScheduler(), judge.getCheckpointScheduler()));
     }
 
     /**
-     * Sends a UTF-8 encoded response string to the client,
-     * prefixed by the length of the response in bytes.
+     * Answers a request that was not accepted for judging and releases its source.
      *
      * @param ctx      the channel handler context
-     * @param response the response string to send
+     * @param request  the rejected request
+     * @param decision the admission decision with the retry-after hint
      */
-    private void sendResponse(ChannelHandlerContext ctx, String response) {
-        byte[] bytes = response.getBytes(StandardCharsets.UTF_8);
-        ByteBuf buf = ctx.alloc().buffer(4 + bytes.length);
-        buf.writeInt(bytes.length);
-        buf.writeBytes(bytes);
-        ctx.writeAndFlush(buf);
-        log.info("Response sent to client ({} bytes)", bytes.length);
+    private void sendBusy(ChannelHandlerContext ctx, JudgeRequest request, AdmissionController.Decision decision) {
+        sendFinal(ctx, request, FrameType.BUSY, busyJson(decision, judgeScheduler, judge.getCompileScheduler(), judge.getCheckpointScheduler()));
+        request.cleanup();
     }
 
     /**
-     * Cleans up temporary files and closes any open streams.
+     * Writes the last frame of a request; single-shot connections are closed afterwards.
      */
-    private void cleanup() {
+    private void sendFinal(ChannelHandlerContext ctx, JudgeRequest request, FrameType type, String payload) {
+        inFlight.remove(request);
+        ChannelFuture future = ctx.writeAndFlush(new JudgeResponse(request.getRequestId(), type, payload));
+        if (request.isSingleShot()) {
+            future.addListener(ChannelFutureListener.CLOSE);
+        }
+    }
+
+    private void runJudge(ChannelHandlerContext ctx, JudgeRequest request, Map<String, String> contextMap, CancellationHandle cancellation) {
+        if (contextMap != null) {MDC.setContextMap(contextMap);}
+        boolean responded = false;
         try {
-            if (fos != null) {
-                fos.close();
+            StreamingResponder streaming = new StreamingResponder(ctx, request, serverConfig.isUseOldFormat());
+            JudgeResponse outcome = judge.judge(request, cancellation, streaming);
+            if (outcome == null) {
+                return;
             }
-        } catch (IOException e) {
-            log.warn("Failed to close file output stream", e);
-        }
-        if (tempFile != null && tempFile.exists()) {
-            if (tempFile.delete()) {
-                log.info("Deleted temporary file: {}", tempFile.getName());
+            if (outcome.getType() != FrameType.RESULT) {
+                sendFinal(ctx, request, outcome.getType(), outcome.getPayload());
+            } else if (streaming.isStarted()) {
+                String summary = streaming.finish(outcome.getPayload());
+                if (request.isSingleShot()) {
+                    ctx.writeAndFlush(new JudgeResponse(request.getRequestId(), FrameType.PROGRESS, summary));
+                    sendResponse(ctx, request, ""); // zero-length end-of-stream marker
+                } else {
+                    sendResponse(ctx, request, summary);
+                }
             } else {
-                log.warn("Failed to delete temporary file: {}", tempFile.getName());
+                sendResponse(ctx, request, outcome.getPayload());
+            }
+            responded = true;
+
+        } catch (Exception e) {
+            log.error("Judging failed", e);
+        } finally {
+            inFlight.remove(request);
+            request.cleanup();
+            if (!responded && !cancellation.isCancelled()) {
+                if (request.isSingleShot()) {
+                    ctx.close();
+                } else {
+                    ctx.writeAndFlush(new JudgeResponse(request.getRequestId(), FrameType.ERROR, errorJson("Judging failed")));
+                }
             }
+            MDC.clear();
         }
     }
 
     /**
-     * Parses the checkpoint count from the JSON config.
-     * Returns 1 if no checkpoints found or on error.
+     * Sends a judge result to the client. The protocol encoder in the pipeline
+     * decides how it is framed; single-shot connections are closed afterwards.
      *
-     * @param jsonConfig the JSON configuration string
-     * @return number of checkpoints (at least 1)
+     * @param ctx      the channel handler context
+     * @param request  the request being answered
+     * @param response the response JSON to send
      */
-    private int parseCheckpointCount(String jsonConfig) {
-        try {
-            JsonNode checkpointsNode = mapper.readTree(jsonConfig).get("checkpoints");
-            int count = validator.countIns(checkpointsNode);
-            return count <= 0 ? 1 : count;
-        } catch (Exception e) {
-            log.warn("Failed to parse checkpoints count from JSON config, using default 1");
-            return 1;
+    private void sendResponse(ChannelHandlerContext ctx, JudgeRequest request, String response) {
+        inFlight.remove(request);
+        ChannelFuture future = ctx.writeAndFlush(new JudgeResponse(request.getRequestId(), FrameType.RESULT, response));
+        if (request.isSingleShot()) {
+            future.addListener(ChannelFutureListener.CLOSE);
         }
+        log.info("Response sent to client for request {} ({} chars)", request.getRequestId(), response.length());
     }
 
     /**
-     * Extracts the file extension from the given filename.
-     * Returns empty string if no extension found.
+     * Builds the JSON payload of an error response.
      *
-     * @param filename the filename string
-     * @return the file extension including dot, or empty string
+     * @param message the error message
+     * @return JSON object of the form {@code {"error": message}}
      */
-    private static String getFileExtension(String filename) {
-        int dotIndex = filename.lastIndexOf(".");
-        return (dotIndex == -1) ? "" : filename.substring(dotIndex);
+    static String errorJson(String message) {
+        return mapper.createObjectNode().put("error", message).toString();
+    }
+
+    /**
+     * Builds the JSON payload of a busy response.
+     *
+     * @param decision  the rejecting admission decision
+     * @param scheduler the scheduler whose per-class queue statistics are included
+     * @param compile   the compile pool whose statistics are included, may be {@code null}
+     * @param run       the run pool whose statistics are included, may be {@code null}
+     * @return JSON object with the status, retry-after hint and current load
+     */
+    static String busyJson(AdmissionController.Decision decision, JudgeTaskScheduler scheduler, CompileScheduler compile, CheckpointScheduler run) {
+        ObjectNode busy = mapper.createObjectNode()
+                .put("status", "busy")
+                .put("retry_after_ms", decision.getRetryAfterMs())
+                .put("estimated_wait_ms", decision.getEstimatedWaitMs())
+                .put("queued", decision.getQueued())
+                .put("running", decision.getRunning());
+        ObjectNode classes = busy.putObject("classes");
+        for (JudgePriority priority : JudgePriority.values()) {
+            classes.putObject(priority.configName())
+                    .put("queued", scheduler.getQueuedCount(priority))
+                    .put("avg_wait_ms", Math.round(scheduler.getAverageWaitMillis(priority)));
+        }
+        ObjectNode pools = busy.putObject("pools");
+        if (compile != null) {
+            pools.putObject("compile")
+                    .put("queued", compile.getQueuedCount())
+                    .put("running", compile.getRunningCount())
+                    .put("avg_wait_ms", Math.round(compile.getAverageWaitMillis()))
+                    .put("busy_ms", compile.getBusyMillis());
+        }
+        if (run != null) {
+            pools.putObject("run")
+                    .put("queued", run.getQueuedCount())
+                    .put("active_batches", run.getActiveBatchCount())
+                    .put("avg_wait_ms", Math.round(run.getAverageWaitMillis()))
+                    .put("busy_ms", run.getBusyMillis());
+        }
+        return busy.toString();
+    }
+
+    /**
+     * Reads the scheduling class from the JSON config. The config is validated only once the
+     * submission runs, so anything unreadable here falls back to the server's default class.
+     * Classes above what the connection may claim ({@link ServerConfig#getMaxPriority()} for
+     * TCP clients) are lowered to it.
+     *
+     * @param name the {@code "priority"} field of the configuration, or {@code null} if it has none
+     * @return the priority class of the submission
+     */
+    private JudgePriority parsePriority(String name) {
+        JudgePriority defaultPriority = JudgePriority.fromName(serverConfig.getDefaultPriority(), JudgePriority.PRACTICE);
+        JudgePriority requested = name == null ? defaultPriority : JudgePriority.fromName(name, defaultPriority);
+        JudgePriority priority = requested.atMost(maxPriority);
+        if (priority != requested) {
+            log.debug("Priority {} is above what this client may claim, using {}", requested.configName(), priority.configName());
+        }
+        return priority;
+    }
+
+    private static String describe(SocketAddress address) {
+        return address == null ? "unknown" : address.toString().replaceFirst("^/", "");
     }
-}
\ No newline at end of file
+}
@@ -2,25 +2,55 @@ package org.bcmoj.netserver;
 
 import io.netty.bootstrap.ServerBootstrap;
 import io.netty.channel.*;
-import io.netty.channel.nio.NioIoHandler;
-import io.netty.channel.socket.nio.NioServerSocketChannel;
+import io.netty.channel.unix.UnixChannelOption;
 import lombok.extern.slf4j.Slf4j;
+import org.bcmoj.cache.BinaryCache;
+import org.bcmoj.cache.CheckpointDataCache;
+import org.bcmoj.cache.VerdictCache;
 import org.bcmoj.config.ServerConfig;
+import org.bcmoj.judger.PrecompiledHeaders;
+import org.bcmoj.problem.ProblemRepository;
+import org.bcmoj.scheduler.AdmissionController;
+import org.bcmoj.scheduler.CheckpointScheduler;
+import org.bcmoj.scheduler.CompileScheduler;
+import org.bcmoj.scheduler.JudgeTaskScheduler;
+import org.bcmoj.utils.AslrUtil;
+import org.bcmoj.utils.CpuAffinityUtil;
+import org.bcmoj.utils.CpuTopologyUtil;
+import org.bcmoj.utils.StreamingConfigParser;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
 
 /**
  * Asynchronous non-blocking network server based on Netty,
  * designed to accept client connections and handle judge requests.
  * <p>
- * This server uses Netty's NIO model to achieve high-performance network communication,
- * supporting concurrent client connections.
+ * This server uses Netty's NIO model, or the native epoll transport on Linux (see {@link NettyTransport}),
+ * to achieve high-performance network communication, supporting concurrent client connections.
+ * Each connection starts with a {@link ProtocolDetector}, which installs the decoder for either the
+ * legacy single-shot protocol or the multiplexed protocol v2 on the same port.
  * Business logic is handled by {@link RequestProcessor}, which receives files and JSON configurations from clients,
  * validates them, and calls the judge service to return results.
  * </p>
  *
  * <p><b>Startup process:</b></p>
  * <ul>
- *   <li>Create two thread groups: bossGroup for accepting connections, workerGroup for processing IO events.</li>
- *   <li>Use {@link ServerBootstrap} to bind to the specified host and port.</li>
+ *   <li>Create two thread groups: bossGroup with one thread per acceptor for accepting connections, workerGroup for processing IO events.</li>
+ *   <li>Create the server-wide {@link JudgeTaskScheduler}, its {@link AdmissionController}, the {@link CheckpointScheduler} and {@link CompileScheduler} with their CPU sets, the {@link CheckpointDataCache}, the {@link VerdictCache}, the {@link ProblemRepository} and, if configured, the persistent {@link BinaryCache} and the {@link PrecompiledHeaders} shared by every connection's {@link RequestProcessor} through one {@link SubmissionJudge}.</li>
+ *   <li>If a ticket directory is configured, open the {@link TicketService}, which re-queues the asynchronous submissions left pending by the previous run.</li>
+ *   <li>Use {@link ServerBootstrap} to bind to the specified host and port, and optionally to a Unix domain socket.</li>
  *   <li>For each client connection, create a {@link io.netty.channel.Channel} and initialize its pipeline handlers.</li>
  *   <li>Block and wait for server shutdown while handling all client connections and requests.</li>
  * </ul>
@@ -29,9 +59,22 @@ import org.bcmoj.config.ServerConfig;
  */
 @Slf4j
 public class SocketServer {
+    private static final long JUDGE_SHUTDOWN_TIMEOUT_MS = 5_000;
+
     private final ServerConfig config;
     private EventLoopGroup bossGroup;
     private EventLoopGroup workerGroup;
+    private JudgeTaskScheduler judgeScheduler;
+    private CheckpointScheduler checkpointScheduler;
+    private CompileScheduler compileScheduler;
+    private AdmissionController admissionController;
+    private CheckpointDataCache checkpointCache;
+    private VerdictCache verdictCache;
+    private ProblemRepository problemRepository;
+    private BinaryCache binaryCache;
+    private PrecompiledHeaders precompiledHeaders;
+    private TicketService tickets;
+    private Path boundSocketPath;
 
     /**
      * Constructs the server with the provided configuration object.
@@ -46,40 +89,199 @@ public class SocketServer {
      * Starts the Netty server, binding to the specified host and port,
      * and listens for client connection requests.
      * <p>
+     * The transport is chosen from {@link ServerConfig#getTransport()}. With the epoll transport,
+     * {@link ServerConfig#getAcceptors()} listening sockets are bound to the same port with
+     * {@code SO_REUSEPORT}, each served by its own boss thread, so accepting connections does not
+     * funnel through a single thread. With NIO a single acceptor is used.
+     * </p>
+     * <p>
+     * If {@link ServerConfig#getUnixSocketPath()} is set, the server also listens on a Unix domain
+     * socket with the same pipeline, so front ends on the same host can skip the TCP loopback
+     * stack; {@link ServerConfig#isDisableTcp()} makes it the only listener. A stale socket file
+     * left by a previous run is replaced, and the new one gets the configured permissions.
+     * </p>
+     * <p>
      * This method blocks the calling thread until the server is shut down.
      * </p>
      *
-     * @param nettyThreads Number of threads for the Netty event loop group.
+     * @param nettyThreads Number of worker threads handling connection I/O (0 = Netty's default of twice the CPU count).
      * @throws InterruptedException if the thread is interrupted during startup or operation
      */
 
     public void start(int nettyThreads) throws InterruptedException {
-        bossGroup = new MultiThreadIoEventLoopGroup(nettyThreads, NioIoHandler.newFactory());
-        workerGroup = new MultiThreadIoEventLoopGroup(NioIoHandler.newFactory());
+        Set<Integer> runCpus = CpuTopologyUtil.parseCpuList(config.getRunCpus());
+        Set<Integer> compileCpus = CpuTopologyUtil.parseCpuList(config.getCompileCpus());
+        boolean isolateRuns = false;
+        if (config.isIsolateRuns()) {
+            Set<Integer> isolatedCpus = isolateRunCpus(runCpus);
+            if (!isolatedCpus.isEmpty()) {
+                runCpus = isolatedCpus;
+                isolateRuns = true;
+            }
+        }
+        if (!Collections.disjoint(runCpus, compileCpus)) {
+            log.warn("Run CPUs {} and compile CPUs {} overlap; compilations can disturb timed runs", CpuAffinityUtil.formatCpuList(runCpus), CpuAffinityUtil.formatCpuList(compileCpus));
+        }
+        NettyTransport transport = NettyTransport.select(config.getTransport());
+        int acceptors = config.getAcceptors();
+        if (acceptors > 1 && !transport.supportsReusePort()) {
+            log.warn("{} acceptors requested, but SO_REUSEPORT needs the epoll transport; using a single acceptor", acceptors);
+            acceptors = 1;
+        }
+        IoHandlerFactory ioHandlerFactory = transport.newIoHandlerFactory();
+        bossGroup = new MultiThreadIoEventLoopGroup(acceptors, ioHandlerFactory);
+        workerGroup = nettyThreads > 0 ? new MultiThreadIoEventLoopGroup(nettyThreads, ioHandlerFactory) : new MultiThreadIoEventLoopGroup(ioHandlerFactory);
+        judgeScheduler = new JudgeTaskScheduler(config.getJudgeThreads(), config.getJudgeQueueSize(), config.getPriorityAgingMs());
+        admissionController = new AdmissionController(judgeScheduler, config.getAdmissionMaxWaitMs());
+        checkpointCache = new CheckpointDataCache(config.getCheckpointCacheBytes());
+        verdictCache = new VerdictCache(config.getVerdictCacheEntries(), config.getVerdictCacheTtlMs());
+        problemRepository = new ProblemRepository(new File(config.getProblemDir()));
+        StreamingConfigParser.Factory configParsers = new StreamingConfigParser.Factory(config.getConfigSpillThreshold(), new File(config.getWorkspaceDir()), config.isUseOldFormat(), checkpointCache);
+        int runSlots = config.getRunSlots() > 0 ? config.getRunSlots() : runCpus.isEmpty() ? CpuTopologyUtil.physicalCoreCount() : runCpus.size();
+        int compileConcurrency = config.getCompileConcurrency() > 0 ? config.getCompileConcurrency() : compileCpus.isEmpty() ? config.getJudgeThreads() : compileCpus.size();
+        checkpointScheduler = new CheckpointScheduler(runSlots, runCpus, isolateRuns);
+        compileScheduler = new CompileScheduler(compileConcurrency, compileCpus);
+        log.info("Compiler limits: timeout={} ms, {}", config.getCompileTimeoutMs(), config.getCompileLimits());
 
         try {
-            ServerBootstrap bootstrap = new ServerBootstrap();
-            bootstrap.group(bossGroup, workerGroup)
-                    .channel(NioServerSocketChannel.class).childHandler(new ChannelInitializer<>() {
-                        @Override
-                        protected void initChannel(Channel ch) {
-                            ch.pipeline().addLast(new RequestProcessor(SocketServer.this.config));
-                        }
-                    })
-                    .option(ChannelOption.SO_BACKLOG, 128).childOption(ChannelOption.SO_KEEPALIVE, true);
-            ChannelFuture future = bootstrap.bind(config.getHost(), config.getPort()).sync();
-            log.info("Server successfully started and listening on {}:{}", config.getHost(), config.getPort());
-            future.channel().closeFuture().sync();
+            if (config.getBinaryCacheDir() != null) {
+                try {
+                    binaryCache = new BinaryCache(new File(config.getBinaryCacheDir()), config.getBinaryCacheBytes());
+                } catch (IOException e) {
+                    throw new UncheckedIOException("Cannot open binary cache " + config.getBinaryCacheDir(), e);
+                }
+            }
+            if (config.getPchDir() != null) {
+                try {
+                    precompiledHeaders = new PrecompiledHeaders(new File(config.getPchDir()), compileCpus, config.getCompileLimits());
+                } catch (IOException e) {
+                    throw new UncheckedIOException("Cannot open precompiled header directory " + config.getPchDir(), e);
+                }
+                precompiledHeaders.prepare(config.getCompilerPath(), config.getCppStandard(), config.isDisableSecurityArgs());
+            }
+            SubmissionJudge judge = new SubmissionJudge(config, compileScheduler, checkpointScheduler, checkpointCache, verdictCache, problemRepository, binaryCache, precompiledHeaders);
+            if (config.getTicketDir() != null) {
+                try {
+                    tickets = new TicketService(config, judge, judgeScheduler);
+                } catch (IOException e) {
+                    throw new UncheckedIOException("Cannot open ticket journal " + config.getTicketDir(), e);
+                }
+            }
+            ChannelInitializer<Channel> pipeline = new ChannelInitializer<>() {
+                @Override
+                protected void initChannel(Channel ch) {
+                    ch.pipeline().addLast("protocolDetector", new ProtocolDetector(SocketServer.this.config.getInMemorySourceLimit(), configParsers, SocketServer.this.config.isLegacyExtendedDigests()));
+                    ch.pipeline().addLast("requestProcessor", new RequestProcessor(SocketServer.this.config, judgeScheduler, admissionController, judge, tickets));
+                }
+            };
+            List<Channel> listeners = new ArrayList<>();
+            if (!config.isDisableTcp()) {
+                ServerBootstrap bootstrap = new ServerBootstrap();
+                bootstrap.group(bossGroup, workerGroup)
+                        .channel(transport.serverChannelClass()).childHandler(pipeline)
+                        .option(ChannelOption.SO_BACKLOG, 128).childOption(ChannelOption.SO_KEEPALIVE, true);
+                if (acceptors > 1) {
+                    bootstrap.option(UnixChannelOption.SO_REUSEPORT, true);
+                }
+                for (int i = 0; i < acceptors; i++) {
+                    listeners.add(bootstrap.bind(config.getHost(), config.getPort()).sync().channel());
+                }
+                log.info("Server successfully started and listening on {}:{} ({} transport, {} acceptor(s), {} worker threads)", config.getHost(), config.getPort(), transport, acceptors, nettyThreads > 0 ? nettyThreads : "default");
+            }
+            if (config.getUnixSocketPath() != null) {
+                listeners.add(bindDomainSocket(transport, pipeline));
+            }
+            for (Channel listener : listeners) {
+                listener.closeFuture().sync();
+            }
         } finally {
             log.debug("Server shutting down...");
             stop();
         }
     }
 
+    /**
+     * Binds the Unix domain socket listener and applies the configured file permissions.
+     *
+     * @param transport the transport whose domain socket channel is used
+     * @param pipeline  the initializer shared with the TCP listener
+     * @return the listening channel
+     * @throws InterruptedException if the thread is interrupted while binding
+     */
+    private Channel bindDomainSocket(NettyTransport transport, ChannelHandler pipeline) throws InterruptedException {
+        Path socketPath = Path.of(config.getUnixSocketPath());
+        try {
+            removeStaleSocket(socketPath);
+            Channel listener = new ServerBootstrap().group(bossGroup, workerGroup)
+                    .channel(transport.serverDomainChannelClass()).childHandler(pipeline)
+                    .option(ChannelOption.SO_BACKLOG, 128)
+                    .bind(transport.domainSocketAddress(socketPath.toString())).sync().channel();
+            boundSocketPath = socketPath;
+            Files.setPosixFilePermissions(socketPath, PosixFilePermissions.fromString(config.getUnixSocketPermissions()));
+            log.info("Server listening on Unix domain socket {} ({} transport, permissions {})", socketPath, transport, config.getUnixSocketPermissions());
+            return listener;
+        } catch (IOException e) {
+            throw new UncheckedIOException("Cannot set up Unix domain socket " + socketPath, e);
+        }
+    }
+
+    /**
+     * Sets up the run isolation mode. Picks the CPUs dedicated to checkpoint runs (the requested
+     * ones, or every physical core but the first) and restricts all threads of the JVM, and with
+     * them the compilers it starts, to the remaining CPUs. SMT siblings of the run CPUs are left
+     * idle, since they share caches and execution units with the timed program.
+     *
+     * @param requested the configured run CPUs, possibly empty
+     * @return the dedicated run CPUs, or an empty set if this host cannot be isolated
+     */
+    private static Set<Integer> isolateRunCpus(Set<Integer> requested) {
+        if (!CpuAffinityUtil.isSupported()) {
+            log.warn("Run isolation needs taskset; running without isolation");
+            return Collections.emptySet();
+        }
+        Set<Integer> runCpus = new TreeSet<>(requested);
+        if (runCpus.isEmpty()) {
+            List<Integer> cores = CpuTopologyUtil.physicalCores();
+            runCpus.addAll(cores.subList(Math.min(1, cores.size()), cores.size()));
+        }
+        Set<Integer> serverCpus = new TreeSet<>(CpuTopologyUtil.allowedCpus());
+        for (int cpu : runCpus) {
+            serverCpus.removeAll(CpuTopologyUtil.threadSiblings(cpu));
+        }
+        if (runCpus.isEmpty() || serverCpus.isEmpty()) {
+            log.warn("Run isolation needs a core for the server besides the run CPUs; running without isolation");
+            return Collections.emptySet();
+        }
+        if (!CpuAffinityUtil.pinProcess(ProcessHandle.current().pid(), serverCpus)) {
+            log.warn("Could not move the server off the run CPUs; running without isolation");
+            return Collections.emptySet();
+        }
+        log.info("Run isolation enabled: checkpoint programs on CPUs {}, server and compilers on CPUs {}, address space randomization {}",
+                CpuAffinityUtil.formatCpuList(runCpus), CpuAffinityUtil.formatCpuList(serverCpus), AslrUtil.isSupported() ? "disabled" : "enabled (setarch unavailable)");
+        return runCpus;
+    }
+
+    /**
+     * Deletes a socket file left behind by a previous run. Refuses to touch anything
+     * that is not a socket.
+     */
+    private static void removeStaleSocket(Path socketPath) throws IOException {
+        if (!Files.exists(socketPath, LinkOption.NOFOLLOW_LINKS)) {
+            return;
+        }
+        if (!Files.readAttributes(socketPath, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS).isOther()) {
+            throw new IOException(socketPath + " exists and is not a socket");
+        }
+        Files.delete(socketPath);
+        log.debug("Removed stale socket file {}", socketPath);
+    }
+
     /**
      * Gracefully shuts down the server and releases thread pool resources.
      * <p>
-     * This method shuts down both bossGroup and workerGroup to clean up server resources.
+     * This method shuts down both bossGroup and workerGroup to clean up server resources,
+     * then stops the judge scheduler, giving in-flight submissions a short grace period,
+     * closes the ticket journal, releases the checkpoint run slots and finally removes the Unix domain socket file, if any.
      * </p>
      */
     public void stop() {
@@ -89,6 +291,34 @@ public class SocketServer {
         if (workerGroup != null) {
             workerGroup.shutdownGracefully();
         }
+        if (judgeScheduler != null) {
+            judgeScheduler.shutdown(JUDGE_SHUTDOWN_TIMEOUT_MS);
+        }
+        if (tickets != null) {
+            tickets.close();
+            tickets = null;
+        }
+        if (checkpointScheduler != null) {
+            checkpointScheduler.shutdown();
+        }
+        if (compileScheduler != null && checkpointScheduler != null) {
+            log.info("Compile pool: {} compilation(s), busy {} ms, average wait {} ms; run pool: busy {} ms, average wait {} ms",
+                    compileScheduler.getCompletedCount(), compileScheduler.getBusyMillis(), Math.round(compileScheduler.getAverageWaitMillis()),
+                    checkpointScheduler.getBusyMillis(), Math.round(checkpointScheduler.getAverageWaitMillis()));
+            compileScheduler = null;
+        }
+        if (precompiledHeaders != null) {
+            precompiledHeaders.close();
+            precompiledHeaders = null;
+        }
+        if (boundSocketPath != null) {
+            try {
+                Files.deleteIfExists(boundSocketPath);
+            } catch (IOException e) {
+                log.warn("Failed to delete socket file {}: {}", boundSocketPath, e.getMessage());
+            }
+            boundSocketPath = null;
+        }
         log.info("Server stopped");
     }
 }
\ No newline at end of file
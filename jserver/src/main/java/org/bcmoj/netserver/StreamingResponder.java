@@ -0,0 +1,90 @@
+package org.bcmoj.netserver;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import io.netty.channel.ChannelHandlerContext;
+import lombok.extern.slf4j.Slf4j;
+import org.bcmoj.judger.Judger;
+import org.bcmoj.judgeserver.JudgeProgressListener;
+import org.bcmoj.utils.JudgeResultUtil;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Writes the progress of a streaming request to its connection as
+ * {@link FrameType#PROGRESS} responses.
+ *
+ * <p>Each frame is a small JSON object: first {@code {"status":"compiling","checkpoint_count":N}},
+ * then one object per finished checkpoint in the same shape as the full result (for the new
+ * format {@code {"checkpoints":{"3":{"res":..,"time":..,"cpu_time":..,"mem":..}}}}), and finally a summary
+ * {@code {"status":"finished","checkpoint_count":N,"accepted_count":K}}. Status and summary frames
+ * carry no {@code checkpoints} key, so clients that merge the checkpoints of every frame they
+ * receive see each verdict exactly once.</p>
+ *
+ * <p>On legacy connections the stream ends with the summary frame followed by a zero-length
+ * frame; on v2 the summary is the {@link FrameType#RESULT} frame that answers the request.</p>
+ *
+ * @author SleepingCui
+ */
+@Slf4j
+class StreamingResponder implements JudgeProgressListener {
+
+    private static final ObjectMapper mapper = new ObjectMapper();
+
+    private final ChannelHandlerContext ctx;
+    private final JudgeRequest request;
+    private final boolean useOldFormat;
+    private final AtomicInteger streamed = new AtomicInteger();
+    private final AtomicInteger accepted = new AtomicInteger();
+    private volatile boolean started;
+    private volatile int checkpointCount;
+
+    StreamingResponder(ChannelHandlerContext ctx, JudgeRequest request, boolean useOldFormat) {
+        this.ctx = ctx;
+        this.request = request;
+        this.useOldFormat = useOldFormat;
+    }
+
+    @Override
+    public void onCompiling(int checkpointCount) {
+        this.checkpointCount = checkpointCount;
+        this.started = true;
+        ObjectNode status = mapper.createObjectNode().put("status", "compiling").put("checkpoint_count", checkpointCount);
+        send(status.toString());
+    }
+
+    @Override
+    public void onCheckpointFinished(int checkpoint, Judger.JudgeResult result) {
+        streamed.incrementAndGet();
+        if (result.statusCode == 1) {
+            accepted.incrementAndGet();
+        }
+        send(JudgeResultUtil.buildCheckpointResult(checkpoint, result, useOldFormat));
+    }
+
+    /**
+     * @return {@code true} if the judge server switched this request to streaming
+     */
+    boolean isStarted() {
+        return started;
+    }
+
+    /**
+     * Completes the stream. If no checkpoint was streamed (security check failure, compile error
+     * or system error), the complete result is sent as one more progress frame first.
+     *
+     * @param response the aggregated result returned by the judge server
+     * @return the summary JSON, to be sent as the final response
+     */
+    String finish(String response) {
+        if (streamed.get() == 0) {
+            send(response);
+        }
+        log.info("Streamed {} checkpoint result(s) for request {}", streamed.get(), request.getRequestId());
+        return mapper.createObjectNode().put("status", "finished").put("checkpoint_count", checkpointCount).put("accepted_count", accepted.get()).toString();
+    }
+
+    private void send(String json) {
+        ctx.writeAndFlush(new JudgeResponse(request.getRequestId(), FrameType.PROGRESS, json));
+    }
+}
@@ -0,0 +1,259 @@
+package org.bcmoj.netserver;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import lombok.extern.slf4j.Slf4j;
+import org.bcmoj.cache.BinaryCache;
+import org.bcmoj.cache.CheckpointDataCache;
+import org.bcmoj.cache.ToolchainFingerprint;
+import org.bcmoj.cache.VerdictCache;
+import org.bcmoj.config.JudgeTaskConfig;
+import org.bcmoj.config.ProblemConfig;
+import org.bcmoj.config.ServerConfig;
+import org.bcmoj.config.SpilledConfig;
+import org.bcmoj.judgeserver.CancellationHandle;
+import org.bcmoj.judgeserver.JudgeProgressListener;
+import org.bcmoj.judgeserver.JudgeServer;
+import org.bcmoj.judger.PrecompiledHeaders;
+import org.bcmoj.problem.ProblemRepository;
+import org.bcmoj.scheduler.CheckpointScheduler;
+import org.bcmoj.scheduler.CompileScheduler;
+import org.bcmoj.utils.JsonReadUtil;
+import org.bcmoj.utils.JsonValidateUtil;
+import org.bcmoj.utils.JudgeResultUtil;
+import org.bcmoj.utils.UploadDigest;
+
+import java.io.File;
+import java.io.IOException;
+import java.security.NoSuchAlgorithmException;
+import java.util.List;
+
+/**
+ * Judges a {@link JudgeRequest} to its final response, independently of the connection it
+ * arrived on. One instance is shared by every connection's {@link RequestProcessor} and by the
+ * {@link TicketService}, which judges asynchronous submissions after their client has gone.
+ *
+ * <p>For each request it validates the declared hash and the JSON configuration, resolves
+ * checkpoint references against the {@link CheckpointDataCache}, answers from the
+ * {@link VerdictCache} where possible and otherwise invokes the {@link JudgeServer}, which reuses
+ * executables from the {@link BinaryCache} and compiles against the {@link PrecompiledHeaders}
+ * when they are configured.</p>
+ *
+ * <p>The JSON configuration is parsed once, here on the judge worker: the tree is validated and
+ * then read into the {@link ProblemConfig} handed to the judge server. The network thread only
+ * picks the scheduling fields out of it with a streaming read
+ * ({@link JsonReadUtil#readSchedulingFields(String)}). If referenced
+ * checkpoint data ({@code in_ref}/{@code out_ref}) is not cached, the request is answered with
+ * a need response listing the missing digests, and the client resubmits the data inline. Large
+ * configurations arrive already parsed by the decoder as a {@link SpilledConfig}, with
+ * references resolved and checkpoint data in spill files.</p>
+ *
+ * @author SleepingCui
+ */
+@Slf4j
+public class SubmissionJudge {
+
+    private static final ObjectMapper mapper = new ObjectMapper();
+
+    private final ServerConfig serverConfig;
+    private final CompileScheduler compileScheduler;
+    private final CheckpointScheduler checkpointScheduler;
+    private final CheckpointDataCache checkpointCache;
+    private final VerdictCache verdictCache;
+    private final ProblemRepository problemRepository;
+    private final BinaryCache binaryCache;
+    private final PrecompiledHeaders precompiledHeaders;
+
+    /**
+     * @param serverConfig        The server configuration containing all necessary settings.
+     * @param compileScheduler    The process-wide pool that runs compilations, or {@code null} to compile without one.
+     * @param checkpointScheduler The process-wide scheduler that runs checkpoints.
+     * @param checkpointCache     The server-wide cache that resolves checkpoint references.
+     * @param verdictCache        The server-wide cache of results for identical resubmissions.
+     * @param problemRepository   The stored problem packages requests can refer to.
+     * @param binaryCache         The server-wide cache of compiled executables, or {@code null} if disabled.
+     * @param precompiledHeaders  The server-wide precompiled headers, or {@code null} if disabled.
+     */
+    public SubmissionJudge(ServerConfig serverConfig, CompileScheduler compileScheduler, CheckpointScheduler checkpointScheduler, CheckpointDataCache checkpointCache, VerdictCache verdictCache, ProblemRepository problemRepository, BinaryCache binaryCache, PrecompiledHeaders precompiledHeaders) {
+        this.serverConfig = serverConfig;
+        this.compileScheduler = compileScheduler;
+        this.checkpointScheduler = checkpointScheduler;
+        this.checkpointCache = checkpointCache;
+        this.verdictCache = verdictCache;
+        this.problemRepository = problemRepository;
+        this.binaryCache = binaryCache;
+        this.precompiledHeaders = precompiledHeaders;
+    }
+
+    CompileScheduler getCompileScheduler() {
+        return compileScheduler;
+    }
+
+    CheckpointScheduler getCheckpointScheduler() {
+        return checkpointScheduler;
+    }
+
+    /**
+     * Judges a request. The request's files are not cleaned up here.
+     *
+     * @param request          the request to judge
+     * @param cancellation     cancelled when the result is no longer wanted, may be {@code null}
+     * @param progressListener notified of progress if the configuration asks for streaming, may be {@code null}
+     * @return the final {@link FrameType#RESULT} or {@link FrameType#NEED} response, or
+     *         {@code null} if the request was cancelled
+     * @throws Exception if judging failed without a result
+     */
+    JudgeResponse judge(JudgeRequest request, CancellationHandle cancellation, JudgeProgressListener progressListener) throws Exception {
+        JsonNode config = parseConfig(request);
+        if (!hashMatches(request)) {
+            log.warn("File hash mismatch! D: {}", request.getDeclaredHash());
+            return result(request, hashMismatchResult(config));
+        }
+        if (config == null) {
+            log.warn("Judge config is not valid JSON");
+            return result(request, JudgeResultUtil.buildResult(null, false, true, 1));
+        }
+        JsonValidateUtil validator = new JsonValidateUtil(); // holds the last error, so one per request
+        SpilledConfig spilled = request.getSpilledConfig();
+        List<String> missing = spilled != null ? spilled.getMissingRefs() : checkpointCache.resolve(config.get("checkpoints"), serverConfig.isUseOldFormat());
+        if (!missing.isEmpty()) {
+            return new JudgeResponse(request.getRequestId(), FrameType.NEED, needJson(missing));
+        }
+        ProblemConfig problemConfig = spilled != null ? validator.read(config, serverConfig.isUseOldFormat(), spilled.getSpilledValues()) : validator.read(config, serverConfig.isUseOldFormat());
+        if (problemConfig == null) {
+            String errorJson = validator.getLastErrorJson();
+            if (errorJson == null) {
+                throw new IllegalArgumentException("Judge config could not be read");
+            }
+            return result(request, errorJson);
+        }
+        String cacheKey = verdictCacheKey(request, problemConfig);
+        if (cacheKey != null && !problemConfig.isNoCache() && !problemConfig.isStream()) {
+            String cached = verdictCache.get(cacheKey);
+            if (cached != null) {
+                log.info("Verdict cache hit, skipping compilation and checkpoints");
+                return result(request, cached);
+            }
+        }
+        JudgeTaskConfig taskConfig = JudgeTaskConfig.builder().source(request.getSource()).workspaceDir(new File(serverConfig.getWorkspaceDir())).keywordFile(new File(serverConfig.getKeywordFilePath())).compilerPath(serverConfig.getCompilerPath()).cppStandard(serverConfig.getCppStandard()).disableSecurityArgs(serverConfig.isDisableSecurityArgs()).disableMemLimit(serverConfig.isDisableMemLimit()).useOldFormat(serverConfig.isUseOldFormat()).checkpointScheduler(checkpointScheduler).compileScheduler(compileScheduler).wallTimeFactor(serverConfig.getWallTimeFactor()).compileTimeoutMs(serverConfig.getCompileTimeoutMs()).compileLimits(serverConfig.getCompileLimits()).progressListener(progressListener).problemRepository(problemRepository).problemConfig(problemConfig).cancellation(cancellation).binaryCache(binaryCache).precompiledHeaders(precompiledHeaders).build();
+        String response = JudgeServer.serve(taskConfig);
+        if (cancellation != null && cancellation.isCancelled()) {
+            log.info("Submission {} was cancelled, discarding its result", request.getRequestId());
+            return null;
+        }
+        log.info("JudgeServer response: {}", response);
+        if (cacheKey != null) {
+            verdictCache.put(cacheKey, response);
+        }
+        return result(request, response);
+    }
+
+    /**
+     * Checks the hash the client declared, from the digest computed while the request was
+     * received or, failing that, from the source. Only a SHA-256 of the source can be computed
+     * afterwards; other hashes the digest does not cover do not match.
+     *
+     * @param request the request
+     * @return {@code false} only if a declared hash does not match
+     * @throws IOException if the source file cannot be read
+     */
+    boolean hashMatches(JudgeRequest request) throws IOException {
+        String declaredHash = request.getDeclaredHash();
+        if (declaredHash == null) {
+            return true;
+        }
+        try {
+            if (request.getDigest() != null && request.getDigest().covers(declaredHash)) {
+                return request.getDigest().matches(declaredHash);
+            }
+            UploadDigest.Declared declared = UploadDigest.Declared.parse(declaredHash);
+            if (declared == null || declared.getAlgorithm() != UploadDigest.Algorithm.SHA256 || declared.isCoversConfig()) {
+                log.warn("Declared hash {} was not computed for this upload", declaredHash);
+                return false;
+            }
+            String actualHash = request.getSource().sha256();
+            log.debug("Actual hash: {}", actualHash);
+            return actualHash.equalsIgnoreCase(declared.getHex());
+        } catch (NoSuchAlgorithmException e) {
+            log.warn("Hash calculation failed: {}", e.getMessage());
+            return true;
+        }
+    }
+
+    /**
+     * @param request the request whose hash does not match
+     * @return the result JSON sent for it
+     */
+    String hashMismatchResult(JudgeRequest request) {
+        return hashMismatchResult(parseConfig(request));
+    }
+
+    private String hashMismatchResult(JsonNode config) {
+        return JudgeResultUtil.buildResult(List.of(), false, true, countCheckpoints(config), serverConfig.isUseOldFormat());
+    }
+
+    /**
+     * Parses the JSON configuration of a request, the one full parse it gets. A streamed
+     * configuration was already parsed by the decoder.
+     *
+     * @return the parsed configuration, or {@code null} if it is not valid JSON
+     */
+    private static JsonNode parseConfig(JudgeRequest request) {
+        if (request.getSpilledConfig() != null) {
+            return request.getSpilledConfig().getRoot();
+        }
+        try {
+            return mapper.readTree(request.getJsonConfig());
+        } catch (Exception e) {
+            log.debug("Judge config is not valid JSON: {}", e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * Builds the {@link VerdictCache} key of a request.
+     *
+     * @return the key, or {@code null} if the cache is disabled or the key cannot be computed
+     */
+    private String verdictCacheKey(JudgeRequest request, ProblemConfig config) {
+        if (!verdictCache.isEnabled() || (config.isStoredProblem() && problemRepository == null)) {
+            return null;
+        }
+        try {
+            String sourceHash = request.getDigest() != null ? request.getDigest().value(UploadDigest.Algorithm.SHA256, false) : null;
+            if (sourceHash == null) {
+                sourceHash = request.getSource().sha256();
+            }
+            int problemVersion = !config.isStoredProblem() ? 0 : config.getProblemVersion() != null ? config.getProblemVersion() : problemRepository.latestVersion(config.getProblemId());
+            ToolchainFingerprint toolchain = ToolchainFingerprint.of(serverConfig.getCompilerPath(), serverConfig.getCppStandard(), config.isEnableO2(), config.isSecurityCheck(), serverConfig.isDisableSecurityArgs(), serverConfig.isDisableMemLimit(), serverConfig.getWallTimeFactor(), new File(serverConfig.getKeywordFilePath()));
+            return VerdictCache.key(sourceHash, VerdictCache.configDigest(config, problemVersion), toolchain);
+        } catch (IOException | NoSuchAlgorithmException e) {
+            log.warn("Verdict cache key unavailable: {}", e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * Builds the JSON payload of a need response.
+     *
+     * @param missing digests of the checkpoint data the server does not have
+     * @return JSON object of the form {@code {"status":"need","missing":[..]}}
+     */
+    static String needJson(List<String> missing) {
+        ObjectNode need = mapper.createObjectNode().put("status", "need");
+        missing.forEach(need.putArray("missing")::add);
+        return need.toString();
+    }
+
+    /**
+     * Counts the checkpoints of a configuration for results that carry no verdicts.
+     */
+    private int countCheckpoints(JsonNode config) {
+        return new JsonValidateUtil().countIns(config != null ? config.get("checkpoints") : null, serverConfig.isUseOldFormat());
+    }
+
+    private static JudgeResponse result(JudgeRequest request, String payload) {
+        return new JudgeResponse(request.getRequestId(), FrameType.RESULT, payload);
+    }
+}
@@ -0,0 +1,79 @@
+package org.bcmoj.netserver;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.net.InetAddress;
+import java.net.URI;
+import java.net.UnknownHostException;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Pushes the results of asynchronous submissions to a local HTTP endpoint.
+ *
+ * <p>Each result is sent as a JSON {@code POST} in the same shape as a ticket lookup
+ * ({@code {"ticket":..,"status":..,"result":..}}). Failed deliveries, including non-2xx
+ * answers, are retried a few times with growing delays and then given up; the result can
+ * still be fetched by ticket until it expires.</p>
+ *
+ * @author SleepingCui
+ */
+@Slf4j
+class TicketCallback {
+    private static final int MAX_ATTEMPTS = 4;
+    private static final long FIRST_RETRY_DELAY_MS = 1_000;
+    private static final Duration TIMEOUT = Duration.ofSeconds(10);
+
+    private final URI endpoint;
+    private final HttpClient client = HttpClient.newBuilder().connectTimeout(TIMEOUT).build();
+
+    /**
+     * @param url the callback endpoint, an {@code http} or {@code https} URL
+     * @throws IllegalArgumentException if the URL is not a valid HTTP URL
+     */
+    TicketCallback(String url) {
+        this.endpoint = URI.create(url);
+        if (!"http".equalsIgnoreCase(endpoint.getScheme()) && !"https".equalsIgnoreCase(endpoint.getScheme()) || endpoint.getHost() == null) {
+            throw new IllegalArgumentException("Ticket callback must be an http(s) URL: " + url);
+        }
+        try {
+            if (!InetAddress.getByName(endpoint.getHost()).isLoopbackAddress()) {
+                log.warn("Ticket callback {} is not a local endpoint; results are sent there unencrypted unless it uses https", url);
+            }
+        } catch (UnknownHostException e) {
+            log.warn("Ticket callback host {} cannot be resolved yet", endpoint.getHost());
+        }
+    }
+
+    /**
+     * Delivers one result in the background.
+     *
+     * @param ticket the ticket the result belongs to
+     * @param json   the JSON body
+     */
+    void send(String ticket, String json) {
+        attempt(ticket, json, 1);
+    }
+
+    private void attempt(String ticket, String json, int attempt) {
+        HttpRequest request = HttpRequest.newBuilder(endpoint).timeout(TIMEOUT).header("Content-Type", "application/json").POST(HttpRequest.BodyPublishers.ofString(json)).build();
+        client.sendAsync(request, HttpResponse.BodyHandlers.discarding()).whenComplete((response, error) -> {
+            if (error == null && response.statusCode() / 100 == 2) {
+                log.debug("Delivered result of ticket {} to {}", ticket, endpoint);
+                return;
+            }
+            String reason = error != null ? error.getMessage() : "HTTP " + response.statusCode();
+            if (attempt >= MAX_ATTEMPTS) {
+                log.warn("Giving up delivering result of ticket {} to {} after {} attempts: {}", ticket, endpoint, attempt, reason);
+                return;
+            }
+            long delay = FIRST_RETRY_DELAY_MS << (attempt - 1);
+            log.debug("Delivering result of ticket {} failed ({}), retrying in {} ms", ticket, reason, delay);
+            CompletableFuture.delayedExecutor(delay, TimeUnit.MILLISECONDS).execute(() -> attempt(ticket, json, attempt + 1));
+        });
+    }
+}
@@ -0,0 +1,24 @@
+package org.bcmoj.netserver;
+
+import lombok.Getter;
+
+/**
+ * Lookup of an asynchronous submission's result, decoded from a protocol v2
+ * {@link FrameType#FETCH} frame and answered by {@link RequestProcessor}.
+ *
+ * @author SleepingCui
+ */
+@Getter
+public class TicketFetch {
+    private final long requestId;
+    private final String ticket;
+
+    /**
+     * @param requestId the client-chosen request ID
+     * @param ticket    the ticket returned when the submission was accepted
+     */
+    public TicketFetch(long requestId, String ticket) {
+        this.requestId = requestId;
+        this.ticket = ticket;
+    }
+}
@@ -0,0 +1,287 @@
+package org.bcmoj.netserver;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import lombok.extern.slf4j.Slf4j;
+import org.bcmoj.utils.FileUtil;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Append-only on-disk journal of asynchronous submissions, kept by {@link TicketService}.
+ *
+ * <p>The journal directory holds {@code journal.log} and one data directory per ticket under
+ * {@code data/}, with the uploaded source and, for large configurations, the spilled checkpoint
+ * data. Every accepted submission appends an {@code accept} record and every finished one a
+ * {@code done} record carrying its result, one JSON object per line. Each record is forced to
+ * disk before the call returns, so a ticket handed to a client survives a crash of the server.
+ * {@link #load()} replays the log; submissions without a {@code done} record are pending again.</p>
+ *
+ * <p>{@link #rewrite(Collection, Collection)} compacts the log to the given records by writing a
+ * new file and renaming it over the old one. A record cut short by a crash is skipped on replay.
+ * Instances are not thread-safe; {@link TicketService} serializes all calls.</p>
+ *
+ * @author SleepingCui
+ */
+@Slf4j
+class TicketJournal implements Closeable {
+    static final String LOG_FILE = "journal.log";
+    private static final ObjectMapper mapper = new ObjectMapper();
+
+    private final File dir;
+    private final File dataDir;
+    private FileChannel channel;
+    private int records;
+
+    /**
+     * A submission accepted for asynchronous judging.
+     */
+    static final class Accepted {
+        final String ticket;
+        final long acceptedAt;
+        final String filename;
+        final String priority;
+        final String config; // null if the configuration was spilled
+        final JsonNode spilledRoot;
+        final Map<String, String> spilledFiles; // value key -> file name in the ticket's spill directory
+        final List<String> missingRefs;
+
+        Accepted(String ticket, long acceptedAt, String filename, String priority, String config, JsonNode spilledRoot, Map<String, String> spilledFiles, List<String> missingRefs) {
+            this.ticket = ticket;
+            this.acceptedAt = acceptedAt;
+            this.filename = filename;
+            this.priority = priority;
+            this.config = config;
+            this.spilledRoot = spilledRoot;
+            this.spilledFiles = spilledFiles;
+            this.missingRefs = missingRefs;
+        }
+    }
+
+    /**
+     * The result of a finished submission.
+     */
+    static final class Finished {
+        final String ticket;
+        final long finishedAt;
+        final String status; // done, need or error
+        final String result;
+
+        Finished(String ticket, long finishedAt, String status, String result) {
+            this.ticket = ticket;
+            this.finishedAt = finishedAt;
+            this.status = status;
+            this.result = result;
+        }
+    }
+
+    /**
+     * Contents of a replayed journal, in the order the records were written.
+     */
+    static final class Contents {
+        final Map<String, Accepted> pending = new LinkedHashMap<>();
+        final Map<String, Finished> finished = new LinkedHashMap<>();
+    }
+
+    /**
+     * @param dir the journal directory; created if missing
+     * @throws IOException if the directory cannot be created
+     */
+    TicketJournal(File dir) throws IOException {
+        this.dir = dir;
+        this.dataDir = new File(dir, "data");
+        Files.createDirectories(dataDir.toPath());
+    }
+
+    /**
+     * Replays the log and opens it for appending.
+     *
+     * @return the pending and finished submissions
+     * @throws IOException if the log cannot be read or opened
+     */
+    Contents load() throws IOException {
+        Contents contents = new Contents();
+        File logFile = new File(dir, LOG_FILE);
+        records = 0;
+        if (logFile.exists()) {
+            try (BufferedReader reader = Files.newBufferedReader(logFile.toPath(), StandardCharsets.UTF_8)) {
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    if (line.isBlank()) {
+                        continue;
+                    }
+                    records++;
+                    try {
+                        replay(mapper.readTree(line), contents);
+                    } catch (IOException | RuntimeException e) {
+                        log.warn("Skipping unreadable journal record {}: {}", records, e.getMessage());
+                    }
+                }
+            }
+        }
+        channel = FileChannel.open(logFile.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+        return contents;
+    }
+
+    private static void replay(JsonNode record, Contents contents) {
+        String ticket = record.get("ticket").asText();
+        switch (record.get("op").asText()) {
+            case "accept" -> {
+                JsonNode spilled = record.get("spilled");
+                Map<String, String> files = new LinkedHashMap<>();
+                List<String> missing = new ArrayList<>();
+                if (spilled != null) {
+                    spilled.get("files").fields().forEachRemaining(field -> files.put(field.getKey(), field.getValue().asText()));
+                    spilled.path("missing").forEach(digest -> missing.add(digest.asText()));
+                }
+                contents.pending.put(ticket, new Accepted(ticket, record.get("accepted_at").asLong(), record.get("filename").asText(), record.hasNonNull("priority") ? record.get("priority").asText() : null,
+                        record.hasNonNull("config") ? record.get("config").asText() : null, spilled != null ? spilled.get("root") : null, files, missing));
+            }
+            case "done" -> {
+                contents.pending.remove(ticket);
+                contents.finished.put(ticket, new Finished(ticket, record.get("finished_at").asLong(), record.get("status").asText(), record.get("result").asText()));
+            }
+            default -> throw new IllegalArgumentException("Unknown journal operation " + record.get("op"));
+        }
+    }
+
+    /**
+     * Appends and forces an {@code accept} record.
+     *
+     * @param accepted the accepted submission, whose data is already in {@link #ticketDir(String)}
+     * @throws IOException if the record cannot be written
+     */
+    void appendAccepted(Accepted accepted) throws IOException {
+        append(toRecord(accepted));
+    }
+
+    /**
+     * Appends and forces a {@code done} record.
+     *
+     * @param finished the result of the submission
+     * @throws IOException if the record cannot be written
+     */
+    void appendFinished(Finished finished) throws IOException {
+        append(toRecord(finished));
+    }
+
+    /**
+     * Replaces the log by one holding only the given records.
+     *
+     * @param pending  submissions still to be judged
+     * @param finished results still to be kept
+     * @throws IOException if the new log cannot be written
+     */
+    void rewrite(Collection<Accepted> pending, Collection<Finished> finished) throws IOException {
+        File logFile = new File(dir, LOG_FILE);
+        File tmpFile = new File(dir, LOG_FILE + ".tmp");
+        try (FileChannel out = FileChannel.open(tmpFile.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            for (Accepted accepted : pending) {
+                write(out, toRecord(accepted));
+            }
+            for (Finished result : finished) {
+                write(out, toRecord(result));
+            }
+            out.force(true);
+        }
+        if (channel != null) {
+            channel.close();
+        }
+        Files.move(tmpFile.toPath(), logFile.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        channel = FileChannel.open(logFile.toPath(), StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+        records = pending.size() + finished.size();
+        log.debug("Compacted ticket journal to {} record(s)", records);
+    }
+
+    /**
+     * @return number of records in the current log file
+     */
+    int getRecordCount() {
+        return records;
+    }
+
+    /**
+     * @param ticket the ticket
+     * @return the directory that holds the ticket's source and spilled data
+     */
+    File ticketDir(String ticket) {
+        return new File(dataDir, ticket);
+    }
+
+    /**
+     * Deletes the data directories of all tickets not in {@code keep}, e.g. those left behind
+     * by submissions that finished right before a crash.
+     *
+     * @param keep tickets whose data is still needed
+     */
+    void deleteDataExcept(Collection<String> keep) {
+        File[] dirs = dataDir.listFiles();
+        if (dirs == null) {
+            return;
+        }
+        for (File ticketDir : dirs) {
+            if (!keep.contains(ticketDir.getName())) {
+                FileUtil.deleteRecursively(ticketDir);
+            }
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (channel != null) {
+            channel.close();
+            channel = null;
+        }
+    }
+
+    private void append(ObjectNode record) throws IOException {
+        if (channel == null) {
+            throw new IOException("Ticket journal is closed");
+        }
+        write(channel, record);
+        channel.force(false);
+        records++;
+    }
+
+    private static void write(FileChannel out, ObjectNode record) throws IOException {
+        ByteBuffer line = ByteBuffer.wrap((record.toString() + "\n").getBytes(StandardCharsets.UTF_8));
+        while (line.hasRemaining()) {
+            out.write(line);
+        }
+    }
+
+    private static ObjectNode toRecord(Accepted accepted) {
+        ObjectNode record = mapper.createObjectNode().put("op", "accept").put("ticket", accepted.ticket).put("accepted_at", accepted.acceptedAt)
+                .put("filename", accepted.filename).put("priority", accepted.priority);
+        if (accepted.config != null) {
+            record.put("config", accepted.config);
+        } else {
+            ObjectNode spilled = record.putObject("spilled");
+            spilled.set("root", accepted.spilledRoot);
+            ObjectNode files = spilled.putObject("files");
+            accepted.spilledFiles.forEach(files::put);
+            accepted.missingRefs.forEach(spilled.putArray("missing")::add);
+        }
+        return record;
+    }
+
+    private static ObjectNode toRecord(Finished finished) {
+        return mapper.createObjectNode().put("op", "done").put("ticket", finished.ticket).put("finished_at", finished.finishedAt)
+                .put("status", finished.status).put("result", finished.result);
+    }
+}
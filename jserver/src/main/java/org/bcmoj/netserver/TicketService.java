@@ -0,0 +1,383 @@
+package org.bcmoj.netserver;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import lombok.extern.slf4j.Slf4j;
+import org.bcmoj.config.ServerConfig;
+import org.bcmoj.config.SpilledConfig;
+import org.bcmoj.judgeserver.SubmissionSource;
+import org.bcmoj.scheduler.JudgePriority;
+import org.bcmoj.scheduler.JudgeTaskScheduler;
+import org.bcmoj.utils.FileUtil;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.BlockingDeque;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Accepts asynchronous submissions, judges them in the background and keeps their results
+ * until they are fetched.
+ *
+ * <p>A request whose configuration sets {@code "async": true} is answered at once with a ticket
+ * ({@code {"status":"accepted","ticket":"<id>"}}) instead of being judged while the client
+ * waits. Before the ticket is returned, the source and any spilled checkpoint data are moved
+ * into the {@link TicketJournal} directory and an {@code accept} record is forced to disk, so
+ * an accepted submission is never lost: after a restart every submission without a result is
+ * queued again. This file I/O runs on a dedicated acceptor thread, never on a Netty event loop;
+ * {@link #acceptAsync(JudgeRequest, JudgePriority)} completes once the ticket is durable.</p>
+ *
+ * <p>Journal writes, including compaction, are serialized by a journal lock that is taken
+ * before the service's own monitor, so {@link #fetch(String)} never waits for a disk flush.</p>
+ *
+ * <p>Accepted submissions wait in this service rather than in the {@link JudgeTaskScheduler}'s
+ * bounded queue. A dispatcher thread hands them to the scheduler in arrival order with at most
+ * as many in the scheduler at a time as it has judge workers, so a burst of tickets cannot
+ * crowd out synchronous submissions. Only {@code maxPending} submissions may wait; beyond that
+ * new ones are turned away like an overloaded synchronous submission.</p>
+ *
+ * <p>Results are fetched with {@link #fetch(String)} (the v2 {@link FrameType#FETCH} frame) and,
+ * if a callback endpoint is configured, pushed there by {@link TicketCallback}. They are kept
+ * for {@code resultTtlMs} after judging finished. Progress streaming does not apply to
+ * asynchronous submissions.</p>
+ *
+ * <p>An asynchronous submission is not tied to the connection it arrived on and is not
+ * cancelled when that client disconnects.</p>
+ *
+ * @author SleepingCui
+ */
+@Slf4j
+public class TicketService {
+    private static final ObjectMapper mapper = new ObjectMapper();
+    private static final long DISPATCH_RETRY_MS = 100;
+    /** The journal is compacted once it holds this many records more than are still needed. */
+    private static final int COMPACT_SLACK = 1024;
+
+    private final TicketJournal journal;
+    private final SubmissionJudge judge;
+    private final JudgeTaskScheduler judgeScheduler;
+    private final TicketCallback callback;
+    private final int maxPending;
+    private final long resultTtlMs;
+    private final Object journalLock = new Object(); // serializes journal writes, taken before the service lock
+    private final ExecutorService acceptor;
+    private final Map<String, TicketJournal.Accepted> pending = new LinkedHashMap<>();
+    private final Map<String, TicketJournal.Finished> results = new LinkedHashMap<>();
+    private final BlockingDeque<TicketJournal.Accepted> dispatchQueue = new LinkedBlockingDeque<>();
+    private final Semaphore dispatchSlots;
+    private final Thread dispatcher;
+    private volatile boolean closed;
+
+    /**
+     * Opens the journal, queues every submission that has no result yet and starts dispatching.
+     *
+     * @param serverConfig   the server configuration with the ticket settings
+     * @param judge          judges the submissions
+     * @param judgeScheduler the server-wide scheduler the submissions are judged on
+     * @throws IOException if the journal cannot be read or written
+     */
+    public TicketService(ServerConfig serverConfig, SubmissionJudge judge, JudgeTaskScheduler judgeScheduler) throws IOException {
+        File dir = new File(serverConfig.getTicketDir());
+        this.journal = new TicketJournal(dir);
+        this.judge = judge;
+        this.judgeScheduler = judgeScheduler;
+        this.callback = serverConfig.getTicketCallbackUrl() != null ? new TicketCallback(serverConfig.getTicketCallbackUrl()) : null;
+        this.maxPending = serverConfig.getTicketMaxPending();
+        this.resultTtlMs = serverConfig.getTicketResultTtlMs();
+        this.dispatchSlots = new Semaphore(judgeScheduler.getConcurrency());
+
+        TicketJournal.Contents contents = journal.load();
+        long now = System.currentTimeMillis();
+        for (TicketJournal.Accepted accepted : contents.pending.values()) {
+            if (journal.ticketDir(accepted.ticket).isDirectory()) {
+                pending.put(accepted.ticket, accepted);
+            } else {
+                log.warn("Data of ticket {} is missing, reporting it as failed", accepted.ticket);
+                results.put(accepted.ticket, new TicketJournal.Finished(accepted.ticket, now, "error", RequestProcessor.errorJson("Submission data lost")));
+            }
+        }
+        contents.finished.values().stream().filter(result -> now - result.finishedAt < resultTtlMs).forEach(result -> results.put(result.ticket, result));
+        journal.rewrite(pending.values(), results.values());
+        journal.deleteDataExcept(pending.keySet());
+        dispatchQueue.addAll(pending.values());
+        log.info("Ticket journal {} opened: {} pending submission(s) re-queued, {} result(s) kept", dir, pending.size(), results.size());
+
+        dispatcher = new Thread(this::dispatchLoop, "TicketDispatcher");
+        dispatcher.setDaemon(true);
+        dispatcher.start();
+        acceptor = new ThreadPoolExecutor(1, 1, 0L, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<>(maxPending), r -> {
+            Thread thread = new Thread(r, "TicketAcceptor");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Checks the declared hash of a request, then persists it and queues it for judging, all on
+     * the acceptor thread. The request's files are moved into the journal; the caller still
+     * cleans up the request once the returned future completes.
+     *
+     * @param request  the request
+     * @param priority the scheduling class of the submission
+     * @return future of the ticket, or of {@code null} if the declared hash does not match; it fails with {@link RejectedExecutionException} if too many
+     *         submissions are waiting or the service is closed, and with {@link IOException} if
+     *         the submission cannot be persisted
+     * @throws RejectedExecutionException if the acceptor's queue is full or the service is closed
+     */
+    public CompletableFuture<String> acceptAsync(JudgeRequest request, JudgePriority priority) {
+        CompletableFuture<String> ticket = new CompletableFuture<>();
+        acceptor.execute(() -> {
+            try {
+                ticket.complete(judge.hashMatches(request) ? accept(request, priority) : null);
+            } catch (IOException | RuntimeException e) {
+                ticket.completeExceptionally(e);
+            }
+        });
+        return ticket;
+    }
+
+    private String accept(JudgeRequest request, JudgePriority priority) throws IOException {
+        String ticket = UUID.randomUUID().toString();
+        synchronized (this) {
+            checkAccepting(); // early, so a full service does not copy the upload first
+        }
+        File ticketDir = journal.ticketDir(ticket);
+        Files.createDirectories(ticketDir.toPath());
+        try {
+            TicketJournal.Accepted accepted = persist(ticket, ticketDir, request, priority);
+            synchronized (journalLock) { // pending only grows under this lock, so the check below holds until the put
+                synchronized (this) {
+                    checkAccepting();
+                }
+                journal.appendAccepted(accepted);
+                synchronized (this) {
+                    pending.put(ticket, accepted);
+                }
+            }
+            dispatchQueue.add(accepted);
+            log.info("Accepted asynchronous submission {} as ticket {}", request.getRequestId(), ticket);
+            return ticket;
+        } catch (IOException | RuntimeException e) {
+            FileUtil.deleteRecursively(ticketDir);
+            throw e;
+        }
+    }
+
+    /**
+     * Looks up a ticket.
+     *
+     * @param ticket the ticket
+     * @return JSON of the form {@code {"ticket":..,"status":"pending"|"done"|"need"|"error"|"unknown"}},
+     *         with the judge result as {@code "result"} once it is available
+     */
+    public String fetch(String ticket) {
+        TicketJournal.Finished result;
+        synchronized (this) {
+            if (pending.containsKey(ticket)) {
+                return mapper.createObjectNode().put("ticket", ticket).put("status", "pending").toString();
+            }
+            expireResults();
+            result = results.get(ticket);
+        }
+        return result != null ? resultJson(result) : mapper.createObjectNode().put("ticket", ticket).put("status", "unknown").toString();
+    }
+
+    /**
+     * @return number of accepted submissions without a result
+     */
+    public synchronized int getPendingCount() {
+        return pending.size();
+    }
+
+    /**
+     * Stops dispatching and closes the journal. Submissions still waiting or being judged
+     * stay pending in the journal and are judged again after the next start.
+     */
+    public void close() {
+        synchronized (journalLock) {
+            synchronized (this) {
+                closed = true;
+            }
+            try {
+                journal.close();
+            } catch (IOException e) {
+                log.warn("Failed to close ticket journal: {}", e.getMessage());
+            }
+        }
+        acceptor.shutdown(); // queued submissions are still answered, with a rejection
+        dispatcher.interrupt();
+        log.info("Ticket service stopped with {} pending submission(s)", getPendingCount());
+    }
+
+    /**
+     * Rejects a new submission if the service is closed or full. Must be called with the lock held.
+     */
+    private void checkAccepting() {
+        if (closed || pending.size() >= maxPending) {
+            throw new RejectedExecutionException(closed ? "Ticket service is closed" : pending.size() + " asynchronous submissions are waiting");
+        }
+    }
+
+    private TicketJournal.Accepted persist(String ticket, File ticketDir, JudgeRequest request, JudgePriority priority) throws IOException {
+        SubmissionSource source = request.getSource();
+        File sourceFile = sourceFile(ticketDir, source.getFilename());
+        if (source.isInMemory()) {
+            Files.write(sourceFile.toPath(), source.getContent());
+        } else {
+            Files.move(source.materialize(ticketDir).toPath(), sourceFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        }
+        force(sourceFile);
+        SpilledConfig spilled = request.getSpilledConfig();
+        if (spilled == null) {
+            return new TicketJournal.Accepted(ticket, System.currentTimeMillis(), source.getFilename(), priority.configName(), request.getJsonConfig(), null, Map.of(), List.of());
+        }
+        File spillDir = new File(ticketDir, "spill");
+        Files.createDirectories(spillDir.toPath());
+        Map<String, String> files = new LinkedHashMap<>();
+        for (Map.Entry<String, File> value : spilled.getSpilledValues().entrySet()) {
+            File target = new File(spillDir, value.getValue().getName());
+            Files.move(value.getValue().toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            force(target);
+            files.put(value.getKey(), target.getName());
+        }
+        return new TicketJournal.Accepted(ticket, System.currentTimeMillis(), source.getFilename(), priority.configName(), null, spilled.getRoot(), files, spilled.getMissingRefs());
+    }
+
+    private void dispatchLoop() {
+        while (!closed) {
+            TicketJournal.Accepted accepted;
+            try {
+                accepted = dispatchQueue.take();
+                dispatchSlots.acquire();
+            } catch (InterruptedException e) {
+                return;
+            }
+            try {
+                judgeScheduler.submit(() -> judge(accepted), JudgePriority.fromName(accepted.priority, JudgePriority.PRACTICE));
+            } catch (RejectedExecutionException e) {
+                dispatchSlots.release();
+                dispatchQueue.addFirst(accepted);
+                try {
+                    Thread.sleep(DISPATCH_RETRY_MS);
+                } catch (InterruptedException interrupted) {
+                    return;
+                }
+            }
+        }
+    }
+
+    private void judge(TicketJournal.Accepted accepted) {
+        JudgeRequest request;
+        TicketJournal.Finished result;
+        try {
+            File ticketDir = journal.ticketDir(accepted.ticket);
+            SubmissionSource source = SubmissionSource.ofFile(accepted.filename, sourceFile(ticketDir, accepted.filename));
+            if (accepted.config != null) {
+                request = new JudgeRequest(JudgeRequest.LEGACY_REQUEST_ID, source, accepted.config, null, null, false);
+            } else {
+                Map<String, File> files = new HashMap<>();
+                accepted.spilledFiles.forEach((key, name) -> files.put(key, new File(ticketDir, "spill/" + name)));
+                request = new JudgeRequest(JudgeRequest.LEGACY_REQUEST_ID, source, new SpilledConfig(accepted.spilledRoot, files, accepted.missingRefs, new File(ticketDir, "spill"), 0), null, null, false);
+            }
+            log.info("Judging ticket {}", accepted.ticket);
+            JudgeResponse response = judge.judge(request, null, null);
+            result = new TicketJournal.Finished(accepted.ticket, System.currentTimeMillis(), response.getType() == FrameType.NEED ? "need" : "done", response.getPayload());
+        } catch (Exception e) {
+            log.error("Judging ticket {} failed", accepted.ticket, e);
+            result = new TicketJournal.Finished(accepted.ticket, System.currentTimeMillis(), "error", RequestProcessor.errorJson("Judging failed"));
+        } finally {
+            dispatchSlots.release();
+        }
+        if (Thread.currentThread().isInterrupted() || closed) {
+            log.info("Judging ticket {} was interrupted, it stays pending", accepted.ticket);
+            return;
+        }
+        finish(result);
+    }
+
+    private void finish(TicketJournal.Finished result) {
+        synchronized (journalLock) {
+            try {
+                journal.appendFinished(result);
+            } catch (IOException e) {
+                log.error("Failed to record result of ticket {}, it stays pending: {}", result.ticket, e.getMessage());
+                return;
+            }
+            List<TicketJournal.Accepted> keepPending = null;
+            List<TicketJournal.Finished> keepResults = null;
+            synchronized (this) {
+                pending.remove(result.ticket);
+                results.put(result.ticket, result);
+                expireResults();
+                if (journal.getRecordCount() > pending.size() + results.size() + COMPACT_SLACK) {
+                    keepPending = new ArrayList<>(pending.values());
+                    keepResults = new ArrayList<>(results.values());
+                }
+            }
+            // Compacted outside the service lock; the snapshot stays complete because records are only added under the journal lock.
+            if (keepPending != null) {
+                try {
+                    journal.rewrite(keepPending, keepResults);
+                } catch (IOException e) {
+                    log.warn("Failed to compact ticket journal: {}", e.getMessage());
+                }
+            }
+        }
+        FileUtil.deleteRecursively(journal.ticketDir(result.ticket));
+        log.info("Ticket {} finished ({})", result.ticket, result.status);
+        if (callback != null) {
+            callback.send(result.ticket, resultJson(result));
+        }
+    }
+
+    /**
+     * Drops results older than the time to live. Must be called with the lock held.
+     */
+    private void expireResults() {
+        long now = System.currentTimeMillis();
+        for (Iterator<TicketJournal.Finished> it = results.values().iterator(); it.hasNext(); ) {
+            if (now - it.next().finishedAt < resultTtlMs) {
+                break; // insertion order is completion order
+            }
+            it.remove();
+        }
+    }
+
+    private static String resultJson(TicketJournal.Finished result) {
+        ObjectNode json = mapper.createObjectNode().put("ticket", result.ticket).put("status", result.status);
+        try {
+            json.set("result", mapper.readTree(result.result));
+        } catch (IOException e) {
+            json.put("result", result.result);
+        }
+        return json.toString();
+    }
+
+    private static File sourceFile(File ticketDir, String filename) {
+        return new File(ticketDir, "source" + SubmissionSource.getFileExtension(filename));
+    }
+
+    private static void force(File file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.WRITE)) {
+            channel.force(true);
+        }
+    }
+}
@@ -0,0 +1,143 @@
+package org.bcmoj.problem;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import lombok.Getter;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Pattern;
+
+/**
+ * One immutable version of a problem in the {@link ProblemRepository}.
+ *
+ * <p>A package is a directory holding an {@code index.json} and the raw test data it lists:</p>
+ * <pre>
+ * {
+ *   "problem_id": "1001",
+ *   "version": 1,
+ *   "checkpoints": [ {"in": "1.in", "out": "1.out"}, {"in": "2.in", "out": "2.out"} ]
+ * }
+ * </pre>
+ * <p>Checkpoints are numbered from 1 in the order of the list. The data files are used as they
+ * are; unlike inline checkpoints they are not unescaped.</p>
+ *
+ * @author SleepingCui
+ */
+@Getter
+public class ProblemPackage {
+    /** Name of the index file at the root of every package. */
+    public static final String INDEX_FILE = "index.json";
+    /** Problem ids double as directory names, so they are restricted to a safe character set. */
+    static final Pattern PROBLEM_ID = Pattern.compile("[A-Za-z0-9_-]{1,64}");
+
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+
+    private final String problemId;
+    private final int version;
+    private final File directory;
+    private final List<File> inputs;
+    private final List<File> expectedOutputs;
+
+    private ProblemPackage(String problemId, int version, File directory, List<File> inputs, List<File> expectedOutputs) {
+        this.problemId = problemId;
+        this.version = version;
+        this.directory = directory;
+        this.inputs = List.copyOf(inputs);
+        this.expectedOutputs = List.copyOf(expectedOutputs);
+    }
+
+    /**
+     * Index file layout, read the same way as the judge request configs.
+     */
+    public static class Index {
+        public String problem_id;
+        public int version;
+        public List<IndexEntry> checkpoints;
+    }
+
+    public static class IndexEntry {
+        public String in;
+        public String out;
+    }
+
+    /**
+     * Reads and checks the package in a directory.
+     *
+     * @param directory the package directory containing {@value #INDEX_FILE}
+     * @return the package
+     * @throws IOException if the index cannot be read, is malformed, or refers to files that are
+     *                     missing or outside the package
+     */
+    public static ProblemPackage load(File directory) throws IOException {
+        Path root = directory.toPath().toRealPath();
+        Path indexPath = root.resolve(INDEX_FILE);
+        if (!Files.isRegularFile(indexPath)) {
+            throw new IOException("Problem package " + directory + " has no " + INDEX_FILE);
+        }
+        Index index = MAPPER.readValue(indexPath.toFile(), Index.class);
+        if (index.problem_id == null || !PROBLEM_ID.matcher(index.problem_id).matches()) {
+            throw new IOException("Invalid problem_id '" + index.problem_id + "' in " + indexPath);
+        }
+        if (index.version < 1) {
+            throw new IOException("Invalid version " + index.version + " in " + indexPath + ", must be >=1");
+        }
+        if (index.checkpoints == null || index.checkpoints.isEmpty()) {
+            throw new IOException("Problem package " + index.problem_id + " v" + index.version + " has no checkpoints");
+        }
+        List<File> inputs = new ArrayList<>();
+        List<File> outputs = new ArrayList<>();
+        for (int i = 0; i < index.checkpoints.size(); i++) {
+            IndexEntry entry = index.checkpoints.get(i);
+            if (entry == null) {
+                throw new IOException("Checkpoint " + (i + 1) + " of " + indexPath + " is empty");
+            }
+            inputs.add(dataFile(root, entry.in, i + 1));
+            outputs.add(dataFile(root, entry.out, i + 1));
+        }
+        return new ProblemPackage(index.problem_id, index.version, root.toFile(), inputs, outputs);
+    }
+
+    /**
+     * Resolves a data file named in the index and makes sure it is a regular file inside the package.
+     */
+    private static File dataFile(Path root, String name, int checkpoint) throws IOException {
+        if (name == null || name.isEmpty()) {
+            throw new IOException("Checkpoint " + checkpoint + " must name both 'in' and 'out' files");
+        }
+        Path file = root.resolve(name).normalize();
+        if (!file.startsWith(root) || !Files.isRegularFile(file)) {
+            throw new IOException("Checkpoint " + checkpoint + " file '" + name + "' is missing or outside the package");
+        }
+        if (!file.toRealPath().startsWith(root)) {
+            throw new IOException("Checkpoint " + checkpoint + " file '" + name + "' links outside the package");
+        }
+        return file.toFile();
+    }
+
+    /**
+     * @return number of checkpoints in the package
+     */
+    public int getCheckpointCount() {
+        return inputs.size();
+    }
+
+    /**
+     * @param checkpoint checkpoint number, starting at 1
+     * @return the input file of that checkpoint
+     */
+    public File getInput(int checkpoint) {
+        return inputs.get(checkpoint - 1);
+    }
+
+    /**
+     * @param checkpoint checkpoint number, starting at 1
+     * @return the expected output file of that checkpoint
+     */
+    public File getExpectedOutput(int checkpoint) {
+        return expectedOutputs.get(checkpoint - 1);
+    }
+}
@@ -0,0 +1,168 @@
+package org.bcmoj.problem;
+
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+import org.bcmoj.utils.FileUtil;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Stream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+
+/**
+ * Server-side store of versioned problem packages.
+ *
+ * <p>Packages live under the repository root as {@code <problemId>/<version>/}, each with an
+ * {@code index.json} and its raw {@code .in}/{@code .out} files (see {@link ProblemPackage}).
+ * A judge request can name a problem and optionally a version instead of carrying its
+ * checkpoints inline; without a version the highest one is used. The checkpoint inputs are then
+ * handed to the submission as its standard input straight from these files, without being read
+ * into the JVM. An unknown problem or version is reported as a system error.</p>
+ *
+ * <p>Versions are immutable once imported: {@link #importPackage(File)} refuses to overwrite an
+ * existing version, and a new version is staged inside the root and moved into place in one
+ * rename, so concurrent judging never sees a half-written package. Loaded packages are cached.</p>
+ *
+ * @author SleepingCui
+ */
+@Slf4j
+public class ProblemRepository {
+    private static final String STAGING_PREFIX = ".import-";
+
+    @Getter
+    private final File root;
+    private final Map<String, ProblemPackage> loaded = new ConcurrentHashMap<>();
+
+    /**
+     * @param root directory holding the problem packages; created on the first import
+     */
+    public ProblemRepository(File root) {
+        this.root = root;
+    }
+
+    /**
+     * Looks up a problem package.
+     *
+     * @param problemId the problem id
+     * @param version   the version, or {@code null} for the latest one
+     * @return the package, or empty if the problem or version does not exist
+     * @throws IOException if the package exists but cannot be read
+     */
+    public Optional<ProblemPackage> find(String problemId, Integer version) throws IOException {
+        if (problemId == null || !ProblemPackage.PROBLEM_ID.matcher(problemId).matches()) {
+            return Optional.empty();
+        }
+        int resolved = version != null ? version : latestVersion(problemId);
+        if (resolved < 1) {
+            return Optional.empty();
+        }
+        File dir = new File(new File(root, problemId), String.valueOf(resolved));
+        if (!dir.isDirectory()) {
+            return Optional.empty();
+        }
+        String key = problemId + "/" + resolved;
+        ProblemPackage cached = loaded.get(key);
+        if (cached != null) {
+            return Optional.of(cached);
+        }
+        ProblemPackage pkg = ProblemPackage.load(dir);
+        loaded.putIfAbsent(key, pkg);
+        return Optional.of(pkg);
+    }
+
+    /**
+     * @param problemId the problem id
+     * @return the highest imported version of the problem, or 0 if there is none
+     */
+    public int latestVersion(String problemId) {
+        String[] versions = new File(root, problemId).list();
+        int latest = 0;
+        if (versions != null) {
+            for (String name : versions) {
+                if (name.matches("[1-9][0-9]{0,8}")) {
+                    latest = Math.max(latest, Integer.parseInt(name));
+                }
+            }
+        }
+        return latest;
+    }
+
+    /**
+     * Imports a problem package from a zip archive or a directory. The {@code index.json} must
+     * be at the top level of the archive or directory.
+     *
+     * @param source the zip file or package directory
+     * @return the imported package
+     * @throws IOException if the package is malformed, the version already exists or copying fails
+     */
+    public ProblemPackage importPackage(File source) throws IOException {
+        Files.createDirectories(root.toPath());
+        Path staging = root.toPath().resolve(STAGING_PREFIX + UUID.randomUUID());
+        try {
+            Files.createDirectory(staging);
+            if (source.isDirectory()) {
+                copyDirectory(source.toPath(), staging);
+            } else {
+                extractZip(source, staging);
+            }
+            ProblemPackage staged = ProblemPackage.load(staging.toFile());
+            Path problemDir = root.toPath().resolve(staged.getProblemId());
+            Path target = problemDir.resolve(String.valueOf(staged.getVersion()));
+            if (Files.exists(target)) {
+                throw new IOException("Problem " + staged.getProblemId() + " version " + staged.getVersion() + " already exists");
+            }
+            Files.createDirectories(problemDir);
+            Files.move(staging, target, StandardCopyOption.ATOMIC_MOVE);
+            log.info("Imported problem {} version {} with {} checkpoint(s) from {}", staged.getProblemId(), staged.getVersion(), staged.getCheckpointCount(), source);
+            return ProblemPackage.load(target.toFile());
+        } finally {
+            if (Files.exists(staging)) {
+                FileUtil.deleteRecursively(staging.toFile());
+            }
+        }
+    }
+
+    private static void copyDirectory(Path source, Path target) throws IOException {
+        List<Path> entries;
+        try (Stream<Path> walk = Files.walk(source)) {
+            entries = walk.toList();
+        }
+        for (Path entry : entries) {
+            Path dest = target.resolve(source.relativize(entry).toString());
+            if (Files.isSymbolicLink(entry)) {
+                throw new IOException("Problem packages may not contain symbolic links: " + entry);
+            } else if (Files.isDirectory(entry)) {
+                Files.createDirectories(dest);
+            } else {
+                Files.copy(entry, dest);
+            }
+        }
+    }
+
+    private static void extractZip(File zip, Path target) throws IOException {
+        try (ZipInputStream in = new ZipInputStream(Files.newInputStream(zip.toPath()))) {
+            ZipEntry entry;
+            while ((entry = in.getNextEntry()) != null) {
+                Path dest = target.resolve(entry.getName()).normalize();
+                if (!dest.startsWith(target)) {
+                    throw new IOException("Zip entry '" + entry.getName() + "' escapes the package");
+                }
+                if (entry.isDirectory()) {
+                    Files.createDirectories(dest);
+                } else {
+                    Files.createDirectories(dest.getParent());
+                    Files.copy(in, dest);
+                }
+            }
+        }
+    }
+}
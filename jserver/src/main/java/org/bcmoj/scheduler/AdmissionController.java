@@ -0,0 +1,120 @@
+package org.bcmoj.scheduler;
+
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Decides whether a new submission may enter the {@link JudgeTaskScheduler}.
+ *
+ * <p>The controller looks at the submissions currently running and at those queued ahead of
+ * the new submission's {@link JudgePriority} class, together with the scheduler's moving
+ * average of judging time, and estimates how long the new submission would wait before a
+ * worker picks it up. A submission is turned away when the admission queue is
+ * full or, if {@code maxEstimatedWaitMs} is positive, when the estimated wait exceeds it.
+ * Rejected callers get a retry-after hint: roughly the time until the backlog has drained far
+ * enough for the submission to be accepted.</p>
+ *
+ * <p>The check is advisory and not atomic with the actual submission; the scheduler's bounded
+ * queue remains the hard limit.</p>
+ *
+ * @author SleepingCui
+ */
+@Slf4j
+public class AdmissionController {
+    static final long MIN_RETRY_AFTER_MS = 100;
+    static final long MAX_RETRY_AFTER_MS = 60_000;
+
+    private final JudgeTaskScheduler scheduler;
+    private final long maxEstimatedWaitMs;
+
+    /**
+     * @param scheduler          the scheduler whose load is checked
+     * @param maxEstimatedWaitMs largest acceptable estimated queueing delay in milliseconds,
+     *                           or 0 to only reject when the queue is full
+     */
+    public AdmissionController(JudgeTaskScheduler scheduler, long maxEstimatedWaitMs) {
+        this.scheduler = scheduler;
+        this.maxEstimatedWaitMs = Math.max(0, maxEstimatedWaitMs);
+    }
+
+    /**
+     * Checks whether a new submission should be accepted right now.
+     *
+     * @param priority the scheduling class of the submission
+     * @return the decision, with a retry-after hint if the submission is rejected
+     */
+    public Decision check(JudgePriority priority) {
+        int queued = scheduler.getQueuedCount();
+        int running = scheduler.getRunningCount();
+        long estimatedWaitMs = estimateWaitMs(scheduler.getQueuedAhead(priority), running);
+        if (queued >= scheduler.getQueueCapacity()) {
+            return Decision.busy("queue full", queued, running, estimatedWaitMs, drainMillis(1));
+        }
+        if (maxEstimatedWaitMs > 0 && estimatedWaitMs > maxEstimatedWaitMs) {
+            return Decision.busy("estimated wait too long", queued, running, estimatedWaitMs, estimatedWaitMs - maxEstimatedWaitMs);
+        }
+        return new Decision(true, null, queued, running, estimatedWaitMs, 0);
+    }
+
+    /**
+     * Builds the decision for a submission the scheduler refused even though
+     * {@link #check(JudgePriority)} admitted it, because the queue filled up in between.
+     *
+     * @param priority the scheduling class of the submission
+     * @return a busy decision
+     */
+    public Decision rejected(JudgePriority priority) {
+        int queued = scheduler.getQueuedCount();
+        int running = scheduler.getRunningCount();
+        return Decision.busy("queue full", queued, running, estimateWaitMs(scheduler.getQueuedAhead(priority), running), drainMillis(1));
+    }
+
+    /**
+     * Estimates how long a submission arriving now would wait for a worker: nothing while a
+     * worker is idle, otherwise the time the workers need to get through everything queued
+     * ahead of it.
+     */
+    long estimateWaitMs(int queuedAhead, int running) {
+        if (running < scheduler.getConcurrency() && queuedAhead == 0) {
+            return 0;
+        }
+        return drainMillis(queuedAhead + 1);
+    }
+
+    /**
+     * Time the workers need to finish {@code submissions} more submissions at the recent pace.
+     */
+    private long drainMillis(int submissions) {
+        return (long) Math.ceil(submissions * scheduler.getAverageServiceMillis() / scheduler.getConcurrency());
+    }
+
+    /**
+     * Outcome of an admission check.
+     */
+    @Getter
+    public static final class Decision {
+        private final boolean admitted;
+        /** Why the submission was rejected, {@code null} if admitted. */
+        private final String reason;
+        private final int queued;
+        private final int running;
+        private final long estimatedWaitMs;
+        /** Suggested delay before retrying, 0 if admitted. */
+        private final long retryAfterMs;
+
+        private Decision(boolean admitted, String reason, int queued, int running, long estimatedWaitMs, long retryAfterMs) {
+            this.admitted = admitted;
+            this.reason = reason;
+            this.queued = queued;
+            this.running = running;
+            this.estimatedWaitMs = estimatedWaitMs;
+            this.retryAfterMs = retryAfterMs;
+        }
+
+        private static Decision busy(String reason, int queued, int running, long estimatedWaitMs, long retryAfterMs) {
+            long clamped = Math.min(MAX_RETRY_AFTER_MS, Math.max(MIN_RETRY_AFTER_MS, retryAfterMs));
+            log.warn("Rejecting submission ({}): {} queued, {} running, estimated wait {} ms, retry after {} ms", reason, queued, running, estimatedWaitMs, clamped);
+            return new Decision(false, reason, queued, running, estimatedWaitMs, clamped);
+        }
+    }
+}
@@ -0,0 +1,365 @@
+package org.bcmoj.scheduler;
+
+import lombok.extern.slf4j.Slf4j;
+import org.bcmoj.utils.CpuAffinityUtil;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Process-wide scheduler for checkpoint runs.
+ *
+ * <p>The scheduler owns a fixed number of run slots (normally one per physical core), each
+ * backed by a dedicated thread. Every submission opens a {@link Batch} and feeds its
+ * checkpoints into it; the slots then pick work from all open batches in round-robin order,
+ * so a problem with many checkpoints cannot starve the submissions queued behind it.</p>
+ *
+ * <p>Per-submission parallelism adapts to load: a batch may occupy at most
+ * {@code ceil(slots / activeBatches)} slots while other batches are waiting. When the node is
+ * idle a single submission therefore runs fully parallel, and when it is saturated each
+ * submission is narrowed towards one slot. A slot never stays idle while any batch still has
+ * pending checkpoints.</p>
+ *
+ * <p>The scheduler may be given a CPU set; the programs of its checkpoints are then started on
+ * those CPUs only, away from the {@link CompileScheduler}'s. Queueing time (from submission to
+ * the start of a run) and the accumulated busy time of the slots are tracked.</p>
+ *
+ * <p>In isolated mode every slot owns exactly one CPU of the set and its programs run on that CPU
+ * alone, so a checkpoint never competes with another one for a core and its timing does not depend
+ * on where the kernel happens to place it. Programs find the CPUs of the slot running them through
+ * {@link #currentCpus()}.</p>
+ *
+ * @author SleepingCui
+ */
+@Slf4j
+public class CheckpointScheduler {
+    /** Weight of the newest sample in the moving average of the queueing time. */
+    private static final double EWMA_ALPHA = 0.2;
+
+    private final int slots;
+    private final Set<Integer> cpus;
+    private final boolean isolated;
+    private final ThreadLocal<Set<Integer>> slotCpus = new ThreadLocal<>();
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition workAvailable = lock.newCondition();
+    private final Deque<Batch<?>> activeBatches = new ArrayDeque<>();
+    private final List<Thread> workers = new ArrayList<>();
+    private boolean shutdown;
+    private final AtomicLong busyNanos = new AtomicLong();
+    private double averageWaitMillis;
+
+    /**
+     * Creates the scheduler without a CPU set and starts one thread per run slot.
+     *
+     * @param slots number of checkpoints that may run at the same time (at least 1)
+     */
+    public CheckpointScheduler(int slots) {
+        this(slots, null);
+    }
+
+    /**
+     * Creates the scheduler and starts one thread per run slot.
+     *
+     * @param slots number of checkpoints that may run at the same time (at least 1)
+     * @param cpus  CPUs the checkpoint programs may run on, or {@code null}/empty for any CPU
+     */
+    public CheckpointScheduler(int slots, Set<Integer> cpus) {
+        this(slots, cpus, false);
+    }
+
+    /**
+     * Creates the scheduler and starts one thread per run slot.
+     *
+     * @param slots    number of checkpoints that may run at the same time (at least 1)
+     * @param cpus     CPUs the checkpoint programs may run on, or {@code null}/empty for any CPU
+     * @param isolated give every slot a dedicated CPU of {@code cpus}; the number of slots is then
+     *                 capped at the number of CPUs. Ignored if no CPUs are given.
+     */
+    public CheckpointScheduler(int slots, Set<Integer> cpus, boolean isolated) {
+        this.cpus = cpus == null ? Collections.emptySet() : Collections.unmodifiableSet(new TreeSet<>(cpus));
+        this.isolated = isolated && !this.cpus.isEmpty();
+        this.slots = this.isolated ? Math.max(1, Math.min(slots, this.cpus.size())) : Math.max(1, slots);
+        List<Integer> cpuList = new ArrayList<>(this.cpus);
+        for (int i = 0; i < this.slots; i++) {
+            Set<Integer> ownCpus = this.isolated ? Set.of(cpuList.get(i)) : this.cpus;
+            Thread worker = new Thread(() -> workerLoop(ownCpus), "CheckpointRunner-" + (i + 1));
+            worker.setDaemon(true);
+            workers.add(worker);
+            worker.start();
+        }
+        log.info("Checkpoint scheduler started with {} run slot(s), cpus={}{}", this.slots, this.cpus.isEmpty() ? "any" : CpuAffinityUtil.formatCpuList(this.cpus), this.isolated ? " (one dedicated CPU per slot)" : "");
+    }
+
+    /**
+     * Opens a new batch for one submission. The batch must be closed when the submission
+     * is finished so that any checkpoints that were never started are discarded.
+     *
+     * @param name name used in log messages, usually the submission's source file
+     * @param <T>  result type of the checkpoint tasks
+     * @return the new batch
+     */
+    public <T> Batch<T> newBatch(String name) {
+        return new Batch<>(name);
+    }
+
+    public int getSlots() {
+        return slots;
+    }
+
+    /**
+     * @return the CPUs checkpoint programs are started on; empty if they may run anywhere
+     */
+    public Set<Integer> getCpus() {
+        return cpus;
+    }
+
+    /**
+     * @return {@code true} if every run slot has a dedicated CPU
+     */
+    public boolean isIsolated() {
+        return isolated;
+    }
+
+    /**
+     * Returns the CPUs a checkpoint should run its program on. Called from a checkpoint task, this
+     * is the dedicated CPU of the slot executing it in isolated mode; otherwise it is {@link #getCpus()}.
+     *
+     * @return the CPUs, empty if the program may run anywhere
+     */
+    public Set<Integer> currentCpus() {
+        Set<Integer> own = slotCpus.get();
+        return own != null ? own : cpus;
+    }
+
+    /**
+     * @return number of checkpoints waiting for a run slot
+     */
+    public int getQueuedCount() {
+        lock.lock();
+        try {
+            return activeBatches.stream().mapToInt(batch -> batch.pending.size()).sum();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return moving average of the time checkpoints waited for a run slot, in milliseconds
+     */
+    public synchronized double getAverageWaitMillis() {
+        return averageWaitMillis;
+    }
+
+    /**
+     * @return total time run slots were occupied, in milliseconds
+     */
+    public long getBusyMillis() {
+        return busyNanos.get() / 1_000_000;
+    }
+
+    private synchronized void recordWait(double waitedMillis) {
+        averageWaitMillis += EWMA_ALPHA * (waitedMillis - averageWaitMillis);
+    }
+
+    /**
+     * @return number of submissions that currently have checkpoints queued or running
+     */
+    public int getActiveBatchCount() {
+        lock.lock();
+        try {
+            return activeBatches.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Stops all run slots. Queued checkpoints are cancelled and running ones are interrupted.
+     */
+    public void shutdown() {
+        lock.lock();
+        try {
+            if (shutdown) {
+                return;
+            }
+            shutdown = true;
+            for (Batch<?> batch : activeBatches) {
+                batch.pending.forEach(task -> task.cancel(false));
+                batch.pending.clear();
+            }
+            activeBatches.clear();
+            workAvailable.signalAll();
+        } finally {
+            lock.unlock();
+        }
+        workers.forEach(Thread::interrupt);
+        log.info("Checkpoint scheduler stopped");
+    }
+
+    private void workerLoop(Set<Integer> ownCpus) {
+        slotCpus.set(ownCpus);
+        while (true) {
+            Batch<?> batch;
+            FutureTask<?> task;
+            lock.lock();
+            try {
+                while (true) {
+                    if (shutdown) {
+                        return;
+                    }
+                    batch = pickBatch();
+                    if (batch != null) {
+                        break;
+                    }
+                    workAvailable.awaitUninterruptibly();
+                }
+                task = batch.pending.poll();
+                batch.running++;
+            } finally {
+                lock.unlock();
+            }
+
+            long startedAt = System.nanoTime();
+            try {
+                task.run();
+            } finally {
+                busyNanos.addAndGet(System.nanoTime() - startedAt);
+                Thread.interrupted(); // do not leak a cancellation interrupt into the next checkpoint
+                lock.lock();
+                try {
+                    batch.running--;
+                    retireIfIdle(batch);
+                    workAvailable.signalAll();
+                } finally {
+                    lock.unlock();
+                }
+            }
+        }
+    }
+
+    /**
+     * Picks the next batch to serve. Must be called with the lock held.
+     * <p>The first pass respects the fair-share cap; the second pass hands a slot that would
+     * otherwise stay idle to any batch that still has pending work.</p>
+     */
+    private Batch<?> pickBatch() {
+        int active = activeBatches.size();
+        if (active == 0) {
+            return null;
+        }
+        int cap = (slots + active - 1) / active;
+        for (int pass = 0; pass < 2; pass++) {
+            for (int i = 0; i < active; i++) {
+                Batch<?> candidate = activeBatches.pollFirst();
+                activeBatches.addLast(candidate);
+                if (!candidate.pending.isEmpty() && (pass == 1 || candidate.running < cap)) {
+                    return candidate;
+                }
+            }
+        }
+        return null;
+    }
+
+    private void retireIfIdle(Batch<?> batch) {
+        if (batch.pending.isEmpty() && batch.running == 0) {
+            activeBatches.remove(batch);
+        }
+    }
+
+    /**
+     * The checkpoints of a single submission.
+     *
+     * @param <T> result type of the checkpoint tasks
+     */
+    public final class Batch<T> implements AutoCloseable {
+        private final String name;
+        private final Deque<FutureTask<?>> pending = new ArrayDeque<>();
+        private final List<FutureTask<?>> submitted = new ArrayList<>();
+        private int running;
+        private boolean closed;
+
+        private Batch(String name) {
+            this.name = name;
+        }
+
+        /**
+         * Queues one checkpoint run.
+         *
+         * @param task the checkpoint task
+         * @return a future for the checkpoint result
+         * @throws RejectedExecutionException if the batch is closed or the scheduler is shut down
+         */
+        public Future<T> submit(Callable<T> task) {
+            long submittedAt = System.nanoTime();
+            FutureTask<T> future = new FutureTask<>(() -> {
+                recordWait((System.nanoTime() - submittedAt) / 1_000_000.0);
+                return task.call();
+            });
+            lock.lock();
+            try {
+                if (closed || shutdown) {
+                    throw new RejectedExecutionException("Checkpoint batch '" + name + "' is no longer accepting work");
+                }
+                pending.add(future);
+                submitted.add(future);
+                if (!activeBatches.contains(this)) {
+                    activeBatches.addLast(this);
+                }
+                workAvailable.signal();
+            } finally {
+                lock.unlock();
+            }
+            return future;
+        }
+
+        /**
+         * Cancels checkpoints that have not started yet and detaches the batch from the scheduler.
+         * Checkpoints that are already running are left to finish.
+         */
+        @Override
+        public void close() {
+            lock.lock();
+            try {
+                closed = true;
+                if (!pending.isEmpty()) {
+                    log.debug("Discarding {} unstarted checkpoint(s) of batch '{}'", pending.size(), name);
+                    pending.forEach(task -> task.cancel(false));
+                    pending.clear();
+                }
+                retireIfIdle(this);
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        /**
+         * Closes the batch and also interrupts the checkpoints that are already running,
+         * e.g. because the client of the submission disconnected. An interrupted run kills
+         * its program.
+         */
+        public void cancel() {
+            List<FutureTask<?>> started;
+            lock.lock();
+            try {
+                started = new ArrayList<>(submitted);
+            } finally {
+                lock.unlock();
+            }
+            close();
+            started.forEach(task -> task.cancel(true));
+            log.debug("Cancelled batch '{}'", name);
+        }
+    }
+}
@@ -0,0 +1,133 @@
+package org.bcmoj.scheduler;
+
+import lombok.extern.slf4j.Slf4j;
+import org.bcmoj.utils.CpuAffinityUtil;
+
+import java.util.Collections;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Process-wide pool for compiler invocations, kept apart from the {@link CheckpointScheduler}
+ * so that a burst of compilations does not share cores with timed checkpoint runs.
+ *
+ * <p>At most {@code concurrency} compilations run at the same time; further judge workers wait
+ * in arrival order. The compilation itself still runs on the waiting judge worker, so cancelling
+ * the submission interrupts it as before. If the pool has a CPU set, compilers are started on
+ * those CPUs only (see {@link CpuAffinityUtil}); giving the {@link CheckpointScheduler} a
+ * disjoint set reserves the remaining cores for timed runs.</p>
+ *
+ * <p>Queue depth, average queueing time and the accumulated busy time are tracked and reported
+ * next to the run pool's.</p>
+ *
+ * @author SleepingCui
+ */
+@Slf4j
+public class CompileScheduler {
+    /** Weight of the newest sample in the moving average of the queueing time. */
+    private static final double EWMA_ALPHA = 0.2;
+
+    private final int concurrency;
+    private final Set<Integer> cpus;
+    private final Semaphore permits;
+    private final AtomicInteger queued = new AtomicInteger();
+    private final AtomicInteger running = new AtomicInteger();
+    private final AtomicLong completed = new AtomicLong();
+    private final AtomicLong busyNanos = new AtomicLong();
+    private double averageWaitMillis;
+
+    /**
+     * @param concurrency maximum number of compilations at the same time (at least 1)
+     * @param cpus        CPUs the compilers may run on, or {@code null}/empty for any CPU
+     */
+    public CompileScheduler(int concurrency, Set<Integer> cpus) {
+        this.concurrency = Math.max(1, concurrency);
+        this.cpus = cpus == null ? Collections.emptySet() : Collections.unmodifiableSet(new TreeSet<>(cpus));
+        this.permits = new Semaphore(this.concurrency, true);
+        log.info("Compile pool started: concurrency={}, cpus={}", this.concurrency, this.cpus.isEmpty() ? "any" : CpuAffinityUtil.formatCpuList(this.cpus));
+    }
+
+    /**
+     * Runs a compilation once a compile slot is free.
+     *
+     * @param compilation the compilation, run on the calling thread
+     * @param <T>         result type of the compilation
+     * @return the result of the compilation
+     * @throws InterruptedException if the thread is interrupted while waiting
+     * @throws Exception            whatever the compilation throws
+     */
+    public <T> T execute(Callable<T> compilation) throws Exception {
+        long submittedAt = System.nanoTime();
+        queued.incrementAndGet();
+        try {
+            permits.acquire();
+        } finally {
+            queued.decrementAndGet();
+        }
+        long startedAt = System.nanoTime();
+        recordWait((startedAt - submittedAt) / 1_000_000.0);
+        running.incrementAndGet();
+        try {
+            return compilation.call();
+        } finally {
+            running.decrementAndGet();
+            busyNanos.addAndGet(System.nanoTime() - startedAt);
+            completed.incrementAndGet();
+            permits.release();
+        }
+    }
+
+    /**
+     * @return the CPUs compilers are started on; empty if they may run anywhere
+     */
+    public Set<Integer> getCpus() {
+        return cpus;
+    }
+
+    public int getConcurrency() {
+        return concurrency;
+    }
+
+    /**
+     * @return number of compilations waiting for a slot
+     */
+    public int getQueuedCount() {
+        return queued.get();
+    }
+
+    /**
+     * @return number of compilations running
+     */
+    public int getRunningCount() {
+        return running.get();
+    }
+
+    /**
+     * @return number of compilations finished since the pool was created
+     */
+    public long getCompletedCount() {
+        return completed.get();
+    }
+
+    /**
+     * @return moving average of the time compilations waited for a slot, in milliseconds
+     */
+    public synchronized double getAverageWaitMillis() {
+        return averageWaitMillis;
+    }
+
+    /**
+     * @return total time compile slots were occupied, in milliseconds
+     */
+    public long getBusyMillis() {
+        return busyNanos.get() / 1_000_000;
+    }
+
+    private synchronized void recordWait(double waitedMillis) {
+        averageWaitMillis += EWMA_ALPHA * (waitedMillis - averageWaitMillis);
+    }
+}
@@ -0,0 +1,60 @@
+package org.bcmoj.scheduler;
+
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Scheduling classes of judge submissions, in order of precedence.
+ *
+ * <p>A submission selects its class with the {@code "priority"} field of its JSON config;
+ * submissions without one get the server's default class. The scheduler serves higher
+ * classes first, but ages waiting submissions so that lower classes still make progress
+ * (see {@link JudgeTaskScheduler}).</p>
+ *
+ * @author SleepingCui
+ */
+@Slf4j
+public enum JudgePriority {
+    /** Live contest submissions. */
+    CONTEST,
+    /** Everyday practice submissions. */
+    PRACTICE,
+    /** Rejudges and other bulk work that nobody is waiting for. */
+    REJUDGE;
+
+    /**
+     * @return the name used in configs and statistics
+     */
+    public String configName() {
+        return name().toLowerCase();
+    }
+
+    /**
+     * Lowers this class to the given cap if it ranks above it.
+     *
+     * @param cap the highest class allowed
+     * @return this class, or {@code cap} if this class takes precedence over it
+     */
+    public JudgePriority atMost(JudgePriority cap) {
+        return ordinal() < cap.ordinal() ? cap : this;
+    }
+
+    /**
+     * Maps a configured priority name to its class.
+     *
+     * @param name         the name from the request or server config, may be {@code null}
+     * @param defaultValue class used when the name is missing or unknown
+     * @return the priority class
+     */
+    public static JudgePriority fromName(String name, JudgePriority defaultValue) {
+        if (name == null || name.isBlank()) {
+            return defaultValue;
+        }
+        for (JudgePriority priority : values()) {
+            if (priority.configName().equals(name.trim().toLowerCase())) {
+                return priority;
+            }
+        }
+        log.warn("Unknown priority '{}', using {}", name, defaultValue.configName());
+        return defaultValue;
+    }
+}
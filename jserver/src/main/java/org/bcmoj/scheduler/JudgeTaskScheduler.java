@@ -0,0 +1,337 @@
+package org.bcmoj.scheduler;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Server-wide executor for judging tasks.
+ *
+ * <p>One instance is shared by every client connection, so the number of submissions
+ * compiling and running at the same time is capped by {@code concurrency} no matter how
+ * many channels are open. Submissions that cannot start immediately wait in a bounded
+ * admission queue of {@code queueCapacity} entries; once that queue is full new tasks are
+ * rejected with {@link RejectedExecutionException} instead of piling up in memory.</p>
+ *
+ * <p>The queue is ordered by {@link JudgePriority}. Each waiting submission gets a virtual
+ * deadline of its arrival time plus {@code agingMs} for every class it sits below
+ * {@link JudgePriority#CONTEST}, and workers always take the earliest deadline. Contest
+ * submissions therefore overtake practice work, but a practice submission that has waited
+ * {@code agingMs} ranks like a contest submission arriving now, so no class starves. Queue
+ * depth and average queueing time are tracked per class.</p>
+ *
+ * <p>Cancelling the returned future of a waiting submission takes it out of the queue at once,
+ * so its slot counts towards the queue capacity again; cancelling it with interruption while it
+ * runs interrupts its judge worker.</p>
+ *
+ * <p>The scheduler owns its worker threads and must be torn down with {@link #shutdown(long)}
+ * when the server stops.</p>
+ *
+ * @author SleepingCui
+ */
+@Slf4j
+public class JudgeTaskScheduler {
+    /** Assumed judging time per submission until real measurements are available. */
+    private static final double INITIAL_SERVICE_MILLIS = 1_000;
+    /** Weight of the newest sample in the moving averages. */
+    private static final double EWMA_ALPHA = 0.2;
+    /** Default time after which a waiting submission is ranked like one from the next higher class. */
+    public static final long DEFAULT_AGING_MS = 30_000;
+
+    private final ThreadPoolExecutor executor;
+    private final int concurrency;
+    private final int queueCapacity;
+    private final Ewma serviceMillis = new Ewma(INITIAL_SERVICE_MILLIS);
+    private final Ewma waitMillis = new Ewma(0);
+    private final long agingNanos;
+    private final AtomicLong sequence = new AtomicLong();
+    private final AtomicInteger running = new AtomicInteger();
+    private final Map<JudgePriority, ClassStats> classStats = new EnumMap<>(JudgePriority.class);
+
+    /**
+     * Creates the scheduler with the default aging interval and pre-starts its worker threads.
+     *
+     * @param concurrency   maximum number of submissions judged at the same time (at least 1)
+     * @param queueCapacity maximum number of submissions waiting for a worker (at least 1)
+     */
+    public JudgeTaskScheduler(int concurrency, int queueCapacity) {
+        this(concurrency, queueCapacity, DEFAULT_AGING_MS);
+    }
+
+    /**
+     * Creates the scheduler and pre-starts its worker threads.
+     *
+     * @param concurrency   maximum number of submissions judged at the same time (at least 1)
+     * @param queueCapacity maximum number of submissions waiting for a worker (at least 1)
+     * @param agingMs       waiting time after which a submission ranks like a fresh one of the
+     *                      next higher priority class; 0 disables prioritisation (plain FIFO)
+     */
+    public JudgeTaskScheduler(int concurrency, int queueCapacity, long agingMs) {
+        this.concurrency = Math.max(1, concurrency);
+        this.queueCapacity = Math.max(1, queueCapacity);
+        this.agingNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(0, agingMs));
+        for (JudgePriority priority : JudgePriority.values()) {
+            classStats.put(priority, new ClassStats());
+        }
+        this.executor = new ThreadPoolExecutor(this.concurrency, this.concurrency, 0L, TimeUnit.MILLISECONDS, new BoundedPriorityQueue(this.queueCapacity), new JudgeWorkerThreadFactory(), new ThreadPoolExecutor.AbortPolicy());
+        this.executor.prestartAllCoreThreads();
+        log.info("Judge scheduler started: concurrency={}, queueCapacity={}, agingMs={}", this.concurrency, this.queueCapacity, Math.max(0, agingMs));
+    }
+
+    /**
+     * Submits a judging task in the {@link JudgePriority#PRACTICE} class.
+     *
+     * @param task the task to run on a judge worker
+     * @return a future tracking the task
+     * @throws RejectedExecutionException if the admission queue is full or the scheduler is shut down
+     */
+    public Future<?> submit(Runnable task) {
+        return submit(task, JudgePriority.PRACTICE);
+    }
+
+    /**
+     * Submits a judging task.
+     *
+     * @param task     the task to run on a judge worker
+     * @param priority the scheduling class of the submission
+     * @return a future tracking the task
+     * @throws RejectedExecutionException if the admission queue is full or the scheduler is shut down
+     */
+    public Future<?> submit(Runnable task, JudgePriority priority) {
+        ClassStats stats = classStats.get(priority);
+        PrioritizedTask prioritized = new PrioritizedTask(task, priority, System.nanoTime(), sequence.getAndIncrement());
+        stats.queued.incrementAndGet();
+        try {
+            executor.execute(prioritized);
+        } catch (RejectedExecutionException e) {
+            stats.queued.decrementAndGet();
+            throw e;
+        }
+        return prioritized;
+    }
+
+    /**
+     * @return number of submissions currently being judged
+     */
+    public int getRunningCount() {
+        // Counted here rather than with getActiveCount(), which also counts prestarted workers that have not begun polling yet
+        return running.get();
+    }
+
+    /**
+     * @return number of submissions waiting for a judge worker
+     */
+    public int getQueuedCount() {
+        return executor.getQueue().size();
+    }
+
+    /**
+     * @param priority the priority class
+     * @return number of submissions of that class waiting for a judge worker
+     */
+    public int getQueuedCount(JudgePriority priority) {
+        return classStats.get(priority).queued.get();
+    }
+
+    /**
+     * Counts the waiting submissions a new submission of the given class would have to wait
+     * for, i.e. those whose aged rank is at least as high as its own.
+     *
+     * @param priority the priority class of the new submission
+     * @return number of queued submissions ahead of it
+     */
+    public int getQueuedAhead(JudgePriority priority) {
+        long deadline = deadline(priority, System.nanoTime());
+        int ahead = 0;
+        for (Runnable queued : executor.getQueue()) {
+            if (queued instanceof PrioritizedTask task && task.deadline - deadline <= 0) {
+                ahead++;
+            }
+        }
+        return ahead;
+    }
+
+    /**
+     * @param priority the priority class
+     * @return moving average of the time submissions of that class waited in the queue, in milliseconds
+     */
+    public double getAverageWaitMillis(JudgePriority priority) {
+        return classStats.get(priority).waitMillis.get();
+    }
+
+    /**
+     * @return moving average of the time a submission takes once a worker picked it up, in milliseconds
+     */
+    public double getAverageServiceMillis() {
+        return serviceMillis.get();
+    }
+
+    /**
+     * @return moving average of the time submissions waited in the queue, in milliseconds
+     */
+    public double getAverageWaitMillis() {
+        return waitMillis.get();
+    }
+
+    public int getConcurrency() {
+        return concurrency;
+    }
+
+    public int getQueueCapacity() {
+        return queueCapacity;
+    }
+
+    /**
+     * Stops accepting new tasks, waits up to {@code timeoutMs} for running tasks to finish
+     * and then interrupts whatever is still running.
+     *
+     * @param timeoutMs how long to wait for running tasks, in milliseconds
+     */
+    public void shutdown(long timeoutMs) {
+        if (executor.isShutdown()) {
+            return;
+        }
+        executor.shutdown();
+        try {
+            if (!executor.awaitTermination(timeoutMs, TimeUnit.MILLISECONDS)) {
+                log.warn("Judge workers did not finish within {} ms, interrupting {} task(s)", timeoutMs, executor.getActiveCount());
+                executor.shutdownNow();
+            }
+        } catch (InterruptedException e) {
+            executor.shutdownNow();
+            Thread.currentThread().interrupt();
+        }
+        log.info("Judge scheduler stopped");
+    }
+
+    private long deadline(JudgePriority priority, long submittedAt) {
+        return submittedAt + priority.ordinal() * agingNanos;
+    }
+
+    /**
+     * A submission waiting in the queue, ordered by its aged deadline and then by arrival.
+     */
+    private final class PrioritizedTask extends FutureTask<Void> implements Comparable<PrioritizedTask> {
+        private final JudgePriority priority;
+        private final long submittedAt;
+        private final long deadline;
+        private final long seq;
+        private final AtomicBoolean dequeued = new AtomicBoolean();
+
+        PrioritizedTask(Runnable task, JudgePriority priority, long submittedAt, long seq) {
+            super(task, null);
+            this.priority = priority;
+            this.submittedAt = submittedAt;
+            this.deadline = deadline(priority, submittedAt);
+            this.seq = seq;
+        }
+
+        @Override
+        public void run() {
+            if (!dequeued.compareAndSet(false, true)) {
+                return; // cancelled while waiting
+            }
+            long startedAt = System.nanoTime();
+            double waited = (startedAt - submittedAt) / 1_000_000.0;
+            ClassStats stats = classStats.get(priority);
+            stats.queued.decrementAndGet();
+            stats.waitMillis.add(waited);
+            waitMillis.add(waited);
+            running.incrementAndGet();
+            try {
+                super.run();
+            } finally {
+                running.decrementAndGet();
+                serviceMillis.add((System.nanoTime() - startedAt) / 1_000_000.0);
+            }
+        }
+
+        @Override
+        public boolean cancel(boolean mayInterruptIfRunning) {
+            boolean cancelled = super.cancel(mayInterruptIfRunning);
+            if (cancelled && dequeued.compareAndSet(false, true)) {
+                classStats.get(priority).queued.decrementAndGet();
+                executor.remove(this);
+            }
+            return cancelled;
+        }
+
+        @Override
+        public int compareTo(PrioritizedTask other) {
+            int byDeadline = Long.compare(deadline - other.deadline, 0);
+            return byDeadline != 0 ? byDeadline : Long.compare(seq, other.seq);
+        }
+    }
+
+    /**
+     * Priority queue that refuses new entries beyond a fixed capacity, so the executor
+     * rejects submissions instead of queueing without limit.
+     */
+    private static final class BoundedPriorityQueue extends PriorityBlockingQueue<Runnable> {
+        private final int capacity;
+
+        BoundedPriorityQueue(int capacity) {
+            super(capacity);
+            this.capacity = capacity;
+        }
+
+        @Override
+        public synchronized boolean offer(Runnable task) {
+            return size() < capacity && super.offer(task);
+        }
+
+        @Override
+        public int remainingCapacity() {
+            return Math.max(0, capacity - size());
+        }
+    }
+
+    /**
+     * Queue depth and queueing time of one priority class.
+     */
+    private static final class ClassStats {
+        private final AtomicInteger queued = new AtomicInteger();
+        private final Ewma waitMillis = new Ewma(0);
+    }
+
+    /**
+     * Exponentially weighted moving average, updated by the judge workers.
+     */
+    private static final class Ewma {
+        private double value;
+
+        Ewma(double initial) {
+            this.value = initial;
+        }
+
+        synchronized void add(double sample) {
+            value += EWMA_ALPHA * (sample - value);
+        }
+
+        synchronized double get() {
+            return value;
+        }
+    }
+
+    private static class JudgeWorkerThreadFactory implements ThreadFactory {
+        private final AtomicInteger count = new AtomicInteger(1);
+
+        @Override
+        public Thread newThread(Runnable r) {
+            Thread t = new Thread(r, "JudgeWorker-" + count.getAndIncrement());
+            t.setDaemon(false);
+            return t;
+        }
+    }
+}
@@ -3,9 +3,12 @@ package org.bcmoj.security;
 import lombok.extern.slf4j.Slf4j;
 
 import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
 import java.io.File;
 import java.io.FileReader;
 import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.regex.Pattern;
@@ -43,6 +46,28 @@ public class RegexSecurityCheck implements SecurityChecker {
         return scanSourceFile(sourceFile, keywordPatterns);
     }
 
+    /**
+     * Performs the security check on source code held in memory using the provided rule file.
+     *
+     * @param code     The source code bytes (UTF-8)
+     * @param ruleFile The rule file containing keywords or regex patterns
+     * @return 0 if passed, -5 if any dangerous pattern is detected or error occurs
+     */
+    @Override
+    public int check(byte[] code, File ruleFile) {
+        List<Pattern> keywordPatterns = loadKeywords(ruleFile);
+        if (keywordPatterns.isEmpty()) {
+            log.error("No security keywords loaded");
+            return -5;
+        }
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(new ByteArrayInputStream(code), StandardCharsets.UTF_8))) {
+            return scanSource(reader, keywordPatterns);
+        } catch (IOException e) {
+            log.error("Failed to read in-memory source", e);
+            return -5;
+        }
+    }
+
     /**
      * Loads keyword patterns from the rule file.
      * Lines starting with "regex:" are treated as regex patterns,
@@ -101,18 +126,28 @@ public class RegexSecurityCheck implements SecurityChecker {
      */
     private int scanSourceFile(File sourceFile, List<Pattern> keywordPatterns) {
         try (BufferedReader reader = new BufferedReader(new FileReader(sourceFile))) {
-            String line;
-            int lineNumber = 0;
-            while ((line = reader.readLine()) != null) {
-                lineNumber++;
-                if (matchesAnyPattern(line, keywordPatterns)) {
-                    return -5;
-                }
-            }
+            return scanSource(reader, keywordPatterns);
         } catch (IOException e) {
             log.error("Failed to read file '{}'", sourceFile, e);
             return -5;
         }
+    }
+
+    /**
+     * Scans source code line by line against all keyword patterns.
+     *
+     * @param reader          Reader over the source code
+     * @param keywordPatterns List of compiled Patterns
+     * @return 0 if passed, -5 if any dangerous pattern is detected
+     * @throws IOException if the source cannot be read
+     */
+    private int scanSource(BufferedReader reader, List<Pattern> keywordPatterns) throws IOException {
+        String line;
+        while ((line = reader.readLine()) != null) {
+            if (matchesAnyPattern(line, keywordPatterns)) {
+                return -5;
+            }
+        }
         log.info("Security check passed");
         return 0;
     }
@@ -4,4 +4,6 @@ import java.io.File;
 
 public interface SecurityChecker {
     int check(File codeFile, File keywordsFile);
+
+    int check(byte[] code, File keywordsFile);
 }
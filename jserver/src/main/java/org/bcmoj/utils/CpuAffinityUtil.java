@@ -0,0 +1,107 @@
+package org.bcmoj.utils;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+/**
+ * Utility class for starting child processes on a restricted set of CPUs.
+ * <p>
+ * On Linux the command is prefixed with {@code taskset -c <list>}, which sets the affinity and
+ * then executes the command in the same process, so the child keeps the PID the JVM sees. Where
+ * {@code taskset} is not available the command is returned unchanged and a warning is logged once.
+ * </p>
+ *
+ * @author SleepingCui
+ */
+@Slf4j
+public class CpuAffinityUtil {
+
+    private static final String TASKSET = findTaskset();
+
+    /**
+     * Prefixes a command so that it runs only on the given CPUs.
+     *
+     * @param command the command and its arguments
+     * @param cpus    the allowed CPU ids, or {@code null}/empty for no restriction
+     * @return the command to start
+     */
+    public static List<String> pin(List<String> command, Set<Integer> cpus) {
+        if (cpus == null || cpus.isEmpty() || TASKSET == null) {
+            return command;
+        }
+        List<String> pinned = new ArrayList<>(command.size() + 3);
+        pinned.add(TASKSET);
+        pinned.add("-c");
+        pinned.add(formatCpuList(cpus));
+        pinned.addAll(command);
+        return pinned;
+    }
+
+    /**
+     * Restricts every thread of a running process, e.g. the JVM itself, to the given CPUs.
+     * Threads the process creates afterwards inherit the restriction.
+     *
+     * @param pid  the process id
+     * @param cpus the allowed CPU ids
+     * @return {@code true} if the affinity was changed
+     */
+    public static boolean pinProcess(long pid, Set<Integer> cpus) {
+        if (cpus == null || cpus.isEmpty() || TASKSET == null) {
+            return false;
+        }
+        try {
+            Process process = new ProcessBuilder(TASKSET, "-a", "-p", "-c", formatCpuList(cpus), String.valueOf(pid)).redirectErrorStream(true).start();
+            String output = new String(process.getInputStream().readAllBytes()).trim();
+            if (!process.waitFor(5, TimeUnit.SECONDS) || process.exitValue() != 0) {
+                log.warn("Could not restrict PID {} to CPUs {}: {}", pid, formatCpuList(cpus), output);
+                return false;
+            }
+            return true;
+        } catch (IOException e) {
+            log.warn("Could not restrict PID {} to CPUs {}: {}", pid, formatCpuList(cpus), e.getMessage());
+            return false;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    /**
+     * @return {@code true} if {@link #pin} can restrict processes on this system
+     */
+    public static boolean isSupported() {
+        return TASKSET != null;
+    }
+
+    /**
+     * Formats CPU ids as a kernel CPU list, the inverse of {@link CpuTopologyUtil#parseCpuList(String)}.
+     *
+     * @param cpus the CPU ids
+     * @return a list such as {@code 0,2,4}
+     */
+    public static String formatCpuList(Collection<Integer> cpus) {
+        return cpus.stream().sorted().map(String::valueOf).collect(Collectors.joining(","));
+    }
+
+    private static String findTaskset() {
+        if (!System.getProperty("os.name").toLowerCase().contains("linux")) {
+            return null;
+        }
+        for (String dir : System.getenv().getOrDefault("PATH", "/usr/bin:/bin").split(File.pathSeparator)) {
+            File candidate = new File(dir, "taskset");
+            if (candidate.canExecute()) {
+                return candidate.getAbsolutePath();
+            }
+        }
+        log.warn("taskset was not found, CPU sets for compiling and running are ignored");
+        return null;
+    }
+}
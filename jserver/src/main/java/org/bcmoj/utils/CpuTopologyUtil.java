@@ -0,0 +1,128 @@
+package org.bcmoj.utils;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+
+/**
+ * Utility class for discovering the CPU topology of the host.
+ * <p>
+ * On Linux the allowed CPUs are read from {@code /proc/self/status} and SMT siblings are
+ * collapsed using {@code /sys/devices/system/cpu/cpuN/topology/thread_siblings_list}, so
+ * callers can size work by physical cores instead of hardware threads. On other systems,
+ * or when the files cannot be read, every available processor is treated as a core.
+ * </p>
+ *
+ * @author SleepingCui
+ */
+@Slf4j
+public class CpuTopologyUtil {
+
+    private static final String SYS_CPU_PATH = "/sys/devices/system/cpu/cpu";
+
+    /**
+     * Returns the number of physical cores this process may run on.
+     *
+     * @return physical core count, at least 1 and never more than {@link Runtime#availableProcessors()}
+     */
+    public static int physicalCoreCount() {
+        int available = Runtime.getRuntime().availableProcessors();
+        return Math.max(1, Math.min(physicalCores().size(), available));
+    }
+
+    /**
+     * Returns one representative logical CPU id per physical core, in ascending order,
+     * limited to the CPUs this process is allowed to run on.
+     *
+     * @return list of logical CPU ids, one per physical core
+     */
+    public static List<Integer> physicalCores() {
+        List<Integer> allowed = allowedCpus();
+        Set<Integer> seen = new TreeSet<>();
+        List<Integer> cores = new ArrayList<>();
+        for (int cpu : allowed) {
+            if (seen.contains(cpu)) {
+                continue;
+            }
+            cores.add(cpu);
+            seen.addAll(threadSiblings(cpu));
+        }
+        return cores;
+    }
+
+    /**
+     * Returns the logical CPUs that share a physical core with the given one (SMT siblings).
+     *
+     * @param cpu the logical CPU id
+     * @return the siblings including {@code cpu} itself; just {@code cpu} if the topology is unknown
+     */
+    public static Set<Integer> threadSiblings(int cpu) {
+        Set<Integer> siblings = new TreeSet<>();
+        siblings.add(cpu);
+        try {
+            siblings.addAll(parseCpuList(Files.readString(Path.of(SYS_CPU_PATH + cpu + "/topology/thread_siblings_list")).trim()));
+        } catch (IOException | IllegalArgumentException e) {
+            log.trace("No SMT topology for CPU {}: {}", cpu, e.getMessage());
+        }
+        return siblings;
+    }
+
+    /**
+     * Returns the logical CPU ids this process is allowed to run on.
+     *
+     * @return allowed CPU ids in ascending order
+     */
+    public static List<Integer> allowedCpus() {
+        try {
+            for (String line : Files.readAllLines(Path.of("/proc/self/status"))) {
+                if (line.startsWith("Cpus_allowed_list:")) {
+                    return new ArrayList<>(parseCpuList(line.substring("Cpus_allowed_list:".length()).trim()));
+                }
+            }
+        } catch (IOException | IllegalArgumentException e) {
+            log.debug("Could not read allowed CPUs, assuming all processors: {}", e.getMessage());
+        }
+        List<Integer> cpus = new ArrayList<>();
+        for (int i = 0; i < Runtime.getRuntime().availableProcessors(); i++) {
+            cpus.add(i);
+        }
+        return cpus;
+    }
+
+    /**
+     * Parses a kernel CPU list such as {@code 0-3,8,10-11}.
+     *
+     * @param list the CPU list string
+     * @return the CPU ids in ascending order
+     * @throws IllegalArgumentException if the list is malformed
+     */
+    public static Set<Integer> parseCpuList(String list) {
+        Set<Integer> cpus = new TreeSet<>();
+        if (list == null || list.isBlank()) {
+            return cpus;
+        }
+        try {
+            for (String part : list.trim().split(",")) {
+                int dash = part.indexOf('-');
+                if (dash < 0) {
+                    cpus.add(Integer.parseInt(part.trim()));
+                } else {
+                    int from = Integer.parseInt(part.substring(0, dash).trim());
+                    int to = Integer.parseInt(part.substring(dash + 1).trim());
+                    for (int i = from; i <= to; i++) {
+                        cpus.add(i);
+                    }
+                }
+            }
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Invalid CPU list: " + list, e);
+        }
+        return cpus;
+    }
+}
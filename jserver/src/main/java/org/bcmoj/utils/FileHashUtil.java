@@ -29,4 +29,15 @@ public class FileHashUtil {
         }
         return Hex.encodeHexString(digest.digest());
     }
+
+    /**
+     * Calculates the SHA-256 hash of the given bytes.
+     *
+     * @param data the bytes to calculate the hash for
+     * @return the SHA-256 hash as a lowercase hexadecimal string
+     * @throws NoSuchAlgorithmException if SHA-256 algorithm is not available
+     */
+    public static String calculateSHA256(byte[] data) throws NoSuchAlgorithmException {
+        return Hex.encodeHexString(MessageDigest.getInstance("SHA-256").digest(data));
+    }
 }
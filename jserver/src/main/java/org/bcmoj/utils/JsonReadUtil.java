@@ -1,7 +1,17 @@
 package org.bcmoj.utils;
 
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.core.StreamReadConstraints;
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import org.bcmoj.config.ProblemConfig;
+import org.bcmoj.config.SpilledConfig;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Map;
 
 /**
  * JSON reading utility class.
@@ -14,6 +24,9 @@ import com.fasterxml.jackson.databind.ObjectMapper;
 public class JsonReadUtil {
 
     private static final ObjectMapper MAPPER = new ObjectMapper();
+    private static final JsonFactory PEEK_FACTORY = JsonFactory.builder()
+            .streamReadConstraints(StreamReadConstraints.builder().maxStringLength(Integer.MAX_VALUE).build())
+            .build();
 
     /**
      * Configuration class for the old JSON format.
@@ -28,6 +41,12 @@ public class JsonReadUtil {
         public boolean securityCheck;
         public boolean enableO2;
         public int compareMode = 1;
+        public boolean stream;
+        public String priority; // read by the scheduler before judging
+        public boolean async; // read before queueing
+        public boolean noCache;
+        public String problemId; // judge against a stored problem package instead of inline checkpoints
+        public Integer problemVersion;
     }
 
     /**
@@ -43,6 +62,85 @@ public class JsonReadUtil {
         public boolean enable_security_check;
         public boolean enable_o2;
         public int compare_mode = 1;
+        public boolean stream;
+        public String priority; // read by the scheduler before judging
+        public boolean async; // read before queueing
+        public boolean no_cache;
+        public String problem_id; // judge against a stored problem package instead of inline checkpoints
+        public Integer problem_version;
+    }
+
+    /**
+     * The fields of a JSON configuration that are read before the submission is queued.
+     */
+    public static class SchedulingFields {
+        public String priority; // null if not set
+        public boolean async;
+    }
+
+    /**
+     * Reads the scheduling fields from the top level of a JSON configuration without building
+     * its tree. Every other value, checkpoint data included, is skipped by the tokenizer, so this
+     * is cheap enough for the network thread; the configuration is parsed in full later.
+     *
+     * @param jsonConfig JSON configuration string, may be {@code null}
+     * @return the fields; all unset if the JSON is not a valid object
+     */
+    public static SchedulingFields readSchedulingFields(String jsonConfig) {
+        SchedulingFields fields = new SchedulingFields();
+        if (jsonConfig == null) {
+            return fields;
+        }
+        try (JsonParser parser = PEEK_FACTORY.createParser(jsonConfig)) {
+            if (parser.nextToken() != JsonToken.START_OBJECT) {
+                return fields;
+            }
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                String name = parser.currentName();
+                JsonToken value = parser.nextToken();
+                if (name.equals("priority") && value.isScalarValue()) {
+                    fields.priority = parser.getText();
+                } else if (name.equals("async")) {
+                    fields.async = isTrue(parser, value);
+                } else {
+                    parser.skipChildren();
+                }
+            }
+        } catch (IOException e) {
+            return new SchedulingFields(); // reported when the configuration is parsed in full
+        }
+        return fields;
+    }
+
+    /**
+     * Reads the scheduling fields from an already parsed configuration.
+     *
+     * @param root the parsed JSON configuration, may be {@code null}
+     * @return the fields; all unset if the configuration is missing
+     */
+    public static SchedulingFields readSchedulingFields(JsonNode root) {
+        SchedulingFields fields = new SchedulingFields();
+        if (root != null) {
+            JsonNode priority = root.get("priority");
+            fields.priority = priority != null && priority.isValueNode() ? priority.asText() : null;
+            fields.async = root.path("async").asBoolean();
+        }
+        return fields;
+    }
+
+    /**
+     * Interprets a scalar like {@link JsonNode#asBoolean()} does.
+     */
+    private static boolean isTrue(JsonParser parser, JsonToken value) throws IOException {
+        return switch (value) {
+            case VALUE_TRUE -> true;
+            case VALUE_NUMBER_INT -> parser.getLongValue() != 0;
+            case VALUE_STRING -> parser.getText().trim().equals("true");
+            default -> {
+                parser.skipChildren();
+                yield false;
+            }
+        };
     }
 
     /**
@@ -51,72 +149,77 @@ public class JsonReadUtil {
      * @param jsonConfig JSON configuration string to parse
      * @param useOldFormat if {@code true}, parses using the old format ({@code timeLimit}, {@code memLimit}, etc.);
      *                     if {@code false}, parses using the new format ({@code time_limit}, {@code mem_limit}, etc.)
-     * @return a {@link ConfigResult} object containing the parsed configuration values and checkpoint count
+     * @return the {@link ProblemConfig} read from the JSON
      * @throws Exception if JSON parsing fails or if the JSON structure is invalid
      */
-    public static ConfigResult parseConfig(String jsonConfig, boolean useOldFormat) throws Exception {
-        JsonNode root = MAPPER.readTree(jsonConfig);
+    public static ProblemConfig parseConfig(String jsonConfig, boolean useOldFormat) throws Exception {
+        return parseConfig(MAPPER.readTree(jsonConfig), useOldFormat);
+    }
 
-        int timeLimit, memLimit;
-        JsonNode checkpoints;
-        boolean securityCheck;
-        boolean enableO2;
-        int compareMode;
+    /**
+     * Reads an already parsed and validated JSON configuration into a {@link ProblemConfig}.
+     * Checkpoint data is taken over as it is; nothing is parsed or copied again.
+     *
+     * @param root         the parsed JSON configuration
+     * @param useOldFormat if {@code true}, reads the old format; otherwise the new format
+     * @return the {@link ProblemConfig} read from the JSON
+     * @throws Exception if the JSON structure is invalid
+     */
+    public static ProblemConfig parseConfig(JsonNode root, boolean useOldFormat) throws Exception {
+        return parseConfig(root, useOldFormat, Map.of());
+    }
 
+    /**
+     * Reads a streamed JSON configuration into a {@link ProblemConfig}. Checkpoints whose data
+     * was spilled refer to the spill files instead of the (empty) values in the tree.
+     *
+     * @param root          the configuration without checkpoint data, see {@link SpilledConfig#getRoot()}
+     * @param useOldFormat  if {@code true}, reads the old format; otherwise the new format
+     * @param spilledValues spill files keyed by {@link SpilledConfig#key(String, String, boolean)}
+     * @return the {@link ProblemConfig} read from the JSON
+     * @throws Exception if the JSON structure is invalid
+     */
+    public static ProblemConfig parseConfig(JsonNode root, boolean useOldFormat, Map<String, File> spilledValues) throws Exception {
+        ProblemConfig.Builder builder = ProblemConfig.builder().useOldFormat(useOldFormat);
+        JsonNode checkpoints;
         if (useOldFormat) {
             OldConfig config = MAPPER.treeToValue(root, OldConfig.class);
-            timeLimit = config.timeLimit;
-            memLimit = config.memLimit;
+            builder.timeLimit(config.timeLimit).memLimit(config.memLimit).securityCheck(config.securityCheck).enableO2(config.enableO2).compareMode(config.compareMode).stream(config.stream).priority(config.priority).noCache(config.noCache).problemId(config.problemId).problemVersion(config.problemVersion);
             checkpoints = config.checkpoints;
-            securityCheck = config.securityCheck;
-            enableO2 = config.enableO2;
-            compareMode = config.compareMode;
         } else {
             NewConfig config = MAPPER.treeToValue(root, NewConfig.class);
-            timeLimit = config.time_limit;
-            memLimit = config.mem_limit;
+            builder.timeLimit(config.time_limit).memLimit(config.mem_limit).securityCheck(config.enable_security_check).enableO2(config.enable_o2).compareMode(config.compare_mode).stream(config.stream).priority(config.priority).noCache(config.no_cache).problemId(config.problem_id).problemVersion(config.problem_version);
             checkpoints = config.checkpoints;
-            securityCheck = config.enable_security_check;
-            enableO2 = config.enable_o2;
-            compareMode = config.compare_mode;
         }
 
-        int checkpointsCount;
-        if (useOldFormat) {
-            checkpointsCount = checkpoints.size() / 2;
-        } else {
-            checkpointsCount = checkpoints.size();
-        }
-
-        return new ConfigResult(timeLimit, memLimit, checkpoints, securityCheck, enableO2, compareMode, checkpointsCount, useOldFormat);
-    }
-
-    /**
-     * Container class for the results of JSON configuration parsing.
-     * <p>
-     * This immutable class holds all the extracted configuration parameters
-     * and computed values from the JSON parsing process.
-     * </p>
-     */
-    public static class ConfigResult {
-        public final int timeLimit;
-        public final int memLimit;
-        public final JsonNode checkpoints;
-        public final boolean securityCheck;
-        public final boolean enableO2;
-        public final int compareMode;
-        public final int checkpointsCount;
-        public final boolean useOldFormat;
-
-        public ConfigResult(int timeLimit, int memLimit, JsonNode checkpoints, boolean securityCheck, boolean enableO2, int compareMode, int checkpointsCount, boolean useOldFormat) {
-            this.timeLimit = timeLimit;
-            this.memLimit = memLimit;
-            this.checkpoints = checkpoints;
-            this.securityCheck = securityCheck;
-            this.enableO2 = enableO2;
-            this.compareMode = compareMode;
-            this.checkpointsCount = checkpointsCount;
-            this.useOldFormat = useOldFormat;
+        if (checkpoints != null) {
+            int checkpointsCount = useOldFormat ? checkpoints.size() / 2 : checkpoints.size();
+            for (int i = 1; i <= checkpointsCount; i++) {
+                JsonNode input;
+                JsonNode output;
+                if (useOldFormat) {
+                    input = checkpoints.get(i + "_in");
+                    output = checkpoints.get(i + "_out");
+                } else {
+                    JsonNode checkpoint = checkpoints.path(String.valueOf(i));
+                    input = checkpoint.get("in");
+                    output = checkpoint.get("out");
+                }
+                if (input == null || output == null) {
+                    throw new IllegalArgumentException("Checkpoints must be numbered from 1 without gaps, checkpoint " + i + " is missing");
+                }
+                String id = String.valueOf(i);
+                File inputFile = spilledValues.get(SpilledConfig.key(id, useOldFormat ? i + "_in" : "in", useOldFormat));
+                File outputFile = spilledValues.get(SpilledConfig.key(id, useOldFormat ? i + "_out" : "out", useOldFormat));
+                if (inputFile != null && outputFile != null) {
+                    builder.addCheckpoint(inputFile, outputFile);
+                } else if (inputFile == null && outputFile == null) {
+                    builder.addCheckpoint(input.asText(), output.asText());
+                } else {
+                    throw new IllegalArgumentException("Checkpoint " + i + " was only partially received");
+                }
+            }
         }
+        return builder.build();
     }
-}
\ No newline at end of file
+}
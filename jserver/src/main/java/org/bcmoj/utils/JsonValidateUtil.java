@@ -4,13 +4,17 @@ import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import lombok.Getter;
 import lombok.extern.slf4j.Slf4j;
+import org.bcmoj.config.ProblemConfig;
 import org.everit.json.schema.Schema;
 import org.everit.json.schema.loader.SchemaLoader;
+import org.json.JSONArray;
 import org.json.JSONObject;
 import org.json.JSONTokener;
 
+import java.io.File;
 import java.io.InputStream;
 import java.util.Iterator;
+import java.util.Map;
 
 /**
  * Utility class for validating JSON configurations against a predefined JSON Schema.
@@ -18,6 +22,8 @@ import java.util.Iterator;
  * This class loads a JSON Schema from the resource "/problem.schema.json" and validates
  * input JSON strings against it. It also ensures that checkpoint input/output pairs
  * are properly matched (i.e., every "_in" key has a corresponding "_out" key and vice versa).
+ * {@link #read(JsonNode, boolean)} does the same for an already parsed configuration and returns
+ * it as a {@link ProblemConfig}, so a request is parsed only once.
  * </p>
  * <p>
  * If validation fails, it records the last error result as a JSON string that can be
@@ -65,22 +71,102 @@ public class JsonValidateUtil {
      *         On failure, {@link #lastErrorJson} will be set to a JSON string describing the error.
      */
     public boolean validate(String jsonConfig, boolean useOldFormat) {
+        JsonNode root;
+        try {
+            root = mapper.readTree(jsonConfig);
+        } catch (Exception e) {
+            log.error("Schema validation failed", e);
+            lastErrorJson = JudgeResultUtil.buildResult(null, false, true, 1);
+            return false;
+        }
+        return validate(root, useOldFormat);
+    }
+
+    /**
+     * Validates an already parsed JSON configuration, see {@link #validate(String, boolean)}.
+     *
+     * @param root         the parsed JSON configuration
+     * @param useOldFormat if true, uses the old schema format; if false, uses the new schema format
+     * @return {@code true} if the JSON is valid and all checkpoint pairs are matched; {@code false} otherwise.
+     */
+    public boolean validate(JsonNode root, boolean useOldFormat) {
+        return read(root, useOldFormat) != null;
+    }
+
+    /**
+     * Validates an already parsed JSON configuration and reads it into a {@link ProblemConfig}.
+     * <p>
+     * The schema is checked against an org.json view of the same tree. The view is built by
+     * walking the nodes, and the checkpoint strings are shared rather than printed and parsed again.
+     * </p>
+     *
+     * @param root         the parsed JSON configuration
+     * @param useOldFormat if true, uses the old schema format; if false, uses the new schema format
+     * @return the configuration, or {@code null} if it is invalid; {@link #lastErrorJson} then describes the error
+     */
+    public ProblemConfig read(JsonNode root, boolean useOldFormat) {
+        return read(root, useOldFormat, Map.of());
+    }
+
+    /**
+     * Validates a streamed JSON configuration and reads it into a {@link ProblemConfig} whose
+     * checkpoints refer to the spill files, see {@link JsonReadUtil#parseConfig(JsonNode, boolean, Map)}.
+     *
+     * @param root          the configuration without checkpoint data
+     * @param useOldFormat  if true, uses the old schema format; if false, uses the new schema format
+     * @param spilledValues spill files of the checkpoint data
+     * @return the configuration, or {@code null} if it is invalid; {@link #lastErrorJson} then describes the error
+     */
+    public ProblemConfig read(JsonNode root, boolean useOldFormat, Map<String, File> spilledValues) {
+        JsonNode checkpoints = root.get("checkpoints");
         try {
-            JsonNode root = mapper.readTree(jsonConfig);
-            JSONObject jsonObj = new JSONObject(mapper.writeValueAsString(root));
             Schema selectedSchema = useOldFormat ? oldSchema : schema;
-            selectedSchema.validate(jsonObj);
-            JsonNode checkpoints = root.get("checkpoints");
-            boolean inOutOk = useOldFormat ? checkInOutPairsOldFormat(checkpoints) : checkInOutPairsNewFormat(checkpoints);
-            if (inOutOk) {
-                log.info("JSON validation passed (format: {})", useOldFormat ? "old" : "new");
+            selectedSchema.validate(toJsonObject(root));
+            boolean storedProblem = checkpoints == null && root.hasNonNull(useOldFormat ? "problemId" : "problem_id");
+            if (!storedProblem && !(useOldFormat ? checkInOutPairsOldFormat(checkpoints) : checkInOutPairsNewFormat(checkpoints))) {
+                return null;
             }
-            return inOutOk;
+            ProblemConfig config = JsonReadUtil.parseConfig(root, useOldFormat, spilledValues);
+            log.info("JSON validation passed (format: {}{})", useOldFormat ? "old" : "new", storedProblem ? ", stored problem" : "");
+            return config;
+        } catch (IllegalArgumentException e) {
+            fail(e.getMessage(), checkpoints, useOldFormat);
+            return null;
         } catch (Exception e) {
             log.error("Schema validation failed", e);
             lastErrorJson = JudgeResultUtil.buildResult(null, false, true, 1);
-            return false;
+            return null;
+        }
+    }
+
+    /**
+     * Builds the org.json equivalent of a Jackson tree for the schema validator.
+     */
+    private static Object toJsonValue(JsonNode node) {
+        if (node.isObject()) {
+            return toJsonObject(node);
+        }
+        if (node.isArray()) {
+            JSONArray array = new JSONArray();
+            node.forEach(element -> array.put(toJsonValue(element)));
+            return array;
+        }
+        if (node.isTextual()) {
+            return node.textValue();
         }
+        if (node.isBoolean()) {
+            return node.booleanValue();
+        }
+        if (node.isNumber()) {
+            return node.numberValue();
+        }
+        return JSONObject.NULL;
+    }
+
+    private static JSONObject toJsonObject(JsonNode node) {
+        JSONObject object = new JSONObject();
+        node.fields().forEachRemaining(field -> object.put(field.getKey(), toJsonValue(field.getValue())));
+        return object;
     }
 
     /**
@@ -12,9 +12,10 @@ import java.util.List;
  * <p>
  * This class generates JSON output for judge results in either of two formats:
  * <ul>
- *     <li>Old format: flat structure with keys like "1_res", "1_time", "1_mem"</li>
+ *     <li>Old format: flat structure with keys like "1_res", "1_time", "1_cpu_time", "1_mem"</li>
  *     <li>New format: structured object with "checkpoints" containing individual result objects</li>
  * </ul>
+ * "time" is the wall-clock time and "cpu_time" the CPU time of a run, both in milliseconds.
  * </p>
  * <p>
  * The class handles special cases such as security check failures and system errors,
@@ -59,17 +60,18 @@ public class JudgeResultUtil {
         class CP {
             final int res;
             final double time;
+            final double cpuTime;
             final long mem;
-            CP(int res, double time, long mem) { this.res = res; this.time = time; this.mem = mem; }
+            CP(int res, double time, double cpuTime, long mem) { this.res = res; this.time = time; this.cpuTime = cpuTime; this.mem = mem; }
         }
         java.util.function.IntFunction<CP> getCP = (i) -> {
             if (isSecurityCheckFailed) {
-                return new CP(-5, 0.0, 0L);
+                return new CP(-5, 0.0, 0.0, 0L);
             } else if (isSystemError) {
-                return new CP(5, 0.0, 0L);
+                return new CP(5, 0.0, 0.0, 0L);
             } else {
                 Judger.JudgeResult result = results.get(i);
-                return new CP(result.statusCode, result.time, result.maxMemoryUsedKB);
+                return new CP(result.statusCode, result.time, result.cpuTime, result.maxMemoryUsedKB);
             }
         };
 
@@ -79,6 +81,7 @@ public class JudgeResultUtil {
                     CP cp = getCP.apply(i);
                     root.put((i + 1) + "_res", cp.res);
                     root.put((i + 1) + "_time", cp.time);
+                    root.put((i + 1) + "_cpu_time", cp.cpuTime);
                     root.put((i + 1) + "_mem", cp.mem);
                 }
             } else {
@@ -88,6 +91,7 @@ public class JudgeResultUtil {
                     ObjectNode single = mapper.createObjectNode();
                     single.put("res", cp.res);
                     single.put("time", cp.time);
+                    single.put("cpu_time", cp.cpuTime);
                     single.put("mem", cp.mem);
                     checkpointsNode.set(String.valueOf(i + 1), single);
                 }
@@ -103,6 +107,7 @@ public class JudgeResultUtil {
                 for (int i = 0; i < checkpointsCount; i++) {
                     errorNode.put((i + 1) + "_res", 5);
                     errorNode.put((i + 1) + "_time", 0.0);
+                    errorNode.put((i + 1) + "_cpu_time", 0.0);
                     errorNode.put((i + 1) + "_mem", 0L);
                 }
             } else {
@@ -111,6 +116,7 @@ public class JudgeResultUtil {
                     ObjectNode single = mapper.createObjectNode();
                     single.put("res", 5);
                     single.put("time", 0.0);
+                    single.put("cpu_time", 0.0);
                     single.put("mem", 0L);
                     cp.set(String.valueOf(i + 1), single);
                 }
@@ -119,4 +125,34 @@ public class JudgeResultUtil {
             return errorNode.toString();
         }
     }
-}
\ No newline at end of file
+
+    /**
+     * Builds the JSON for a single checkpoint, used when results are streamed one by one.
+     * The shape matches the corresponding entry of {@link #buildResult}, so a client can merge
+     * streamed results the same way it reads a complete response.
+     *
+     * @param checkpoint the 1-based checkpoint number
+     * @param result the checkpoint's verdict
+     * @param useOldFormat if true, generates flat keys ({@code 3_res}, ...);
+     *                     if false, a {@code checkpoints} object with one entry
+     * @return JSON string containing the single checkpoint result
+     */
+    public static String buildCheckpointResult(int checkpoint, Judger.JudgeResult result, boolean useOldFormat) {
+        ObjectMapper mapper = new ObjectMapper();
+        ObjectNode root = mapper.createObjectNode();
+        if (useOldFormat) {
+            root.put(checkpoint + "_res", result.statusCode);
+            root.put(checkpoint + "_time", result.time);
+            root.put(checkpoint + "_cpu_time", result.cpuTime);
+            root.put(checkpoint + "_mem", result.maxMemoryUsedKB);
+        } else {
+            ObjectNode single = mapper.createObjectNode();
+            single.put("res", result.statusCode);
+            single.put("time", result.time);
+            single.put("cpu_time", result.cpuTime);
+            single.put("mem", result.maxMemoryUsedKB);
+            root.putObject("checkpoints").set(String.valueOf(checkpoint), single);
+        }
+        return root.toString();
+    }
+}
@@ -0,0 +1,384 @@
+package org.bcmoj.utils;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.core.StreamReadConstraints;
+import com.fasterxml.jackson.core.async.ByteBufferFeeder;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ContainerNode;
+import com.fasterxml.jackson.databind.node.JsonNodeFactory;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import lombok.extern.slf4j.Slf4j;
+import org.bcmoj.cache.CheckpointDataCache;
+import org.bcmoj.config.SpilledConfig;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.UUID;
+import java.util.regex.Pattern;
+
+/**
+ * Incremental parser for large judge configurations, built on Jackson's non-blocking parser.
+ *
+ * <p>The configuration is fed in chunks as it arrives from the network with {@link #feed(ByteBuffer)}
+ * and is never held as one string or one tree. Each checkpoint {@code in}/{@code out} value
+ * (old format: {@code N_in}/{@code N_out}) is unescaped with {@link StringUtil#unescapingWriter(Writer)}
+ * and handed to a {@link SpillWriter} for its own file in the spill directory as soon as it is
+ * complete. Only the small remainder of the configuration is kept as a tree, see
+ * {@link SpilledConfig}. Jackson still buffers one string value while it is being tokenized, so
+ * the memory needed is bounded by the largest single checkpoint value rather than by the whole
+ * problem.</p>
+ *
+ * <p>Without a writer of their own, values are written with blocking I/O. The network decoders
+ * pass one that writes asynchronously, since they feed the parser on the event loop.</p>
+ *
+ * <p>Checkpoint references ({@code in_ref}/{@code out_ref}) are resolved against the
+ * {@link CheckpointDataCache} while parsing, and the cached data is spilled like inline data.
+ * Digests that are not cached are reported by {@link SpilledConfig#getMissingRefs()}.</p>
+ *
+ * <p>Malformed JSON does not throw: the rest of the input is ignored and {@link #finish()}
+ * returns a configuration without a root, which is then answered like any invalid configuration.
+ * An instance is used from a single thread (the channel's event loop).</p>
+ *
+ * @author SleepingCui
+ */
+@Slf4j
+public class StreamingConfigParser {
+    /** Longest string kept in the tree; only checkpoint data may be longer. */
+    static final int MAX_INLINE_VALUE_CHARS = 64 * 1024;
+    private static final String REF_SUFFIX = "_ref";
+    private static final Pattern OLD_FORMAT_DATA = Pattern.compile("[1-9][0-9]*_(in|out)");
+    private static final JsonFactory FACTORY = JsonFactory.builder()
+            .streamReadConstraints(StreamReadConstraints.builder().maxStringLength(Integer.MAX_VALUE).build())
+            .build();
+    private static final JsonNodeFactory NODES = JsonNodeFactory.instance;
+
+    private final File spillDir;
+    private final boolean useOldFormat;
+    private final CheckpointDataCache checkpointCache;
+    private final SpillWriter spillWriter;
+    private final JsonParser parser;
+    private final ByteBufferFeeder feeder;
+
+    private final Deque<ContainerNode<?>> containers = new ArrayDeque<>();
+    private final Deque<String> containerNames = new ArrayDeque<>();
+    private final Map<String, File> spilledValues = new HashMap<>();
+    private final Map<String, String> missingRefs = new LinkedHashMap<>();
+    private JsonNode root;
+    private String fieldName;
+    private int spillFiles;
+    private long receivedBytes;
+    private boolean failed;
+
+    /**
+     * @param spillDir        directory for the checkpoint data; created here and owned by the
+     *                        returned {@link SpilledConfig}
+     * @param useOldFormat    whether the configuration uses the old format
+     * @param checkpointCache cache used to resolve checkpoint references, may be {@code null}
+     * @throws IOException if the spill directory cannot be created
+     */
+    public StreamingConfigParser(File spillDir, boolean useOldFormat, CheckpointDataCache checkpointCache) throws IOException {
+        this(spillDir, useOldFormat, checkpointCache, StreamingConfigParser::writeBlocking);
+    }
+
+    /**
+     * @param spillDir        directory for the checkpoint data; created here and owned by the
+     *                        returned {@link SpilledConfig}
+     * @param useOldFormat    whether the configuration uses the old format
+     * @param checkpointCache cache used to resolve checkpoint references, may be {@code null}
+     * @param spillWriter     writes the spilled checkpoint values
+     * @throws IOException if the spill directory cannot be created
+     */
+    public StreamingConfigParser(File spillDir, boolean useOldFormat, CheckpointDataCache checkpointCache, SpillWriter spillWriter) throws IOException {
+        this.spillDir = Files.createDirectories(spillDir.toPath()).toFile();
+        this.useOldFormat = useOldFormat;
+        this.checkpointCache = checkpointCache;
+        this.spillWriter = spillWriter;
+        this.parser = FACTORY.createNonBlockingByteBufferParser();
+        this.feeder = (ByteBufferFeeder) parser.getNonBlockingInputFeeder();
+    }
+
+    /**
+     * Parses the next chunk of the configuration. The buffer is fully consumed before this
+     * method returns and may be reused afterwards.
+     *
+     * @param chunk the bytes received
+     */
+    public void feed(ByteBuffer chunk) {
+        receivedBytes += chunk.remaining();
+        if (failed) {
+            return;
+        }
+        try {
+            feeder.feedInput(chunk);
+            drain();
+        } catch (IOException e) {
+            fail(e);
+        }
+    }
+
+    /**
+     * Completes parsing after the last chunk.
+     *
+     * @return the parsed configuration; its root is {@code null} if the input was not valid JSON
+     */
+    public SpilledConfig finish() {
+        if (!failed) {
+            try {
+                feeder.endOfInput();
+                drain();
+                if (root == null || !containers.isEmpty()) {
+                    throw new IOException("Unexpected end of JSON config");
+                }
+            } catch (IOException e) {
+                fail(e);
+            }
+        }
+        closeParser();
+        log.info("Streamed JSON config ({} bytes), spilled {} checkpoint value(s) to {}", receivedBytes, spilledValues.size(), spillDir);
+        return new SpilledConfig(failed ? null : root, spilledValues, new ArrayList<>(new LinkedHashSet<>(missingRefs.values())), spillDir, receivedBytes);
+    }
+
+    /**
+     * Stops parsing and deletes everything spilled so far, e.g. when the client disconnects.
+     */
+    public void abort() {
+        closeParser();
+        FileUtil.deleteRecursively(spillDir);
+    }
+
+    /**
+     * Receives the checkpoint values the parser spills, one complete value per call.
+     */
+    @FunctionalInterface
+    public interface SpillWriter {
+        /**
+         * Writes one value to a new file. The write may still be in progress when this returns.
+         *
+         * @param file the file to create
+         * @param data the unescaped value as UTF-8
+         * @throws IOException if the write cannot be started
+         */
+        void write(File file, ByteBuffer data) throws IOException;
+    }
+
+    /**
+     * Decides which configurations are streamed and creates their parsers, one spill
+     * directory per configuration under the workspace directory.
+     */
+    public static class Factory {
+        private final int threshold;
+        private final File workspaceDir;
+        private final boolean useOldFormat;
+        private final CheckpointDataCache checkpointCache;
+
+        /**
+         * @param threshold       configurations longer than this many bytes are streamed; 0 disables streaming
+         * @param workspaceDir    directory that receives the spill directories
+         * @param useOldFormat    whether configurations use the old format
+         * @param checkpointCache cache used to resolve checkpoint references, may be {@code null}
+         */
+        public Factory(int threshold, File workspaceDir, boolean useOldFormat, CheckpointDataCache checkpointCache) {
+            this.threshold = threshold;
+            this.workspaceDir = workspaceDir;
+            this.useOldFormat = useOldFormat;
+            this.checkpointCache = checkpointCache;
+        }
+
+        /**
+         * @param length length of the configuration in bytes
+         * @return {@code true} if the configuration should be streamed
+         */
+        public boolean shouldStream(long length) {
+            return threshold > 0 && length > threshold;
+        }
+
+        /**
+         * @return a parser with a new spill directory
+         * @throws IOException if the spill directory cannot be created
+         */
+        public StreamingConfigParser create() throws IOException {
+            return create(StreamingConfigParser::writeBlocking);
+        }
+
+        /**
+         * @param spillWriter writes the spilled checkpoint values
+         * @return a parser with a new spill directory
+         * @throws IOException if the spill directory cannot be created
+         */
+        public StreamingConfigParser create(SpillWriter spillWriter) throws IOException {
+            return new StreamingConfigParser(new File(workspaceDir, "spill-" + UUID.randomUUID()), useOldFormat, checkpointCache, spillWriter);
+        }
+    }
+
+    private void drain() throws IOException {
+        JsonToken token;
+        while ((token = parser.nextToken()) != null && token != JsonToken.NOT_AVAILABLE) {
+            switch (token) {
+                case START_OBJECT -> push(NODES.objectNode());
+                case START_ARRAY -> push(NODES.arrayNode());
+                case END_OBJECT, END_ARRAY -> {
+                    containers.pop();
+                    containerNames.pop();
+                }
+                case FIELD_NAME -> fieldName = parser.currentName();
+                case VALUE_STRING -> string();
+                case VALUE_NUMBER_INT -> attach(switch (parser.getNumberType()) {
+                    case INT -> NODES.numberNode(parser.getIntValue());
+                    case LONG -> NODES.numberNode(parser.getLongValue());
+                    default -> NODES.numberNode(parser.getBigIntegerValue());
+                });
+                case VALUE_NUMBER_FLOAT -> attach(NODES.numberNode(parser.getDoubleValue()));
+                case VALUE_TRUE, VALUE_FALSE -> attach(NODES.booleanNode(token == JsonToken.VALUE_TRUE));
+                case VALUE_NULL -> attach(NODES.nullNode());
+                default -> throw new IOException("Unexpected token " + token);
+            }
+        }
+    }
+
+    private void push(ContainerNode<?> container) throws IOException {
+        String name = containers.peek() instanceof ObjectNode ? fieldName : "";
+        attach(container);
+        containers.push(container);
+        containerNames.push(name);
+    }
+
+    private void attach(JsonNode value) throws IOException {
+        ContainerNode<?> parent = containers.peek();
+        if (parent == null) {
+            if (root != null) {
+                throw new IOException("Unexpected data after the JSON config");
+            }
+            root = value;
+        } else if (parent instanceof ObjectNode object) {
+            object.set(fieldName, value);
+        } else {
+            ((ArrayNode) parent).add(value);
+        }
+    }
+
+    private void string() throws IOException {
+        String checkpoint = checkpointOf();
+        if (checkpoint != null && isDataField(fieldName)) {
+            spill(SpilledConfig.key(checkpoint, fieldName, useOldFormat), null);
+            attach(NODES.textNode(""));
+            return;
+        }
+        if (parser.getTextLength() > MAX_INLINE_VALUE_CHARS) {
+            throw new IOException("Value of '" + fieldName + "' is too long (" + parser.getTextLength() + " chars)");
+        }
+        String value = parser.getText();
+        if (checkpoint != null && fieldName.endsWith(REF_SUFFIX) && isDataField(fieldName.substring(0, fieldName.length() - REF_SUFFIX.length()))) {
+            resolveRef(checkpoint, fieldName.substring(0, fieldName.length() - REF_SUFFIX.length()), value);
+            return;
+        }
+        attach(NODES.textNode(value));
+    }
+
+    /**
+     * Replaces a checkpoint reference by the cached data, or records it as missing.
+     */
+    private void resolveRef(String checkpoint, String target, String digest) throws IOException {
+        String key = SpilledConfig.key(checkpoint, target, useOldFormat);
+        ObjectNode fields = (ObjectNode) containers.peek();
+        if (fields.has(target)) {
+            return; // inline data wins, as in CheckpointDataCache#resolve
+        }
+        String data = checkpointCache != null ? checkpointCache.get(digest) : null;
+        if (data == null) {
+            missingRefs.put(key, digest.toLowerCase());
+            return;
+        }
+        spill(key, data);
+        fields.put(target, "");
+    }
+
+    /**
+     * Writes one checkpoint value to its own file, either the current string token or the given data.
+     */
+    private void spill(String key, String data) throws IOException {
+        File file = new File(spillDir, "cp-" + (++spillFiles) + ".dat");
+        SpillBuffer bytes = new SpillBuffer();
+        try (Writer writer = StringUtil.unescapingWriter(new OutputStreamWriter(bytes, StandardCharsets.UTF_8))) {
+            if (data != null) {
+                writer.write(data);
+            } else {
+                parser.getText(writer);
+            }
+        }
+        spillWriter.write(file, bytes.contents());
+        spilledValues.put(key, file);
+        missingRefs.remove(key);
+    }
+
+    /**
+     * @return the id of the checkpoint the current value belongs to, or {@code null} if it is
+     *         not directly inside a checkpoint (old format: {@code ""} for the checkpoints object)
+     */
+    private String checkpointOf() {
+        if (!(containers.peek() instanceof ObjectNode)) {
+            return null;
+        }
+        if (useOldFormat) {
+            return containers.size() == 2 && "checkpoints".equals(containerNames.peek()) ? "" : null;
+        }
+        if (containers.size() != 3) {
+            return null;
+        }
+        String checkpoint = containerNames.pop();
+        String parent = containerNames.peek();
+        containerNames.push(checkpoint);
+        return "checkpoints".equals(parent) ? checkpoint : null;
+    }
+
+    private boolean isDataField(String name) {
+        return useOldFormat ? OLD_FORMAT_DATA.matcher(name).matches() : "in".equals(name) || "out".equals(name);
+    }
+
+    private static void writeBlocking(File file, ByteBuffer data) throws IOException {
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE)) {
+            while (data.hasRemaining()) {
+                channel.write(data);
+            }
+        }
+    }
+
+    /**
+     * Byte buffer of one unescaped value whose contents can be handed on without a copy.
+     */
+    private static class SpillBuffer extends ByteArrayOutputStream {
+        ByteBuffer contents() {
+            return ByteBuffer.wrap(buf, 0, count);
+        }
+    }
+
+    private void fail(IOException e) {
+        failed = true;
+        log.warn("Invalid streamed JSON config: {}", e.getMessage());
+    }
+
+    private void closeParser() {
+        try {
+            parser.close();
+        } catch (IOException e) {
+            log.debug("Failed to close config parser: {}", e.getMessage());
+        }
+    }
+}
@@ -1,5 +1,8 @@
 package org.bcmoj.utils;
 
+import java.io.FilterWriter;
+import java.io.IOException;
+import java.io.Writer;
 import java.util.Map;
 
 /**
@@ -39,4 +42,59 @@ public class StringUtil {
         }
         return sb.toString();
     }
+
+    /**
+     * Wraps a writer so that everything written through it is unescaped the same way as by
+     * {@link #unescapeString(String)}, without holding the text in memory. An escape sequence
+     * may be split across two writes.
+     *
+     * @param out the writer receiving the unescaped text
+     * @return the unescaping writer; closing it closes {@code out}
+     */
+    public static Writer unescapingWriter(Writer out) {
+        return new FilterWriter(out) {
+            private boolean pendingBackslash;
+
+            @Override
+            public void write(int c) throws IOException {
+                if (pendingBackslash) {
+                    pendingBackslash = false;
+                    Character unescaped = ESCAPE_MAP.get((char) c);
+                    if (unescaped != null) {
+                        out.write(unescaped);
+                        return;
+                    }
+                    out.write('\\');
+                }
+                if (c == '\\') {
+                    pendingBackslash = true;
+                } else {
+                    out.write(c);
+                }
+            }
+
+            @Override
+            public void write(char[] chars, int off, int len) throws IOException {
+                for (int i = off; i < off + len; i++) {
+                    write(chars[i]);
+                }
+            }
+
+            @Override
+            public void write(String str, int off, int len) throws IOException {
+                for (int i = off; i < off + len; i++) {
+                    write(str.charAt(i));
+                }
+            }
+
+            @Override
+            public void close() throws IOException {
+                if (pendingBackslash) {
+                    pendingBackslash = false;
+                    out.write('\\');
+                }
+                super.close();
+            }
+        };
+    }
 }
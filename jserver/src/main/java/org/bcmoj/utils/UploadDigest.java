@@ -0,0 +1,206 @@
+package org.bcmoj.utils;
+
+import lombok.Getter;
+import org.apache.commons.codec.binary.Hex;
+
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.zip.CRC32C;
+
+/**
+ * Digests of an upload, computed from the receive buffers while the request arrives.
+ *
+ * <p>The decoders feed the source bytes, then the JSON config bytes, into this class from the
+ * same buffers they store or parse, so a declared hash can be checked without reading the
+ * source again. For every algorithm two values are kept: one over the source only, and one over
+ * the source followed by the config.</p>
+ *
+ * <p>A declared hash has the form {@code [<algorithm>[+config]:]<hex>}. A bare hex string is a
+ * SHA-256 over the source, which is what clients have always sent. {@code crc32c} is a cheap
+ * integrity check (8 hex digits) for clients that only guard against transport errors;
+ * {@code +config} extends the check to the JSON config. Examples: {@code 3f2a...},
+ * {@code sha256+config:3f2a...}, {@code crc32c:1a2b3c4d}.</p>
+ *
+ * <p>An instance is used from a single thread (the channel's event loop).</p>
+ *
+ * @author SleepingCui
+ */
+public class UploadDigest {
+
+    /**
+     * Digest algorithms a client may declare.
+     */
+    public enum Algorithm {
+        SHA256,
+        CRC32C;
+
+        /**
+         * @return the name used in declared hashes and the v2 handshake
+         */
+        public String wireName() {
+            return name().toLowerCase();
+        }
+
+        /**
+         * @param name the wire name
+         * @return the algorithm, or {@code null} if it is not supported
+         */
+        public static Algorithm fromWireName(String name) {
+            for (Algorithm algorithm : values()) {
+                if (algorithm.wireName().equalsIgnoreCase(name)) {
+                    return algorithm;
+                }
+            }
+            return null;
+        }
+    }
+
+    /**
+     * A hash declared by the client, split into its parts.
+     */
+    @Getter
+    public static class Declared {
+        private final Algorithm algorithm;
+        private final boolean coversConfig;
+        private final String hex;
+
+        private Declared(Algorithm algorithm, boolean coversConfig, String hex) {
+            this.algorithm = algorithm;
+            this.coversConfig = coversConfig;
+            this.hex = hex;
+        }
+
+        /**
+         * @param declared the hash string sent by the client
+         * @return the parsed hash, or {@code null} if its algorithm is not supported
+         */
+        public static Declared parse(String declared) {
+            int colon = declared.indexOf(':');
+            if (colon < 0) {
+                return new Declared(Algorithm.SHA256, false, declared.trim());
+            }
+            String spec = declared.substring(0, colon).trim();
+            boolean coversConfig = spec.endsWith("+config");
+            Algorithm algorithm = Algorithm.fromWireName(coversConfig ? spec.substring(0, spec.length() - "+config".length()) : spec);
+            return algorithm == null ? null : new Declared(algorithm, coversConfig, declared.substring(colon + 1).trim());
+        }
+    }
+
+    private final MessageDigest sha256;
+    private final CRC32C crc32c;
+    private final Map<Algorithm, String> sourceOnly = new EnumMap<>(Algorithm.class);
+    private boolean configFed;
+
+    /**
+     * @param algorithms the algorithms to compute
+     * @throws NoSuchAlgorithmException if SHA-256 is requested but not available
+     */
+    public UploadDigest(Set<Algorithm> algorithms) throws NoSuchAlgorithmException {
+        sha256 = algorithms.contains(Algorithm.SHA256) ? MessageDigest.getInstance("SHA-256") : null;
+        crc32c = algorithms.contains(Algorithm.CRC32C) ? new CRC32C() : null;
+    }
+
+    /**
+     * Adds source bytes. The buffer's position is advanced; pass a duplicate if it is still needed.
+     *
+     * @param bytes the next source bytes
+     */
+    public void updateSource(ByteBuffer bytes) {
+        update(bytes);
+    }
+
+    /**
+     * Adds source bytes.
+     *
+     * @param bytes the next source bytes
+     */
+    public void updateSource(byte[] bytes) {
+        update(ByteBuffer.wrap(bytes));
+    }
+
+    /**
+     * Marks the end of the source; the source-only values are taken here.
+     */
+    public void endSource() {
+        if (crc32c != null) {
+            sourceOnly.put(Algorithm.CRC32C, current(Algorithm.CRC32C));
+        }
+        if (sha256 != null) {
+            sourceOnly.put(Algorithm.SHA256, current(Algorithm.SHA256));
+        }
+    }
+
+    /**
+     * Adds JSON config bytes, after {@link #endSource()}. The buffer's position is advanced.
+     *
+     * @param bytes the next config bytes
+     */
+    public void updateConfig(ByteBuffer bytes) {
+        configFed = true;
+        update(bytes);
+    }
+
+    /**
+     * @param algorithm    the algorithm
+     * @param coversConfig {@code true} for the value over source and config
+     * @return the lowercase hex value, or {@code null} if the algorithm, or for
+     *         {@code coversConfig} the config, was not fed to it
+     */
+    public String value(Algorithm algorithm, boolean coversConfig) {
+        if ((algorithm == Algorithm.CRC32C ? crc32c : sha256) == null || coversConfig && !configFed) {
+            return null;
+        }
+        return coversConfig ? current(algorithm) : sourceOnly.get(algorithm);
+    }
+
+    /**
+     * @param declared the hash string sent by the client
+     * @return {@code true} if the value needed to check it was computed
+     */
+    public boolean covers(String declared) {
+        Declared parsed = Declared.parse(declared);
+        return parsed != null && value(parsed.getAlgorithm(), parsed.isCoversConfig()) != null;
+    }
+
+    /**
+     * Checks a hash declared by the client against the computed values.
+     *
+     * @param declared the hash string sent by the client
+     * @return {@code true} if it matches
+     */
+    public boolean matches(String declared) {
+        Declared parsed = Declared.parse(declared);
+        if (parsed == null) {
+            return false;
+        }
+        String actual = value(parsed.getAlgorithm(), parsed.isCoversConfig());
+        return actual != null && actual.equalsIgnoreCase(parsed.getHex());
+    }
+
+    private void update(ByteBuffer bytes) {
+        if (crc32c != null) {
+            crc32c.update(sha256 != null ? bytes.duplicate() : bytes);
+        }
+        if (sha256 != null) {
+            sha256.update(bytes);
+        }
+    }
+
+    /**
+     * Value over everything fed so far; the running digest keeps going.
+     */
+    private String current(Algorithm algorithm) {
+        if (algorithm == Algorithm.CRC32C) {
+            return String.format("%08x", crc32c.getValue());
+        }
+        try {
+            return Hex.encodeHexString(((MessageDigest) sha256.clone()).digest());
+        } catch (CloneNotSupportedException e) {
+            throw new IllegalStateException("SHA-256 digest cannot be cloned", e);
+        }
+    }
+}
@@ -0,0 +1,55 @@
+package org.bcmoj.cache;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.nio.file.Files;
+
+import static org.junit.Assert.*;
+
+public class BinaryCacheTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private File executable(String content) throws Exception {
+        File file = folder.newFile();
+        Files.writeString(file.toPath(), content);
+        return file;
+    }
+
+    @Test
+    public void testStoredExecutableSurvivesRestart() throws Exception {
+        File dir = folder.newFolder();
+        String key = BinaryCache.key("ab".repeat(32), "g++", "c++17", false, false);
+        BinaryCache cache = new BinaryCache(dir, 1024);
+        File target = new File(folder.getRoot(), "run1");
+        assertFalse(cache.fetch(key, target));
+        cache.store(key, executable("binary"));
+
+        BinaryCache reopened = new BinaryCache(dir, 1024);
+        assertEquals(1, reopened.size());
+        assertTrue(reopened.fetch(key, target));
+        assertEquals("binary", Files.readString(target.toPath()));
+        assertNotEquals(key, BinaryCache.key("ab".repeat(32), "g++", "c++17", true, false));
+    }
+
+    @Test
+    public void testEvictsLeastRecentlyUsedWithoutBreakingFetchedCopies() throws Exception {
+        BinaryCache cache = new BinaryCache(folder.newFolder(), 10);
+        cache.store("aa01", executable("12345"));
+        cache.store("bb02", executable("12345"));
+        File fetched = new File(folder.getRoot(), "run");
+        assertTrue(cache.fetch("aa01", fetched));
+        cache.store("cc03", executable("12345"));
+
+        assertEquals(2, cache.size());
+        assertFalse(cache.fetch("bb02", new File(folder.getRoot(), "run2")));
+        assertTrue(cache.fetch("cc03", new File(folder.getRoot(), "run3")));
+        cache.store("dd04", executable("1234567890"));
+        assertEquals(1, cache.size());
+        assertEquals("12345", Files.readString(fetched.toPath()));
+    }
+}
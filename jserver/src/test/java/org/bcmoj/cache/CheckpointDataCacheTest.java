@@ -0,0 +1,53 @@
+package org.bcmoj.cache;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.Test;
+
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class CheckpointDataCacheTest {
+
+    private static final ObjectMapper mapper = new ObjectMapper();
+
+    @Test
+    public void testResolvesReferencesToCachedData() throws Exception {
+        CheckpointDataCache cache = new CheckpointDataCache(1024);
+        JsonNode first = mapper.readTree("{\"1\":{\"in\":\"1 2\",\"out\":\"3\"}}");
+        assertTrue(cache.resolve(first, false).isEmpty());
+        assertEquals(2, cache.size());
+
+        String inRef = cache.put("1 2");
+        String outRef = cache.put("3");
+        JsonNode second = mapper.readTree("{\"1\":{\"in_ref\":\"" + inRef + "\",\"out_ref\":\"" + outRef.toUpperCase() + "\"}}");
+        assertTrue(cache.resolve(second, false).isEmpty());
+        assertEquals("1 2", second.get("1").get("in").asText());
+        assertEquals("3", second.get("1").get("out").asText());
+        assertFalse(second.get("1").has("in_ref"));
+    }
+
+    @Test
+    public void testReportsMissingReferencesInOldFormat() throws Exception {
+        CheckpointDataCache cache = new CheckpointDataCache(1024);
+        String missing = "a".repeat(64);
+        JsonNode checkpoints = mapper.readTree("{\"1_in\":\"x\",\"1_out_ref\":\"" + missing + "\",\"2_in_ref\":\"" + missing + "\",\"2_out\":\"y\"}");
+        assertEquals(List.of(missing), cache.resolve(checkpoints, true));
+        assertEquals(2, cache.getMisses());
+    }
+
+    @Test
+    public void testEvictsLeastRecentlyUsedWithinBudget() {
+        CheckpointDataCache cache = new CheckpointDataCache(10);
+        String a = cache.put("aaaa");
+        String b = cache.put("bbbb");
+        assertNotNull(cache.get(a));
+        cache.put("cccc");
+        assertNull(cache.get(b));
+        assertNotNull(cache.get(a));
+        assertTrue(cache.getCurrentBytes() <= 10);
+        cache.put("x".repeat(11));
+        assertEquals(2, cache.size());
+    }
+}
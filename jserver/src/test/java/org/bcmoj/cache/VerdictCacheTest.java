@@ -0,0 +1,60 @@
+package org.bcmoj.cache;
+
+import org.bcmoj.config.ProblemConfig;
+import org.junit.Test;
+
+import java.io.File;
+
+import static org.junit.Assert.*;
+
+public class VerdictCacheTest {
+
+    private static final String ACCEPTED = "{\"checkpoints\":{\"1\":{\"res\":1,\"time\":1.0,\"mem\":0}}}";
+    private static final ToolchainFingerprint TOOLCHAIN = ToolchainFingerprint.of("g++", "c++17", false, false, false, true, 3, new File("kw.txt"));
+
+    @Test
+    public void testHitIsMarkedAndSystemErrorsAreNotStored() throws Exception {
+        VerdictCache cache = new VerdictCache(8, 60_000);
+        String key = VerdictCache.key("AB".repeat(32), VerdictCache.configDigest(config(1000, "contest"), 0), TOOLCHAIN);
+        assertNull(cache.get(key));
+        cache.put(key, ACCEPTED);
+        String hit = cache.get(key);
+        assertTrue(hit.contains("\"cached\":true"));
+        assertTrue(hit.contains("\"res\":1"));
+
+        String other = VerdictCache.key("ab".repeat(32), VerdictCache.configDigest(config(2000, null), 0), TOOLCHAIN);
+        cache.put(other, "{\"1_res\":5,\"1_time\":0.0,\"1_mem\":0}");
+        assertNull(cache.get(other));
+        assertEquals(1, cache.getHits());
+    }
+
+    @Test
+    public void testConfigDigestIgnoresSchedulingSettings() throws Exception {
+        assertEquals(VerdictCache.configDigest(config(1000, "contest"), 0), VerdictCache.configDigest(config(1000, "rejudge"), 0));
+        assertNotEquals(VerdictCache.configDigest(config(1000, null), 0), VerdictCache.configDigest(config(1001, null), 0));
+        assertNotEquals(TOOLCHAIN.getValue(), ToolchainFingerprint.of("g++", "c++17", true, false, false, true, 3, new File("kw.txt")).getValue());
+        assertNotEquals(TOOLCHAIN.getValue(), ToolchainFingerprint.of("g++", "c++17", false, false, false, true, 2, new File("kw.txt")).getValue());
+        assertNotEquals(TOOLCHAIN.getValue(), ToolchainFingerprint.of("g++", "c++17", false, false, false, false, 3, new File("kw.txt")).getValue());
+    }
+
+    @Test
+    public void testEvictsLeastRecentlyUsedAndExpires() throws Exception {
+        VerdictCache cache = new VerdictCache(2, 60_000);
+        cache.put("a", ACCEPTED);
+        cache.put("b", ACCEPTED);
+        assertNotNull(cache.get("a"));
+        cache.put("c", ACCEPTED);
+        assertNull(cache.get("b"));
+        assertNotNull(cache.get("a"));
+
+        VerdictCache shortLived = new VerdictCache(2, 1);
+        shortLived.put("a", ACCEPTED);
+        Thread.sleep(5);
+        assertNull(shortLived.get("a"));
+        assertFalse(new VerdictCache(0, 60_000).isEnabled());
+    }
+
+    private static ProblemConfig config(int timeLimit, String priority) {
+        return ProblemConfig.builder().timeLimit(timeLimit).memLimit(65536).priority(priority).addCheckpoint("1 2", "3").build();
+    }
+}
@@ -0,0 +1,36 @@
+package org.bcmoj.judger;
+
+import org.bcmoj.exceptions.CompileResourceExceededException;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.nio.file.Files;
+
+import static org.junit.Assert.*;
+
+public class CompilerTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testTimeoutIsReportedAsResourceExceeded() throws Exception {
+        File source = folder.newFile("slow.cpp");
+        Files.writeString(source.toPath(), "#include <iostream>\nint main() { std::cout << 1; }\n");
+        File exe = new File(folder.getRoot(), "slow");
+        CompileResourceExceededException e = assertThrows(CompileResourceExceededException.class,
+                () -> Compiler.compileProgram(source, exe, false, false, 1, "g++", "c++11", null, null, CompileLimits.UNLIMITED));
+        assertEquals("time", e.getResource());
+    }
+
+    @Test
+    public void testCompileErrorIsAnExitCode() throws Exception {
+        File source = folder.newFile("broken.cpp");
+        Files.writeString(source.toPath(), "int main() { return }\n");
+        File exe = new File(folder.getRoot(), "broken");
+        CompileLimits limits = CompileLimits.builder().memoryBytes(0).maxPids(0).maxOutputBytes(16).build();
+        assertNotEquals(0, Compiler.compileProgram(source, exe, false, false, 10_000, "g++", "c++11", null, null, limits));
+    }
+}
@@ -62,6 +62,17 @@ public class JudgerTest {
         assertEquals(Judger.REAL_TIME_LIMIT_EXCEEDED, result.statusCode);
     }
 
+    //without the memory limiter nothing accounts CPU time: the wall clock is used for both
+    @Test
+    public void testCpuTimeFallsBackToWallTime() throws IOException {
+        String ciallo = "#include<unistd.h>\nint main(){sleep(2);return 0;}";
+        File cppFile = createTempCppFile(ciallo);
+        File exeFile = compileCppToExe(cppFile);
+        JudgeResult result = Judger.judge(exeFile, "", "", 1000, 5000, MEMORY_LIMIT_KB, CompareMode.STRICT, true, null, false);
+        assertEquals(Judger.REAL_TIME_LIMIT_EXCEEDED, result.statusCode);
+        assertEquals(result.time, result.cpuTime, 0.0);
+    }
+
 
     private File createTempCppFile(String source) throws IOException {
         File tempFile = File.createTempFile("test", ".cpp");
@@ -0,0 +1,39 @@
+package org.bcmoj.judger;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.nio.file.Files;
+
+import static org.junit.Assert.*;
+
+public class PrecompiledHeadersTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testKeyDependsOnFlags() {
+        String key = PrecompiledHeaders.key("g++", "c++17", false, false);
+        assertEquals(key, PrecompiledHeaders.key("g++", "c++17", false, false));
+        assertNotEquals(key, PrecompiledHeaders.key("g++", "c++17", true, false));
+        assertNotEquals(key, PrecompiledHeaders.key("g++", "c++20", false, false));
+        assertNotEquals(key, PrecompiledHeaders.key("g++", "c++17", false, true));
+    }
+
+    @Test
+    public void testSourceWithoutIncludeNeedsNoHeader() throws Exception {
+        File dir = folder.newFolder();
+        PrecompiledHeaders headers = new PrecompiledHeaders(dir);
+        File source = folder.newFile("a.cpp");
+        Files.writeString(source.toPath(), "#include <iostream>\n// #include <bits/stdc++.h>\nint main() {}\n");
+        try {
+            assertNull(headers.includeDirFor(source, "g++", "c++17", false, false));
+            assertArrayEquals(new String[0], dir.list());
+        } finally {
+            headers.close();
+        }
+    }
+}
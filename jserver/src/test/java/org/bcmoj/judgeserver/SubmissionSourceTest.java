@@ -0,0 +1,42 @@
+package org.bcmoj.judgeserver;
+
+import org.bcmoj.utils.FileHashUtil;
+import org.junit.Test;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+
+import static org.junit.Assert.*;
+
+public class SubmissionSourceTest {
+
+    @Test
+    public void testGetFileExtension() {
+        assertEquals(".cpp", SubmissionSource.getFileExtension("1.cpp"));
+        assertEquals("", SubmissionSource.getFileExtension("fuckyou"));
+        assertEquals(".gz", SubmissionSource.getFileExtension("shit.tar.gz"));
+    }
+
+    @Test
+    public void testInMemorySourceIsMaterializedOnce() throws Exception {
+        byte[] code = "int main(){return 0;}".getBytes(StandardCharsets.UTF_8);
+        SubmissionSource source = SubmissionSource.inMemory("main.cpp", code);
+        File workspace = Files.createTempDirectory("workspace_").toFile();
+        try {
+            assertTrue(source.isInMemory());
+            assertEquals(0, workspace.list().length);
+            assertEquals(FileHashUtil.calculateSHA256(code), source.sha256());
+
+            File file = source.materialize(workspace);
+            assertSame(file, source.materialize(workspace));
+            assertTrue(file.getName().endsWith(".cpp"));
+            assertArrayEquals(code, Files.readAllBytes(file.toPath()));
+
+            source.cleanup();
+            assertFalse(file.exists());
+        } finally {
+            workspace.delete();
+        }
+    }
+}
@@ -44,4 +44,12 @@ public class RegexSecurityCheckTest {
         int result = checker.check(cppFile, kwFile);
         assertEquals(-5, result);
     }
+    //system, in memory
+    @Test
+    public void testDangerousSystemCallInMemory() throws Exception {
+        File kwFile = TestFileUtils.createTempDefaultKeywordFile();
+
+        assertEquals(-5, checker.check("int main() { system(\"ls\"); return 0; }".getBytes(), kwFile));
+        assertEquals(0, checker.check("int main() { return 0; }".getBytes(), kwFile));
+    }
 }
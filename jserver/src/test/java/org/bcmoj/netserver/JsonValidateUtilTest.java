@@ -1,5 +1,7 @@
 package org.bcmoj.netserver;
 
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.bcmoj.config.ProblemConfig;
 import org.bcmoj.utils.JsonValidateUtil;
 import org.junit.Before;
 import org.junit.Test;
@@ -104,4 +106,49 @@ public class JsonValidateUtilTest {
         assertFalse("Expected validation to fail due to schema violation", result);
         assertNotNull("Expected error result", validator.getLastErrorJson());
     }
+
+    @Test
+    public void testReadBuildsProblemConfig() throws Exception {
+        String json = """
+            {
+              "time_limit": 1000,
+              "mem_limit": 256,
+              "enable_security_check": false,
+              "compare_mode": 2,
+              "checkpoints": {
+                "2": {"in": "3 4", "out": "7"},
+                "1": {"in": "1 2", "out": "3"}
+              }
+            }
+            """;
+
+        ProblemConfig config = validator.read(new ObjectMapper().readTree(json), false);
+        assertNotNull(config);
+        assertEquals(1000, config.getTimeLimit());
+        assertEquals(2, config.getCompareMode());
+        assertEquals(2, config.getCheckpointCount());
+        assertEquals("1 2", config.getCheckpoint(1).getInput());
+        assertEquals("7", config.getCheckpoint(2).getExpectedOutput());
+        assertFalse(config.isStoredProblem());
+    }
+
+    @Test
+    public void testReadRejectsGapsInCheckpointNumbers() throws Exception {
+        String json = """
+            {
+              "timeLimit": 1000,
+              "memLimit": 256,
+              "securityCheck": false,
+              "checkpoints": {
+                "1_in": "i",
+                "1_out": "o",
+                "3_in": "i",
+                "3_out": "o"
+              }
+            }
+            """;
+
+        assertNull(validator.read(new ObjectMapper().readTree(json), true));
+        assertNotNull(validator.getLastErrorJson());
+    }
 }
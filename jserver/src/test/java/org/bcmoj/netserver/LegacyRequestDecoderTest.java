@@ -0,0 +1,144 @@
+package org.bcmoj.netserver;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.embedded.EmbeddedChannel;
+import io.netty.handler.codec.DecoderException;
+import org.bcmoj.config.SpilledConfig;
+import org.bcmoj.utils.FileHashUtil;
+import org.bcmoj.utils.FileUtil;
+import org.bcmoj.utils.StreamingConfigParser;
+import org.junit.Test;
+
+import java.io.File;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.zip.CRC32C;
+
+import static org.junit.Assert.*;
+
+public class LegacyRequestDecoderTest {
+
+    @Test
+    public void testCleanupDeletesTempFile() throws Exception {
+        LegacyRequestDecoder decoder = new LegacyRequestDecoder(0);
+        File tmp = File.createTempFile("test", ".txt");
+        assertTrue(tmp.exists());
+        Field f = LegacyRequestDecoder.class.getDeclaredField("tempFile");
+        f.setAccessible(true);
+        f.set(decoder, tmp);
+        Method m = LegacyRequestDecoder.class.getDeclaredMethod("cleanup");
+        m.setAccessible(true);
+        m.invoke(decoder);
+        assertFalse(tmp.exists());
+    }
+
+    @Test
+    public void testChannelRead_invalidFilenameLength() throws Exception {
+        ByteBuf buf = Unpooled.buffer();
+        buf.writeInt(-114514);
+
+        EmbeddedChannel channel = new EmbeddedChannel(new LegacyRequestDecoder(0));
+        try {
+            channel.writeInbound(buf);
+            fail("Expected IOException");
+        } catch (DecoderException e) {
+            Throwable cause = e.getCause();
+            assertTrue("Exception was not an IOException or subtype: " + cause.getClass().getName(), cause instanceof java.io.IOException);
+            assertTrue("Exception message did not contain 'Invalid filename length'", cause.getMessage().contains("Invalid filename length"));
+        }
+    }
+
+    @Test
+    public void testDecodesRequestSplitAcrossReads_inMemory() throws Exception {
+        JudgeRequest request = decodeSplit(1024, true);
+        assertTrue(request.getSource().isInMemory());
+    }
+
+    @Test
+    public void testDecodesRequestSplitAcrossReads_toFile() throws Exception {
+        JudgeRequest request = decodeSplit(0, true);
+        assertFalse(request.getSource().isInMemory());
+    }
+
+    @Test
+    public void testHashesOnlySourceByDefault() throws Exception {
+        decodeSplit(1024, false);
+    }
+
+    @Test
+    public void testSpillsStreamedConfigBeforePassingRequestOn() throws Exception {
+        File workspace = Files.createTempDirectory("spill-test").toFile();
+        byte[] json = "{\"checkpoints\":{\"1\":{\"in\":\"1 2\\n\",\"out\":\"3\"}}}".getBytes(StandardCharsets.UTF_8);
+        ByteBuf whole = Unpooled.buffer();
+        whole.writeInt(5).writeBytes("a.cpp".getBytes(StandardCharsets.UTF_8));
+        whole.writeLong(1).writeByte(' ');
+        whole.writeInt(json.length).writeBytes(json);
+        whole.writeInt(0);
+
+        EmbeddedChannel channel = new EmbeddedChannel(new LegacyRequestDecoder(1024, new StreamingConfigParser.Factory(1, workspace, false, null), false));
+        channel.writeInbound(whole);
+        JudgeRequest request = null;
+        long deadline = System.currentTimeMillis() + 5000;
+        while (request == null && System.currentTimeMillis() < deadline) {
+            channel.runPendingTasks();
+            request = channel.readInbound();
+        }
+        assertNotNull(request);
+        try {
+            File spilled = request.getSpilledConfig().getSpilledValues().get(SpilledConfig.key("1", "in", false));
+            assertEquals("1 2\n", Files.readString(spilled.toPath()));
+        } finally {
+            request.cleanup();
+            channel.finishAndReleaseAll();
+            FileUtil.deleteRecursively(workspace);
+        }
+    }
+
+    private JudgeRequest decodeSplit(int inMemorySourceLimit, boolean extendedDigests) throws Exception {
+        byte[] source = "int main(){return 0;}".getBytes(StandardCharsets.UTF_8);
+        String json = "{\"note\":\"多字节\"}";
+        byte[] jsonBytes = json.getBytes(StandardCharsets.UTF_8);
+        ByteBuf whole = Unpooled.buffer();
+        whole.writeInt(5).writeBytes("a.cpp".getBytes(StandardCharsets.UTF_8));
+        whole.writeLong(source.length).writeBytes(source);
+        whole.writeInt(jsonBytes.length).writeBytes(jsonBytes);
+        whole.writeInt(0);
+
+        EmbeddedChannel channel = new EmbeddedChannel(new LegacyRequestDecoder(inMemorySourceLimit, null, extendedDigests));
+        while (whole.isReadable()) {
+            channel.writeInbound(whole.readRetainedSlice(Math.min(3, whole.readableBytes())));
+        }
+        whole.release();
+
+        JudgeRequest request = null;
+        long deadline = System.currentTimeMillis() + 5000;
+        while (request == null && System.currentTimeMillis() < deadline) {
+            channel.runPendingTasks();
+            request = channel.readInbound();
+        }
+        assertNotNull(request);
+        try {
+            assertEquals(json, request.getJsonConfig());
+            assertNull(request.getDeclaredHash());
+            byte[] sourceAndJson = new byte[source.length + jsonBytes.length];
+            System.arraycopy(source, 0, sourceAndJson, 0, source.length);
+            System.arraycopy(jsonBytes, 0, sourceAndJson, source.length, jsonBytes.length);
+            CRC32C crc = new CRC32C();
+            crc.update(source);
+            assertTrue(request.getDigest().matches(FileHashUtil.calculateSHA256(source).toUpperCase()));
+            assertEquals(extendedDigests, request.getDigest().matches("sha256+config:" + FileHashUtil.calculateSHA256(sourceAndJson)));
+            assertEquals(extendedDigests, request.getDigest().matches(String.format("crc32c:%08x", crc.getValue())));
+            assertEquals(extendedDigests, request.getDigest().covers("crc32c:00000000"));
+            assertFalse(request.getDigest().matches("sha256+config:" + FileHashUtil.calculateSHA256(source)));
+            assertFalse(request.getDigest().matches("md5:" + FileHashUtil.calculateSHA256(source)));
+            assertArrayEquals(source, Files.readAllBytes(request.getSource().materialize(new File(System.getProperty("java.io.tmpdir"))).toPath()));
+        } finally {
+            request.cleanup();
+            channel.finishAndReleaseAll();
+        }
+        return request;
+    }
+}
@@ -0,0 +1,131 @@
+package org.bcmoj.netserver;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.embedded.EmbeddedChannel;
+import org.bcmoj.config.SpilledConfig;
+import org.bcmoj.utils.FileHashUtil;
+import org.bcmoj.utils.FileUtil;
+import org.bcmoj.utils.StreamingConfigParser;
+import org.junit.Test;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+
+import static org.junit.Assert.*;
+
+public class MultiplexedFrameHandlerTest {
+
+    private static final byte[] SOURCE = "int main(){return 0;}".getBytes(StandardCharsets.UTF_8);
+
+    @Test
+    public void testStreamsConfigFromParts() throws Exception {
+        File workspace = Files.createTempDirectory("spill-test").toFile();
+        String input = "1 2\n".repeat(1000);
+        byte[] json = ("{\"checkpoints\":{\"1\":{\"in\":\"" + input.replace("\n", "\\n") + "\",\"out\":\"3\"}}}").getBytes(StandardCharsets.UTF_8);
+        EmbeddedChannel channel = handshake(new MultiplexedFrameHandler(1024, new StreamingConfigParser.Factory(1, workspace, false, null)));
+        JudgeRequest request = null;
+        try {
+            channel.writeInbound(submitStream(7, json.length, "sha256+config:" + FileHashUtil.calculateSHA256(concat(SOURCE, json))));
+            for (int offset = 0; offset < json.length; offset += 100) {
+                assertNull(channel.readInbound());
+                channel.writeInbound(frame(FrameType.CONFIG_PART, 7, Unpooled.wrappedBuffer(json, offset, Math.min(100, json.length - offset))));
+            }
+            request = awaitRequest(channel);
+            assertEquals(7, request.getRequestId());
+            assertTrue(request.getDigest().matches(request.getDeclaredHash()));
+            File spilled = request.getSpilledConfig().getSpilledValues().get(SpilledConfig.key("1", "in", false));
+            assertEquals(input, Files.readString(spilled.toPath()));
+        } finally {
+            if (request != null) {
+                request.cleanup();
+            }
+            channel.finishAndReleaseAll();
+            FileUtil.deleteRecursively(workspace);
+        }
+    }
+
+    @Test
+    public void testBuffersConfigBelowSpillThreshold() throws Exception {
+        String json = "{\"note\":\"多字节\"}";
+        byte[] jsonBytes = json.getBytes(StandardCharsets.UTF_8);
+        EmbeddedChannel channel = handshake(new MultiplexedFrameHandler(1024));
+        channel.writeInbound(submitStream(1, jsonBytes.length, ""));
+        channel.writeInbound(frame(FrameType.CONFIG_PART, 1, Unpooled.wrappedBuffer(jsonBytes, 0, 5)));
+        channel.writeInbound(frame(FrameType.CONFIG_PART, 1, Unpooled.wrappedBuffer(jsonBytes, 5, jsonBytes.length - 5)));
+        JudgeRequest request = awaitRequest(channel);
+        try {
+            assertEquals(json, request.getJsonConfig());
+            assertNull(request.getDigest());
+        } finally {
+            request.cleanup();
+            channel.finishAndReleaseAll();
+        }
+    }
+
+    @Test
+    public void testRejectsUnexpectedConfigParts() throws Exception {
+        EmbeddedChannel channel = handshake(new MultiplexedFrameHandler(1024));
+        channel.writeInbound(frame(FrameType.CONFIG_PART, 3, Unpooled.wrappedBuffer(new byte[]{'{'})));
+        JudgeResponse response = channel.readOutbound();
+        assertEquals(FrameType.ERROR, response.getType());
+        assertTrue(response.getPayload().contains("CONFIG_PART without SUBMIT_STREAM"));
+
+        channel.writeInbound(submitStream(3, 2, ""));
+        channel.writeInbound(frame(FrameType.CONFIG_PART, 3, Unpooled.wrappedBuffer("{}}".getBytes(StandardCharsets.UTF_8))));
+        response = channel.readOutbound();
+        assertEquals(FrameType.ERROR, response.getType());
+        assertTrue(response.getPayload().contains("longer than announced"));
+        assertNull(channel.readInbound());
+
+        channel.writeInbound(submitStream(4, ProtocolV2.MAX_FRAME_LENGTH + 1L, ""));
+        response = channel.readOutbound();
+        assertEquals(FrameType.ERROR, response.getType());
+        assertTrue(response.getPayload().contains("Invalid JSON length"));
+        channel.finishAndReleaseAll();
+    }
+
+    private static EmbeddedChannel handshake(MultiplexedFrameHandler handler) {
+        EmbeddedChannel channel = new EmbeddedChannel(handler);
+        channel.writeInbound(frame(FrameType.HELLO, 0, Unpooled.buffer().writeShort(ProtocolV2.VERSION)));
+        ByteBuf reply = channel.readOutbound();
+        reply.release();
+        return channel;
+    }
+
+    private static ByteBuf submitStream(long requestId, long configLength, String hash) {
+        byte[] hashBytes = hash.getBytes(StandardCharsets.UTF_8);
+        ByteBuf payload = Unpooled.buffer();
+        payload.writeInt(5).writeBytes("a.cpp".getBytes(StandardCharsets.UTF_8));
+        payload.writeInt(SOURCE.length).writeBytes(SOURCE);
+        payload.writeLong(configLength);
+        payload.writeInt(hashBytes.length).writeBytes(hashBytes);
+        return frame(FrameType.SUBMIT_STREAM, requestId, payload);
+    }
+
+    private static ByteBuf frame(FrameType type, long requestId, ByteBuf payload) {
+        ByteBuf frame = Unpooled.buffer();
+        frame.writeByte(type.getCode()).writeLong(requestId).writeBytes(payload);
+        payload.release();
+        return frame;
+    }
+
+    private static JudgeRequest awaitRequest(EmbeddedChannel channel) {
+        JudgeRequest request = null;
+        long deadline = System.currentTimeMillis() + 5000;
+        while (request == null && System.currentTimeMillis() < deadline) {
+            channel.runPendingTasks();
+            request = channel.readInbound();
+        }
+        assertNotNull(request);
+        return request;
+    }
+
+    private static byte[] concat(byte[] first, byte[] second) {
+        byte[] both = new byte[first.length + second.length];
+        System.arraycopy(first, 0, both, 0, first.length);
+        System.arraycopy(second, 0, both, first.length, second.length);
+        return both;
+    }
+}
@@ -1,9 +1,18 @@
 package org.bcmoj.netserver;
 
-import io.netty.buffer.Unpooled;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
 import io.netty.channel.ChannelHandlerContext;
 import io.netty.channel.embedded.EmbeddedChannel;
 import org.bcmoj.config.ServerConfig;
+import org.bcmoj.cache.CheckpointDataCache;
+import org.bcmoj.cache.VerdictCache;
+import org.bcmoj.judgeserver.SubmissionSource;
+import org.bcmoj.scheduler.AdmissionController;
+import org.bcmoj.scheduler.CheckpointScheduler;
+import org.bcmoj.scheduler.JudgePriority;
+import org.bcmoj.scheduler.JudgeTaskScheduler;
+import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
@@ -11,6 +20,7 @@ import org.mockito.Mock;
 
 import java.io.File;
 import java.lang.reflect.Method;
+import java.nio.file.Files;
 
 import static org.junit.Assert.*;
 import static org.mockito.Mockito.when;
@@ -21,54 +31,43 @@ public class RequestProcessorTest {
     @Mock
     private ChannelHandlerContext ctx;
     private RequestProcessor processor;
+    private SubmissionJudge judge;
     private ServerConfig mockConfig;
+    private JudgeTaskScheduler scheduler;
+    private CheckpointScheduler checkpointScheduler;
 
     @Before
     public void setUp() {
         mockConfig = ServerConfig.builder().host("localhost").port(8080).keywordFilePath("kw.txt").compilerPath("g++").cppStandard("c++17").disableSecurityArgs(false).disableMemLimit(true).useOldFormat(true).build();
-        processor = new RequestProcessor(mockConfig);
+        scheduler = new JudgeTaskScheduler(1, 1);
+        checkpointScheduler = new CheckpointScheduler(1);
+        judge = new SubmissionJudge(mockConfig, null, checkpointScheduler, new CheckpointDataCache(0), new VerdictCache(0, 1), null, null, null);
+        processor = new RequestProcessor(mockConfig, scheduler, new AdmissionController(scheduler, 0), judge, null);
     }
 
-    @Test
-    public void testGetFileExtension() throws Exception {
-        Method m = RequestProcessor.class.getDeclaredMethod("getFileExtension", String.class);
-        m.setAccessible(true);
-        assertEquals(".cpp", m.invoke(null, "1.cpp"));
-        assertEquals("", m.invoke(null, "fuckyou"));
-        assertEquals(".gz", m.invoke(null, "shit.tar.gz"));
+    @After
+    public void tearDown() {
+        scheduler.shutdown(1000);
+        checkpointScheduler.shutdown();
     }
 
     @Test
-    public void testParseCheckpointCount_validJson() throws Exception {
-        String json = "{ \"checkpoints\": [\"a.in\", \"b.in\"] }";
-        Method m = RequestProcessor.class.getDeclaredMethod("parseCheckpointCount", String.class);
+    public void testCountCheckpoints_validJson() throws Exception {
+        JsonNode json = new ObjectMapper().readTree("{ \"checkpoints\": [\"a.in\", \"b.in\"] }");
+        Method m = SubmissionJudge.class.getDeclaredMethod("countCheckpoints", JsonNode.class);
         m.setAccessible(true);
-        int count = (int) m.invoke(processor, json);
+        int count = (int) m.invoke(judge, json);
         assertTrue(count >= 1);
     }
 
     @Test
-    public void testParseCheckpointCount_invalidJson() throws Exception {
-        String json = "1";
-        Method m = RequestProcessor.class.getDeclaredMethod("parseCheckpointCount", String.class);
+    public void testCountCheckpoints_invalidJson() throws Exception {
+        Method m = SubmissionJudge.class.getDeclaredMethod("countCheckpoints", JsonNode.class);
         m.setAccessible(true);
-        int count = (int) m.invoke(processor, json);
+        int count = (int) m.invoke(judge, (JsonNode) null); // what parseConfig returns for invalid JSON
         assertEquals(1, count); //fallback
     }
 
-    @Test
-    public void testCleanupDeletesTempFile() throws Exception {
-        File tmp = File.createTempFile("test", ".txt");
-        assertTrue(tmp.exists());
-        java.lang.reflect.Field f = RequestProcessor.class.getDeclaredField("tempFile");
-        f.setAccessible(true);
-        f.set(processor, tmp);
-        Method m = RequestProcessor.class.getDeclaredMethod("cleanup");
-        m.setAccessible(true);
-        m.invoke(processor);
-        assertFalse(tmp.exists());
-    }
-
     @Test
     public void testChannelActiveAndInactive() throws Exception {
         EmbeddedChannel channel = new EmbeddedChannel();
@@ -78,16 +77,53 @@ public class RequestProcessorTest {
     }
 
     @Test
-    public void testChannelRead_invalidFilenameLength() throws Exception {
-        io.netty.buffer.ByteBuf buf = Unpooled.buffer();
-        buf.writeInt(-114514);
+    public void testDisconnectDropsQueuedAndStopsRunningSubmissions() throws Exception {
+        VerdictCache verdictCache = new VerdictCache(16, 60_000);
+        SubmissionJudge cachingJudge = new SubmissionJudge(mockConfig, null, checkpointScheduler, new CheckpointDataCache(0), verdictCache, null, null, null);
+        EmbeddedChannel channel = new EmbeddedChannel(new RequestProcessor(mockConfig, scheduler, new AdmissionController(scheduler, 0), cachingJudge, null));
+        String config = "{\"timeLimit\":20000,\"memLimit\":65536,\"securityCheck\":false,\"enableO2\":false,\"compareMode\":1,\"checkpoints\":{\"1_in\":\"\",\"1_out\":\"0\"}}";
+        File running = sourceFile("int main(){for(;;){}}");
+        File queued = sourceFile("int main(){return 0;}");
+        channel.writeInbound(new JudgeRequest(1, SubmissionSource.ofFile("a.cpp", running), config, null, null, false));
+        channel.writeInbound(new JudgeRequest(2, SubmissionSource.ofFile("b.cpp", queued), config, null, null, false));
+
+        long deadline = System.currentTimeMillis() + 30_000;
+        while (checkpointScheduler.getActiveBatchCount() == 0 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(20); // wait until the first submission has compiled and runs its checkpoint
+        }
+        assertEquals(1, checkpointScheduler.getActiveBatchCount());
+        assertEquals(1, scheduler.getQueuedCount());
+        Thread.sleep(200);
 
-        try {
-            processor.channelRead(ctx, buf);
-            fail("Expected IOException");
-        } catch (Exception e) {
-            assertTrue("Exception was not an IOException or subtype: " + e.getClass().getName(), e instanceof java.io.IOException);
-            assertTrue("Exception message did not contain 'Invalid filename length'", e.getMessage().contains("Invalid filename length"));
+        channel.close();
+        assertFalse("queued submission was not dropped", queued.exists());
+        assertEquals(0, scheduler.getQueuedCount());
+        deadline = System.currentTimeMillis() + 5_000;
+        while ((scheduler.getRunningCount() > 0 || running.exists()) && System.currentTimeMillis() < deadline) {
+            Thread.sleep(20);
         }
+        assertEquals("running submission was not interrupted", 0, scheduler.getRunningCount());
+        assertFalse(running.exists());
+        assertEquals(0, checkpointScheduler.getActiveBatchCount());
+        channel.runPendingTasks();
+        assertNull(channel.readOutbound());
+        assertEquals(0, verdictCache.size());
+    }
+
+    @Test
+    public void testParsePriority_cappedByServerPolicy() throws Exception {
+        ServerConfig capped = mockConfig.toBuilder().maxPriority("practice").build();
+        RequestProcessor tcpProcessor = new RequestProcessor(capped, scheduler, new AdmissionController(scheduler, 0), judge, null);
+        Method m = RequestProcessor.class.getDeclaredMethod("parsePriority", String.class);
+        m.setAccessible(true);
+        assertEquals(JudgePriority.PRACTICE, m.invoke(tcpProcessor, "contest"));
+        assertEquals(JudgePriority.REJUDGE, m.invoke(tcpProcessor, "rejudge"));
+        assertEquals(JudgePriority.CONTEST, m.invoke(processor, "contest"));
+    }
+
+    private static File sourceFile(String code) throws Exception {
+        File file = File.createTempFile("cancel", ".cpp");
+        Files.writeString(file.toPath(), code);
+        return file;
     }
-}
\ No newline at end of file
+}
@@ -8,30 +8,48 @@ import org.junit.Test;
 import java.io.DataInputStream;
 import java.io.DataOutputStream;
 import java.net.Socket;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.channels.Channels;
+import java.nio.channels.SocketChannel;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
 
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
 
 public class SocketServerTest {
 
     private SocketServer server;
     private Thread serverThread;
     private static final String HOST = "127.0.0.1";
-    private static final int PORT = 11451;
+    private static int nextPort = 11451; // the previous server releases its port asynchronously
+    private int port;
+    private Path socketPath;
     private static final String KEYWORD_FILE_PATH = "src/test/resources/keywords.txt";
 
     @Before
     public void startServer() throws InterruptedException {
+        port = nextPort++;
+        socketPath = Path.of(System.getProperty("java.io.tmpdir"), "bcmoj-test-" + port + ".sock");
         // --- Refactored: Create ServerConfiguration using the Builder ---
         ServerConfig config = ServerConfig.builder()
                 .host(HOST)
-                .port(PORT)
+                .port(port)
                 .disableSecurityArgs(false) // corresponds to the third argument in old constructor
                 .disableMemLimit(true)      // corresponds to the fourth argument
                 .useOldFormat(true)         // corresponds to the fifth argument
                 .keywordFilePath(KEYWORD_FILE_PATH) // corresponds to the sixth argument
                 .compilerPath("g++")        // corresponds to the seventh argument
                 .cppStandard("c++11")       // corresponds to the eighth argument
+                .unixSocketPath(socketPath.toString())
                 .build(); // Finalize the config object
 
         // --- Refactored: Pass the config object to the new constructor ---
@@ -63,7 +81,7 @@ public class SocketServerTest {
 
     @Test
     public void testClientConnection() throws Exception {
-        try (Socket socket = new Socket(HOST, PORT);
+        try (Socket socket = new Socket(HOST, port);
              DataOutputStream dos = new DataOutputStream(socket.getOutputStream());
              DataInputStream dis = new DataInputStream(socket.getInputStream())) {
 
@@ -93,4 +111,120 @@ public class SocketServerTest {
             assertFalse(response.isEmpty());
         }
     }
-}
\ No newline at end of file
+
+    @Test
+    public void testUnixDomainSocket() throws Exception {
+        assertEquals("rw-rw----", PosixFilePermissions.toString(Files.getPosixFilePermissions(socketPath)));
+        try (SocketChannel channel = SocketChannel.open(StandardProtocolFamily.UNIX)) {
+            channel.connect(UnixDomainSocketAddress.of(socketPath));
+            DataOutputStream dos = new DataOutputStream(Channels.newOutputStream(channel));
+            DataInputStream dis = new DataInputStream(Channels.newInputStream(channel));
+            String jsonConfig = "{\"timeLimit\":1000,\"memLimit\":256,\"securityCheck\":false,\"enableO2\":false,\"compareMode\":1,\"checkpoints\":{\"1_in\":\"\",\"1_out\":\"\"}}";
+            byte[] filenameBytes = "uds.cpp".getBytes(StandardCharsets.UTF_8);
+            byte[] fileContent = "int main(){return 0;}".getBytes(StandardCharsets.UTF_8);
+            byte[] jsonBytes = jsonConfig.getBytes(StandardCharsets.UTF_8);
+            dos.writeInt(filenameBytes.length);
+            dos.write(filenameBytes);
+            dos.writeLong(fileContent.length);
+            dos.write(fileContent);
+            dos.writeInt(jsonBytes.length);
+            dos.write(jsonBytes);
+            dos.writeInt(0);
+            dos.flush();
+
+            byte[] respBytes = new byte[dis.readInt()];
+            dis.readFully(respBytes);
+            assertTrue(new String(respBytes, StandardCharsets.UTF_8).contains("_res"));
+        }
+    }
+
+    @Test
+    public void testStreamingResponse() throws Exception {
+        try (Socket socket = new Socket(HOST, port);
+             DataOutputStream dos = new DataOutputStream(socket.getOutputStream());
+             DataInputStream dis = new DataInputStream(socket.getInputStream())) {
+
+            String jsonConfig = "{\"timeLimit\":1000,\"memLimit\":256,\"securityCheck\":false,\"stream\":true,\"checkpoints\":{\"1_in\":\"\",\"1_out\":\"\",\"2_in\":\"\",\"2_out\":\"x\"}}";
+            byte[] filenameBytes = "s.cpp".getBytes(StandardCharsets.UTF_8);
+            byte[] fileContent = "int main(){return 0;}".getBytes(StandardCharsets.UTF_8);
+            byte[] jsonBytes = jsonConfig.getBytes(StandardCharsets.UTF_8);
+            dos.writeInt(filenameBytes.length);
+            dos.write(filenameBytes);
+            dos.writeLong(fileContent.length);
+            dos.write(fileContent);
+            dos.writeInt(jsonBytes.length);
+            dos.write(jsonBytes);
+            dos.writeInt(0);
+            dos.flush();
+
+            List<String> frames = new ArrayList<>();
+            int len;
+            while ((len = dis.readInt()) > 0) {
+                byte[] frame = new byte[len];
+                dis.readFully(frame);
+                frames.add(new String(frame, StandardCharsets.UTF_8));
+            }
+            assertEquals(4, frames.size());
+            assertTrue(frames.get(0).contains("\"compiling\""));
+            assertTrue(frames.get(1).contains("_res"));
+            assertTrue(frames.get(2).contains("_res"));
+            assertTrue(frames.get(3).contains("\"finished\""));
+            assertEquals(-1, dis.read());
+        }
+    }
+
+    @Test
+    public void testProtocolV2PipelinedSubmissions() throws Exception {
+        try (Socket socket = new Socket(HOST, port);
+             DataOutputStream dos = new DataOutputStream(socket.getOutputStream());
+             DataInputStream dis = new DataInputStream(socket.getInputStream())) {
+
+            dos.writeInt(ProtocolV2.MAGIC);
+            dos.writeInt(ProtocolV2.FRAME_HEADER_LENGTH + 2);
+            dos.writeByte(FrameType.HELLO.getCode());
+            dos.writeLong(0L);
+            dos.writeShort(ProtocolV2.VERSION);
+            dos.flush();
+
+            dis.readInt();
+            assertEquals(FrameType.HELLO.getCode(), dis.readByte());
+            dis.readLong();
+            assertEquals(ProtocolV2.VERSION, dis.readShort());
+            dis.readInt();
+            dis.readInt();
+
+            String jsonConfig = "{\"timeLimit\":1000,\"memLimit\":256,\"securityCheck\":false,\"enableO2\":false,\"compareMode\":1,\"checkpoints\":{\"1_in\":\"\",\"1_out\":\"\"}}";
+            writeSubmit(dos, 7L, "a.cpp", "int main(){return 0;}", jsonConfig);
+            writeSubmit(dos, 8L, "b.cpp", "int main(){return 0;}", jsonConfig);
+            dos.flush();
+
+            Set<Long> answered = new HashSet<>();
+            for (int i = 0; i < 2; i++) {
+                int len = dis.readInt();
+                assertEquals(FrameType.RESULT.getCode(), dis.readByte());
+                answered.add(dis.readLong());
+                byte[] payload = new byte[len - ProtocolV2.FRAME_HEADER_LENGTH];
+                dis.readFully(payload);
+                assertFalse(new String(payload, StandardCharsets.UTF_8).isEmpty());
+            }
+            assertEquals(Set.of(7L, 8L), answered);
+        }
+    }
+
+    private static void writeSubmit(DataOutputStream dos, long requestId, String filename, String source, String jsonConfig) throws Exception {
+        byte[] filenameBytes = filename.getBytes(StandardCharsets.UTF_8);
+        byte[] sourceBytes = source.getBytes(StandardCharsets.UTF_8);
+        byte[] jsonBytes = jsonConfig.getBytes(StandardCharsets.UTF_8);
+        int payloadLength = 4 + filenameBytes.length + 4 + sourceBytes.length + 4 + jsonBytes.length + 4;
+        dos.writeInt(ProtocolV2.FRAME_HEADER_LENGTH + payloadLength);
+        dos.writeByte(FrameType.SUBMIT.getCode());
+        dos.writeLong(requestId);
+        dos.writeInt(filenameBytes.length);
+        dos.write(filenameBytes);
+        dos.writeInt(sourceBytes.length);
+        dos.write(sourceBytes);
+        dos.writeInt(jsonBytes.length);
+        dos.write(jsonBytes);
+        dos.writeInt(0);
+    }
+}
@@ -0,0 +1,61 @@
+package org.bcmoj.netserver;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+public class TicketJournalTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private static TicketJournal.Accepted accepted(String ticket) {
+        return new TicketJournal.Accepted(ticket, 1L, "a.cpp", "practice", "{\"timeLimit\":1000}", null, Map.of(), List.of());
+    }
+
+    @Test
+    public void testReplaySeparatesPendingAndFinished() throws Exception {
+        File dir = folder.newFolder();
+        try (TicketJournal journal = new TicketJournal(dir)) {
+            journal.load();
+            journal.appendAccepted(accepted("t1"));
+            journal.appendAccepted(accepted("t2"));
+            journal.appendFinished(new TicketJournal.Finished("t1", 2L, "done", "{\"status\":1}"));
+        }
+        try (TicketJournal journal = new TicketJournal(dir)) {
+            TicketJournal.Contents contents = journal.load();
+            assertEquals(List.of("t2"), List.copyOf(contents.pending.keySet()));
+            assertEquals("{\"timeLimit\":1000}", contents.pending.get("t2").config);
+            assertEquals("{\"status\":1}", contents.finished.get("t1").result);
+            assertEquals(3, journal.getRecordCount());
+        }
+    }
+
+    @Test
+    public void testRewriteCompactsAndSkipsTruncatedRecord() throws Exception {
+        File dir = folder.newFolder();
+        try (TicketJournal journal = new TicketJournal(dir)) {
+            journal.load();
+            journal.appendAccepted(accepted("t1"));
+            journal.appendFinished(new TicketJournal.Finished("t1", 2L, "done", "{}"));
+            journal.appendAccepted(accepted("t2"));
+            journal.rewrite(List.of(accepted("t2")), List.of());
+            assertEquals(1, journal.getRecordCount());
+        }
+        Files.write(new File(dir, TicketJournal.LOG_FILE).toPath(), "{\"op\":\"accept\",\"tic".getBytes(StandardCharsets.UTF_8), StandardOpenOption.APPEND);
+        try (TicketJournal journal = new TicketJournal(dir)) {
+            TicketJournal.Contents contents = journal.load();
+            assertEquals(List.of("t2"), List.copyOf(contents.pending.keySet()));
+            assertTrue(contents.finished.isEmpty());
+        }
+    }
+}
@@ -0,0 +1,105 @@
+package org.bcmoj.problem;
+
+import org.bcmoj.utils.FileUtil;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import static org.junit.Assert.*;
+
+public class ProblemRepositoryTest {
+
+    private Path workDir;
+    private ProblemRepository repository;
+
+    @Before
+    public void setUp() throws IOException {
+        workDir = Files.createTempDirectory("problem_repo_test_");
+        repository = new ProblemRepository(workDir.resolve("problems").toFile());
+    }
+
+    @After
+    public void tearDown() {
+        FileUtil.deleteRecursively(workDir.toFile());
+    }
+
+    @Test
+    public void testImportsDirectoryAndFindsLatestVersion() throws Exception {
+        repository.importPackage(packageDir("v1", "1001", 1));
+        repository.importPackage(packageZip("1001", 2));
+
+        ProblemPackage latest = repository.find("1001", null).orElseThrow();
+        assertEquals(2, latest.getVersion());
+        assertEquals(2, latest.getCheckpointCount());
+        assertEquals("1 2\n", Files.readString(latest.getInput(1).toPath()));
+        assertEquals("7\n", Files.readString(latest.getExpectedOutput(2).toPath()));
+        assertEquals(1, repository.find("1001", 1).orElseThrow().getVersion());
+        assertTrue(repository.find("1001", 3).isEmpty());
+        assertTrue(repository.find("../problems", null).isEmpty());
+    }
+
+    @Test
+    public void testRejectsExistingVersion() throws Exception {
+        repository.importPackage(packageDir("first", "1002", 1));
+        IOException e = assertThrows(IOException.class, () -> repository.importPackage(packageDir("second", "1002", 1)));
+        assertTrue(e.getMessage().contains("already exists"));
+        assertEquals(1, repository.latestVersion("1002"));
+        assertEquals(1, new File(repository.getRoot(), "1002").list().length);
+        assertEquals(1, repository.getRoot().list().length); // no staging directory left behind
+    }
+
+    @Test
+    public void testRejectsFilesOutsideThePackage() throws Exception {
+        File dir = packageDir("escape", "1003", 1);
+        Files.writeString(dir.toPath().resolve(ProblemPackage.INDEX_FILE), "{\"problem_id\":\"1003\",\"version\":1,\"checkpoints\":[{\"in\":\"../secret\",\"out\":\"1.out\"}]}");
+        assertThrows(IOException.class, () -> repository.importPackage(dir));
+        assertEquals(0, repository.latestVersion("1003"));
+
+        File zip = workDir.resolve("slip.zip").toFile();
+        try (ZipOutputStream out = new ZipOutputStream(Files.newOutputStream(zip.toPath()))) {
+            writeEntry(out, "../evil.in", "x");
+        }
+        assertThrows(IOException.class, () -> repository.importPackage(zip));
+        assertFalse(Files.exists(workDir.resolve("evil.in")));
+    }
+
+    private File packageDir(String name, String problemId, int version) throws IOException {
+        Path dir = Files.createDirectories(workDir.resolve(name));
+        Files.writeString(dir.resolve(ProblemPackage.INDEX_FILE), index(problemId, version));
+        Files.writeString(dir.resolve("1.in"), "1 2\n");
+        Files.writeString(dir.resolve("1.out"), "3\n");
+        Files.writeString(dir.resolve("2.in"), "3 4\n");
+        Files.writeString(dir.resolve("2.out"), "7\n");
+        return dir.toFile();
+    }
+
+    private File packageZip(String problemId, int version) throws IOException {
+        File zip = workDir.resolve(problemId + "-" + version + ".zip").toFile();
+        try (ZipOutputStream out = new ZipOutputStream(Files.newOutputStream(zip.toPath()))) {
+            writeEntry(out, ProblemPackage.INDEX_FILE, index(problemId, version));
+            writeEntry(out, "1.in", "1 2\n");
+            writeEntry(out, "1.out", "3\n");
+            writeEntry(out, "2.in", "3 4\n");
+            writeEntry(out, "2.out", "7\n");
+        }
+        return zip;
+    }
+
+    private static String index(String problemId, int version) {
+        return "{\"problem_id\":\"" + problemId + "\",\"version\":" + version + ",\"checkpoints\":[{\"in\":\"1.in\",\"out\":\"1.out\"},{\"in\":\"2.in\",\"out\":\"2.out\"}]}";
+    }
+
+    private static void writeEntry(ZipOutputStream out, String name, String content) throws IOException {
+        out.putNextEntry(new ZipEntry(name));
+        out.write(content.getBytes(StandardCharsets.UTF_8));
+        out.closeEntry();
+    }
+}
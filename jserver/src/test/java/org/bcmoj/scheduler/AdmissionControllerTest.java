@@ -0,0 +1,77 @@
+package org.bcmoj.scheduler;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class AdmissionControllerTest {
+
+    private JudgeTaskScheduler scheduler;
+    private final CountDownLatch started = new CountDownLatch(1);
+    private final CountDownLatch release = new CountDownLatch(1);
+
+    @Before
+    public void setUp() {
+        scheduler = new JudgeTaskScheduler(1, 2);
+    }
+
+    @After
+    public void tearDown() {
+        release.countDown();
+        scheduler.shutdown(1000);
+    }
+
+    private void occupyWorker() throws InterruptedException {
+        scheduler.submit(() -> {
+            started.countDown();
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+        assertTrue(started.await(1, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void testAdmitsWhenIdle() {
+        AdmissionController.Decision decision = new AdmissionController(scheduler, 500).check(JudgePriority.PRACTICE);
+        assertTrue(decision.isAdmitted());
+        assertEquals(0, decision.getEstimatedWaitMs());
+        assertEquals(0, decision.getRetryAfterMs());
+    }
+
+    @Test
+    public void testRejectsWhenQueueIsFull() throws Exception {
+        AdmissionController controller = new AdmissionController(scheduler, 0);
+        occupyWorker();
+        assertTrue(controller.check(JudgePriority.PRACTICE).isAdmitted());
+        scheduler.submit(() -> { });
+        scheduler.submit(() -> { });
+
+        AdmissionController.Decision decision = controller.check(JudgePriority.PRACTICE);
+        assertFalse(decision.isAdmitted());
+        assertEquals("queue full", decision.getReason());
+        assertEquals(2, decision.getQueued());
+        assertEquals(1, decision.getRunning());
+        assertTrue(decision.getRetryAfterMs() >= AdmissionController.MIN_RETRY_AFTER_MS);
+        assertTrue(decision.getRetryAfterMs() <= AdmissionController.MAX_RETRY_AFTER_MS);
+    }
+
+    @Test
+    public void testRejectsWhenEstimatedWaitExceedsLimit() throws Exception {
+        AdmissionController controller = new AdmissionController(scheduler, 500);
+        occupyWorker();
+
+        AdmissionController.Decision decision = controller.check(JudgePriority.PRACTICE);
+        assertFalse(decision.isAdmitted());
+        assertEquals("estimated wait too long", decision.getReason());
+        assertTrue(decision.getEstimatedWaitMs() > 500);
+        assertEquals(decision.getEstimatedWaitMs() - 500, decision.getRetryAfterMs());
+    }
+}
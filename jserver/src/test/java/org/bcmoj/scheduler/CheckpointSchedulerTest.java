@@ -0,0 +1,132 @@
+package org.bcmoj.scheduler;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class CheckpointSchedulerTest {
+
+    private CheckpointScheduler scheduler;
+
+    @Before
+    public void setUp() {
+        scheduler = new CheckpointScheduler(2);
+    }
+
+    @After
+    public void tearDown() {
+        scheduler.shutdown();
+    }
+
+    @Test
+    public void testRunsAllCheckpointsOfABatch() throws Exception {
+        try (CheckpointScheduler.Batch<Integer> batch = scheduler.newBatch("single")) {
+            List<Future<Integer>> futures = new ArrayList<>();
+            for (int i = 0; i < 5; i++) {
+                int value = i;
+                futures.add(batch.submit(() -> value * value));
+            }
+            for (int i = 0; i < 5; i++) {
+                assertEquals(Integer.valueOf(i * i), futures.get(i).get(1, TimeUnit.SECONDS));
+            }
+        }
+        assertEquals(0, scheduler.getActiveBatchCount());
+    }
+
+    @Test
+    public void testInterleavesConcurrentBatches() throws Exception {
+        List<String> startOrder = Collections.synchronizedList(new ArrayList<>());
+        try (CheckpointScheduler.Batch<Void> big = scheduler.newBatch("big");
+             CheckpointScheduler.Batch<Void> small = scheduler.newBatch("small")) {
+            List<Future<Void>> futures = new ArrayList<>();
+            for (int i = 0; i < 6; i++) {
+                futures.add(big.submit(() -> { startOrder.add("big"); Thread.sleep(50); return null; }));
+            }
+            for (int i = 0; i < 2; i++) {
+                futures.add(small.submit(() -> { startOrder.add("small"); Thread.sleep(50); return null; }));
+            }
+            for (Future<Void> future : futures) {
+                future.get(5, TimeUnit.SECONDS);
+            }
+        }
+        assertTrue("small batch waited for the whole big batch: " + startOrder, startOrder.indexOf("small") <= 3);
+    }
+
+    @Test
+    public void testCancelInterruptsRunningAndDropsPendingCheckpoints() throws Exception {
+        CountDownLatch started = new CountDownLatch(2);
+        CountDownLatch interrupted = new CountDownLatch(2);
+        CheckpointScheduler.Batch<Integer> batch = scheduler.newBatch("cancelled");
+        List<Future<Integer>> futures = new ArrayList<>();
+        for (int i = 0; i < 4; i++) {
+            futures.add(batch.submit(() -> {
+                started.countDown();
+                try {
+                    Thread.sleep(10_000);
+                } catch (InterruptedException e) {
+                    interrupted.countDown();
+                }
+                return 0;
+            }));
+        }
+        assertTrue(started.await(1, TimeUnit.SECONDS));
+        batch.cancel();
+
+        assertTrue(interrupted.await(1, TimeUnit.SECONDS));
+        for (Future<Integer> future : futures) {
+            assertThrows(CancellationException.class, future::get);
+        }
+        assertThrows(RejectedExecutionException.class, () -> batch.submit(() -> 1));
+        try (CheckpointScheduler.Batch<Integer> next = scheduler.newBatch("next")) {
+            assertEquals(Integer.valueOf(1), next.submit(() -> 1).get(1, TimeUnit.SECONDS));
+        }
+    }
+
+    @Test
+    public void testClosedBatchRejectsWork() {
+        CheckpointScheduler.Batch<Integer> batch = scheduler.newBatch("closed");
+        batch.close();
+        assertThrows(RejectedExecutionException.class, () -> batch.submit(() -> 1));
+    }
+
+    @Test
+    public void testIsolatedSlotsEachOwnOneCpu() throws Exception {
+        CheckpointScheduler isolated = new CheckpointScheduler(4, Set.of(2, 3), true);
+        try (CheckpointScheduler.Batch<Set<Integer>> batch = isolated.newBatch("isolated")) {
+            assertEquals(2, isolated.getSlots());
+            assertTrue(isolated.isIsolated());
+            CountDownLatch bothRunning = new CountDownLatch(2);
+            List<Future<Set<Integer>>> futures = new ArrayList<>();
+            for (int i = 0; i < 2; i++) {
+                futures.add(batch.submit(() -> {
+                    bothRunning.countDown();
+                    assertTrue(bothRunning.await(1, TimeUnit.SECONDS));
+                    return isolated.currentCpus();
+                }));
+            }
+            Set<Integer> used = new TreeSet<>();
+            for (Future<Set<Integer>> future : futures) {
+                Set<Integer> cpus = future.get(2, TimeUnit.SECONDS);
+                assertEquals(1, cpus.size());
+                used.addAll(cpus);
+            }
+            assertEquals(Set.of(2, 3), used);
+            assertEquals(Set.of(2, 3), isolated.currentCpus());
+        } finally {
+            isolated.shutdown();
+        }
+    }
+}
@@ -0,0 +1,48 @@
+package org.bcmoj.scheduler;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+public class CompileSchedulerTest {
+
+    @Test
+    public void testLimitsConcurrentCompilations() throws Exception {
+        CompileScheduler scheduler = new CompileScheduler(2, Set.of(1, 0));
+        AtomicInteger running = new AtomicInteger();
+        AtomicInteger maxRunning = new AtomicInteger();
+        ExecutorService workers = Executors.newFixedThreadPool(5);
+        try {
+            List<Future<Integer>> futures = new ArrayList<>();
+            for (int i = 0; i < 5; i++) {
+                int value = i;
+                futures.add(workers.submit(() -> scheduler.execute(() -> {
+                    maxRunning.accumulateAndGet(running.incrementAndGet(), Math::max);
+                    Thread.sleep(50);
+                    running.decrementAndGet();
+                    return value;
+                })));
+            }
+            for (int i = 0; i < 5; i++) {
+                assertEquals(Integer.valueOf(i), futures.get(i).get(5, TimeUnit.SECONDS));
+            }
+        } finally {
+            workers.shutdownNow();
+        }
+        assertEquals(2, maxRunning.get());
+        assertEquals(5, scheduler.getCompletedCount());
+        assertEquals(0, scheduler.getQueuedCount());
+        assertTrue(scheduler.getBusyMillis() >= 250);
+        assertTrue(scheduler.getAverageWaitMillis() > 0);
+        assertEquals(List.of(0, 1), List.copyOf(scheduler.getCpus()));
+    }
+}
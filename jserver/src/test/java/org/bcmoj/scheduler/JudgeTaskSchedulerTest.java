@@ -0,0 +1,135 @@
+package org.bcmoj.scheduler;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class JudgeTaskSchedulerTest {
+
+    private JudgeTaskScheduler scheduler;
+    private final CountDownLatch release = new CountDownLatch(1);
+
+    @Before
+    public void setUp() {
+        scheduler = new JudgeTaskScheduler(1, 1);
+    }
+
+    @After
+    public void tearDown() {
+        release.countDown();
+        scheduler.shutdown(1000);
+    }
+
+    @Test
+    public void testRejectsWhenQueueIsFull() throws Exception {
+        CountDownLatch started = new CountDownLatch(1);
+        scheduler.submit(() -> {
+            started.countDown();
+            awaitRelease();
+        });
+        assertTrue(started.await(1, TimeUnit.SECONDS));
+        scheduler.submit(this::awaitRelease);
+        assertEquals(1, scheduler.getRunningCount());
+        assertEquals(1, scheduler.getQueuedCount());
+        assertThrows(RejectedExecutionException.class, () -> scheduler.submit(this::awaitRelease));
+    }
+
+    @Test
+    public void testCancelledTaskLeavesQueue() throws Exception {
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch interrupted = new CountDownLatch(1);
+        Future<?> running = scheduler.submit(() -> {
+            started.countDown();
+            awaitRelease();
+            if (Thread.currentThread().isInterrupted()) {
+                interrupted.countDown();
+            }
+        });
+        assertTrue(started.await(1, TimeUnit.SECONDS));
+        Future<?> queued = scheduler.submit(() -> fail("cancelled task ran"));
+        assertTrue(queued.cancel(true));
+        assertEquals(0, scheduler.getQueuedCount());
+        Future<?> next = scheduler.submit(() -> { }); // the freed queue slot is usable again
+
+        assertTrue(running.cancel(true));
+        assertTrue(interrupted.await(1, TimeUnit.SECONDS));
+        next.get(1, TimeUnit.SECONDS);
+    }
+
+    @Test
+    public void testShutdownRejectsNewTasks() {
+        scheduler.shutdown(1000);
+        assertThrows(RejectedExecutionException.class, () -> scheduler.submit(() -> { }));
+    }
+
+    @Test
+    public void testServesHigherPriorityFirst() throws Exception {
+        JudgeTaskScheduler prioritized = new JudgeTaskScheduler(1, 4, 60_000);
+        try {
+            List<JudgePriority> order = Collections.synchronizedList(new ArrayList<>());
+            List<Future<?>> futures = submitBehindBlocker(prioritized, order, JudgePriority.REJUDGE, JudgePriority.PRACTICE, JudgePriority.CONTEST);
+            assertEquals(1, prioritized.getQueuedCount(JudgePriority.CONTEST));
+            assertEquals(1, prioritized.getQueuedCount(JudgePriority.REJUDGE));
+            assertEquals(1, prioritized.getQueuedAhead(JudgePriority.CONTEST));
+            release.countDown();
+            for (Future<?> future : futures) {
+                future.get(1, TimeUnit.SECONDS);
+            }
+            assertEquals(List.of(JudgePriority.CONTEST, JudgePriority.PRACTICE, JudgePriority.REJUDGE), order);
+            assertEquals(0, prioritized.getQueuedCount(JudgePriority.REJUDGE));
+        } finally {
+            prioritized.shutdown(1000);
+        }
+    }
+
+    @Test
+    public void testAgingPreventsStarvation() throws Exception {
+        JudgeTaskScheduler prioritized = new JudgeTaskScheduler(1, 4, 50);
+        try {
+            List<JudgePriority> order = Collections.synchronizedList(new ArrayList<>());
+            List<Future<?>> futures = submitBehindBlocker(prioritized, order, JudgePriority.REJUDGE);
+            Thread.sleep(150);
+            futures.add(prioritized.submit(() -> order.add(JudgePriority.CONTEST), JudgePriority.CONTEST));
+            release.countDown();
+            for (Future<?> future : futures) {
+                future.get(1, TimeUnit.SECONDS);
+            }
+            assertEquals(List.of(JudgePriority.REJUDGE, JudgePriority.CONTEST), order);
+            assertTrue(prioritized.getAverageWaitMillis(JudgePriority.REJUDGE) > 0);
+        } finally {
+            prioritized.shutdown(1000);
+        }
+    }
+
+    private List<Future<?>> submitBehindBlocker(JudgeTaskScheduler target, List<JudgePriority> order, JudgePriority... priorities) throws InterruptedException {
+        CountDownLatch started = new CountDownLatch(1);
+        List<Future<?>> futures = new ArrayList<>();
+        futures.add(target.submit(() -> {
+            started.countDown();
+            awaitRelease();
+        }));
+        assertTrue(started.await(1, TimeUnit.SECONDS));
+        for (JudgePriority priority : priorities) {
+            futures.add(target.submit(() -> order.add(priority), priority));
+        }
+        return futures;
+    }
+
+    private void awaitRelease() {
+        try {
+            release.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
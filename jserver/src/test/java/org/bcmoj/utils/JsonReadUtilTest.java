@@ -0,0 +1,26 @@
+package org.bcmoj.utils;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+public class JsonReadUtilTest {
+
+    @Test
+    public void testReadSchedulingFields_skipsOtherValues() {
+        String json = "{\"checkpoints\":{\"1\":{\"in\":\"" + "1 ".repeat(100_000) + "\",\"out\":\"x\"}},\"nested\":{\"priority\":\"rejudge\"},\"priority\":\"contest\",\"async\":true}";
+        JsonReadUtil.SchedulingFields fields = JsonReadUtil.readSchedulingFields(json);
+        assertEquals("contest", fields.priority);
+        assertTrue(fields.async);
+    }
+
+    @Test
+    public void testReadSchedulingFields_defaults() {
+        assertNull(JsonReadUtil.readSchedulingFields("{\"time_limit\":1000}").priority);
+        assertFalse(JsonReadUtil.readSchedulingFields("{\"async\":\"no\"}").async);
+        assertTrue(JsonReadUtil.readSchedulingFields("{\"async\":1}").async);
+        JsonReadUtil.SchedulingFields truncated = JsonReadUtil.readSchedulingFields("{\"priority\":\"contest\",\"async\":true");
+        assertNull(truncated.priority);
+        assertFalse(truncated.async);
+        assertNull(JsonReadUtil.readSchedulingFields((String) null).priority);
+    }
+}
@@ -0,0 +1,94 @@
+package org.bcmoj.utils;
+
+import org.bcmoj.cache.CheckpointDataCache;
+import org.bcmoj.config.ProblemConfig;
+import org.bcmoj.config.SpilledConfig;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class StreamingConfigParserTest {
+
+    private Path workDir;
+
+    @Before
+    public void setUp() throws IOException {
+        workDir = Files.createTempDirectory("streaming_config_test_");
+    }
+
+    @After
+    public void tearDown() {
+        FileUtil.deleteRecursively(workDir.toFile());
+    }
+
+    @Test
+    public void testSpillsCheckpointDataFedByteByByte() throws Exception {
+        String json = "{\"time_limit\":1000,\"mem_limit\":65536,\"enable_security_check\":false,\"enable_o2\":false,\"compare_mode\":1,"
+                + "\"checkpoints\":{\"1\":{\"in\":\"1 2\\\\n\",\"out\":\"3 é\\\\t中\"},\"2\":{\"in\":\"a\\\\\\\\b\",\"out\":\"\"}}}";
+        StreamingConfigParser parser = new StreamingConfigParser(workDir.resolve("spill").toFile(), false, null);
+        for (byte b : json.getBytes(StandardCharsets.UTF_8)) {
+            parser.feed(ByteBuffer.wrap(new byte[]{b}));
+        }
+        SpilledConfig config = parser.finish();
+
+        assertNotNull(config.getRoot());
+        assertEquals(1000, config.getRoot().get("time_limit").asInt());
+        assertEquals("", config.getRoot().path("checkpoints").path("1").path("in").asText());
+        assertEquals("1 2\n", read(config.getSpilledValues().get("1/in")));
+        assertEquals("3 é\t中", read(config.getSpilledValues().get("1/out")));
+        assertEquals("a\\b", read(config.getSpilledValues().get("2/in")));
+        assertEquals("", read(config.getSpilledValues().get("2/out")));
+
+        ProblemConfig problemConfig = new JsonValidateUtil().read(config.getRoot(), false, config.getSpilledValues());
+        assertNotNull(problemConfig);
+        assertEquals(2, problemConfig.getCheckpointCount());
+        assertTrue(problemConfig.getCheckpoint(1).isSpilled());
+        assertEquals(config.getSpilledValues().get("2/out"), problemConfig.getCheckpoint(2).getExpectedOutputFile());
+
+        config.cleanup();
+        assertFalse(config.getSpillDir().exists());
+    }
+
+    @Test
+    public void testResolvesReferencesFromCacheInOldFormat() throws Exception {
+        CheckpointDataCache cache = new CheckpointDataCache(1024);
+        String digest = cache.put("cached\\n");
+        String missing = "ab".repeat(32);
+        String json = "{\"timeLimit\":1000,\"memLimit\":65536,\"securityCheck\":false,\"enableO2\":false,"
+                + "\"checkpoints\":{\"1_in_ref\":\"" + digest + "\",\"1_out\":\"x\",\"2_in\":\"y\",\"2_out_ref\":\"" + missing + "\"}}";
+        StreamingConfigParser parser = new StreamingConfigParser(workDir.resolve("spill").toFile(), true, cache);
+        parser.feed(ByteBuffer.wrap(json.getBytes(StandardCharsets.UTF_8)));
+        SpilledConfig config = parser.finish();
+
+        assertEquals("cached\n", read(config.getSpilledValues().get("1_in")));
+        assertEquals("", config.getRoot().path("checkpoints").path("1_in").asText());
+        assertFalse(config.getRoot().path("checkpoints").has("1_in_ref"));
+        assertEquals(List.of(missing), config.getMissingRefs());
+    }
+
+    @Test
+    public void testMalformedJsonHasNoRoot() throws Exception {
+        StreamingConfigParser parser = new StreamingConfigParser(workDir.resolve("spill").toFile(), false, null);
+        parser.feed(ByteBuffer.wrap("{\"checkpoints\":{\"1\":{\"in\":\"1\"".getBytes(StandardCharsets.UTF_8)));
+        assertNull(parser.finish().getRoot());
+
+        StreamingConfigParser aborted = new StreamingConfigParser(workDir.resolve("aborted").toFile(), false, null);
+        aborted.feed(ByteBuffer.wrap("{\"checkpoints\":{\"1\":{\"in\":\"1\"}".getBytes(StandardCharsets.UTF_8)));
+        aborted.abort();
+        assertFalse(new File(workDir.toFile(), "aborted").exists());
+    }
+
+    private static String read(File file) throws IOException {
+        return Files.readString(file.toPath(), StandardCharsets.UTF_8);
+    }
+}
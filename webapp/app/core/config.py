@@ -57,8 +57,9 @@ class ConfigManager:
         judge_config = add_comments({
             'enable_code_security_check': False,
             'judge_host': 'localhost',
-            'judge_port': 12345
-        })
+            'judge_port': 12345,
+            'judge_socket': ''
+        }, {'judge_socket': 'Unix domain socket of a JudgeServer on the same host; overrides judge_host/judge_port when set'})
         add_section_header(judge_config, section_comment("Judge Configuration") + "# Refer to: https://github.com/SleepingCui/BCMOJ/wiki/%E9%85%8D%E7%BD%AE    ")
         config['judge_config'] = judge_config
 
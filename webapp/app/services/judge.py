@@ -14,6 +14,7 @@ config = get_config()
 
 SERVER_HOST = config['judge_config']['judge_host']
 SERVER_PORT = config['judge_config']['judge_port']
+SERVER_SOCKET = config['judge_config'].get('judge_socket') or None
 ENABLE_SECURITY_CHECK = config['judge_config']['enable_code_security_check']
 USERDATA_PATH = Path(config['app_settings']['userdata_folder'])
 
@@ -33,6 +34,7 @@ R_RE = 4     # Runtime Error
 R_SE = 5     # System Error
 R_CE = -4     # Compile Error
 R_SC_FAILED = -5  # Security Check Failed
+R_CRE = -6    # Compile Resource Exceeded
 R_UNKNOWN = 0     # Unknown error code
 
 # JSON keys for new format
@@ -42,13 +44,28 @@ K_NEW_RES = "res"
 K_NEW_TIME = "time"
 K_NEW_MEM = "mem"
 
+# Returned when the server does not have cached checkpoint data the request referred to
+NEED_DATA = object()
+
 
 class JudgeServerClient:
 
-    def __init__(self, host, port, timeout=30):
+    def __init__(self, host, port, timeout=30, socket_path=None):
         self.host = host
         self.port = port
         self.timeout = timeout
+        self.socket_path = socket_path
+
+    def judge(self, file_path: Path, config: dict, file_hash: str = ""):
+        """
+        Send checkpoints by SHA-256 reference first and resend them inline only if the
+        server has not cached them yet.
+        """
+        results = self.send_code_and_config(file_path, _with_checkpoint_refs(config), file_hash)
+        if results is NEED_DATA:
+            app.logger.info("JudgeServer does not have the checkpoint data cached, sending it inline")
+            results = self.send_code_and_config(file_path, config, file_hash)
+        return None if results is NEED_DATA else results
 
     def send_code_and_config(self, file_path: Path, config: dict, file_hash: str = ""):
         """
@@ -64,10 +81,15 @@ class JudgeServerClient:
         app.logger.info(f"Sending config to JudgeServer: {json_data}")
 
         try:
-            with socket.socket(socket.AF_INET, socket.SOCK_STREAM) as sock:
+            family = socket.AF_UNIX if self.socket_path else socket.AF_INET
+            with socket.socket(family, socket.SOCK_STREAM) as sock:
                 sock.settimeout(self.timeout)
-                app.logger.info(f"Connecting to JudgeServer at {self.host}:{self.port}")
-                sock.connect((self.host, self.port))
+                if self.socket_path:
+                    app.logger.info(f"Connecting to JudgeServer at {self.socket_path}")
+                    sock.connect(self.socket_path)
+                else:
+                    app.logger.info(f"Connecting to JudgeServer at {self.host}:{self.port}")
+                    sock.connect((self.host, self.port))
                 app.logger.info("Connected to JudgeServer.")
 
                 # filename
@@ -118,6 +140,13 @@ class JudgeServerClient:
                     data = json.loads(received.decode('utf-8'))
                     app.logger.info(f"Received data chunk from JudgeServer: {data}")
 
+                    if data.get("status") == "busy":
+                        app.logger.warning(f"JudgeServer is busy, retry after {data.get('retry_after_ms')} ms")
+                        return None
+                    if data.get("status") == "need":
+                        app.logger.info(f"JudgeServer needs checkpoint data: {data.get('missing')}")
+                        return NEED_DATA
+
                     # Parse results in new format (structured checkpoints)
                     results.extend(self._parse_new_format_results(data))
 
@@ -152,6 +181,17 @@ class JudgeServerClient:
         return results
 
 
+def _with_checkpoint_refs(config):
+    """Copy of a new-format config with checkpoint data replaced by SHA-256 references"""
+    checkpoints = {}
+    for checkpoint_id, checkpoint in config["checkpoints"].items():
+        checkpoints[checkpoint_id] = {
+            "in_ref": hashlib.sha256(checkpoint["in"].encode('utf-8')).hexdigest(),
+            "out_ref": hashlib.sha256(checkpoint["out"].encode('utf-8')).hexdigest()
+        }
+    return {**config, "checkpoints": checkpoints}
+
+
 def calculate_file_sha256(file_path):
     sha256_hash = hashlib.sha256()
     with open(file_path, "rb") as f:
@@ -275,8 +315,8 @@ def submit_solution(problem_id, cpp_file):
         file_hash = calculate_file_sha256(temp_path)
         app.logger.info(f"Calculated file hash: {file_hash}")
 
-        client = JudgeServerClient(SERVER_HOST, SERVER_PORT)
-        results = client.send_code_and_config(temp_path, config_data, file_hash)
+        client = JudgeServerClient(SERVER_HOST, SERVER_PORT, socket_path=SERVER_SOCKET)
+        results = client.judge(temp_path, config_data, file_hash)
         if results is None:
             return {'error': 'Communication with JudgeServer failed'}, 500
 
@@ -1,4 +1,5 @@
 const resultMapping = {
+  "-6": "Compile Resource Exceeded",
   "-5": "Security Check Failed",
   "-4": "Compile Error",
   "-3": "Wrong Answer",
@@ -11,6 +12,7 @@ const resultMapping = {
 };
 const resultColorMapping = {
   "Accepted": "result-pass",
+  "Compile Resource Exceeded": "result-fail",
   "Security Check Failed": "result-fail",
   "Compile Error": "result-fail",
   "Wrong Answer": "result-fail",
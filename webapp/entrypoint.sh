@@ -52,6 +52,7 @@ judge_config:
   enable_code_security_check: false
   judge_host: ${JUDGE_HOST:-localhost}
   judge_port: ${JUDGE_PORT:-12345}
+  judge_socket: ${JUDGE_SOCKET:-}
 app_settings:
   secret_key: ${SECRET_KEY:-your_secret_key_here}
   upload_folder: tmp